@@ -36,6 +36,14 @@
  * On receiving retried request, an entry will be found in the
  * {@link RetryCache} and the previous response is sent back to the request.
  * <p>
+ * The entries are persisted in the database so that a call retried on
+ * another namenode finds them. By default the entry of a call is locked and
+ * written in the transaction of its operation. Without locking the first
+ * attempts, the entry of a first attempt is looked up in memory only and is
+ * written, without being read, in the transaction of its operation. It is
+ * committed together with the result of the call, so a retried call, which
+ * still locks its entry, finds it once the first attempt committed.
+ * <p>
  * To look an implementation using this cache, see HDFS FSNamesystem class.
  */
 @InterfaceAudience.Private
@@ -86,6 +94,8 @@ public byte[] getPayload() {
   }
   
 //  private LightWeightGSet<CacheEntry, CacheEntry> set;
+
+  private final boolean lockFirstAttempts;
   
   /**
    * Constructor
@@ -94,10 +104,48 @@ public byte[] getPayload() {
    * @param expirationTime time for an entry to expire in nanoseconds
    */
   public RetryCacheDistributed(String cacheName, double percentage, long expirationTime) {
+    this(cacheName, percentage, expirationTime, true);
+  }
+
+  /**
+   * Constructor
+   * @param cacheName name to identify the cache by
+   * @param percentage percentage of total java heap space used by this cache
+   * @param expirationTime time for an entry to expire in nanoseconds
+   * @param lockFirstAttempts whether the entries of the first attempts are
+   *          locked in the transaction of their operation, or only written
+   */
+  public RetryCacheDistributed(String cacheName, double percentage,
+      long expirationTime, boolean lockFirstAttempts) {
     super(cacheName, percentage, expirationTime);
     int capacity = LightWeightGSet.computeCapacity(percentage, cacheName);
     capacity = capacity > MAX_CAPACITY ? capacity : MAX_CAPACITY;
     this.set = new LightWeightCacheDistributed(capacity, capacity, expirationTime, 0);
+    this.lockFirstAttempts = lockFirstAttempts;
+    ((LightWeightCacheDistributed) set).setRemovedBySweep(!lockFirstAttempts);
+  }
+
+  private LightWeightCacheDistributed cache() {
+    return (LightWeightCacheDistributed) set;
+  }
+
+  /**
+   * @return whether the entry of the current call is a first attempt which is
+   *         not locked in the transaction of its operation
+   */
+  private boolean isUnlockedFirstAttempt() {
+    return !lockFirstAttempts && Server.getCallRetryCount() <= 0;
+  }
+
+  /**
+   * Tells whether the entry of the current call has to be locked in the
+   * transaction of its operation.
+   */
+  public static boolean isLockedInTransaction(RetryCacheDistributed cache) {
+    if (cache == null || cache.lockFirstAttempts) {
+      return true;
+    }
+    return !skipRetryCache() && !cache.isUnlockedFirstAttempt();
   }
 
   /**
@@ -119,9 +167,11 @@ public RetryCacheDistributed(String cacheName, double percentage, long expiratio
    */
   private CacheEntry waitForCompletion(CacheEntry newEntry) {
     CacheEntry mapEntry = null;
+    boolean unlocked = isUnlockedFirstAttempt();
     lock.lock();
     try {
-      mapEntry = (CacheEntry) set.get(newEntry);
+      mapEntry = unlocked ? cache().getLocal(newEntry) :
+          (CacheEntry) set.get(newEntry);
       // If an entry in the cache does not exist, add a new one
       if (mapEntry == null) {
         if (LOG.isTraceEnabled()) {
@@ -17,6 +17,7 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.DirectBufferPool;
 
 import javax.net.ssl.*;
 import java.io.*;
@@ -27,9 +28,18 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+/**
+ * The buffers of the engines are direct buffers borrowed from a pool shared
+ * by all the connections. A buffer is only held for the time of a wrap or an
+ * unwrap cycle, except the buffer of the received packets which is kept
+ * while it holds a partial packet, so an idle connection holds no buffer.
+ * The application data are wrapped straight from the buffer of the response
+ * and unwrapped straight into the buffer the RPC reader reads from.
+ */
 public abstract class RpcSSLEngineAbstr implements RpcSSLEngine {
 
     private final static Log LOG = LogFactory.getLog(RpcSSLEngineAbstr.class);
+    private final static DirectBufferPool BUFFER_POOL = new DirectBufferPool();
     protected final SocketChannel socketChannel;
     protected final SSLEngine sslEngine;
     protected final static int KB = 1024;
@@ -57,34 +67,33 @@ public abstract class RpcSSLEngineAbstr implements RpcSSLEngine {
      *          serverNet   clientNet
      *          Buffer      Buffer
      */
-    protected ByteBuffer serverAppBuffer;
-    protected ByteBuffer clientAppBuffer;
-    protected ByteBuffer serverNetBuffer;
+    // Received packets not unwrapped yet, null when there are none,
+    // guarded by this
     protected ByteBuffer clientNetBuffer;
 
     public RpcSSLEngineAbstr(SocketChannel socketChannel, SSLEngine sslEngine) {
         this.socketChannel = socketChannel;
         this.sslEngine = sslEngine;
-        //serverAppBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
-        serverAppBuffer = ByteBuffer.allocate(100 * KB);
-        //clientAppBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
-        clientAppBuffer = ByteBuffer.allocate(100 * KB);
-        //serverNetBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
-        serverNetBuffer = ByteBuffer.allocate(100 * KB);
-        //clientNetBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
-        clientNetBuffer = ByteBuffer.allocate(100 * KB);
     }
 
+    /**
+     * The buffers borrowed by the handshake are not returned if it fails,
+     * they are left to the garbage collector.
+     */
     @Override
-    public boolean doHandshake() throws IOException {
+    public synchronized boolean doHandshake() throws IOException {
         LOG.debug("Starting TLS handshake with peer");
 
         SSLEngineResult result;
         SSLEngineResult.HandshakeStatus handshakeStatus;
 
-        ByteBuffer serverAppBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
-        ByteBuffer clientAppBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
-        serverNetBuffer.clear();
+        int appBufferSize = sslEngine.getSession().getApplicationBufferSize();
+        ByteBuffer serverAppBuffer = borrowBuffer(appBufferSize);
+        ByteBuffer clientAppBuffer = borrowBuffer(appBufferSize);
+        ByteBuffer serverNetBuffer = borrowPacketBuffer();
+        if (clientNetBuffer == null) {
+            clientNetBuffer = borrowPacketBuffer();
+        }
         clientNetBuffer.clear();
 
         handshakeStatus = sslEngine.getHandshakeStatus();
@@ -94,6 +103,7 @@ public boolean doHandshake() throws IOException {
                 case NEED_UNWRAP:
                     if (socketChannel.read(clientNetBuffer) < 0) {
                         if (sslEngine.isInboundDone() && sslEngine.isOutboundDone()) {
+                            endHandshake(serverAppBuffer, clientAppBuffer, serverNetBuffer);
                             return false;
                         }
                         try {
@@ -129,6 +139,7 @@ public boolean doHandshake() throws IOException {
                             break;
                         case CLOSED:
                             if (sslEngine.isOutboundDone()) {
+                                endHandshake(serverAppBuffer, clientAppBuffer, serverNetBuffer);
                                 return false;
                             } else {
                                 sslEngine.closeOutbound();
@@ -194,13 +205,26 @@ public boolean doHandshake() throws IOException {
             }
         }
 
+        endHandshake(serverAppBuffer, clientAppBuffer, serverNetBuffer);
         return true;
     }
 
+    private void endHandshake(ByteBuffer serverAppBuffer,
+        ByteBuffer clientAppBuffer, ByteBuffer serverNetBuffer) {
+        returnBuffer(serverAppBuffer);
+        returnBuffer(clientAppBuffer);
+        returnBuffer(serverNetBuffer);
+        releaseClientNetBuffer();
+    }
+
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         sslEngine.closeOutbound();
         doHandshake();
+        if (clientNetBuffer != null) {
+            returnBuffer(clientNetBuffer);
+            clientNetBuffer = null;
+        }
         if (exec != null) {
             exec.shutdown();
         }
@@ -213,6 +237,29 @@ public abstract int read(ReadableByteChannel channel, ByteBuffer buffer, Server.
         throws IOException;
     
 
+    protected static ByteBuffer borrowBuffer(int size) {
+        return BUFFER_POOL.getBuffer(size);
+    }
+
+    protected static void returnBuffer(ByteBuffer buffer) {
+        BUFFER_POOL.returnBuffer(buffer);
+    }
+
+    protected ByteBuffer borrowPacketBuffer() {
+        return borrowBuffer(sslEngine.getSession().getPacketBufferSize());
+    }
+
+    /**
+     * Returns the buffer of the received packets to the pool unless it holds
+     * a partial packet.
+     */
+    protected void releaseClientNetBuffer() {
+        if (clientNetBuffer != null && clientNetBuffer.position() == 0) {
+            returnBuffer(clientNetBuffer);
+            clientNetBuffer = null;
+        }
+    }
+
     protected ByteBuffer enlargeApplicationBuffer(ByteBuffer buffer) {
         return enlargeBuffer(buffer, sslEngine.getSession().getApplicationBufferSize());
     }
@@ -224,21 +271,29 @@ protected ByteBuffer enlargePacketBuffer(ByteBuffer buffer) {
     protected ByteBuffer handleBufferUnderflow(ByteBuffer buffer) {
         // If there is no size issue, return the same buffer and let the
         // peer read more data
-        if (sslEngine.getSession().getPacketBufferSize() < buffer.limit()) {
+        if (sslEngine.getSession().getPacketBufferSize() <= buffer.capacity()) {
             return buffer;
         } else {
-            ByteBuffer newBuffer = enlargePacketBuffer(buffer);
+            ByteBuffer newBuffer = borrowBuffer(Math.max(
+                sslEngine.getSession().getPacketBufferSize(),
+                buffer.capacity() * 2));
             buffer.flip();
             newBuffer.put(buffer);
+            returnBuffer(buffer);
             return newBuffer;
         }
     }
 
+    /**
+     * The content of the buffer is not kept, the buffer is returned to the
+     * pool.
+     */
     private ByteBuffer enlargeBuffer(ByteBuffer buffer, int sessionProposedCapacity) {
+        returnBuffer(buffer);
         if (sessionProposedCapacity > buffer.capacity()) {
-            return ByteBuffer.allocate(sessionProposedCapacity);
+            return borrowBuffer(sessionProposedCapacity);
         } else {
-            return ByteBuffer.allocate(buffer.capacity() * 2);
+            return borrowBuffer(buffer.capacity() * 2);
         }
     }
 }
@@ -3405,10 +3405,11 @@ private int channelRead(ReadableByteChannel channel,
     int count = 0;
     if (isSSLEnabled && sslUnwrappedBuffer != null) {
 
-      while (buffer.hasRemaining() && sslUnwrappedBuffer.hasRemaining()) {
-        buffer.put(sslUnwrappedBuffer.get());
-        count++;
-      }
+      count = Math.min(buffer.remaining(), sslUnwrappedBuffer.remaining());
+      ByteBuffer unwrapped = sslUnwrappedBuffer.duplicate();
+      unwrapped.limit(unwrapped.position() + count);
+      buffer.put(unwrapped);
+      sslUnwrappedBuffer.position(unwrapped.position());
 
       if (count > -1) {
         count++;
@@ -23,7 +23,6 @@
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
@@ -32,10 +31,7 @@
 
 public class ServerRpcSSLEngineImpl extends RpcSSLEngineAbstr {
     private final Log LOG = LogFactory.getLog(ServerRpcSSLEngineImpl.class);
-    private final int KB = 1024;
-    private final int MB = 1024 * KB;
     
-    private final int MAX_BUFFER_SIZE = 5 * MB;
     private final int maxUnWrappedDataLength;
     
     public ServerRpcSSLEngineImpl(SocketChannel socketChannel, SSLEngine sslEngine, int maxUnwrappedDataLength) {
@@ -46,47 +42,49 @@ public ServerRpcSSLEngineImpl(SocketChannel socketChannel, SSLEngine sslEngine,
     @Override
     public int write(WritableByteChannel channel, ByteBuffer buffer)
             throws IOException {
-        serverAppBuffer.clear();
-        if (serverAppBuffer.capacity() < buffer.capacity()) {
-            LOG.debug("ServerAppBuffer capacity: " + serverAppBuffer.capacity()
-                + " Buffer size: " + buffer.capacity());
-            serverAppBuffer = ByteBuffer.allocate(Math.min(buffer.capacity(),
-                MAX_BUFFER_SIZE));
-        }
-        serverAppBuffer.put(buffer);
-        serverAppBuffer.flip();
-
+        ByteBuffer serverNetBuffer = borrowPacketBuffer();
         int bytesWritten = 0;
-        while (serverAppBuffer.hasRemaining()) {
-            serverNetBuffer.clear();
-            SSLEngineResult result = sslEngine.wrap(serverAppBuffer, serverNetBuffer);
-            switch (result.getStatus()) {
-                case OK:
-                    serverNetBuffer.flip();
-                    while (serverNetBuffer.hasRemaining()) {
-                        bytesWritten += channel.write(serverNetBuffer);
-                    }
-                    //return bytesWritten;
-                    break;
-                case BUFFER_OVERFLOW:
-                    serverNetBuffer = enlargePacketBuffer(serverNetBuffer);
-                    break;
-                case BUFFER_UNDERFLOW:
-                    throw new SSLException("Buffer underflow should not happen after wrap");
-                case CLOSED:
-                    sslEngine.closeOutbound();
-                    doHandshake();
-                    return -1;
-                default:
-                    throw new IllegalStateException("Invalid SSL state: " + result.getStatus());
+        try {
+            // Wrap straight from the response
+            while (buffer.hasRemaining()) {
+                serverNetBuffer.clear();
+                SSLEngineResult result = sslEngine.wrap(buffer, serverNetBuffer);
+                switch (result.getStatus()) {
+                    case OK:
+                        serverNetBuffer.flip();
+                        while (serverNetBuffer.hasRemaining()) {
+                            bytesWritten += channel.write(serverNetBuffer);
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        serverNetBuffer = enlargePacketBuffer(serverNetBuffer);
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        throw new SSLException("Buffer underflow should not happen after wrap");
+                    case CLOSED:
+                        returnBuffer(serverNetBuffer);
+                        serverNetBuffer = null;
+                        sslEngine.closeOutbound();
+                        doHandshake();
+                        return -1;
+                    default:
+                        throw new IllegalStateException("Invalid SSL state: " + result.getStatus());
+                }
+            }
+        } finally {
+            if (serverNetBuffer != null) {
+                returnBuffer(serverNetBuffer);
             }
         }
         return bytesWritten;
     }
     
     @Override
-    public int read(ReadableByteChannel channel, ByteBuffer buffer, Server.Connection connection)
+    public synchronized int read(ReadableByteChannel channel, ByteBuffer buffer, Server.Connection connection)
         throws IOException {
+        if (clientNetBuffer == null) {
+            clientNetBuffer = borrowPacketBuffer();
+        }
         int netRead = channel.read(clientNetBuffer);
         if (netRead == -1) {
             return -1;
@@ -94,49 +92,44 @@ public int read(ReadableByteChannel channel, ByteBuffer buffer, Server.Connectio
         
         int read = 0;
         SSLEngineResult unwrapResult;
-        do {
-            clientNetBuffer.flip();
-            unwrapResult = sslEngine.unwrap(clientNetBuffer, clientAppBuffer);
-            clientNetBuffer.compact();
-            
-            if (unwrapResult.getStatus().equals(SSLEngineResult.Status.OK)) {
-                read += unwrapResult.bytesProduced();
-                clientAppBuffer.flip();
-                
-                while (clientAppBuffer.hasRemaining()) {
-                    byte currentByte = clientAppBuffer.get();
-                    try {
-                        buffer.put(currentByte);
-                    } catch (BufferOverflowException ex) {
-                        if (buffer.capacity() < maxUnWrappedDataLength) {
-                            buffer = enlargeUnwrappedBuffer(buffer, currentByte);
-                            connection.setSslUnwrappedBuffer(buffer);
-                        } else {
-                            LOG.error("Buffer overflow clientAppBuffer position: " + clientAppBuffer.position() +
-                                " but buffer capacity " + buffer.capacity(), ex);
-                            throw ex;
-                        }
+        try {
+            do {
+                clientNetBuffer.flip();
+                // Unwrap straight into the buffer the reader reads from
+                unwrapResult = sslEngine.unwrap(clientNetBuffer, buffer);
+                clientNetBuffer.compact();
+
+                if (unwrapResult.getStatus().equals(SSLEngineResult.Status.OK)) {
+                    read += unwrapResult.bytesProduced();
+                } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
+                    .BUFFER_UNDERFLOW)) {
+                    read += unwrapResult.bytesProduced();
+                    clientNetBuffer = handleBufferUnderflow(clientNetBuffer);
+                    break;
+                } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
+                    .BUFFER_OVERFLOW)) {
+                    if (buffer.capacity() >= maxUnWrappedDataLength) {
+                        throw new IOException("Buffer overflow unwrapping " +
+                            clientNetBuffer.position() + " bytes but buffer " +
+                            "position " + buffer.position() + " capacity " +
+                            buffer.capacity());
                     }
+                    buffer = enlargeUnwrappedBuffer(buffer);
+                    connection.setSslUnwrappedBuffer(buffer);
+                } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
+                    .CLOSED)) {
+                    sslEngine.closeOutbound();
+                    doHandshake();
+                    read = -1;
+                    break;
+                } else {
+                    throw new IOException("SSLEngine UNWRAP invalid status: " +
+                        unwrapResult.getStatus());
                 }
-                clientAppBuffer.compact();
-            } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
-                .BUFFER_UNDERFLOW)) {
-                read += unwrapResult.bytesProduced();
-                break;
-            } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
-                .BUFFER_OVERFLOW)) {
-                clientAppBuffer = enlargeApplicationBuffer(clientAppBuffer);
-            } else if (unwrapResult.getStatus().equals(SSLEngineResult.Status
-                .CLOSED)) {
-                sslEngine.closeOutbound();
-                doHandshake();
-                read = -1;
-                break;
-            } else {
-                throw new IOException("SSLEngine UNWRAP invalid status: " +
-                    unwrapResult.getStatus());
-            }
-        } while (clientNetBuffer.position() != 0);
+            } while (clientNetBuffer.position() != 0);
+        } finally {
+            releaseClientNetBuffer();
+        }
         
         return read;
     }
@@ -147,12 +140,13 @@ public X509Certificate getClientCertificate() throws SSLPeerUnverifiedException
         return (X509Certificate) sslEngine.getSession().getPeerCertificates()[0];
     }
     
-    private ByteBuffer enlargeUnwrappedBuffer(ByteBuffer buffer, byte missedByte) {
+    private ByteBuffer enlargeUnwrappedBuffer(ByteBuffer buffer) {
+        int needed = buffer.position() +
+            sslEngine.getSession().getApplicationBufferSize();
         buffer.flip();
-        ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, maxUnWrappedDataLength));
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(
+            Math.max(buffer.capacity() * 2, needed), maxUnWrappedDataLength));
         newBuffer.put(buffer);
-        newBuffer.put(missedByte);
-        buffer = null;
         return newBuffer;
     }
 }
@@ -56,6 +56,8 @@
 public class LightWeightCacheDistributed extends LightWeightCache<CacheEntry, CacheEntry> {
   
   final private LinkedBlockingQueue<CacheEntry> toRemove = new LinkedBlockingQueue<>();
+  //evicted entries are left in the database for the expiry sweep
+  private volatile boolean removedBySweep = false;
   /**
    * Entries of {@link LightWeightCache}.
    */
@@ -96,10 +98,27 @@ public LightWeightCacheDistributed(final int recommendedLength,
   @Override
   protected CacheEntry evict() {
     CacheEntry polled= super.evict();
-    toRemove.add(polled);
+    if (!removedBySweep) {
+      toRemove.add(polled);
+    }
     return polled;
   }
 
+  /**
+   * Leaves the rows of the evicted and removed entries to the background
+   * sweep of the expired rows instead of removing them one by one.
+   */
+  public void setRemovedBySweep(boolean removedBySweep) {
+    this.removedBySweep = removedBySweep;
+  }
+
+  /**
+   * Looks the entry up in memory only.
+   */
+  public CacheEntry getLocal(CacheEntry key) {
+    return super.get(key);
+  }
+
   
   @Override
   public CacheEntry get(CacheEntry key) {
@@ -141,7 +160,7 @@ public CacheEntry put(final CacheEntry entry) {
   @Override
   public CacheEntry remove(CacheEntry key) {
     final CacheEntry removed = super.remove(key);
-    if (removed != null) {
+    if (removed != null && !removedBySweep) {
       toRemove.add(removed);
     }
     return removed;
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.security.ssl;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.ipc.ProtobufRpcEngine;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.ipc.TestRpcBase;
+import org.apache.hadoop.ipc.protobuf.TestProtos;
+import org.apache.hadoop.net.HopsSSLSocketFactory;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.envVars.EnvironmentVariablesFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the heap held by the TLS connections of an RPC server and the
+ * latency of echo calls over them. Every client has its own connection.
+ * Run it on two revisions to compare the TLS engines.
+ *
+ * Usage: TLSRPCBenchmark [-connections c1,c2,..] [-calls callsPerConnection]
+ *   [-payload payloadBytes]
+ */
+public class TLSRPCBenchmark extends Configured implements Tool {
+
+  private static final String BASE_DIR = Paths.get(System.getProperty("test.build.dir",
+      Paths.get("target", "test-dir").toString()),
+      TLSRPCBenchmark.class.getSimpleName()).toString();
+  private static final String CLIENT_NAME = "Alice";
+  private static final String PASSWORD = "password";
+
+  private int callsPerConnection = 100;
+  private int payloadBytes = 1024;
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void benchmark(final Configuration conf, int numConnections)
+      throws Exception {
+    RPC.Builder serverBuilder = TestRpcBase.newServerBuilder(conf)
+        .setNumHandlers(8)
+        .setSecretManager(null)
+        .setnumReaders(4);
+    final Server server = TestRpcBase.setupTestServer(serverBuilder);
+    final List<TestRpcBase.TestRpcService> proxies = new ArrayList<>();
+    try {
+      long heapBefore = usedHeap();
+      for (int i = 0; i < numConnections; i++) {
+        // A new UGI for every client so that they do not share a connection
+        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(CLIENT_NAME);
+        proxies.add(ugi.doAs(new PrivilegedExceptionAction<TestRpcBase.TestRpcService>() {
+          @Override
+          public TestRpcBase.TestRpcService run() throws Exception {
+            TestRpcBase.TestRpcService proxy =
+                TestRpcBase.getClient(server.getListenerAddress(), conf);
+            proxy.ping(null, TestProtos.EmptyRequestProto.newBuilder().build());
+            return proxy;
+          }
+        }));
+      }
+      long heapPerConnection = (usedHeap() - heapBefore) / numConnections;
+
+      final TestProtos.EchoRequestProto request = TestProtos.EchoRequestProto
+          .newBuilder().setMessage(new String(new char[payloadBytes])).build();
+      final AtomicLong failures = new AtomicLong();
+      Thread[] threads = new Thread[numConnections];
+      for (int i = 0; i < numConnections; i++) {
+        final TestRpcBase.TestRpcService proxy = proxies.get(i);
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < callsPerConnection; j++) {
+              try {
+                proxy.echo(null, request);
+              } catch (Exception e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+      }
+      long start = Time.monotonicNow();
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      long elapsed = Math.max(1, Time.monotonicNow() - start);
+      long calls = (long) numConnections * callsPerConnection;
+      System.out.println(String.format(
+          "connections %6d: %8d bytes of heap per connection, %8d calls " +
+              "in %6d ms, %8.3f ms per call, %d failed",
+          numConnections, heapPerConnection, calls, elapsed,
+          (double) elapsed * numConnections / calls, failures.get()));
+    } finally {
+      for (TestRpcBase.TestRpcService proxy : proxies) {
+        RPC.stopProxy(proxy);
+      }
+      server.stop();
+    }
+  }
+
+  private Configuration setupTLS() throws Exception {
+    Configuration conf = new Configuration(getConf());
+    new File(BASE_DIR).mkdirs();
+    String classPathDir = KeyStoreTestUtil.getClasspathDir(TLSRPCBenchmark.class);
+    Path sslServerConfPath = Paths.get(classPathDir,
+        TLSRPCBenchmark.class.getSimpleName() + ".ssl-server.xml");
+    RpcTLSUtils.TLSSetup tlsSetup = new RpcTLSUtils.TLSSetup.Builder()
+        .setKeyAlgorithm("RSA")
+        .setSignatureAlgorithm("SHA256withRSA")
+        .setServerKstore(Paths.get(BASE_DIR, "server.kstore.jks"))
+        .setServerTstore(Paths.get(BASE_DIR, "server.tstore.jks"))
+        .setServerStorePassword(PASSWORD)
+        .setClientKstore(Paths.get(BASE_DIR, CLIENT_NAME + HopsSSLSocketFactory.KEYSTORE_SUFFIX))
+        .setClientTstore(Paths.get(BASE_DIR, CLIENT_NAME + HopsSSLSocketFactory.TRUSTSTORE_SUFFIX))
+        .setClientStorePassword(PASSWORD)
+        .setClientPasswordLocation(Paths.get(BASE_DIR, CLIENT_NAME + HopsSSLSocketFactory.PASSWD_FILE_SUFFIX))
+        .setClientUserName(CLIENT_NAME)
+        .setSslServerConf(sslServerConfPath)
+        .build();
+    RpcTLSUtils.setupTLSMaterial(conf, tlsSetup, TLSRPCBenchmark.class);
+    conf.setBoolean(CommonConfigurationKeysPublic.HOPS_CRL_VALIDATION_ENABLED_KEY, false);
+    RPC.setProtocolEngine(conf, TestRpcBase.TestRpcService.class, ProtobufRpcEngine.class);
+
+    RpcTLSUtils.MockEnvironmentVariables envs = new RpcTLSUtils.MockEnvironmentVariables();
+    envs.setEnv(HopsSSLSocketFactory.CRYPTO_MATERIAL_ENV_VAR, BASE_DIR);
+    EnvironmentVariablesFactory.setInstance(envs);
+    return conf;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String connections = "100,1000";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-connections")) {
+        connections = args[++i];
+      } else if (args[i].equals("-calls")) {
+        callsPerConnection = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-payload")) {
+        payloadBytes = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: TLSRPCBenchmark [-connections c1,c2,..] " +
+            "[-calls callsPerConnection] [-payload payloadBytes]");
+        return -1;
+      }
+    }
+    Configuration conf = setupTLS();
+    try {
+      for (String numConnections : connections.split(",")) {
+        benchmark(conf, Integer.parseInt(numConnections.trim()));
+      }
+    } finally {
+      FileUtils.deleteDirectory(new File(BASE_DIR));
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(), new TLSRPCBenchmark(), args));
+  }
+}
@@ -40,6 +40,13 @@
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestTLSRPCServer {
   private static final String BASE_DIR = Paths.get(System.getProperty("test.build.dir",
@@ -108,6 +115,54 @@ public void testLargeResponse() throws Exception {
     Assert.assertEquals(payloadString, response.getMessage());
   }
   
+  @Test
+  public void testConcurrentConnections() throws Exception {
+    String clientName = "Bob";
+    setupTLSMaterial(clientName);
+    
+    RPC.setProtocolEngine(conf, TestRpcBase.TestRpcService.class, ProtobufRpcEngine.class);
+    
+    RpcTLSUtils.MockEnvironmentVariables envs = new RpcTLSUtils.MockEnvironmentVariables();
+    envs.setEnv(HopsSSLSocketFactory.CRYPTO_MATERIAL_ENV_VAR, BASE_DIR);
+    EnvironmentVariablesFactory.setInstance(envs);
+    
+    RPC.Builder serverBuilder = TestRpcBase.newServerBuilder(conf)
+        .setNumHandlers(4)
+        .setSecretManager(null)
+        .setnumReaders(2);
+    
+    server = TestRpcBase.setupTestServer(serverBuilder);
+    
+    // Every UGI has its own connection, the connections share the pooled
+    // buffers of the server and must not see each other's data
+    int numClients = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(numClients);
+    List<Future<Boolean>> results = new ArrayList<>(numClients);
+    for (int i = 0; i < numClients; i++) {
+      final UserGroupInformation clientUGI = UserGroupInformation.createRemoteUser(clientName);
+      final char[] payload = new char[(i + 1) * 10 * KB];
+      Arrays.fill(payload, (char) ('a' + i));
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          String payloadString = new String(payload);
+          for (int j = 0; j < 10; j++) {
+            TestProtos.EchoResponseProto response = RpcTLSUtils.makeEchoRequest(clientUGI,
+                server.getListenerAddress(), conf, payloadString);
+            if (!payloadString.equals(response.getMessage())) {
+              return false;
+            }
+          }
+          return true;
+        }
+      }));
+    }
+    executor.shutdown();
+    for (Future<Boolean> result : results) {
+      Assert.assertTrue(result.get());
+    }
+  }
+  
   private RpcTLSUtils.TLSSetup setupTLSMaterial(String clientName) throws GeneralSecurityException, IOException {
     Path serverKeystore = Paths.get(BASE_DIR, "server.kstore.jks");
     Path serverTruststore = Paths.get(BASE_DIR, "server.tstore.jks");
@@ -15,28 +15,34 @@
  */
 package io.hops.common;
 
-import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The ranges of ids leased by this namenode, handed out in order without
+ * locking: each id is taken from the range at the head of the queue with an
+ * atomic increment, a range being dropped once all its ids are taken.
+ */
 public class CountersQueue {
 
   public static class Counter {
     private final long start;
     private final long end;
-    private long current;
+    private final AtomicLong current;
 
     public Counter(long start, long end) {
       this.start = start;
       this.end = end;
-      this.current = start;
+      this.current = new AtomicLong(start);
     }
 
     public long next() {
-      return current++;
+      return current.getAndIncrement();
     }
 
     public boolean hasNext() {
-      return current < end;
+      return current.get() < end;
     }
 
     public long getEnd() {
@@ -56,40 +62,44 @@ public String toString() {
   public class EmptyCountersQueueException extends RuntimeException {
   }
   
-  private int available;
-  private Queue<Counter> queue;
+  private final AtomicLong available;
+  private final Queue<Counter> queue;
 
   public CountersQueue() {
-    queue = new ArrayDeque<>();
-    available = 0;
+    queue = new ConcurrentLinkedQueue<>();
+    available = new AtomicLong();
   }
 
-  public synchronized void addCounter(long start, long end) {
+  public void addCounter(long start, long end) {
     addCounter(new Counter(start, end));
   }
 
-  public synchronized void addCounter(Counter counter) {
+  public void addCounter(Counter counter) {
     queue.offer(counter);
-    available += counter.end - counter.start;
+    available.addAndGet(counter.end - counter.start);
   }
   
   
-  public synchronized long next() {
+  public long next() {
     Counter c = queue.peek();
     while (c != null) {
-      if (c.hasNext()) {
-        available--;
-        return c.next();
-      } else {
-        queue.remove();
-        c = queue.peek();
+      long id = c.next();
+      if (id < c.end) {
+        available.decrementAndGet();
+        return id;
       }
+      queue.remove(c);
+      c = queue.peek();
     }
     throw new EmptyCountersQueueException();
   }
   
-  public synchronized boolean has(int expectedNumOfIds) {
-    return available >= expectedNumOfIds && expectedNumOfIds != 0;
+  public boolean has(int expectedNumOfIds) {
+    return available.get() >= expectedNumOfIds && expectedNumOfIds != 0;
+  }
+
+  public long available() {
+    return available.get();
   }
 
   @Override
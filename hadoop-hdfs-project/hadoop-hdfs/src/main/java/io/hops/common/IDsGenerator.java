@@ -15,36 +15,139 @@
  */
 package io.hops.common;
 
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.util.Time;
+
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Hands out the ids of the ranges this namenode leased from the counters
+ * table. Ids are taken from the ranges without locking, the ranges are
+ * leased in the background by the {@link IDsMonitor}, which is woken up as
+ * soon as the available ids go below the threshold.
+ *
+ * The batch leased at once follows the rate at which ids are used: it is
+ * sized to last {@code targetPeriod} msec, between the configured batch size
+ * and {@code maxFactor} times the configured batch size. The threshold is
+ * the configured fraction of the batch, and never less than the ids used
+ * in two check intervals of the monitor, so that a range is leased before
+ * the available ids run out.
+ *
+ * An operation that finds no ids left waits up to {@code stallTimeout} msec
+ * for the monitor to lease a range, and counts as a stall.
+ */
 public abstract class IDsGenerator{
 
-  private int batchSize;
-  private int threshold;
-  private CountersQueue cQ;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final float thresholdFraction;
+  private final long checkInterval;
+  private final long targetPeriod;
+  private final long stallTimeout;
+  private volatile int batchSize;
+  private volatile int threshold;
+  private final CountersQueue cQ;
+  private final AtomicLong issued = new AtomicLong();
+  //guarded by this, only used by the monitor
+  private long lastIssued = 0;
+  private long lastCheck = Time.monotonicNow();
 
-  IDsGenerator(int batchSize, float threshold){
+  IDsGenerator(int batchSize, float threshold, long checkInterval,
+      long targetPeriod, int maxFactor, long stallTimeout) {
+    this.minBatchSize = batchSize;
+    this.maxBatchSize =
+        (int) Math.min(Integer.MAX_VALUE, (long) batchSize * maxFactor);
+    this.thresholdFraction = threshold;
+    this.checkInterval = checkInterval;
+    this.targetPeriod = targetPeriod;
+    this.stallTimeout = stallTimeout;
     this.batchSize = batchSize;
     this.threshold = (int)(threshold * batchSize);
     cQ = new CountersQueue();
   }
 
   public long getUniqueID() {
-    return cQ.next();
+    long id;
+    try {
+      id = cQ.next();
+    } catch (CountersQueue.EmptyCountersQueueException e) {
+      id = awaitRefill(e);
+    }
+    issued.incrementAndGet();
+    if (cQ.available() < threshold) {
+      IDsMonitor.getInstance().wakeUp();
+    }
+    return id;
+  }
+
+  private long awaitRefill(CountersQueue.EmptyCountersQueueException e) {
+    long start = Time.monotonicNow();
+    try {
+      synchronized (cQ) {
+        while (true) {
+          try {
+            return cQ.next();
+          } catch (CountersQueue.EmptyCountersQueueException again) {
+            long remaining = start + stallTimeout - Time.monotonicNow();
+            if (remaining <= 0) {
+              throw e;
+            }
+            IDsMonitor.getInstance().wakeUp();
+            try {
+              cQ.wait(remaining);
+            } catch (InterruptedException ie) {
+              Thread.currentThread().interrupt();
+              throw e;
+            }
+          }
+        }
+      }
+    } finally {
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addIdsStall(Time.monotonicNow() - start);
+      }
+    }
   }
 
   protected synchronized  boolean getMoreIdsIfNeeded()
       throws IOException {
+    adaptBatchSize();
     if (!cQ.has(threshold)) {
       cQ.addCounter(incrementCounter(batchSize));
+      synchronized (cQ) {
+        cQ.notifyAll();
+      }
       return true;
     }
     return false;
   }
 
+  private void adaptBatchSize() {
+    long now = Time.monotonicNow();
+    long elapsed = now - lastCheck;
+    if (targetPeriod <= 0 || elapsed < Math.max(1, checkInterval)) {
+      return;
+    }
+    long used = issued.get() - lastIssued;
+    lastIssued += used;
+    lastCheck = now;
+    double rate = (double) used / elapsed;
+    batchSize = (int) Math.max(minBatchSize,
+        Math.min(maxBatchSize, (long) (rate * targetPeriod)));
+    threshold = (int) Math.min(batchSize, Math.max(thresholdFraction *
+        batchSize, rate * checkInterval * 2));
+  }
+
   protected CountersQueue getCQ() {
     return cQ;
   }
 
+  int getBatchSize() {
+    return batchSize;
+  }
+
   abstract CountersQueue.Counter incrementCounter(int inc) throws IOException ;
 }
@@ -29,7 +29,8 @@ public class IDsGeneratorFactory {
 
   private class INodeIDGen extends IDsGenerator{
     INodeIDGen(int batchSize, float threshold) {
-      super(batchSize, threshold);
+      super(batchSize, threshold, checkInterval, targetPeriod, maxFactor,
+          stallTimeout);
     }
 
     @Override
@@ -40,7 +41,8 @@ CountersQueue.Counter incrementCounter(int inc) throws IOException {
 
   private class BlockIDGen extends IDsGenerator{
     BlockIDGen(int batchSize, float threshold) {
-      super(batchSize, threshold);
+      super(batchSize, threshold, checkInterval, targetPeriod, maxFactor,
+          stallTimeout);
     }
 
     @Override
@@ -51,7 +53,8 @@ CountersQueue.Counter incrementCounter(int inc) throws IOException {
 
   private class QuotaUpdateIDGen extends IDsGenerator{
     QuotaUpdateIDGen(int batchSize, float threshold) {
-      super(batchSize, threshold);
+      super(batchSize, threshold, checkInterval, targetPeriod, maxFactor,
+          stallTimeout);
     }
 
     @Override
@@ -62,7 +65,8 @@ CountersQueue.Counter incrementCounter(int inc) throws IOException {
 
   private class CacheDirectiveIDGen extends IDsGenerator{
     CacheDirectiveIDGen(int batchSize, float threshold) {
-      super(batchSize, threshold);
+      super(batchSize, threshold, checkInterval, targetPeriod, maxFactor,
+          stallTimeout);
     }
 
     @Override
@@ -84,10 +88,16 @@ public static IDsGeneratorFactory getInstance(){
 
   private List<IDsGenerator> iDsGenerators = Lists.newArrayList();
 
+  private long checkInterval;
+  private long targetPeriod;
+  private int maxFactor;
+  private long stallTimeout;
+
   Boolean isConfigured = false;
   void setConfiguration(int inodeIdsBatchSize, int blockIdsBatchSize,
       int quotaUpdateIdsBatchSize, int cacheDirectiveIdsBatchSize, float inodeIdsThreshold,
-      float blockIdsThreshold, float quotaUpdateIdsThreshold, float cacheDirectiveIdsThreshold) {
+      float blockIdsThreshold, float quotaUpdateIdsThreshold, float cacheDirectiveIdsThreshold,
+      long checkInterval, long targetPeriod, int maxFactor, long stallTimeout) {
 
     synchronized (isConfigured) {
       if (isConfigured) {
@@ -97,6 +107,10 @@ void setConfiguration(int inodeIdsBatchSize, int blockIdsBatchSize,
       }
       isConfigured = true;
     }
+    this.checkInterval = checkInterval;
+    this.targetPeriod = targetPeriod;
+    this.maxFactor = Math.max(1, maxFactor);
+    this.stallTimeout = stallTimeout;
 
     iDsGenerators.add(new INodeIDGen(inodeIdsBatchSize, inodeIdsThreshold));
     iDsGenerators.add(new BlockIDGen(blockIdsBatchSize, blockIdsThreshold));
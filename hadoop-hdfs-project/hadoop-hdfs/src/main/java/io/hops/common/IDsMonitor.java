@@ -21,12 +21,14 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class IDsMonitor implements Runnable {
 
   private static final Log LOG = LogFactory.getLog(IDsMonitor.class);
   private static IDsMonitor instance = null;
-  private Thread th = null;
+  private volatile Thread th = null;
 
   private int checkInterval;
   private IDsMonitor() {
@@ -40,6 +42,8 @@ public static IDsMonitor getInstance() {
   }
 
   public void setConfiguration(Configuration conf) {
+    checkInterval = conf.getInt(DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS,
+        DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT);
     IDsGeneratorFactory.getInstance().setConfiguration(conf.getInt
             (DFSConfigKeys.DFS_NAMENODE_INODEID_BATCH_SIZE,
                 DFSConfigKeys.DFS_NAMENODE_INODEID_BATCH_SIZE_DEFAULT),
@@ -58,11 +62,15 @@ public void setConfiguration(Configuration conf) {
             DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD,
             DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_ID_UPDATE_THRESHOLD_DEFAULT),
         conf.getFloat(DFSConfigKeys.DFS_NAMENODE_CACHE_DIRECTIVE_ID_UPDATE_THRESHOLD,
-            DFSConfigKeys.DFS_NAMENODE_CACHE_DIRECTIVE_ID_UPDATE_THRESHOLD_DEFAULT)
+            DFSConfigKeys.DFS_NAMENODE_CACHE_DIRECTIVE_ID_UPDATE_THRESHOLD_DEFAULT),
+        checkInterval,
+        conf.getLong(DFSConfigKeys.DFS_NAMENODE_IDS_BATCH_TARGET_PERIOD_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_IDS_BATCH_TARGET_PERIOD_MS_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_IDS_BATCH_MAX_FACTOR_KEY,
+            DFSConfigKeys.DFS_NAMENODE_IDS_BATCH_MAX_FACTOR_DEFAULT),
+        conf.getLong(DFSConfigKeys.DFS_NAMENODE_IDS_STALL_TIMEOUT_MS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_IDS_STALL_TIMEOUT_MS_DEFAULT)
         );
-
-    checkInterval = conf.getInt(DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS,
-        DFSConfigKeys.DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT);
   }
 
 
@@ -74,6 +82,16 @@ public void start() {
     th.start();
   }
 
+  /**
+   * Checks the ids now rather than at the end of the check interval.
+   */
+  void wakeUp() {
+    Thread monitor = th;
+    if (monitor != null) {
+      LockSupport.unpark(monitor);
+    }
+  }
+
   @Override
   public void run() {
     while (true) {
@@ -85,12 +103,11 @@ private void getNewIds() {
     try {
 
       IDsGeneratorFactory.getInstance().getNewIDs();
-
-      Thread.sleep(checkInterval);
-    } catch (InterruptedException ex) {
-      LOG.warn("IDsMonitor interrupted: " + ex);
     } catch (IOException ex) {
       LOG.warn("IDsMonitor got exception: " + ex);
     }
+    if (Thread.currentThread() == th) {
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(checkInterval));
+    }
   }
 }
@@ -24,10 +24,16 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import static io.hops.transaction.context.TransactionsStats.ResolvingCacheStat;
 
 public abstract class Cache {
@@ -38,6 +44,19 @@ public abstract class Cache {
 
   private boolean isStarted;
   private boolean isEnabled;
+  private boolean isCoherent;
+
+  private volatile InvalidationPublisher publisher;
+
+  //inodes removed or renamed by the running transaction. They are only
+  //invalidated once the transaction has committed
+  private final ThreadLocal<List<INodeIdentifier>> stagedInvalidations =
+      new ThreadLocal<List<INodeIdentifier>>() {
+        @Override
+        protected List<INodeIdentifier> initialValue() {
+          return new ArrayList<>();
+        }
+      };
 
   protected Cache() {
   }
@@ -48,10 +67,11 @@ public static Cache getInstance(Configuration conf) throws IOException {
           DFSConfigKeys.DFS_RESOLVING_CACHE_TYPE_DEFAULT).toLowerCase();
       if(memType.equals("inmemory")){
         instance = new InMemoryCache();
+      }else if(memType.equals("offheap")){
+        instance = new OffHeapCache();
       }else {
         throw new IllegalArgumentException("Cache has only two " +
-            "Memcache implementations, Inode based and Path based: wrong " +
-            "parameter " +
+            "implementations, InMemory and OffHeap: wrong parameter " +
             memType);
       }
       instance.setConfiguration(conf);
@@ -70,6 +90,9 @@ public static Cache getInstance() {
   protected void setConfiguration(Configuration conf) throws IOException {
     isEnabled = conf.getBoolean(DFSConfigKeys.DFS_RESOLVING_CACHE_ENABLED,
         DFSConfigKeys.DFS_RESOLVING_CACHE_ENABLED_DEFAULT);
+    isCoherent = conf.getBoolean(
+        DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED,
+        DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED_DEFAULT);
 
     if (isEnabled) {
       start();
@@ -79,7 +102,7 @@ protected void setConfiguration(Configuration conf) throws IOException {
 
   private void start() throws IOException {
     if (!isStarted) {
-      LOG.info("starting Resolving Cache [" + instance.getClass()
+      LOG.info("starting Resolving Cache [" + getClass()
           .getSimpleName() +"]");
       startInternal();
       isStarted = true;
@@ -88,7 +111,7 @@ private void start() throws IOException {
 
   private void stop() {
     if (isStarted) {
-      LOG.info("stopping Resolving Cache [" + instance.getClass()
+      LOG.info("stopping Resolving Cache [" + getClass()
           .getSimpleName() +"]");      stopInternal();
       isStarted = false;
     }
@@ -103,6 +126,25 @@ public void enableOrDisable(boolean forceEnable) throws IOException {
     isEnabled = forceEnable;
   }
 
+  /**
+   * In coherent mode the namenodes publish the inodes that were renamed or
+   * deleted to all the other active namenodes, see
+   * {@link InvalidationPublisher}.
+   */
+  public boolean isCoherent() {
+    return isCoherent;
+  }
+
+  public synchronized void setPublisher(InvalidationPublisher publisher) {
+    this.publisher = publisher;
+  }
+
+  public synchronized void unsetPublisher(InvalidationPublisher publisher) {
+    if (this.publisher == publisher) {
+      this.publisher = null;
+    }
+  }
+
   public final void set(final String path, final INode[] inodes){
     set(path, Arrays.asList(inodes));
   }
@@ -135,6 +177,14 @@ public final long[] get(final String path) throws IOException{
       final long startTime = System.currentTimeMillis();
       long[] result = getInternal(path);
       final long elapsed =  (System.currentTimeMillis() - startTime);
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        if (result != null) {
+          metrics.incrResolvingCacheHits();
+        } else {
+          metrics.incrResolvingCacheMisses();
+        }
+      }
       LOG.debug("GET for path (" + path + ")  got value = " + Arrays.toString
           (result) + " in " + elapsed + " " +
           "msec");
@@ -188,6 +238,86 @@ public final void flush(){
     }
   }
 
+  /**
+   * Remembers the inodes removed by the running transaction, including the
+   * old primary key of renamed inodes. Only the roots of the removed subtrees
+   * are kept as the entries of their descendants can not be reached once the
+   * root entry is gone.
+   */
+  public final void stageInvalidations(final Collection<INode> removed){
+    if(isStarted && !removed.isEmpty()){
+      Set<Long> removedIds = new HashSet<>();
+      for (INode inode : removed) {
+        removedIds.add(inode.getId());
+      }
+      List<INodeIdentifier> staged = stagedInvalidations.get();
+      for (INode inode : removed) {
+        if (!removedIds.contains(inode.getParentId())) {
+          staged.add(new INodeIdentifier(inode.getId(), inode.getParentId(),
+              inode.getLocalName(), inode.getPartitionId()));
+        }
+      }
+    }
+  }
+
+  public final void discardStagedInvalidations(){
+    stagedInvalidations.get().clear();
+  }
+
+  /**
+   * Invalidates the inodes staged by the transaction that just committed and,
+   * in coherent mode, hands them to the publisher for the other namenodes.
+   */
+  public final void commitStagedInvalidations(){
+    List<INodeIdentifier> staged = stagedInvalidations.get();
+    if (staged.isEmpty()) {
+      return;
+    }
+    List<INodeIdentifier> committed = new ArrayList<>(staged);
+    staged.clear();
+    invalidate(committed);
+    InvalidationPublisher pub = publisher;
+    if (pub != null) {
+      pub.publish(committed);
+    }
+  }
+
+  /**
+   * Sends inodes that changed without being removed, like the root, to the
+   * other namenodes. Does nothing unless the namenodes are coherent.
+   */
+  public final void publish(final List<INodeIdentifier> inodes){
+    InvalidationPublisher pub = publisher;
+    if (pub != null) {
+      pub.publish(inodes);
+    }
+  }
+
+  /**
+   * Applies the invalidations another namenode published, see
+   * {@link InvalidationPublisher}.
+   */
+  public final void receiveInvalidations(
+      final Collection<INodeIdentifier> inodes, final boolean flushAll){
+    if (flushAll) {
+      flush();
+    } else {
+      invalidate(inodes);
+    }
+  }
+
+  public final void invalidate(final Collection<INodeIdentifier> inodes){
+    if(isStarted){
+      for (INodeIdentifier inode : inodes) {
+        invalidateInternal(inode);
+      }
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrResolvingCacheInvalidations(inodes.size());
+      }
+    }
+  }
+
 
   protected abstract void startInternal() throws IOException;
   protected abstract void stopInternal();
@@ -202,6 +332,7 @@ protected abstract void setInternal(final String path, final List<INode>
   protected abstract void deleteInternal(final String path);
   protected abstract void deleteInternal(final INode inode);
   protected abstract void deleteInternal(final INodeIdentifier inode);
+  protected abstract void invalidateInternal(final INodeIdentifier inode);
   protected abstract void flushInternal();
 
   protected abstract int getRoundTrips(String path);
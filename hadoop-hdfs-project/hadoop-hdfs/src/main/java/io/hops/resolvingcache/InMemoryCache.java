@@ -120,6 +120,15 @@ protected void deleteInternal(INodeIdentifier inode) {
     inodeIdCache.remove(inode.getInodeId());
   }
   
+  @Override
+  protected void invalidateInternal(INodeIdentifier inode) {
+    //only drop the entry if it still points to the invalidated inode, a new
+    //inode might have been created with the same name in the meantime
+    pathCache.remove(INode.nameParentKey(inode.getPid(), inode.getName()),
+        inode.getInodeId());
+    inodeIdCache.remove(inode.getInodeId());
+  }
+
   @Override
   protected void flushInternal() {
     pathCache.clear();
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.hops.leader_election.node.ActiveNode;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Publishes the inodes that were renamed or deleted on this namenode to the
+ * resolving cache of all the other active namenodes.
+ *
+ * Invalidations are sent in batches every flush interval, which bounds how
+ * long a peer can keep serving a stale entry from its cache. If a peer can
+ * not be reached its invalidations are kept until the next round; once more
+ * than the maximum number of invalidations are pending for a peer it is asked
+ * to flush its whole cache instead.
+ */
+public class InvalidationPublisher {
+
+  public static final Log LOG = LogFactory.getLog(InvalidationPublisher.class);
+
+  private final NameNode namenode;
+  private final long namenodeId;
+  private final Configuration conf;
+  private final long flushInterval;
+  private final int maxPending;
+
+  private final LinkedBlockingQueue<INodeIdentifier> pending =
+      new LinkedBlockingQueue<>();
+  private final Map<Long, Peer> peers = new HashMap<>();
+
+  private volatile boolean run = false;
+  private Daemon publisher;
+
+  private static class Peer {
+    private final NamenodeProtocol proxy;
+    private final List<INodeIdentifier> backlog = new ArrayList<>();
+    private boolean flushAll = false;
+
+    Peer(NamenodeProtocol proxy) {
+      this.proxy = proxy;
+    }
+  }
+
+  public InvalidationPublisher(NameNode namenode, Configuration conf) {
+    this(namenode, namenode.getId(), conf);
+  }
+
+  @VisibleForTesting
+  InvalidationPublisher(NameNode namenode, long namenodeId,
+      Configuration conf) {
+    this.namenode = namenode;
+    this.namenodeId = namenodeId;
+    this.conf = conf;
+    this.flushInterval = conf.getLong(
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS,
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS_DEFAULT);
+    this.maxPending = conf.getInt(
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_MAX_PENDING,
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_MAX_PENDING_DEFAULT);
+  }
+
+  class Monitor implements Runnable {
+    @Override
+    public void run() {
+      while (run) {
+        try {
+          Thread.sleep(flushInterval);
+          publishPending();
+        } catch (InterruptedException e) {
+          LOG.debug("Resolving cache invalidation publisher interrupted");
+        } catch (Throwable t) {
+          LOG.warn("Failed to publish resolving cache invalidations", t);
+        }
+      }
+    }
+  }
+
+  void publish(List<INodeIdentifier> inodes) {
+    if (run) {
+      pending.addAll(inodes);
+    }
+  }
+
+  /**
+   * @return the rpc addresses of the other active namenodes by id
+   */
+  protected Map<Long, InetSocketAddress> getActivePeers() {
+    Map<Long, InetSocketAddress> active = new HashMap<>();
+    for (ActiveNode node : namenode.getActiveNameNodes().getActiveNodes()) {
+      if (node.getId() != namenodeId) {
+        active.put(node.getId(), node.getRpcServerAddressForDatanodes());
+      }
+    }
+    return active;
+  }
+
+  protected NamenodeProtocol connect(InetSocketAddress address)
+      throws IOException {
+    return NameNodeProxies.createNonHAProxy(conf, address,
+        NamenodeProtocol.class, UserGroupInformation.getCurrentUser(), false)
+        .getProxy();
+  }
+
+  protected void disconnect(NamenodeProtocol proxy) {
+    RPC.stopProxy(proxy);
+  }
+
+  private void publishPending() {
+    List<INodeIdentifier> batch = new ArrayList<>();
+    pending.drainTo(batch);
+
+    Map<Long, InetSocketAddress> active = getActivePeers();
+    for (Map.Entry<Long, InetSocketAddress> node : active.entrySet()) {
+      Peer peer = peers.get(node.getKey());
+      if (peer == null) {
+        try {
+          peer = new Peer(connect(node.getValue()));
+        } catch (IOException e) {
+          LOG.warn("Could not connect to namenode " + node.getKey() + " to " +
+              "publish resolving cache invalidations", e);
+          continue;
+        }
+        //the peer might have cached entries before we could reach it
+        peer.flushAll = true;
+        peers.put(node.getKey(), peer);
+      }
+      sendTo(node.getKey(), peer, batch);
+    }
+
+    //forget about the namenodes that are not active anymore
+    Iterator<Map.Entry<Long, Peer>> it = peers.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Long, Peer> entry = it.next();
+      if (!active.containsKey(entry.getKey())) {
+        disconnect(entry.getValue().proxy);
+        it.remove();
+      }
+    }
+  }
+
+  private void sendTo(long peerId, Peer peer, List<INodeIdentifier> batch) {
+    if (!peer.flushAll) {
+      peer.backlog.addAll(batch);
+      if (peer.backlog.size() > maxPending) {
+        peer.backlog.clear();
+        peer.flushAll = true;
+      }
+    }
+    if (peer.backlog.isEmpty() && !peer.flushAll) {
+      return;
+    }
+    try {
+      peer.proxy.invalidateResolvingCache(namenodeId, peer.backlog,
+          peer.flushAll);
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrResolvingCacheInvalidationsPublished(peer.backlog.size());
+      }
+      peer.backlog.clear();
+      peer.flushAll = false;
+    } catch (IOException e) {
+      LOG.debug("Could not publish " + peer.backlog.size() + " resolving " +
+          "cache invalidations to namenode " + peerId, e);
+    }
+  }
+
+  public void start() {
+    run = true;
+    publisher = new Daemon(new Monitor());
+    publisher.setName("ResolvingCacheInvalidationPublisher");
+    publisher.start();
+  }
+
+  public void stop() {
+    if (publisher != null) {
+      run = false;
+      try {
+        publisher.interrupt();
+        publisher.join(3000);
+      } catch (InterruptedException ie) {
+        LOG.warn("Encountered exception ", ie);
+      }
+      publisher = null;
+    }
+    for (Peer peer : peers.values()) {
+      disconnect(peer.proxy);
+    }
+    peers.clear();
+    pending.clear();
+  }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolving cache that keeps its entries in open addressing tables allocated
+ * outside of the java heap. The path table is keyed on the parent id and a
+ * 64 bit hash of the name, so no key objects are created or retained.
+ * Entries are evicted with the CLOCK algorithm.
+ *
+ * A hash collision between two names of the same directory can return the
+ * wrong inode id. This is safe as every cached path is verified against the
+ * database by {@link io.hops.transaction.lock.INodeLock}.
+ *
+ * Names longer than {@link #MAX_NAME_BYTES} are not stored in the inode id
+ * table, these inodes are always read from the database when resolved by id.
+ */
+public class OffHeapCache extends Cache {
+
+  static final int MAX_NAME_BYTES = 64;
+  private static final int SEGMENTS = 64;
+
+  private int maxSize;
+  private Table[] pathSegments;
+  private Table[] idSegments;
+
+  @Override
+  protected void setConfiguration(Configuration conf) throws IOException {
+    maxSize = conf.getInt(DFSConfigKeys.DFS_INMEMORY_CACHE_MAX_SIZE,
+        DFSConfigKeys.DFS_INMEMORY_CACHE_MAX_SIZE_DEFAULT);
+    super.setConfiguration(conf);
+  }
+
+  @Override
+  protected void startInternal() throws IOException {
+    int entriesPerSegment = Math.max(1, maxSize / SEGMENTS);
+    pathSegments = new Table[SEGMENTS];
+    idSegments = new Table[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      pathSegments[i] = new Table(entriesPerSegment, PathTable.SLOT_SIZE);
+      idSegments[i] = new Table(entriesPerSegment, IdTable.SLOT_SIZE);
+    }
+  }
+
+  @Override
+  protected void stopInternal() {
+  }
+
+  @Override
+  protected void setInternal(String path, List<INode> inodes) {
+    for (INode inode : inodes) {
+      if (inode != null) {
+        PathTable.put(pathSegment(inode.getParentId(),
+            hash(inode.getLocalName())), inode.getParentId(),
+            hash(inode.getLocalName()), inode.getId());
+        setInternal(inode);
+      }
+    }
+  }
+
+  @Override
+  protected void setInternal(INode inode) {
+    if (inode != null) {
+      IdTable.put(idSegment(inode.getId()), inode.getId(),
+          inode.getParentId(), inode.getPartitionId(),
+          inode.getLocalNameBytes());
+    }
+  }
+
+  @Override
+  protected long[] getInternal(String path) throws IOException {
+    String[] pathComponents = INode.getPathNames(path);
+    long[] inodeIds = new long[pathComponents.length];
+    long parentId = INodeDirectory.ROOT_PARENT_ID;
+    int index = 0;
+    while (index < pathComponents.length) {
+      long nameHash = hash(pathComponents[index]);
+      long inodeId = PathTable.get(pathSegment(parentId, nameHash), parentId,
+          nameHash);
+      if (inodeId == Table.NOT_FOUND) {
+        break;
+      }
+      parentId = inodeId;
+      inodeIds[index] = inodeId;
+      index++;
+    }
+
+    //only the root was found
+    if (index <= 1) {
+      return null;
+    }
+
+    return Arrays.copyOf(inodeIds, index);
+  }
+
+  @Override
+  protected INodeIdentifier getInternal(long inodeId) throws IOException {
+    return IdTable.get(idSegment(inodeId), inodeId);
+  }
+
+  @Override
+  protected void deleteInternal(String path) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  protected void deleteInternal(INode inode) {
+    long nameHash = hash(inode.getLocalName());
+    PathTable.remove(pathSegment(inode.getParentId(), nameHash),
+        inode.getParentId(), nameHash, Table.NOT_FOUND);
+    IdTable.remove(idSegment(inode.getId()), inode.getId());
+  }
+
+  @Override
+  protected void deleteInternal(INodeIdentifier inode) {
+    IdTable.remove(idSegment(inode.getInodeId()), inode.getInodeId());
+  }
+
+  @Override
+  protected void invalidateInternal(INodeIdentifier inode) {
+    long nameHash = hash(inode.getName());
+    PathTable.remove(pathSegment(inode.getPid(), nameHash), inode.getPid(),
+        nameHash, inode.getInodeId());
+    IdTable.remove(idSegment(inode.getInodeId()), inode.getInodeId());
+  }
+
+  @Override
+  protected void flushInternal() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      pathSegments[i].clear();
+      idSegments[i].clear();
+    }
+  }
+
+  @Override
+  protected int getRoundTrips(String path) {
+    return INode.getPathNames(path).length;
+  }
+
+  @Override
+  protected int getRoundTrips(List<INode> inodes) {
+    return inodes.size();
+  }
+
+  @VisibleForTesting
+  long size() {
+    long size = 0;
+    for (int i = 0; i < SEGMENTS; i++) {
+      size += pathSegments[i].size();
+    }
+    return size;
+  }
+
+  private Table pathSegment(long parentId, long nameHash) {
+    return pathSegments[(int) (Table.mix(parentId, nameHash) >>> 58)];
+  }
+
+  private Table idSegment(long inodeId) {
+    return idSegments[(int) (Table.mix(inodeId, 0) >>> 58)];
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the characters of the name.
+   */
+  static long hash(String name) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      h ^= name.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  /**
+   * parent id, name hash -> inode id
+   */
+  private static class PathTable {
+    static final int SLOT_SIZE = Table.HEADER_SIZE + 8;
+
+    static void put(Table table, long parentId, long nameHash, long inodeId) {
+      synchronized (table) {
+        int offset = table.insert(parentId, nameHash);
+        table.buffer.putLong(offset + Table.HEADER_SIZE, inodeId);
+      }
+    }
+
+    static long get(Table table, long parentId, long nameHash) {
+      synchronized (table) {
+        int offset = table.find(parentId, nameHash);
+        if (offset < 0) {
+          return Table.NOT_FOUND;
+        }
+        table.reference(offset);
+        return table.buffer.getLong(offset + Table.HEADER_SIZE);
+      }
+    }
+
+    /**
+     * remove the entry, if expectedId is set only if it maps to that inode
+     */
+    static void remove(Table table, long parentId, long nameHash,
+        long expectedId) {
+      synchronized (table) {
+        int offset = table.find(parentId, nameHash);
+        if (offset >= 0 && (expectedId == Table.NOT_FOUND ||
+            table.buffer.getLong(offset + Table.HEADER_SIZE) == expectedId)) {
+          table.remove(offset);
+        }
+      }
+    }
+  }
+
+  /**
+   * inode id -> parent id, partition id, name
+   */
+  private static class IdTable {
+    private static final int PARENT_ID = Table.HEADER_SIZE;
+    private static final int PARTITION_ID = PARENT_ID + 8;
+    private static final int NAME_LENGTH = PARTITION_ID + 8;
+    private static final int NAME = NAME_LENGTH + 4;
+    static final int SLOT_SIZE = NAME + MAX_NAME_BYTES;
+
+    static void put(Table table, long inodeId, long parentId,
+        long partitionId, byte[] name) {
+      synchronized (table) {
+        if (name.length > MAX_NAME_BYTES) {
+          int offset = table.find(inodeId, 0);
+          if (offset >= 0) {
+            table.remove(offset);
+          }
+          return;
+        }
+        int offset = table.insert(inodeId, 0);
+        ByteBuffer buffer = table.buffer;
+        buffer.putLong(offset + PARENT_ID, parentId);
+        buffer.putLong(offset + PARTITION_ID, partitionId);
+        buffer.putInt(offset + NAME_LENGTH, name.length);
+        for (int i = 0; i < name.length; i++) {
+          buffer.put(offset + NAME + i, name[i]);
+        }
+      }
+    }
+
+    static INodeIdentifier get(Table table, long inodeId) {
+      synchronized (table) {
+        int offset = table.find(inodeId, 0);
+        if (offset < 0) {
+          return null;
+        }
+        table.reference(offset);
+        ByteBuffer buffer = table.buffer;
+        byte[] name = new byte[buffer.getInt(offset + NAME_LENGTH)];
+        for (int i = 0; i < name.length; i++) {
+          name[i] = buffer.get(offset + NAME + i);
+        }
+        return new INodeIdentifier(inodeId, buffer.getLong(offset + PARENT_ID),
+            DFSUtil.bytes2String(name), buffer.getLong(offset + PARTITION_ID));
+      }
+    }
+
+    static void remove(Table table, long inodeId) {
+      synchronized (table) {
+        int offset = table.find(inodeId, 0);
+        if (offset >= 0) {
+          table.remove(offset);
+        }
+      }
+    }
+  }
+
+  /**
+   * Linear probing table stored in a direct buffer. Each slot starts with a
+   * header made of a state word and the two longs of the key, followed by the
+   * value. Deleted slots are filled by shifting the following entries back so
+   * no tombstones are needed. Callers synchronize on the table.
+   */
+  static class Table {
+    static final long NOT_FOUND = -1;
+    static final int HEADER_SIZE = 24;
+
+    private static final int STATE = 0;
+    private static final int KEY1 = 8;
+    private static final int KEY2 = 16;
+    private static final long USED = 1;
+    private static final long REFERENCED = 2;
+
+    private final ByteBuffer buffer;
+    private final int slotSize;
+    private final int capacity;
+    private final int mask;
+    private final int maxEntries;
+    private int size = 0;
+    private int clockHand = 0;
+
+    Table(int maxEntries, int slotSize) {
+      this.maxEntries = maxEntries;
+      this.slotSize = slotSize;
+      //keep the load factor under 0.75 so probes stay short and always end
+      int cap = Integer.highestOneBit(Math.max(2, maxEntries * 4 / 3 + 1));
+      if (cap <= maxEntries * 4 / 3) {
+        cap <<= 1;
+      }
+      if ((long) cap * slotSize > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Resolving cache segment of " +
+            maxEntries + " entries is too large");
+      }
+      this.capacity = cap;
+      this.mask = cap - 1;
+      this.buffer = ByteBuffer.allocateDirect(cap * slotSize);
+    }
+
+    static long mix(long k1, long k2) {
+      long h = k1 * 0x9e3779b97f4a7c15L + k2;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+
+    private int home(long k1, long k2) {
+      return (int) mix(k1, k2) & mask;
+    }
+
+    private boolean used(int slot) {
+      return (buffer.getLong(slot * slotSize + STATE) & USED) != 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * @return the offset of the slot holding the key or -1
+     */
+    int find(long k1, long k2) {
+      int slot = home(k1, k2);
+      while (used(slot)) {
+        int offset = slot * slotSize;
+        if (buffer.getLong(offset + KEY1) == k1 &&
+            buffer.getLong(offset + KEY2) == k2) {
+          return offset;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * @return the offset of the slot holding the key, evicting another entry
+     * if the table is full
+     */
+    int insert(long k1, long k2) {
+      int offset = find(k1, k2);
+      if (offset >= 0) {
+        reference(offset);
+        return offset;
+      }
+      if (size >= maxEntries) {
+        evict();
+      }
+      int slot = home(k1, k2);
+      while (used(slot)) {
+        slot = (slot + 1) & mask;
+      }
+      offset = slot * slotSize;
+      buffer.putLong(offset + STATE, USED);
+      buffer.putLong(offset + KEY1, k1);
+      buffer.putLong(offset + KEY2, k2);
+      size++;
+      return offset;
+    }
+
+    void reference(int offset) {
+      buffer.putLong(offset + STATE, USED | REFERENCED);
+    }
+
+    /**
+     * CLOCK: give referenced entries a second chance and evict the first
+     * entry that was not used since the hand last passed over it.
+     */
+    private void evict() {
+      for (int i = 0; i < 2 * capacity; i++) {
+        int slot = clockHand;
+        clockHand = (clockHand + 1) & mask;
+        int offset = slot * slotSize;
+        long state = buffer.getLong(offset + STATE);
+        if ((state & USED) == 0) {
+          continue;
+        }
+        if ((state & REFERENCED) != 0) {
+          buffer.putLong(offset + STATE, USED);
+        } else {
+          remove(offset);
+          return;
+        }
+      }
+    }
+
+    void remove(int offset) {
+      int hole = offset / slotSize;
+      int slot = (hole + 1) & mask;
+      while (used(slot)) {
+        int slotOffset = slot * slotSize;
+        int home = home(buffer.getLong(slotOffset + KEY1),
+            buffer.getLong(slotOffset + KEY2));
+        //move the entry back if its home is not between the hole and the slot
+        boolean movable = hole <= slot ?
+            (home <= hole || home > slot) : (home <= hole && home > slot);
+        if (movable) {
+          copySlot(slot, hole);
+          hole = slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      buffer.putLong(hole * slotSize + STATE, 0);
+      size--;
+    }
+
+    private void copySlot(int from, int to) {
+      int src = from * slotSize;
+      int dst = to * slotSize;
+      for (int i = 0; i < slotSize; i += 4) {
+        buffer.putInt(dst + i, buffer.getInt(src + i));
+      }
+    }
+
+    void clear() {
+      synchronized (this) {
+        for (int slot = 0; slot < capacity; slot++) {
+          buffer.putLong(slot * slotSize + STATE, 0);
+        }
+        size = 0;
+        clockHand = 0;
+      }
+    }
+  }
+}
@@ -26,6 +26,7 @@
 import io.hops.exception.TransactionContextException;
 import io.hops.metadata.common.FinderType;
 import io.hops.metadata.hdfs.dal.INodeDataAccess;
+import io.hops.resolvingcache.Cache;
 import io.hops.transaction.lock.BaseINodeLock;
 import io.hops.transaction.lock.Lock;
 import io.hops.transaction.lock.TransactionLockTypes;
@@ -163,6 +164,13 @@ public void prepare(TransactionLocks lks)
       }
     }
 
+    Cache.getInstance().stageInvalidations(removed);
+    for (INode inode : modified) {
+      if (inode.getId() == INode.ROOT_INODE_ID) {
+        RootINodeCache.stageChange();
+        break;
+      }
+    }
 
     dataAccess.prepare(removed, added, modified);
   }
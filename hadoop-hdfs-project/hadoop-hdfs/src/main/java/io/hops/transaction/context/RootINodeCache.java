@@ -1,34 +1,75 @@
 package io.hops.transaction.context;
 
-import io.hops.exception.StorageException;
 import io.hops.metadata.HdfsStorageFactory;
 import io.hops.metadata.hdfs.dal.INodeDataAccess;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import io.hops.resolvingcache.Cache;
 import io.hops.transaction.handler.HDFSOperationType;
 import io.hops.transaction.handler.LightWeightRequestHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by salman on 2016-08-21.
+ *
+ * Keeps a copy of the root inode so that path resolution does not have to
+ * read it from the database. Readers get an immutable snapshot through a
+ * volatile reference. Every change of the root bumps the requested version
+ * and wakes up the refresher thread; until the new root is loaded the
+ * snapshot is outdated and readers go to the database instead.
+ *
+ * Changes made by this namenode are noticed when the transaction commits.
+ * Changes made by the other namenodes are pushed along with their resolving
+ * cache invalidations when the resolving cache is coherent, otherwise the
+ * root is re-read every refresh interval.
  */
 public class RootINodeCache {
 
   protected final static Log LOG = LogFactory.getLog(RootINodeCache.class);
-  private static final int UPDATE_TIMER = 200; //ms
-  private static RootINodeCacheUpdaterThread rootCacheUpdater;
-  private static INode rootINode = null;
-  private static boolean running = false;
-  private static RootINodeCache instance;
   private static final boolean ENABLE_CACHE = true;
+  private static final RootINodeCache instance = new RootINodeCache();
 
-  static {
-    instance = new RootINodeCache();
+  private static class Snapshot {
+    private final INode root;
+    private final long version;
+
+    Snapshot(INode root, long version) {
+      this.root = root;
+      this.version = version;
+    }
   }
 
+  private static volatile Snapshot snapshot = null;
+  private static final AtomicLong requestedVersion = new AtomicLong();
+  //when the oldest change that is not loaded yet was requested
+  private static volatile long changedAt = 0;
+  private static final Object refreshLock = new Object();
+
+  private static volatile boolean running = false;
+  private static long refreshInterval;
+  private static Daemon rootCacheUpdater;
+
+  //set when the running transaction modified the root inode
+  private static final ThreadLocal<Boolean> stagedChange =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return false;
+        }
+      };
+
   private RootINodeCache() {
   }
 
@@ -36,44 +77,105 @@ public static RootINodeCache getInstance() {
     return instance;
   }
 
-  public static void start() {
+  public static synchronized void start(Configuration conf) {
     if (!running && ENABLE_CACHE) {
-      rootCacheUpdater = new RootINodeCacheUpdaterThread();
+      boolean coherent = conf.getBoolean(
+          DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED,
+          DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED_DEFAULT);
+      refreshInterval = coherent ? conf.getLong(
+          DFSConfigKeys.DFS_ROOT_INODE_CACHE_COHERENT_REFRESH_INTERVAL_MS,
+          DFSConfigKeys.DFS_ROOT_INODE_CACHE_COHERENT_REFRESH_INTERVAL_MS_DEFAULT)
+          : conf.getLong(DFSConfigKeys.DFS_ROOT_INODE_CACHE_REFRESH_INTERVAL_MS,
+          DFSConfigKeys.DFS_ROOT_INODE_CACHE_REFRESH_INTERVAL_MS_DEFAULT);
+      running = true;
+      rootCacheUpdater = new Daemon(new RootINodeCacheUpdater());
+      rootCacheUpdater.setName("RootINodeCacheUpdater");
       rootCacheUpdater.start();
     }
   }
 
-  public static void stop() {
-    try {
-      if (running) {
-        running = false;
-        rootCacheUpdater.join();
-        rootCacheUpdater = null;
+  public static synchronized void stop() {
+    if (running) {
+      running = false;
+      try {
+        rootCacheUpdater.interrupt();
+        rootCacheUpdater.join(3000);
+      } catch (InterruptedException e) {
+        LOG.warn("Encountered exception ", e);
       }
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+      rootCacheUpdater = null;
+      snapshot = null;
     }
   }
 
   public static INode getRootINode() {
-    if(rootCacheUpdater!=null) {
-      synchronized (rootCacheUpdater) {
-        return rootINode;
+    Snapshot current = snapshot;
+    return current == null ? null : current.root;
+  }
+
+  /**
+   * @return true if the cached root is loaded and no change of the root is
+   * known to have happened since
+   */
+  public static boolean isRootInCache() {
+    Snapshot current = snapshot;
+    if (current == null || current.root == null) {
+      return false;
+    }
+    if (current.version < requestedVersion.get()) {
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.incrRootINodeCacheStaleReads();
       }
-    }else{
-      return null;
+      return false;
     }
+    return true;
   }
 
-  public static boolean isRootInCache() {
-    return rootINode != null;
+  /**
+   * Marks the cached root as outdated and asks for it to be reloaded.
+   */
+  public static void refresh() {
+    if (!running) {
+      return;
+    }
+    Snapshot current = snapshot;
+    if (current == null || current.version == requestedVersion.get()) {
+      changedAt = Time.monotonicNow();
+    }
+    requestedVersion.incrementAndGet();
+    synchronized (refreshLock) {
+      refreshLock.notify();
+    }
+  }
+
+  public static void stageChange() {
+    stagedChange.set(true);
+  }
+
+  public static void discardStagedChange() {
+    stagedChange.set(false);
   }
 
-  private static class RootINodeCacheUpdaterThread extends Thread {
+  /**
+   * Reloads the root if the transaction that just committed changed it and
+   * lets the other namenodes know about it.
+   */
+  public static void commitStagedChange() {
+    if (!stagedChange.get()) {
+      return;
+    }
+    stagedChange.set(false);
+    refresh();
+    Cache.getInstance().publish(Collections.singletonList(
+        new INodeIdentifier(INode.ROOT_INODE_ID, INode.ROOT_PARENT_ID,
+            INodeDirectory.ROOT_NAME, INodeDirectory.getRootDirPartitionKey())));
+  }
+
+  private static class RootINodeCacheUpdater implements Runnable {
 
     @Override
     public void run() {
-      running = true;
       LOG.debug("RootCache Started");
       final long rootPartitionId = INode.calculatePartitionId(INodeDirectory.ROOT_PARENT_ID, INodeDirectory.ROOT_NAME, INodeDirectory.ROOT_DIR_DEPTH);
 
@@ -88,21 +190,38 @@ public Object performTask() throws IOException {
                 }
               };
 
+      boolean backOff = false;
       while (running) {
         try {
-          Thread.sleep(UPDATE_TIMER);
+          synchronized (refreshLock) {
+            Snapshot current = snapshot;
+            if (backOff || (current != null &&
+                current.version == requestedVersion.get())) {
+              refreshLock.wait(refreshInterval);
+            }
+          }
+          backOff = true;
+          //read the version first, a change that happens during the read
+          //leaves the snapshot outdated and triggers another reload
+          long version = requestedVersion.get();
+          Snapshot current = snapshot;
+          boolean changed = current != null && current.version < version;
           INode rootInodeRet = (INode) getRootINode.handle();
           if (rootInodeRet != null) {
-            synchronized (rootCacheUpdater) {
-              rootINode = rootInodeRet;
+            snapshot = new Snapshot(rootInodeRet, version);
+            backOff = false;
+            NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+            if (metrics != null) {
+              metrics.addRootINodeCacheRefresh(
+                  changed ? Time.monotonicNow() - changedAt : 0);
             }
           } else {
             LOG.debug("RootCache: root does not exist.");
           }
         } catch (InterruptedException e) {
-          e.printStackTrace();
+          LOG.debug("RootCache updater interrupted");
         } catch (IOException e) {
-          e.printStackTrace();
+          LOG.warn("RootCache: could not read the root inode", e);
         }
       } // end while
     }
@@ -52,6 +52,7 @@ public enum HDFSOperationType implements OperationType {
   FSYNC,
   COMMIT_BLOCK_SYNCHRONIZATION,
   RENEW_LEASE,
+  RENEW_LEASES,
   GET_LISTING,
   REGISTER_DATANODE,
   HANDLE_HEARTBEAT,
@@ -122,6 +123,7 @@ public enum HDFSOperationType implements OperationType {
   GET_BLOCK,
   GET_EXCESS_RELPLICAS_BY_STORAGEID,
   CHOOSE_UNDER_REPLICATED_BLKS,
+  UPDATE_REPLICATION_INDEX,
   ADD_INV_BLOCKS,
   AFTER_PROCESS_REPORT_ADD_BLK,
   AFTER_PROCESS_REPORT_ADD_BLK_IMMEDIATE,
@@ -332,6 +334,7 @@ public enum HDFSOperationType implements OperationType {
   GET_STORAGE_HASHES,
   RESET_STORAGE_HASHES,
   CREATE_ALL_STORAGE_HASHES,
+  FLUSH_STORAGE_HASHES,
   CHECK_ACCESS,
   UPDATE_LOGICAL_TIME,
   GET_LAST_UPDATED_CONTENT_SUMMARY,
@@ -15,11 +15,16 @@
  */
 package io.hops.transaction.handler;
 
+import io.hops.resolvingcache.Cache;
 import io.hops.transaction.TransactionInfo;
+import io.hops.transaction.context.RootINodeCache;
 import io.hops.transaction.lock.HdfsTransactionalLockAcquirer;
 import io.hops.transaction.lock.TransactionLockAcquirer;
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.HashBuckets;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.namenode.QuotaUpdateManager;
 
 import java.io.IOException;
 
@@ -38,8 +43,14 @@ public HopsTransactionalRequestHandler(HDFSOperationType opType,
     this.path = path;
   }
 
+  /**
+   * A lock acquirer is created for every attempt of the transaction, the
+   * changes staged by a failed attempt are discarded here so that they are
+   * not committed together with the ones of the retry.
+   */
   @Override
   protected TransactionLockAcquirer newLockAcquirer() {
+    discardStagedChanges();
     return new HdfsTransactionalLockAcquirer();
   }
 
@@ -60,6 +71,11 @@ public String getContextName(OperationType opType) {
 
       @Override
       public void performPostTransactionAction() throws IOException {
+        Cache.getInstance().commitStagedInvalidations();
+        RootINodeCache.commitStagedChange();
+        HashBuckets.commitStagedDeltas();
+        BlockManager.commitStagedReplicationIndexDecrements();
+        QuotaUpdateManager.commitStagedUpdates();
         if (namesystem != null && namesystem instanceof FSNamesystem) {
           ((FSNamesystem) namesystem).performPendingSafeModeOperation();
         }
@@ -69,9 +85,18 @@ public void performPostTransactionAction() throws IOException {
 
   @Override
   protected final void preTransactionSetup() throws IOException {
+    discardStagedChanges();
     setUp();
   }
 
+  private static void discardStagedChanges() {
+    Cache.getInstance().discardStagedInvalidations();
+    RootINodeCache.discardStagedChange();
+    HashBuckets.discardStagedDeltas();
+    BlockManager.discardStagedReplicationIndexDecrements();
+    QuotaUpdateManager.discardStagedUpdates();
+  }
+
   public void setUp() throws IOException {
 
   }
@@ -16,13 +16,18 @@
 package io.hops.transaction.lock;
 
 import com.google.common.base.Joiner;
+import com.google.common.primitives.SignedBytes;
 import io.hops.common.INodeResolver;
 import io.hops.common.INodeUtil;
 import io.hops.exception.StorageException;
 import io.hops.exception.TransactionContextException;
 import io.hops.exception.TransientStorageException;
 import io.hops.leader_election.node.ActiveNode;
+import io.hops.metadata.HdfsStorageFactory;
+import io.hops.metadata.hdfs.dal.INodeDataAccess;
 import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import io.hops.metadata.hdfs.entity.ProjectedINode;
+import io.hops.transaction.context.EntityContext;
 import io.hops.resolvingcache.Cache;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.hadoop.fs.Path;
@@ -30,6 +35,7 @@
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.ipc.RetriableException;
 
 import java.io.IOException;
@@ -47,6 +53,11 @@ public class INodeLock extends BaseINodeLock {
   protected boolean skipReadingQuotaAttr;
   protected long namenodeId;
   protected Collection<ActiveNode> activeNamenodes;
+  //when set only a page of the immediate children is read
+  private byte[] childrenStartAfter;
+  private int childrenLimit;
+  private List<INode> childrenPage;
+  private int remainingChildren;
 
   INodeLock(TransactionLockTypes.INodeLockType lockType,
       TransactionLockTypes.INodeResolveType resolveType, String... paths) {
@@ -60,6 +71,7 @@ public class INodeLock extends BaseINodeLock {
     this.paths = paths;
     this.inodeId = -1;
     this.skipReadingQuotaAttr = false;
+    this.childrenLimit = -1;
   }
 
   INodeLock(TransactionLockTypes.INodeLockType lockType,
@@ -74,6 +86,7 @@ public class INodeLock extends BaseINodeLock {
     this.paths = null;
     this.inodeId = inodeId;
     this.skipReadingQuotaAttr = false;
+    this.childrenLimit = -1;
   }
     
   public INodeLock setIgnoredSTOInodes(long inodeID) {
@@ -101,6 +114,31 @@ public INodeLock resolveSymLink(boolean resolveLink) {
     return this;
   }
 
+  /**
+   * Only read the immediate children whose name comes after startAfter, at
+   * most limit of them, instead of all the children of the directory.
+   */
+  public INodeLock setChildrenPage(byte[] startAfter, int limit) {
+    this.childrenStartAfter = startAfter;
+    this.childrenLimit = limit;
+    return this;
+  }
+
+  /**
+   * @return the children read with {@link #setChildrenPage(byte[], int)}
+   * sorted by name, or null if the last inode was not a directory
+   */
+  public List<INode> getChildrenPage() {
+    return childrenPage;
+  }
+
+  /**
+   * @return the number of children that come after the page
+   */
+  public int getRemainingChildren() {
+    return remainingChildren;
+  }
+
   private CacheResolver instance = null;
 
   private CacheResolver getCacheResolver(){
@@ -217,6 +255,9 @@ List<INode> fetchINodes(String path) throws IOException {
               parentIds, inodeIds);
 
           int diff = inodes.size() - verifiedInode;
+          if (diff > 0 && NameNode.getNameNodeMetrics() != null) {
+            NameNode.getNameNodeMetrics().incrResolvingCacheStaleHits();
+          }
           while (diff > 0){
             INode node = inodes.remove(inodes.size() - 1);
             if(node!=null){
@@ -508,6 +549,11 @@ protected void acquirePathsINodeLocks() throws IOException {
       throw new IllegalArgumentException("Unknown type " + resolveType.name());
     }
 
+    if (paths.length > 1 && getDefaultInodeLockType() ==
+        TransactionLockTypes.INodeLockType.READ_COMMITTED) {
+      prefetchPathsINodes();
+    }
+
     for (String path : paths) {
       List<INode> resolvedINodes = null;
       if (getDefaultInodeLockType() == TransactionLockTypes.INodeLockType.READ_COMMITTED) {
@@ -540,6 +586,162 @@ protected void acquirePathsINodeLocks() throws IOException {
     }
   }
 
+  /**
+   * Reads the inodes of all the paths of a multi path operation together.
+   * The components known by the resolving cache are read in one batch and the
+   * remaining ones with one batch per depth level, shared by all the paths.
+   * The inodes end up in the transaction context, so resolving the paths one
+   * by one afterwards, in the usual order, only goes to the database for the
+   * rows that have to be locked with a stronger lock.
+   */
+  private void prefetchPathsINodes() throws IOException {
+    String[][] names = new String[paths.length][];
+    int[] limits = new int[paths.length];
+    int[] levels = new int[paths.length];
+    long[] parents = new long[paths.length];
+    int[] sequentialReads = new int[paths.length];
+    int maxLimit = 0;
+    for (int i = 0; i < paths.length; i++) {
+      names[i] = INode.getPathNames(paths[i]);
+      limits[i] = names[i].length - rowsToReadWithStrongerLock();
+      parents[i] = INode.ROOT_PARENT_ID;
+      maxLimit = Math.max(maxLimit, limits[i]);
+    }
+
+    //inodes read so far, null if the row does not exist
+    Map<String, INode> fetched = new HashMap<>();
+    int batchedReads = 0;
+
+    BatchedRead batch = new BatchedRead();
+    for (int i = 0; i < paths.length; i++) {
+      long[] inodeIds = Cache.getInstance().get(paths[i]);
+      if (inodeIds == null) {
+        continue;
+      }
+      int cached = Math.min(inodeIds.length, limits[i]);
+      for (int level = 0; level < cached; level++) {
+        batch.add(level == 0 ? INode.ROOT_PARENT_ID : inodeIds[level - 1],
+            names[i][level], level);
+      }
+    }
+    if (batch.read(fetched)) {
+      batchedReads++;
+    }
+    for (int i = 0; i < paths.length; i++) {
+      advance(i, names, limits, levels, parents, fetched);
+      //resolving the cached part of a path on its own takes a batched read
+      sequentialReads[i] = levels[i] > 0 ? 1 : 0;
+    }
+
+    for (int level = 0; level < maxLimit; level++) {
+      batch = new BatchedRead();
+      for (int i = 0; i < paths.length; i++) {
+        if (levels[i] == level && level < limits[i]) {
+          batch.add(parents[i], names[i][level], level);
+          sequentialReads[i]++;
+        }
+      }
+      if (batch.read(fetched)) {
+        batchedReads++;
+      }
+      for (int i = 0; i < paths.length; i++) {
+        advance(i, names, limits, levels, parents, fetched);
+      }
+    }
+
+    if (NameNode.getNameNodeMetrics() != null) {
+      long saved = -batchedReads;
+      for (int reads : sequentialReads) {
+        saved += reads;
+      }
+      NameNode.getNameNodeMetrics().addBatchedPathResolution(batchedReads,
+          Math.max(0, saved));
+    }
+  }
+
+  /**
+   * Walks path i down the inodes already fetched. A path stops at the first
+   * component that was not read yet, or for good at a missing inode or at an
+   * inode that is not a directory.
+   */
+  private void advance(int i, String[][] names, int[] limits, int[] levels,
+      long[] parents, Map<String, INode> fetched) {
+    while (levels[i] < limits[i]) {
+      String key = INode.nameParentKey(parents[i], names[i][levels[i]]);
+      if (!fetched.containsKey(key)) {
+        return;
+      }
+      INode inode = fetched.get(key);
+      if (inode == null || !inode.isDirectory()) {
+        levels[i] = limits[i];
+        return;
+      }
+      parents[i] = inode.getId();
+      levels[i]++;
+    }
+  }
+
+  private int rowsToReadWithStrongerLock() {
+    if (lockType.equals(getDefaultInodeLockType())) {
+      return 0;
+    } else if (lockType.equals(
+        TransactionLockTypes.INodeLockType.WRITE_ON_TARGET_AND_PARENT)) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private class BatchedRead {
+    private final Map<String, Integer> keys = new LinkedHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> parentIds = new ArrayList<>();
+    private final List<Long> partitionIds = new ArrayList<>();
+
+    void add(long parentId, String name, int level) {
+      String key = INode.nameParentKey(parentId, name);
+      if (keys.containsKey(key)) {
+        return;
+      }
+      keys.put(key, names.size());
+      names.add(name);
+      parentIds.add(parentId);
+      partitionIds.add(level == 0 ? INodeDirectory.getRootDirPartitionKey() :
+          INode.calculatePartitionId(parentId, name,
+              (short) (INodeDirectory.ROOT_DIR_DEPTH + level)));
+    }
+
+    /**
+     * @return true if the database was read
+     */
+    boolean read(Map<String, INode> fetched) throws StorageException,
+        TransactionContextException {
+      if (names.isEmpty()) {
+        return false;
+      }
+      long[] parentIdsArray = new long[parentIds.size()];
+      long[] partitionIdsArray = new long[partitionIds.size()];
+      for (int i = 0; i < parentIdsArray.length; i++) {
+        parentIdsArray[i] = parentIds.get(i);
+        partitionIdsArray[i] = partitionIds.get(i);
+      }
+      for (String key : keys.keySet()) {
+        fetched.put(key, null);
+      }
+      //the result does not keep the order of the request
+      List<INode> inodes = find(getDefaultInodeLockType(),
+          names.toArray(new String[names.size()]), parentIdsArray,
+          partitionIdsArray, true);
+      if (inodes != null) {
+        for (INode inode : inodes) {
+          if (inode != null && keys.containsKey(inode.nameParentKey())) {
+            fetched.put(inode.nameParentKey(), inode);
+          }
+        }
+      }
+      return true;
+    }
+  }
+
   private List<INode> resolveUsingCache(long inodeId) throws IOException {
     CacheResolver cacheResolver = getCacheResolver();
     List<INode> resolvedINodes = cacheResolver.fetchINodes(inodeId);
@@ -712,12 +914,100 @@ private List<INode> findImmediateChildren(INode lastINode)
     if (lastINode != null) {
       if (lastINode instanceof INodeDirectory) {
         setINodeLockType(TransactionLockTypes.INodeLockType.READ_COMMITTED); //if the parent is locked then taking lock on all children is not necessary
-        children.addAll(((INodeDirectory) lastINode).getChildrenList());
+        if (childrenLimit > 0) {
+          children.addAll(findImmediateChildrenPage((INodeDirectory) lastINode));
+        } else {
+          children.addAll(((INodeDirectory) lastINode).getChildrenList());
+        }
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Reads the projection of the children, which only holds the keys of the
+   * rows, keeps the page that comes after childrenStartAfter and then reads
+   * the inodes of the page only, by primary key. A large directory is thus
+   * never loaded whole into the transaction context.
+   */
+  private List<INode> findImmediateChildrenPage(INodeDirectory dir)
+      throws StorageException, TransactionContextException {
+    INodeDataAccess<INode> dataAccess = (INodeDataAccess) HdfsStorageFactory
+        .getDataAccess(INodeDataAccess.class);
+    List<ProjectedINode> all;
+    if (INode.isTreeLevelRandomPartitioned((short) (dir.myDepth() + 1))) {
+      all = dataAccess.findInodesFTISTx(dir.getId(),
+          EntityContext.LockMode.READ_COMMITTED);
+    } else {
+      //then the partitioning key is the parent id
+      all = dataAccess.findInodesPPISTx(dir.getId(), dir.getId(),
+          EntityContext.LockMode.READ_COMMITTED);
+    }
+
+    //the limit smallest names after startAfter
+    final Comparator<byte[]> byName = SignedBytes.lexicographicalComparator();
+    PriorityQueue<ChildName> page = new PriorityQueue<>(childrenLimit,
+        new Comparator<ChildName>() {
+          @Override
+          public int compare(ChildName o1, ChildName o2) {
+            return byName.compare(o2.name, o1.name);
+          }
+        });
+    byte[] startAfter = childrenStartAfter == null ? new byte[0] :
+        childrenStartAfter;
+    int after = 0;
+    for (ProjectedINode child : all) {
+      byte[] name = DFSUtil.string2Bytes(child.getName());
+      if (startAfter.length != 0 && byName.compare(name, startAfter) <= 0) {
+        continue;
+      }
+      after++;
+      if (page.size() < childrenLimit) {
+        page.add(new ChildName(name, child));
+      } else if (byName.compare(name, page.peek().name) < 0) {
+        page.poll();
+        page.add(new ChildName(name, child));
       }
     }
+    remainingChildren = after - page.size();
+
+    List<INode> children = new ArrayList<>(page.size());
+    if (!page.isEmpty()) {
+      String[] names = new String[page.size()];
+      long[] parentIds = new long[page.size()];
+      long[] partitionIds = new long[page.size()];
+      int i = 0;
+      for (ChildName child : page) {
+        names[i] = child.inode.getName();
+        parentIds[i] = child.inode.getParentId();
+        partitionIds[i] = child.inode.getPartitionId();
+        i++;
+      }
+      List<INode> inodes = find(TransactionLockTypes.INodeLockType.READ_COMMITTED,
+          names, parentIds, partitionIds, false);
+      if (inodes != null) {
+        for (INode inode : inodes) {
+          if (inode != null) {
+            children.add(inode);
+          }
+        }
+      }
+      Collections.sort(children, INode.Order.ByName);
+    }
+    childrenPage = children;
     return children;
   }
 
+  private static class ChildName {
+    private final byte[] name;
+    private final ProjectedINode inode;
+
+    ChildName(byte[] name, ProjectedINode inode) {
+      this.name = name;
+      this.inode = inode;
+    }
+  }
+
   private List<INode> findChildrenRecursively(INode lastINode)
       throws StorageException, TransactionContextException {
     LinkedList<INode> children = new LinkedList<>();
@@ -21,23 +21,32 @@
 import io.hops.transaction.EntityManager;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class IndividualHashBucketLock extends Lock {
   private final int storageId;
-  private final int bucketId;
+  //sorted, for a total order of the locks
+  private final int[] bucketIds;
   
   public IndividualHashBucketLock(int storageId, int bucketId) {
+    this(storageId, new int[]{bucketId});
+  }
+
+  public IndividualHashBucketLock(int storageId, int[] bucketIds) {
     this.storageId = storageId;
-    this.bucketId = bucketId;
+    this.bucketIds = bucketIds.clone();
+    Arrays.sort(this.bucketIds);
   }
   
   @Override
   protected void acquire(TransactionLocks locks) throws IOException {
     setLockMode(TransactionLockTypes.LockType.WRITE);
-    if (EntityManager.find(HashBucket.Finder.ByStorageIdAndBucketId,
-        storageId, bucketId) == null){
-      EntityManager.update(new HashBucket(storageId, bucketId, 0));
-      LOG.warn("The accessed bucket had not been initialized. There might be a misconfiguration.");
+    for (int bucketId : bucketIds) {
+      if (EntityManager.find(HashBucket.Finder.ByStorageIdAndBucketId,
+          storageId, bucketId) == null){
+        EntityManager.update(new HashBucket(storageId, bucketId, 0));
+        LOG.warn("The accessed bucket had not been initialized. There might be a misconfiguration.");
+      }
     }
   }
   
@@ -51,7 +60,6 @@ public int getStorageId() {
   }
 
   public int getBucketId() {
-    return bucketId;
+    return bucketIds[0];
   }
 }
-
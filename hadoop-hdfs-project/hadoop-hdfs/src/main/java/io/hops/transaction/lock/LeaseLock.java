@@ -30,25 +30,28 @@
 public final class LeaseLock extends Lock {
 
   private final TransactionLockTypes.LockType lockType;
-  private final String leaseHolder;
+  private final Collection<String> leaseHolders;
   private final List<Lease> leases;
 
   LeaseLock(TransactionLockTypes.LockType lockType, String leaseHolder) {
+    this(lockType, leaseHolder == null ? Collections.<String>emptyList() :
+        Collections.singletonList(leaseHolder));
+  }
+
+  LeaseLock(TransactionLockTypes.LockType lockType,
+      Collection<String> leaseHolders) {
     this.lockType = lockType;
-    this.leaseHolder = leaseHolder;
+    this.leaseHolders = leaseHolders;
     this.leases = new ArrayList<>();
   }
 
   LeaseLock(TransactionLockTypes.LockType lockType) {
-    this(lockType, null);
+    this(lockType, (String) null);
   }
 
   @Override
   protected void acquire(TransactionLocks locks) throws IOException {
-    Set<String> hldrs = new HashSet<>();
-    if (leaseHolder != null) {
-      hldrs.add(leaseHolder);
-    }
+    Set<String> hldrs = new HashSet<>(leaseHolders);
 
     if (locks.containsLock(Type.INode)) {
       BaseINodeLock inodeLock = (BaseINodeLock) locks.getLock(Type.INode);
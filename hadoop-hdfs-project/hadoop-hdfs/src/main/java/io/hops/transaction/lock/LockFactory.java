@@ -210,6 +210,11 @@ public Lock getLeaseLock(TransactionLockTypes.LockType lockType) {
     return new LeaseLock(lockType);
   }
 
+  public Lock getLeasesLock(TransactionLockTypes.LockType lockType,
+      Collection<String> leaseHolders) {
+    return new LeaseLock(lockType, leaseHolders);
+  }
+
   public Lock getLeasePathLock(TransactionLockTypes.LockType lockType,
       int expectedCount) {
     return new LeasePathLock(lockType, expectedCount);
@@ -236,6 +241,10 @@ public Lock getQuotaUpdateLock(String... targets) {
     return new QuotaUpdateLock(targets);
   }
 
+  public Lock getIndividualQuotaUpdateLock(long inodeId) {
+    return new QuotaUpdateLock(inodeId);
+  }
+
   public Lock getVariableLock(Variable.Finder[] finders,
       TransactionLockTypes.LockType[] lockTypes) {
     assert finders.length == lockTypes.length;
@@ -288,6 +297,10 @@ public Lock getSubTreeOpsLock(TransactionLockTypes.LockType lockType,
   public Lock getIndividualHashBucketLock(int storageId, int bucketId) {
     return new IndividualHashBucketLock(storageId, bucketId);
   }
+
+  public Lock getIndividualHashBucketsLock(int storageId, int[] bucketIds) {
+    return new IndividualHashBucketLock(storageId, bucketIds);
+  }
   
   public Lock getHashBucketLock(int storageId) {
     return new HashBucketLock(storageId);
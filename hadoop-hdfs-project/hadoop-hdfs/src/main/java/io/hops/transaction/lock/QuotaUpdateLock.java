@@ -28,18 +28,31 @@
 final class QuotaUpdateLock extends Lock {
   private final String[] targets;
   private final boolean includeChildren;
+  private final Long inodeId;
 
   QuotaUpdateLock(boolean includeChildren, String... targets) {
     this.includeChildren = includeChildren;
     this.targets = targets;
+    this.inodeId = null;
   }
 
   QuotaUpdateLock(String... paths) {
     this(false, paths);
   }
 
+  QuotaUpdateLock(long inodeId) {
+    this.includeChildren = false;
+    this.targets = null;
+    this.inodeId = inodeId;
+  }
+
   @Override
   protected void acquire(TransactionLocks locks) throws IOException {
+    if (inodeId != null) {
+      acquireLockList(DEFAULT_LOCK_TYPE, QuotaUpdate.Finder.ByINodeId,
+          inodeId);
+      return;
+    }
     INodeLock inodeLock = (INodeLock) locks.getLock(Type.INode);
     for (String target : targets) {
       acquireQuotaUpdate(inodeLock.getTargetINode(target));
@@ -3,7 +3,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.*;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import org.apache.hadoop.fs.ReadOption;
@@ -11,18 +11,21 @@
 
 /**
  * Created by salman on 3/29/16.
+ *
+ * Reads the data of a file stored in the database. The reads are served
+ * from a buffer wrapping the data returned by the namenode, without copying
+ * it first.
  */
 public class BlockReaderDB implements  BlockReader{
     public static final Log LOG = LogFactory.getLog(BlockReaderDB.class);
 
-    private  final ByteArrayInputStream bis;
+    private  final ByteBuffer data;
 
   public BlockReaderDB(byte[] data, final int startOffset) {
-    bis = new ByteArrayInputStream(data);
+    this.data = ByteBuffer.wrap(data);
 
     if (startOffset > 0) {
-      long skipped = bis.skip(startOffset);
-      assert skipped == startOffset;
+      this.data.position(Math.min(startOffset, data.length));
     }
 
   }
@@ -30,7 +33,12 @@ public BlockReaderDB(byte[] data, final int startOffset) {
     @Override
     public int read(byte[] buf, int off, int len) throws IOException {
 //      LOG.debug("Stuffed Inode:  BlockReaderDB Read called. Off: "+off+" len: "+len);
-      return bis.read(buf, off, len);
+      if (!data.hasRemaining()) {
+        return -1;
+      }
+      int toRead = Math.min(len, data.remaining());
+      data.get(buf, off, toRead);
+      return toRead;
     }
 
     /**
@@ -40,13 +48,14 @@ public int read(byte[] buf, int off, int len) throws IOException {
      */
     @Override
     public long skip(long n) throws IOException {
-        return bis.skip(n);
+        int skipped = (int) Math.max(0, Math.min(n, data.remaining()));
+        data.position(data.position() + skipped);
+        return skipped;
     }
 
     @Override
     public void close() throws IOException {
 //      LOG.debug("Stuffed Inode:  closing the BlockReaderDB");
-      bis.close();
     }
 
     /**
@@ -60,10 +69,10 @@ public void close() throws IOException {
     @Override
     public void readFully(byte[] buf, int readOffset, int amtToRead) throws IOException {
 //      LOG.debug("Stuffed Inode:  BlockReader readFully called. readOffset: "+readOffset+" amtToRead: "+amtToRead);
-      int amountRead = bis.read(buf, readOffset, amtToRead);
-      if(amountRead < amtToRead){
+      if(data.remaining() < amtToRead){
         throw new IOException("Premature EOF from inputStream");
       }
+      data.get(buf, readOffset, amtToRead);
     }
 
     /**
@@ -81,7 +90,7 @@ public void readFully(byte[] buf, int readOffset, int amtToRead) throws IOExcept
     @Override
     public int readAll(byte[] buf, int offset, int len) throws IOException {
 //      LOG.debug("Stuffed Inode:  BlockReaderDB readAll called. Offset: "+offset+" len: "+len);
-      return bis.read(buf, offset, len);
+      return read(buf, offset, len);
     }
 
     /**
@@ -110,14 +119,14 @@ public int readAll(byte[] buf, int offset, int len) throws IOException {
      */
     @Override
     public int read(ByteBuffer buf) throws IOException {
-      int amountToRead = buf.remaining();
-      int initialPosition = buf.position();
-      byte buffer[] = new byte[amountToRead];
-      int actuallyRead = bis.read(buffer);
-      if(actuallyRead > 0){
-        buf.put(buffer);
-        buf.position(initialPosition+actuallyRead);
+      if (!data.hasRemaining()) {
+        return -1;
       }
+      int actuallyRead = Math.min(buf.remaining(), data.remaining());
+      ByteBuffer toRead = data.duplicate();
+      toRead.limit(toRead.position() + actuallyRead);
+      buf.put(toRead);
+      data.position(data.position() + actuallyRead);
       return actuallyRead;
     }
 
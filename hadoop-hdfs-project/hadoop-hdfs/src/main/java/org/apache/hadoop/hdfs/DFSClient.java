@@ -189,6 +189,7 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.SaslDataTransferClient;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
+import org.apache.hadoop.hdfs.util.PacketBufferPool;
 
 /********************************************************
  * DFSClient can connect to a Hadoop Filesystem and
@@ -234,6 +235,7 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
   private final CachingStrategy defaultReadCachingStrategy;
   private final CachingStrategy defaultWriteCachingStrategy;
   private final ClientContext clientContext;
+  final PacketBufferPool packetBufferPool;
   private volatile long hedgedReadThresholdMillis;
   private static DFSHedgedReadMetrics HEDGED_READ_METRIC =
           new DFSHedgedReadMetrics();
@@ -253,6 +255,7 @@ public static class Conf {
     final int ioBufferSize;
     final ChecksumOpt defaultChecksumOpt;
     final int writePacketSize;
+    final long writePacketPoolCapacity;
     final int socketTimeout;
     final int socketCacheCapacity;
     final long socketCacheExpiry;
@@ -330,6 +333,9 @@ public Conf(Configuration conf) {
       /** dfs.write.packet.size is an internal config variable */
       writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY,
           DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
+      writePacketPoolCapacity = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_DEFAULT);
       defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
           DFS_BLOCK_SIZE_DEFAULT);
       defaultReplication = (short) conf.getInt(
@@ -668,6 +674,8 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     this.clientContext = ClientContext.get(
             conf.get(DFS_CLIENT_CONTEXT, DFS_CLIENT_CONTEXT_DEFAULT),
             dfsClientConf);
+    this.packetBufferPool =
+        new PacketBufferPool(dfsClientConf.writePacketPoolCapacity);
     this.hedgedReadThresholdMillis = conf.getLong(
             DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
             DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS);
@@ -60,6 +60,29 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.namenode.quota.update.limit";
   public static final int DFS_NAMENODE_QUOTA_UPDATE_LIMIT_DEFAULT = 100000;
 
+  public static final String DFS_NAMENODE_QUOTA_UPDATE_THREADS_KEY =
+      "dfs.namenode.quota.update.threads";
+  public static final int DFS_NAMENODE_QUOTA_UPDATE_THREADS_DEFAULT = 8;
+
+  //renewals of different clients arriving within the window are committed
+  //in one transaction
+  public static final String DFS_NAMENODE_LEASE_RENEWAL_BATCH_ENABLED_KEY =
+      "dfs.namenode.lease.renewal.batch.enabled";
+  public static final boolean DFS_NAMENODE_LEASE_RENEWAL_BATCH_ENABLED_DEFAULT = false;
+  public static final String DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_KEY =
+      "dfs.namenode.lease.renewal.batch.window-ms";
+  public static final long DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_DEFAULT = 20;
+  public static final String DFS_NAMENODE_LEASE_RENEWAL_BATCH_MAX_SIZE_KEY =
+      "dfs.namenode.lease.renewal.batch.max-size";
+  public static final int DFS_NAMENODE_LEASE_RENEWAL_BATCH_MAX_SIZE_DEFAULT = 1000;
+  //expired leases a namenode recovers in parallel, oldest first
+  public static final String DFS_NAMENODE_LEASE_RECOVERY_BATCH_SIZE_KEY =
+      "dfs.namenode.lease.recovery.batch-size";
+  public static final int DFS_NAMENODE_LEASE_RECOVERY_BATCH_SIZE_DEFAULT = 1000;
+  public static final String DFS_NAMENODE_LEASE_RECOVERY_THREADS_KEY =
+      "dfs.namenode.lease.recovery.threads";
+  public static final int DFS_NAMENODE_LEASE_RECOVERY_THREADS_DEFAULT = 8;
+
   public static final String DFS_NAMENODE_QUOTA_UPDATE_ID_BATCH_SIZE =
       "dfs.namenode.quota.update.id.batchsize";
   public static final int DFS_NAMENODE_QUOTA_UPDATE_ID_BATCH_SIZ_DEFAULT =
@@ -103,6 +126,19 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_NAMENODE_IDSMONITOR_CHECK_INTERVAL_IN_MS_DEFAULT =
       1000;
 
+  public static final String DFS_NAMENODE_IDS_BATCH_TARGET_PERIOD_MS_KEY =
+      "dfs.namenode.ids.batch.target-period-ms";
+  public static final long DFS_NAMENODE_IDS_BATCH_TARGET_PERIOD_MS_DEFAULT =
+      10000;
+
+  public static final String DFS_NAMENODE_IDS_BATCH_MAX_FACTOR_KEY =
+      "dfs.namenode.ids.batch.max-factor";
+  public static final int DFS_NAMENODE_IDS_BATCH_MAX_FACTOR_DEFAULT = 64;
+
+  public static final String DFS_NAMENODE_IDS_STALL_TIMEOUT_MS_KEY =
+      "dfs.namenode.ids.stall.timeout-ms";
+  public static final long DFS_NAMENODE_IDS_STALL_TIMEOUT_MS_DEFAULT = 10000;
+
   public static final String DFS_NAMENODE_PROCESS_REPORT_BATCH_SIZE =
       "dfs.namenode.processReport.batchsize";
   public static final int DFS_NAMENODE_PROCESS_REPORT_BATCH_SIZE_DEFAULT =
@@ -132,6 +168,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.namenode.removal.noofbatches";
   public static final int
       DFS_NAMENODE_REMOVAL_NO_OF_THREADS_DEFAULT = 20;
+
+  public static final String DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE =
+      "dfs.namenode.replication.work.batchsize";
+  public static final int
+      DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT = 50;
+
+  public static final String DFS_NAMENODE_REPLICATION_WORK_NO_OF_THREADS =
+      "dfs.namenode.replication.work.noofthreads";
+  public static final int
+      DFS_NAMENODE_REPLICATION_WORK_NO_OF_THREADS_DEFAULT = 10;
   
   public static final String DFS_TRANSACTION_STATS_ENABLED =
       "dfs.transaction.stats.enabled";
@@ -192,12 +238,40 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_RESOLVING_CACHE_TYPE = "dfs.resolvingcache" +
       ".type";
 
-  //INode, Path, InMemory, Optimal
+  //InMemory, OffHeap
   public static final String DFS_RESOLVING_CACHE_TYPE_DEFAULT = "InMemory";
 
   public static final String DFS_INMEMORY_CACHE_MAX_SIZE = "dfs" +
       ".resolvingcache.inmemory.maxsize";
   public static final int DFS_INMEMORY_CACHE_MAX_SIZE_DEFAULT = 100000;
+
+  public static final String DFS_RESOLVING_CACHE_COHERENT_ENABLED = "dfs" +
+      ".resolvingcache.coherent.enabled";
+  public static final boolean DFS_RESOLVING_CACHE_COHERENT_ENABLED_DEFAULT =
+      false;
+
+  public static final String DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS =
+      "dfs.resolvingcache.invalidation.flush.interval.ms";
+  public static final long
+      DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS_DEFAULT = 50;
+
+  public static final String DFS_RESOLVING_CACHE_INVALIDATION_MAX_PENDING =
+      "dfs.resolvingcache.invalidation.max.pending";
+  public static final int DFS_RESOLVING_CACHE_INVALIDATION_MAX_PENDING_DEFAULT =
+      100000;
+
+  //how often the root inode is re-read when its changes are not pushed by the
+  //other namenodes, i.e. when the resolving cache is not coherent
+  public static final String DFS_ROOT_INODE_CACHE_REFRESH_INTERVAL_MS =
+      "dfs.namenode.rootcache.refresh.interval.ms";
+  public static final long DFS_ROOT_INODE_CACHE_REFRESH_INTERVAL_MS_DEFAULT =
+      200;
+
+  //safety net refresh of the root inode when its changes are pushed
+  public static final String DFS_ROOT_INODE_CACHE_COHERENT_REFRESH_INTERVAL_MS =
+      "dfs.namenode.rootcache.coherent.refresh.interval.ms";
+  public static final long
+      DFS_ROOT_INODE_CACHE_COHERENT_REFRESH_INTERVAL_MS_DEFAULT = 10000;
   
   public static final String DFS_NDC_ENABLED_KEY = "dfs.ndc.enable";
   public static final boolean DFS_NDC_ENABLED_DEFAULT = false;
@@ -206,6 +280,22 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.namenode.subtree-executor-limit";
   public static final int DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT = 80;
 
+  //number of directories whose children are read by one subtree scan task
+  public static final String DFS_SUBTREE_SCAN_BATCH_SIZE_KEY =
+      "dfs.namenode.subtree-scan.batch-size";
+  public static final int DFS_SUBTREE_SCAN_BATCH_SIZE_DEFAULT = 100;
+
+  //children read and locked by one subtree scan transaction, a batch of
+  //directories is split over several transactions once it is reached
+  public static final String DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_KEY =
+      "dfs.namenode.subtree-scan.batch-max-children";
+  public static final int DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_DEFAULT = 10000;
+
+  //subtree scan tasks of an operation that can be queued or running at once
+  public static final String DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY =
+      "dfs.namenode.subtree-scan.max-inflight-batches";
+  public static final int DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_DEFAULT = 20;
+
   public static final String DFS_SUBTREE_CLEAN_FAILED_OPS_LOCKS_DELAY_KEY =
           "dfs.subtree.clean.failed.ops.locks.delay";
   public static final long DFS_SUBTREE_CLEAN_FAILED_OPS_LOCKS_DELAY_DEFAULT =
@@ -290,6 +380,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
           "dfs.db.inmemory.file.max.size";
   public static final int DFS_DB_INMEMORY_FILE_MAX_SIZE_DEFAULT = 1*1024; // 1KB
 
+  public static final String DFS_DB_FILE_CACHE_SIZE_KEY =
+          "dfs.db.file.cache.size";
+  public static final long DFS_DB_FILE_CACHE_SIZE_DEFAULT = 64 * 1024 * 1024;
+
+  public static final String DFS_DB_FILE_CACHE_MAX_FILE_SIZE_KEY =
+          "dfs.db.file.cache.max.file.size";
+  public static final int DFS_DB_FILE_CACHE_MAX_FILE_SIZE_DEFAULT = 64 * 1024;
+
   public static final String DFS_DN_INCREMENTAL_BR_DISPATCHER_THREAD_POOL_SIZE_KEY =
           "dfs.dn.incremental.br.thread.pool.size";
   public static final int DFS_DN_INCREMENTAL_BR_DISPATCHER_THREAD_POOL_SIZE_DEFAULT = 256;
@@ -319,6 +417,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_CLIENT_WRITE_PACKET_SIZE_KEY =
       "dfs.client-write-packet-size";
   public static final int DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT = 64 * 1024;
+  public static final String DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_KEY =
+      "dfs.client.write.packet.pool.capacity";
+  public static final long DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_DEFAULT =
+      32 * 1024 * 1024;
   public static final String
       DFS_CLIENT_WRITE_REPLACE_DATANODE_ON_FAILURE_ENABLE_KEY =
       "dfs.client.block.write.replace-datanode-on-failure.enable";
@@ -422,6 +524,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_MAX_LOCKED_MEMORY_DEFAULT = 0;
   public static final String  DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_KEY = "dfs.datanode.fsdatasetcache.max.threads.per.volume";
   public static final int     DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_DEFAULT = 4;
+  public static final String  DFS_DATANODE_FSDATASET_LOCK_STRIPES_KEY = "dfs.datanode.fsdataset.lock.stripes";
+  public static final int     DFS_DATANODE_FSDATASET_LOCK_STRIPES_DEFAULT = 1024;
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
     "dfs.namenode.path.based.cache.block.map.allocation.percent";
   public static final float    DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT = 0.25f;
@@ -732,6 +836,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY = "dfs.datanode.transfer.queue.size";
+  public static final int     DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT = 1024;
 
   public static final String DFS_DATANODE_NUMBLOCKS_KEY =
       "dfs.datanode.numblocks";
@@ -739,9 +845,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_DATANODE_SCAN_PERIOD_HOURS_KEY =
       "dfs.datanode.scan.period.hours";
   public static final int DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 0;
+  public static final String DFS_DATANODE_SCAN_MAX_LATENCY_RATIO_KEY =
+      "dfs.datanode.scan.max.latency.ratio";
+  public static final float DFS_DATANODE_SCAN_MAX_LATENCY_RATIO_DEFAULT = 2.0f;
   public static final String DFS_DATANODE_TRANSFERTO_ALLOWED_KEY =
       "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
+  public static final String DFS_DATANODE_MMAP_CHECKSUMS_KEY =
+      "dfs.datanode.mmap.checksums";
+  public static final boolean DFS_DATANODE_MMAP_CHECKSUMS_DEFAULT = true;
   public static final String DFS_HEARTBEAT_INTERVAL_KEY =
       "dfs.heartbeat.interval";
   public static final long DFS_HEARTBEAT_INTERVAL_DEFAULT = 3;
@@ -950,6 +1062,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NUM_BUCKETS_KEY =
       "dfs.blockreport.numbuckets";
   public static final int DFS_NUM_BUCKETS_DEFAULT = 1000;
+  //sub-buckets per bucket, whose hashes narrow down a mismatching bucket
+  //before its blocks are processed. 0, the default,
+  //disables the sub-buckets
+  public static final String DFS_NUM_SUB_BUCKETS_KEY =
+      "dfs.blockreport.numsubbuckets";
+  public static final int DFS_NUM_SUB_BUCKETS_DEFAULT = 0;
+  //datanodes report a storage with fewer buckets, dividing the number of
+  //buckets, when it holds few blocks and the namenode supports it. 0 always
+  //reports all the buckets
+  public static final String DFS_BUCKET_TARGET_BLOCKS_KEY =
+      "dfs.blockreport.bucket.target-blocks";
+  public static final int DFS_BUCKET_TARGET_BLOCKS_DEFAULT = 0;
+  //hash bucket changes are accumulated in memory and written every interval
+  //instead of locking the bucket in each transaction
+  public static final String DFS_BUCKET_COALESCE_ENABLED_KEY =
+      "dfs.blockreport.bucket.coalesce.enabled";
+  public static final boolean DFS_BUCKET_COALESCE_ENABLED_DEFAULT = false;
+  public static final String DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_KEY =
+      "dfs.blockreport.bucket.coalesce.flush-interval-ms";
+  public static final long DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_DEFAULT = 1000;
   
   public static final String DFS_BLOCK_FETCHER_NB_THREADS = "dfs.block.fetcher.nb.threads";
   public static final int DFS_BLOCK_FETCHER_NB_THREADS_DEFAULT = 10;
@@ -972,6 +1104,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long DFS_NAMENODE_RETRY_CACHE_EXPIRYTIME_MILLIS_DEFAULT = 600000; // 10 minutes
   public static final String DFS_NAMENODE_RETRY_CACHE_HEAP_PERCENT_KEY = "dfs.namenode.retrycache.heap.percent";
   public static final float DFS_NAMENODE_RETRY_CACHE_HEAP_PERCENT_DEFAULT = 0.03f;
+  // Whether the entries of the first attempts are locked in the transaction
+  // of their operation, otherwise they are only written in it
+  public static final String DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_KEY = "dfs.namenode.retrycache.lock-first-attempts";
+  public static final boolean DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_DEFAULT = true;
   
   // The number of NN response dropped by client proactively in each RPC call.
   // For testing NN retry cache, we can set this property with positive value.
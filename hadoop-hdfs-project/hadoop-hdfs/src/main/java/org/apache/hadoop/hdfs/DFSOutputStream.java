@@ -246,7 +246,8 @@ private class Packet {
       this.offsetInBlock = offsetInBlock;
       this.seqno = seqno;
 
-      buf = new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize];
+      buf = dfsClient.packetBufferPool.getBuffer(
+          PacketHeader.PKT_MAX_HEADER_LEN + pktSize);
 
       checksumStart = PacketHeader.PKT_MAX_HEADER_LEN;
       checksumPos = checksumStart;
@@ -318,6 +319,17 @@ void writeTo(DataOutputStream stm) throws IOException {
       }
     }
 
+    /**
+     * Return the buffer of an acknowledged packet to the pool of the client.
+     * The packet must not be written anymore.
+     */
+    void releaseBuffer() {
+      if (buf != null) {
+        dfsClient.packetBufferPool.returnBuffer(buf);
+        buf = null;
+      }
+    }
+
     // get the packet's last byte's offset in the block
     long getLastByteOffsetBlock() {
       return offsetInBlock + dataPos - dataStart;
@@ -937,6 +949,7 @@ public void run() {
               ackQueue.removeFirst();
               dataQueue.notifyAll();
             }
+            one.releaseBuffer();
           } catch (Exception e) {
             if (!responderClosed) {
               if (e instanceof IOException) {
@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 
 import org.apache.hadoop.net.unix.DomainSocket;
 
@@ -125,6 +126,11 @@ public String toString() {
   public DomainSocket getDomainSocket() {
     return null;
   }
+
+  @Override
+  public SelectableChannel getSelectableChannel() {
+    return null;
+  }
   
   @Override
   public boolean hasSecureChannel() {
@@ -21,6 +21,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 
 import org.apache.hadoop.net.unix.DomainSocket;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -114,6 +115,11 @@ public String toString() {
   public DomainSocket getDomainSocket() {
     return socket;
   }
+
+  @Override
+  public SelectableChannel getSelectableChannel() {
+    return null;
+  }
   
   @Override
   public boolean hasSecureChannel() {
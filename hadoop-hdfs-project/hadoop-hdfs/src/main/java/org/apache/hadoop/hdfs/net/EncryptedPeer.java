@@ -25,6 +25,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 
 /**
  * Represents a peer that we communicate with by using an encrypted
@@ -134,6 +135,12 @@ public String toString() {
   public DomainSocket getDomainSocket() {
     return enclosedPeer.getDomainSocket();
   }
+
+  @Override
+  public SelectableChannel getSelectableChannel() {
+    // the encrypted stream may hold data it read ahead
+    return null;
+  }
   
   @Override
   public boolean hasSecureChannel() {
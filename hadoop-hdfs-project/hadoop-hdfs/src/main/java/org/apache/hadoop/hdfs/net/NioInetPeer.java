@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 
 import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.SocketOutputStream;
@@ -128,6 +129,11 @@ public String toString() {
   public DomainSocket getDomainSocket() {
     return null;
   }
+
+  @Override
+  public SelectableChannel getSelectableChannel() {
+    return socket.getChannel();
+  }
   
   @Override
   public boolean hasSecureChannel() {
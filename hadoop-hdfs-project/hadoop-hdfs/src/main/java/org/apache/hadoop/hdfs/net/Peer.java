@@ -22,6 +22,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.net.unix.DomainSocket;
 
@@ -112,6 +113,13 @@ public interface Peer extends Closeable {
    *                       peer, or null if there is none.
    */
   public DomainSocket getDomainSocket();
+
+  /**
+   * @return               The channel of the connection that can be
+   *                       waited on with a selector, or null if the peer
+   *                       cannot be multiplexed.
+   */
+  public SelectableChannel getSelectableChannel();
   
   /**
    * Return true if the channel is secure.
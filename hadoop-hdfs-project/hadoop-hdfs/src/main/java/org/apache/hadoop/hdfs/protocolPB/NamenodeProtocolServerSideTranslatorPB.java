@@ -19,6 +19,7 @@
 
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.VersionRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.VersionResponseProto;
@@ -26,12 +27,17 @@
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlockKeysResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlocksRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlocksResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.InvalidateResolvingCacheRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.InvalidateResolvingCacheResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.InvalidatedINodeProto;
 import org.apache.hadoop.hdfs.security.token.block.ExportedBlockKeys;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implementation for protobuf service that forwards requests
@@ -42,6 +48,10 @@
     implements NamenodeProtocolPB {
   private final NamenodeProtocol impl;
 
+  private final static InvalidateResolvingCacheResponseProto
+      VOID_INVALIDATE_RESOLVING_CACHE_RESPONSE =
+      InvalidateResolvingCacheResponseProto.newBuilder().build();
+
   public NamenodeProtocolServerSideTranslatorPB(NamenodeProtocol impl) {
     this.impl = impl;
   }
@@ -90,4 +100,23 @@ public VersionResponseProto versionRequest(RpcController controller,
     return VersionResponseProto.newBuilder().setInfo(PBHelper.convert(info))
         .build();
   }
+
+  @Override
+  public InvalidateResolvingCacheResponseProto invalidateResolvingCache(
+      RpcController controller, InvalidateResolvingCacheRequestProto request)
+      throws ServiceException {
+    List<INodeIdentifier> inodes =
+        new ArrayList<>(request.getInodesCount());
+    for (InvalidatedINodeProto inode : request.getInodesList()) {
+      inodes.add(new INodeIdentifier(inode.getInodeId(), inode.getParentId(),
+          inode.getName(), inode.getPartitionId()));
+    }
+    try {
+      impl.invalidateResolvingCache(request.getSenderId(), inodes,
+          request.getFlushAll());
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+    return VOID_INVALIDATE_RESOLVING_CACHE_RESPONSE;
+  }
 }
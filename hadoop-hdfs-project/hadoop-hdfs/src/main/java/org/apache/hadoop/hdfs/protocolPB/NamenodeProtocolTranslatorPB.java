@@ -19,6 +19,7 @@
 
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
@@ -27,6 +28,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlockKeysRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlockKeysResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.GetBlocksRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.InvalidateResolvingCacheRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.NamenodeProtocolProtos.InvalidatedINodeProto;
 import org.apache.hadoop.hdfs.security.token.block.ExportedBlockKeys;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
@@ -38,6 +41,7 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 import org.apache.hadoop.ipc.ProtocolTranslator;
 
 /**
@@ -114,6 +118,24 @@ public NamespaceInfo versionRequest() throws IOException {
     }
   }
 
+  @Override
+  public void invalidateResolvingCache(long senderId,
+      List<INodeIdentifier> inodes, boolean flushAll) throws IOException {
+    InvalidateResolvingCacheRequestProto.Builder req =
+        InvalidateResolvingCacheRequestProto.newBuilder()
+            .setSenderId(senderId).setFlushAll(flushAll);
+    for (INodeIdentifier inode : inodes) {
+      req.addInodes(InvalidatedINodeProto.newBuilder()
+          .setInodeId(inode.getInodeId()).setParentId(inode.getPid())
+          .setName(inode.getName()).setPartitionId(inode.getPartitionId()));
+    }
+    try {
+      rpcProxy.invalidateResolvingCache(NULL_CONTROLLER, req.build());
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public boolean isMethodSupported(String methodName) throws IOException {
     return RpcClientUtil.isMethodSupported(rpcProxy, NamenodeProtocolPB.class,
@@ -426,7 +426,7 @@ public static NamespaceInfo convert(NamespaceInfoProto info) {
     StorageInfoProto storage = info.getStorageInfo();
     return new NamespaceInfo(storage.getNamespaceID(), storage.getClusterID(),
         info.getBlockPoolID(), storage.getCTime(), info.getBuildVersion(),
-        info.getSoftwareVersion());
+        info.getSoftwareVersion(), info.getCapabilities());
   }
 
   public static NamenodeCommand convert(NamenodeCommandProto cmd) {
@@ -1112,7 +1112,8 @@ public static NamespaceInfoProto convert(NamespaceInfo info) {
     return NamespaceInfoProto.newBuilder().setBlockPoolID(info.getBlockPoolID())
         .setBuildVersion(info.getBuildVersion()).setUnused(0)
         .setStorageInfo(PBHelper.convert((StorageInfo) info))
-        .setSoftwareVersion(info.getSoftwareVersion()).build();
+        .setSoftwareVersion(info.getSoftwareVersion())
+        .setCapabilities(info.getCapabilities()).build();
   }
 
   // Located Block Arrays and Lists
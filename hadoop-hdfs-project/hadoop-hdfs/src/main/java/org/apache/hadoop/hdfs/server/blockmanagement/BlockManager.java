@@ -30,7 +30,6 @@
 import io.hops.metadata.HdfsStorageFactory;
 import io.hops.metadata.HdfsVariables;
 import io.hops.metadata.blockmanagement.ExcessReplicasMap;
-import io.hops.metadata.common.entity.Variable;
 import io.hops.metadata.hdfs.dal.BlockInfoDataAccess;
 import io.hops.metadata.hdfs.dal.MisReplicatedRangeQueueDataAccess;
 import io.hops.metadata.hdfs.entity.EncodingStatus;
@@ -338,6 +337,16 @@ public long getPostponedMisreplicatedBlocksCount() {
    * Number of threads procession batches in parallel
    */
   private final int removalNoThreads;
+
+  /**
+   * Number of under replicated blocks whose replication work is computed in
+   * one batch
+   */
+  private final int replicationWorkBatchSize;
+  /**
+   * Number of threads computing the replication work of batches in parallel
+   */
+  private final int replicationWorkNoThreads;
   
   private final int numBuckets;
   private final int blockFetcherNBThreads;
@@ -348,7 +357,9 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.namesystem = namesystem;
     this.numBuckets = conf.getInt(DFSConfigKeys.DFS_NUM_BUCKETS_KEY,
         DFSConfigKeys.DFS_NUM_BUCKETS_DEFAULT);
-    HashBuckets.initialize(numBuckets);
+    HashBuckets.initialize(numBuckets,
+        conf.getInt(DFSConfigKeys.DFS_NUM_SUB_BUCKETS_KEY,
+            DFSConfigKeys.DFS_NUM_SUB_BUCKETS_DEFAULT));
     
     this.blockFetcherNBThreads = conf.getInt(DFSConfigKeys.DFS_BLOCK_FETCHER_NB_THREADS,
         DFSConfigKeys.DFS_BLOCK_FETCHER_NB_THREADS_DEFAULT);
@@ -452,6 +463,13 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.removalNoThreads = conf.getInt(
         DFSConfigKeys.DFS_NAMENODE_REMOVAL_NO_OF_THREADS,
         DFSConfigKeys.DFS_NAMENODE_REMOVAL_NO_OF_THREADS_DEFAULT);
+
+    this.replicationWorkBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT);
+    this.replicationWorkNoThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_NO_OF_THREADS,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_NO_OF_THREADS_DEFAULT);
         
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
@@ -466,6 +484,8 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     LOG.info("misReplicatedNoOfThreads   = " + processMisReplicatedNoThreads);   
     LOG.info("removalBatchSize           = " + removalBatchSize);
     LOG.info("removalNoOfThreads         = " + removalNoThreads);   
+    LOG.info("replicationWorkBatchSize   = " + replicationWorkBatchSize);
+    LOG.info("replicationWorkNoOfThreads = " + replicationWorkNoThreads);
   }
 
   private NameNodeBlockTokenSecretManager createBlockTokenSecretManager(
@@ -555,6 +575,7 @@ public void activate(Configuration conf) throws IOException {
     pendingReplications.start();
     datanodeManager.activate(conf);
     this.replicationThread.start();
+    HashBuckets.getInstance().start(conf);
     if (isBlockTokenEnabled()) {
       this.blockTokenSecretManager.generateKeysIfNeeded();
     }
@@ -568,6 +589,7 @@ public void close() {
     }
     datanodeManager.close();
     pendingReplications.stop();
+    HashBuckets.getInstance().stop();
     blocksMap.close();
   }
 
@@ -1684,15 +1706,28 @@ int computeInvalidateWork(int nodesToProcess) throws IOException {
    * @return number of blocks scheduled for replication during this iteration.
    */
   int computeReplicationWork(int blocksToProcess) throws IOException {
+    long start = Time.monotonicNow();
     List<List<Block>> blocksToReplicate =
         neededReplications.chooseUnderReplicatedBlocks(blocksToProcess);
+    long chooseLatency = Time.monotonicNow() - start;
 
-    return computeReplicationWorkForBlocks(blocksToReplicate);
+    int scheduledWork = computeReplicationWorkForBlocks(blocksToReplicate);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationWork(chooseLatency, scheduledWork);
+    }
+    return scheduledWork;
   }
 
   /**
    * Replicate a set of blocks
    * Calls {@link #computeReplicationWorkForBlock(Block, int)} for every block.
+   * The blocks of a priority are split in batches computed in parallel, a
+   * priority being done before the next one is started. Only the checks on
+   * the queues are serialized on {@link #neededReplications}; the locks and
+   * reads of a block transaction, the choice of the targets and the commit
+   * run concurrently. The replication index decrements committed by the
+   * block transactions are written once all the blocks are done.
    *
    * @param blocksToReplicate blocks to be replicated, for each priority
    * @return the number of blocks scheduled for replication
@@ -1700,13 +1735,48 @@ int computeReplicationWork(int blocksToProcess) throws IOException {
   @VisibleForTesting
   int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate)
       throws IOException {
-    int scheduledWork = 0;
+    final AtomicInteger scheduledWork = new AtomicInteger(0);
     for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
-      for (Block block : blocksToReplicate.get(priority)) {
-        scheduledWork += computeReplicationWorkForBlock(block, priority);
+      final List<Block> blocks = blocksToReplicate.get(priority);
+      final int blocksPriority = priority;
+      if (blocks.isEmpty()) {
+        continue;
+      }
+      try {
+        Slicer.slice(blocks.size(), replicationWorkBatchSize,
+            replicationWorkNoThreads,
+            ((FSNamesystem) namesystem).getFSOperationsExecutor(),
+            new Slicer.OperationHandler() {
+          @Override
+          public void handle(int startIndex, int endIndex)
+              throws Exception {
+            for (Block block : blocks.subList(startIndex, endIndex)) {
+              scheduledWork.addAndGet(
+                  computeReplicationWorkForBlock(block, blocksPriority));
+            }
+          }
+        });
+      } catch (Exception ex) {
+        if (ex instanceof IOException) {
+          throw (IOException) ex;
+        }
+        throw new IOException(ex);
       }
     }
-    return scheduledWork;
+    neededReplications.flushReplicationIndexDecrements();
+    return scheduledWork.get();
+  }
+
+  /**
+   * Counts the replication index decrements of the transaction that just
+   * committed.
+   */
+  public static void commitStagedReplicationIndexDecrements() {
+    UnderReplicatedBlocks.commitStagedDecrements();
+  }
+
+  public static void discardStagedReplicationIndexDecrements() {
+    UnderReplicatedBlocks.discardStagedDecrements();
   }
 
   /**
@@ -2487,14 +2557,17 @@ public void handle(int startIndex, int endIndex)
   
   
   private static class HashMatchingResult{
-    private final List<Integer> matchingBuckets;
-    private final List<Integer> mismatchedBuckets;
-    
-    HashMatchingResult(List<Integer> matchingBuckets, List<Integer>
-        mismatchedBuckets){
-      this.matchingBuckets = matchingBuckets;
-      this.mismatchedBuckets = mismatchedBuckets;
-    }
+    private final List<Integer> matchingBuckets = new ArrayList<>();
+    private final List<Integer> mismatchedBuckets = new ArrayList<>();
+    //reported blocks of the mismatched buckets, only those of the mismatched
+    //sub-buckets when the bucket was narrowed down
+    private final Map<Integer, List<ReportedBlock>> mismatchedBlocks =
+        new HashMap<>();
+    //mismatched sub-buckets of the buckets that were narrowed down
+    private final Map<Integer, List<Integer>> mismatchedSubBuckets =
+        new HashMap<>();
+    //sum of the stored hashes of the matching sub-buckets of these buckets
+    private final Map<Integer, Long> matchingSubBucketsHash = new HashMap<>();
   }
   
   public class ReportStatistics{
@@ -2507,12 +2580,14 @@ public void handle(int startIndex, int endIndex)
     int numToUC;
     int numToAdd;
     int numConsideredSafeIfInSafemode;
+    public int numBucketsNarrowed;
   
     @Override
     public String toString() {
-      return String.format("(buckets,bucketsMatching,blocks,toRemove,toInvalidate,toCorrupt,toUC,toAdd," +
-          "safeBlocksIfSafeMode)=(%d,%d,%d,%d,%d,%d,%d,%d,%d)", numBuckets, numBucketsMatching, numBlocks,
-          numToRemove, numToInvalidate, numToCorrupt, numToUC, numToAdd,numConsideredSafeIfInSafemode);
+      return String.format("(buckets,bucketsMatching,bucketsNarrowed,blocks,toRemove,toInvalidate,toCorrupt," +
+          "toUC,toAdd,safeBlocksIfSafeMode)=(%d,%d,%d,%d,%d,%d,%d,%d,%d,%d)", numBuckets, numBucketsMatching,
+          numBucketsNarrowed, numBlocks, numToRemove, numToInvalidate, numToCorrupt, numToUC, numToAdd,
+          numConsideredSafeIfInSafemode);
     }
   }
 
@@ -2537,20 +2612,29 @@ private ReportStatistics reportDiff(final DatanodeStorageInfo storage,
     stats.numBuckets = newReport.getBuckets().length;
     stats.numBlocks = newReport.getNumberOfBlocks();
   
+    if (HashBuckets.getInstance().isFlushing()) {
+      HashBuckets.getInstance().flushPendingDeltas();
+    }
     HashMatchingResult matchingResult = calculateMismatchedHashes(storage, newReport, firstBlockReport);
     stats.numBucketsMatching = matchingResult.matchingBuckets.size();
+    stats.numBucketsNarrowed = matchingResult.mismatchedSubBuckets.size();
     
     
     if(LOG.isDebugEnabled()){
-      LOG.debug(String.format("%d/%d reported hashes matched",
-          newReport.getHashes().length-matchingResult.mismatchedBuckets.size(),
-          newReport.getHashes().length));
+      LOG.debug(String.format("%d/%d buckets matched, %d reported, %d " +
+              "mismatched buckets narrowed down to their sub-buckets",
+          matchingResult.matchingBuckets.size(),
+          matchingResult.matchingBuckets.size() +
+              matchingResult.mismatchedBuckets.size(),
+          newReport.getHashes().length,
+          matchingResult.mismatchedSubBuckets.size()));
     }
     
     final Set<Long> aggregatedSafeBlocks = new HashSet<>();
     
-    final Map<Long, Long> mismatchedBlocksAndInodes = storage
-            .getAllStorageReplicasInBuckets(matchingResult.mismatchedBuckets);
+    final Map<Long, Long> mismatchedBlocksAndInodes = removeNarrowedReplicas(
+        storage.getAllStorageReplicasInBuckets(
+            matchingResult.mismatchedBuckets), matchingResult);
 
     final Set<Long> allMismatchedBlocksOnServer = mismatchedBlocksAndInodes.keySet();
     //Safe mode report and first report for storage will have all buckets mismatched.
@@ -2593,8 +2677,13 @@ private void processMisMatchingBuckets(final DatanodeStorageInfo storage,
 
     final Collection<Callable<Void>> subTasks = new ArrayList<>();
     for (final int bucketId : matchingResult.mismatchedBuckets) {
-      final Bucket bucket = newReport.getBuckets()[bucketId];
-      final List<ReportedBlock> bucketBlocks = Arrays.asList(bucket.getBlocks());
+      final List<ReportedBlock> bucketBlocks =
+          matchingResult.mismatchedBlocks.get(bucketId);
+      final List<Integer> subBuckets =
+          matchingResult.mismatchedSubBuckets.get(bucketId);
+      final long matchingSubBucketsHash =
+          subBuckets == null ? 0 :
+              matchingResult.matchingSubBucketsHash.get(bucketId);
       final Callable<Void> subTask = new Callable<Void>() {
         @Override
         public Void call() throws IOException {
@@ -2603,8 +2692,20 @@ public Void call() throws IOException {
               toCorrupt, toUC, firstBlockReport,
               mismatchedBlocksAndInodes,
               aggregatedSafeBlocks, allMismatchedBlocksOnServer,
-              invalidatedReplicas, bucketBlocks);
-          processReportHandler.handle();
+              invalidatedReplicas, bucketBlocks, subBuckets,
+              matchingSubBucketsHash);
+          HashBuckets hashBuckets = HashBuckets.getInstance();
+          hashBuckets.lockForOverwrite();
+          try {
+            processReportHandler.handle();
+            hashBuckets.discardPendingDeltas(storage.getSid(), bucketId);
+            for (int sub : overwrittenSubBuckets(subBuckets)) {
+              hashBuckets.discardPendingDeltas(storage.getSid(),
+                  hashBuckets.getSubBucketId(bucketId, sub));
+            }
+          } finally {
+            hashBuckets.unlockForOverwrite();
+          }
           return null;
         }
       };
@@ -2635,7 +2736,18 @@ private HopsTransactionalRequestHandler processBucketInternal(final DatanodeStor
                                                                 final Set<Long> aggregatedSafeBlocks,
                                                                 final Set<Long> allMismatchedBlocksOnServer,
                                                                 final Map<Long,Long> invalidatedReplicas,
-                                                                final List<ReportedBlock> reportedBlocks ) {
+                                                                final List<ReportedBlock> reportedBlocks,
+                                                                final List<Integer> subBuckets,
+                                                                final long matchingSubBucketsHash) {
+    final HashBuckets hashBuckets = HashBuckets.getInstance();
+    final List<Integer> overwrittenSubBuckets =
+        overwrittenSubBuckets(subBuckets);
+    final int[] lockedBuckets = new int[1 + overwrittenSubBuckets.size()];
+    lockedBuckets[0] = bucketId;
+    for (int i = 0; i < overwrittenSubBuckets.size(); i++) {
+      lockedBuckets[i + 1] = hashBuckets.getSubBucketId(bucketId,
+          overwrittenSubBuckets.get(i));
+    }
 
     return new HopsTransactionalRequestHandler(HDFSOperationType.PROCESS_REPORT) {
       @Override
@@ -2660,7 +2772,8 @@ public void acquireLock(TransactionLocks locks) throws IOException {
               Longs.toArray(inodeIds),
               Longs.toArray(unResolvedBlockIds), storage.getSid()));
         }
-        locks.add(lf.getIndividualHashBucketLock(storage.getSid(), bucketId));
+        locks.add(lf.getIndividualHashBucketsLock(storage.getSid(),
+            lockedBuckets));
       }
 
       @Override
@@ -2668,6 +2781,8 @@ public Object performTask() throws IOException {
         // scan the report and process newly reported blocks
         long hash = 0; // Our updated hash should only consider
         // finalized, stored blocks
+        int numSubBuckets = hashBuckets.getNumSubBuckets();
+        long[] subBucketHashes = new long[numSubBuckets];
         for (ReportedBlock brb : reportedBlocks) {
           Block block = new Block();
           block.setNoPersistance(brb.getBlockId(), brb.getLength(),
@@ -2688,19 +2803,45 @@ block, fromBlockReportBlockState(brb.getState()),
               // be removed and are finalized. This helps catch excess
               // replicas as well.
               hash += BlockReport.hashAsFinalized(brb);
+              if (numSubBuckets > 0) {
+                subBucketHashes[BlockReport.subBucket(brb.getBlockId(),
+                    numBuckets, numSubBuckets)] +=
+                    BlockReport.hashAsFinalized(brb);
+              }
             }
           }
         }
 
-        //update bucket hash
-        HashBucket bucket = HashBuckets.getInstance()
-                .getBucket(storage.getSid(), bucketId);
-        bucket.setHash(hash);
+        //update bucket hash, the matching sub-buckets are left as they are
+        HashBucket bucket = hashBuckets.getBucket(storage.getSid(), bucketId);
+        bucket.setHash(hash + matchingSubBucketsHash);
+        for (int sub : overwrittenSubBuckets) {
+          hashBuckets.getBucket(storage.getSid(),
+              hashBuckets.getSubBucketId(bucketId, sub))
+              .setHash(subBucketHashes[sub]);
+        }
         return null;
       }
     };
   }
   
+  /**
+   * @return the sub-buckets whose hashes are overwritten when processing a
+   * bucket: its mismatched sub-buckets if it was narrowed down, all of them
+   * otherwise
+   */
+  private List<Integer> overwrittenSubBuckets(List<Integer> subBuckets) {
+    if (subBuckets != null) {
+      return subBuckets;
+    }
+    int numSubBuckets = HashBuckets.getInstance().getNumSubBuckets();
+    List<Integer> all = new ArrayList<>(numSubBuckets);
+    for (int sub = 0; sub < numSubBuckets; sub++) {
+      all.add(sub);
+    }
+    return all;
+  }
+
   private ReplicaState fromBlockReportBlockState(
       BlockReportBlockState
           state) {
@@ -2717,49 +2858,220 @@ private ReplicaState fromBlockReportBlockState(
     }
   }
 
+  /**
+   * Compares the reported bucket hashes with the stored ones. A datanode may
+   * report a storage with fewer buckets than the namenode stores, their
+   * number dividing {@link #numBuckets}. The stored hashes being additive, a
+   * reported bucket is compared with the sum of the stored buckets it covers
+   * and, when they differ, its blocks are split into the stored buckets and
+   * compared again. A stored bucket that still differs is narrowed down to
+   * its sub-buckets, see {@link #narrowMismatch}. Only the stored buckets or
+   * sub-buckets that differ are processed, so their replicas are the only
+   * ones processed.
+   */
   private HashMatchingResult calculateMismatchedHashes(DatanodeStorageInfo storage,
       BlockReport report, Boolean firstBlockReport) throws IOException {
-    List<HashBucket> storedHashes = HashBuckets.getInstance().getBucketsForStorage(storage);
+    List<HashBucket> storedHashes =
+        HashBuckets.getInstance().getAllBucketsForStorage(storage);
     Map<Integer, HashBucket> storedHashesMap = new HashMap<>();
     for (HashBucket allStorageHash : storedHashes) {
       storedHashesMap.put(allStorageHash.getBucketId(), allStorageHash);
     }
 
-    List<Integer> matchedBuckets = new ArrayList<>();
-    List<Integer> mismatchedBuckets = new ArrayList<>();
+    HashMatchingResult result = new HashMatchingResult();
 
-    for (int i = 0; i < report.getBuckets().length; i++){
-      if (!storedHashesMap.containsKey(i)){
-        //escape early
-        mismatchedBuckets.add(i);
-        continue;
+    int reportedBuckets = report.getBuckets().length;
+    if (reportedBuckets == numBuckets) {
+      for (int i = 0; i < reportedBuckets; i++) {
+        compareBucket(i, Arrays.asList(report.getBuckets()[i].getBlocks()),
+            report.getHashes()[i], storedHashesMap, firstBlockReport, result);
       }
-      
-      long storedHash = storedHashesMap.get(i).getHash();
-      
-      //First block report, or report in safe mode, should always process complete report.
-      if (firstBlockReport) {
-        //if the bucket is empty there is nothing to process 
-        //except if the namenode think that there should be things in the bucket
-        if (report.getBuckets()[i].getBlocks().length == 0 && storedHash == 0) {
-          matchedBuckets.add(i);
-          continue;
+    } else if (reportedBuckets > 0 && numBuckets % reportedBuckets == 0) {
+      for (int i = 0; i < reportedBuckets; i++) {
+        if (!firstBlockReport) {
+          long storedHash = 0;
+          boolean complete = true;
+          for (int fine = i; fine < numBuckets; fine += reportedBuckets) {
+            HashBucket stored = storedHashesMap.get(fine);
+            if (stored == null) {
+              complete = false;
+              break;
+            }
+            storedHash += stored.getHash();
+          }
+          if (complete && storedHash == report.getHashes()[i]) {
+            for (int fine = i; fine < numBuckets; fine += reportedBuckets) {
+              result.matchingBuckets.add(fine);
+            }
+            continue;
+          }
         }
-        mismatchedBuckets.add(i);
-        continue;
+        //narrow the mismatch down to the stored buckets
+        Map<Integer, List<ReportedBlock>> fineBlocks = new HashMap<>();
+        Map<Integer, Long> fineHashes = new HashMap<>();
+        splitIntoBuckets(report.getBuckets()[i].getBlocks(), fineBlocks,
+            fineHashes);
+        for (int fine = i; fine < numBuckets; fine += reportedBuckets) {
+          compareBucket(fine, fineBlocks.get(fine), fineHashes.get(fine),
+              storedHashesMap, firstBlockReport, result);
+        }
+      }
+    } else {
+      LOG.warn("Storage " + storage.getStorageID() + " reported " +
+          reportedBuckets + " buckets, which does not divide the " +
+          numBuckets + " stored buckets. Comparing all the stored buckets");
+      Map<Integer, List<ReportedBlock>> fineBlocks = new HashMap<>();
+      Map<Integer, Long> fineHashes = new HashMap<>();
+      for (Bucket bucket : report.getBuckets()) {
+        splitIntoBuckets(bucket.getBlocks(), fineBlocks, fineHashes);
       }
+      for (int fine = 0; fine < numBuckets; fine++) {
+        compareBucket(fine, fineBlocks.get(fine), fineHashes.get(fine),
+            storedHashesMap, firstBlockReport, result);
+      }
+    }
+
+    assert result.matchingBuckets.size() + result.mismatchedBuckets.size() ==
+        numBuckets;
+    return result;
+  }
 
-      long reportedHash = report.getHashes()[i];
+  private void splitIntoBuckets(ReportedBlock[] blocks,
+      Map<Integer, List<ReportedBlock>> bucketBlocks,
+      Map<Integer, Long> bucketHashes) {
+    for (ReportedBlock block : blocks) {
+      int bucketId = BlockReport.bucket(block.getBlockId(), numBuckets);
+      List<ReportedBlock> list = bucketBlocks.get(bucketId);
+      if (list == null) {
+        list = new ArrayList<>();
+        bucketBlocks.put(bucketId, list);
+      }
+      list.add(block);
+      Long hash = bucketHashes.get(bucketId);
+      bucketHashes.put(bucketId, (hash == null ? 0 : hash) +
+          BlockReport.hash(block));
+    }
+  }
+
+  private void compareBucket(int bucketId, List<ReportedBlock> blocks,
+      Long reportedHash, Map<Integer, HashBucket> storedHashesMap,
+      boolean firstBlockReport, HashMatchingResult result) {
+    if (blocks == null) {
+      blocks = Collections.emptyList();
+    }
+    if (reportedHash == null) {
+      reportedHash = 0L;
+    }
+    HashBucket stored = storedHashesMap.get(bucketId);
+    boolean matching;
+    if (stored == null) {
+      matching = false;
+    } else if (firstBlockReport) {
+      //First block report, or report in safe mode, should always process complete report.
+      //if the bucket is empty there is nothing to process
+      //except if the namenode think that there should be things in the bucket
+      matching = blocks.isEmpty() && stored.getHash() == 0;
+    } else {
+      matching = stored.getHash() == reportedHash;
+    }
+    if (matching) {
+      result.matchingBuckets.add(bucketId);
+    } else {
+      result.mismatchedBuckets.add(bucketId);
+      if (!firstBlockReport) {
+        blocks = narrowMismatch(bucketId, blocks, stored, storedHashesMap,
+            result);
+      }
+      result.mismatchedBlocks.put(bucketId, blocks);
+    }
+  }
 
-      if (storedHash == reportedHash){
-        matchedBuckets.add(i);
+  /**
+   * Narrows a mismatching bucket down to the sub-buckets whose reported
+   * hashes differ from the stored ones, as the namenode keeps a hash per
+   * sub-bucket. The stored sub-bucket hashes are only trusted while they add
+   * up to the hash of their bucket, which they do not while a delta is
+   * pending for them on another namenode, or once the bucket was overwritten
+   * before the sub-buckets existed.
+   *
+   * @return the reported blocks of the mismatching sub-buckets, or all the
+   * blocks of the bucket if it cannot be narrowed down
+   */
+  private List<ReportedBlock> narrowMismatch(int bucketId,
+      List<ReportedBlock> blocks, HashBucket stored,
+      Map<Integer, HashBucket> storedHashesMap, HashMatchingResult result) {
+    HashBuckets hashBuckets = HashBuckets.getInstance();
+    int numSubBuckets = hashBuckets.getNumSubBuckets();
+    if (numSubBuckets == 0 || stored == null) {
+      return blocks;
+    }
+    long[] storedSubHashes = new long[numSubBuckets];
+    long storedSum = 0;
+    for (int sub = 0; sub < numSubBuckets; sub++) {
+      HashBucket subBucket =
+          storedHashesMap.get(hashBuckets.getSubBucketId(bucketId, sub));
+      storedSubHashes[sub] = subBucket == null ? 0 : subBucket.getHash();
+      storedSum += storedSubHashes[sub];
+    }
+    if (storedSum != stored.getHash()) {
+      return blocks;
+    }
+
+    long[] reportedSubHashes = new long[numSubBuckets];
+    for (ReportedBlock block : blocks) {
+      reportedSubHashes[BlockReport.subBucket(block.getBlockId(), numBuckets,
+          numSubBuckets)] += BlockReport.hash(block);
+    }
+    List<Integer> mismatchedSubs = new ArrayList<>();
+    boolean[] mismatching = new boolean[numSubBuckets];
+    long matchingHash = 0;
+    for (int sub = 0; sub < numSubBuckets; sub++) {
+      if (reportedSubHashes[sub] != storedSubHashes[sub]) {
+        mismatchedSubs.add(sub);
+        mismatching[sub] = true;
       } else {
-        mismatchedBuckets.add(i);
+        matchingHash += storedSubHashes[sub];
       }
     }
+    if (mismatchedSubs.isEmpty()) {
+      return blocks;
+    }
 
-    assert matchedBuckets.size() + mismatchedBuckets.size() == report.getHashes().length;
-    return new HashMatchingResult(matchedBuckets, mismatchedBuckets);
+    List<ReportedBlock> narrowed = new ArrayList<>();
+    for (ReportedBlock block : blocks) {
+      if (mismatching[BlockReport.subBucket(block.getBlockId(), numBuckets,
+          numSubBuckets)]) {
+        narrowed.add(block);
+      }
+    }
+    result.mismatchedSubBuckets.put(bucketId, mismatchedSubs);
+    result.matchingSubBucketsHash.put(bucketId, matchingHash);
+    return narrowed;
+  }
+
+  /**
+   * Leaves out the stored replicas of the matching sub-buckets of the
+   * buckets that were narrowed down, which are neither processed nor
+   * removed.
+   */
+  private Map<Long, Long> removeNarrowedReplicas(
+      Map<Long, Long> blocksAndInodes, HashMatchingResult result) {
+    if (result.mismatchedSubBuckets.isEmpty()) {
+      return blocksAndInodes;
+    }
+    int numSubBuckets = HashBuckets.getInstance().getNumSubBuckets();
+    //the buckets processed in parallel remove the replicas they find
+    Map<Long, Long> narrowed = new ConcurrentHashMap<>();
+    for (Map.Entry<Long, Long> entry : blocksAndInodes.entrySet()) {
+      long blockId = entry.getKey();
+      List<Integer> subs = result.mismatchedSubBuckets.get(
+          BlockReport.bucket(blockId, numBuckets));
+      if (subs == null || subs.contains(BlockReport.subBucket(blockId,
+          numBuckets, numSubBuckets))) {
+        narrowed.put(blockId, entry.getValue());
+      }
+    }
+    return narrowed;
   }
   
   /**
@@ -4291,8 +4603,10 @@ public void acquireLock(TransactionLocks locks) throws IOException {
               locks.add(lf.getIndivdualEncodingStatusLock(LockType.WRITE,
                   inodeIdentifier.getInodeId()));
             }
-            locks.add(lf.getIndividualHashBucketLock(storage.getSid(), HashBuckets
-                .getInstance().getBucketForBlock(rdbi.getBlock())));
+            if (!HashBuckets.getInstance().isCoalescing()) {
+              locks.add(lf.getIndividualHashBucketLock(storage.getSid(),
+                  HashBuckets.getInstance().getBucketForBlock(rdbi.getBlock())));
+            }
           }
 
           @Override
@@ -5185,7 +5499,6 @@ public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = LockFactory.getInstance();
         locks.add(lf.getIndividualINodeLock(INodeLockType.WRITE, inodeIdentifier, true))
             .add(lf.getBlockLock(b.getBlockId(), inodeIdentifier))
-            .add(lf.getVariableLock(Variable.Finder.ReplicationIndex, LockType.WRITE))
             .add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.PE, BLK.UR, BLK.UC));
       }
 
@@ -31,30 +31,90 @@
 import io.hops.transaction.lock.TransactionLocks;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.BlockReport;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * The block report hashes of the storages, one per bucket of blocks.
+ *
+ * When coalescing is enabled the replica changes do not update the bucket
+ * rows in their own transaction, which would lock the bucket and serialize
+ * all the changes of a storage across the namenodes. Their hash deltas are
+ * staged and, once the transaction commits, added to the pending deltas of
+ * the namenode. The deltas being additive, the pending deltas of a bucket
+ * are merged and written every flush interval, all the buckets in one
+ * transaction.
+ *
+ * Resetting the buckets of a storage and processing a bucket of a full
+ * block report overwrite the stored hashes, the deltas that are pending for
+ * them at that time are discarded. A flush does not run while a bucket is
+ * being overwritten, see {@link #lockForOverwrite()}. The pending deltas are
+ * flushed before a full report is compared with the stored hashes. A hash
+ * that is off because of a delta that was still pending on another namenode
+ * makes its bucket mismatch, the next report then processes it and
+ * overwrites the hash.
+ *
+ * When {@code numSubBuckets} is set, 0 by default, each bucket is also
+ * split into that many sub-buckets, whose hashes are stored as buckets with
+ * ids from {@code numBuckets} on, see {@link #getSubBucketId(int, int)}. A
+ * full report whose bucket mismatches compares the sub-buckets of the
+ * bucket, so that only the blocks of the mismatching sub-buckets are
+ * processed. The sub-bucket hashes always go through the pending deltas,
+ * whether coalescing is enabled or not, so they are only used while they add
+ * up to the hash of their bucket.
+ */
 public class HashBuckets {
   
   static final Log LOG = LogFactory.getLog(HashBuckets.class);
   
   private static HashBuckets instance;
   private static int numBuckets;
+  private static int numSubBuckets;
+
+  private volatile boolean coalescing = false;
+  private volatile boolean flushing = false;
+  private long flushInterval;
+  private Daemon flusher;
+  //deltas of the committed transactions that are not in the database yet
+  private final Map<Long, Long> pendingDeltas = new HashMap<>();
+  //deltas of the running transaction
+  private final ThreadLocal<Map<Long, Long>> stagedDeltas =
+      new ThreadLocal<Map<Long, Long>>() {
+        @Override
+        protected Map<Long, Long> initialValue() {
+          return new HashMap<>();
+        }
+      };
+  //flushes hold the write lock, overwrites of the stored hashes the read lock
+  private final ReentrantReadWriteLock flushLock =
+      new ReentrantReadWriteLock();
 
   public static void initialize(int numBuckets){
+    initialize(numBuckets, 0);
+  }
+
+  public static void initialize(int numBuckets, int numSubBuckets){
     if (instance != null){
       LOG.warn("initialize called again after already initialized.");
     } else {
-      instance = new HashBuckets(numBuckets);
+      instance = new HashBuckets(numBuckets, numSubBuckets);
     }
   }
   
-  private HashBuckets(int numBuckets){
+  private HashBuckets(int numBuckets, int numSubBuckets){
     this.numBuckets = numBuckets;
+    this.numSubBuckets = numSubBuckets;
   }
   
   public static HashBuckets getInstance() {
@@ -65,12 +125,99 @@ public static HashBuckets getInstance() {
     }
   }
   
+  /**
+   * Starts coalescing the hash deltas if it is enabled, and flushing the
+   * pending deltas if they are coalesced or there are sub-buckets.
+   */
+  public synchronized void start(Configuration conf) {
+    if (flushing) {
+      return;
+    }
+    coalescing = conf.getBoolean(
+        DFSConfigKeys.DFS_BUCKET_COALESCE_ENABLED_KEY,
+        DFSConfigKeys.DFS_BUCKET_COALESCE_ENABLED_DEFAULT);
+    if (!coalescing && numSubBuckets == 0) {
+      return;
+    }
+    flushInterval = conf.getLong(
+        DFSConfigKeys.DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_KEY,
+        DFSConfigKeys.DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_DEFAULT);
+    flushing = true;
+    flusher = new Daemon(new Flusher());
+    flusher.setName("HashBucketsFlusher");
+    flusher.start();
+  }
+
+  /**
+   * Stops coalescing, the pending deltas are flushed.
+   */
+  public synchronized void stop() {
+    if (!flushing) {
+      return;
+    }
+    coalescing = false;
+    flushing = false;
+    try {
+      flusher.interrupt();
+      flusher.join(3000);
+    } catch (InterruptedException e) {
+      LOG.warn("Encountered exception ", e);
+    }
+    flusher = null;
+    try {
+      flushPendingDeltas();
+    } catch (IOException e) {
+      LOG.warn("Could not flush the pending hash deltas", e);
+    }
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  /**
+   * @return true if deltas are pending until they are flushed
+   */
+  public boolean isFlushing() {
+    return flushing;
+  }
+
   public int getBucketForBlock(Block block){
     return (int) (block.getBlockId() % numBuckets);
   }
-  
+
+  public int getNumSubBuckets() {
+    return numSubBuckets;
+  }
+
+  /**
+   * @return the id under which the hash of the sub-bucket of the bucket is
+   * stored
+   */
+  public int getSubBucketId(int bucketId, int subBucket) {
+    return numBuckets + bucketId * numSubBuckets + subBucket;
+  }
+
+  /**
+   * @return the hashes of the buckets of the storage, without their
+   * sub-buckets
+   */
   public List<HashBucket> getBucketsForStorage(final DatanodeStorageInfo storage)
       throws IOException {
+    List<HashBucket> buckets = new ArrayList<>();
+    for (HashBucket bucket : getAllBucketsForStorage(storage)) {
+      if (bucket.getBucketId() < numBuckets) {
+        buckets.add(bucket);
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * @return the hashes of the buckets and of the sub-buckets of the storage
+   */
+  public List<HashBucket> getAllBucketsForStorage(
+      final DatanodeStorageInfo storage) throws IOException {
     LightWeightRequestHandler findHashesHandler = new
         LightWeightRequestHandler(HDFSOperationType.GET_STORAGE_HASHES) {
       @Override
@@ -127,9 +274,12 @@ public Object performTask() throws IOException {
     deleteHashes.handle();
   }
 
+  /**
+   * Creates the missing buckets and sub-buckets of the storage.
+   */
   public void createBucketsForStorage(final DatanodeStorageInfo storage)
           throws IOException {
-    List<HashBucket> existing = getBucketsForStorage(storage);
+    List<HashBucket> existing = getAllBucketsForStorage(storage);
     final Map<Integer,HashBucket> existingMap = new HashMap<Integer, HashBucket>();
 
     for(HashBucket bucket: existing){
@@ -137,7 +287,7 @@ public void createBucketsForStorage(final DatanodeStorageInfo storage)
     }
 
     final List<HashBucket> newBuckets = new ArrayList<HashBucket>();
-    for(int i = 0; i < numBuckets; i++){
+    for(int i = 0; i < numBuckets * (1 + numSubBuckets); i++){
       if(!existingMap.containsKey(i)){
         newBuckets.add(new HashBucket(storage.getSid(), i, 0));
       }
@@ -183,6 +333,14 @@ private static String blockToString(Block block){
   public void applyHash(int storageId, HdfsServerConstants.ReplicaState state,
       Block block ) throws TransactionContextException, StorageException {
     int bucketId = getBucketForBlock(block);
+    stageSubBucketDelta(storageId, bucketId, block,
+        BlockReport.hash(block, state));
+    if (coalescing) {
+      LOG.debug("Staging block:" + blockToString(block) + " sid=" + storageId
+          + " state=" + state.name());
+      stageDelta(storageId, bucketId, BlockReport.hash(block, state));
+      return;
+    }
     HashBucket bucket = getBucket(storageId, bucketId);
     long curVal = bucket.getHash();
     long newHash = curVal  + BlockReport.hash(block, state);
@@ -196,6 +354,14 @@ public void applyHash(int storageId, HdfsServerConstants.ReplicaState state,
   public void undoHash(int storageId, HdfsServerConstants.ReplicaState
       state, Block block) throws TransactionContextException, StorageException {
     int bucketId = getBucketForBlock(block);
+    stageSubBucketDelta(storageId, bucketId, block,
+        -BlockReport.hash(block, state));
+    if (coalescing) {
+      LOG.debug("Staging undo block:" + blockToString(block) + " sid=" +
+          storageId + " state=" + state.name());
+      stageDelta(storageId, bucketId, -BlockReport.hash(block, state));
+      return;
+    }
     HashBucket bucket = getBucket(storageId, bucketId);
     long currVal = bucket.getHash();
     long newHash = currVal - BlockReport.hash(block, state);
@@ -207,6 +373,16 @@ public void undoHash(int storageId, HdfsServerConstants.ReplicaState
   }
   
   public void resetBuckets(final int storageId) throws IOException {
+    lockForOverwrite();
+    try {
+      resetBucketsInt(storageId);
+      discardPendingDeltas(storageId);
+    } finally {
+      unlockForOverwrite();
+    }
+  }
+
+  private void resetBucketsInt(final int storageId) throws IOException {
     new HopsTransactionalRequestHandler(HDFSOperationType.RESET_STORAGE_HASHES) {
       @Override
       public void acquireLock(TransactionLocks tl) throws IOException {
@@ -224,4 +400,169 @@ public Object performTask() throws IOException {
       }
     }.handle();
   }
+
+  private static long key(int storageId, int bucketId) {
+    return ((long) storageId << 32) | (bucketId & 0xffffffffL);
+  }
+
+  private static int storageIdOf(long key) {
+    return (int) (key >>> 32);
+  }
+
+  private static int bucketIdOf(long key) {
+    return (int) key;
+  }
+
+  private static void merge(Map<Long, Long> deltas, long key, long delta) {
+    Long current = deltas.get(key);
+    deltas.put(key, current == null ? delta : current + delta);
+  }
+
+  private void stageDelta(int storageId, int bucketId, long delta) {
+    merge(stagedDeltas.get(), key(storageId, bucketId), delta);
+  }
+
+  private void stageSubBucketDelta(int storageId, int bucketId, Block block,
+      long delta) {
+    if (numSubBuckets > 0 && bucketId >= 0) {
+      stageDelta(storageId, getSubBucketId(bucketId, BlockReport.subBucket(
+          block.getBlockId(), numBuckets, numSubBuckets)), delta);
+    }
+  }
+
+  /**
+   * Makes the deltas of the transaction that just committed pending.
+   */
+  public static void commitStagedDeltas() {
+    if (instance == null) {
+      return;
+    }
+    Map<Long, Long> staged = instance.stagedDeltas.get();
+    if (staged.isEmpty()) {
+      return;
+    }
+    synchronized (instance.pendingDeltas) {
+      for (Map.Entry<Long, Long> delta : staged.entrySet()) {
+        merge(instance.pendingDeltas, delta.getKey(), delta.getValue());
+      }
+    }
+    staged.clear();
+  }
+
+  public static void discardStagedDeltas() {
+    if (instance != null) {
+      instance.stagedDeltas.get().clear();
+    }
+  }
+
+  /**
+   * To be held while the stored hashes of buckets are overwritten, until
+   * their pending deltas are discarded, so that no flush writes deltas older
+   * than the overwrite after it.
+   */
+  public void lockForOverwrite() {
+    flushLock.readLock().lock();
+  }
+
+  public void unlockForOverwrite() {
+    flushLock.readLock().unlock();
+  }
+
+  public void discardPendingDeltas(int storageId, int bucketId) {
+    synchronized (pendingDeltas) {
+      pendingDeltas.remove(key(storageId, bucketId));
+    }
+  }
+
+  public void discardPendingDeltas(int storageId) {
+    synchronized (pendingDeltas) {
+      Iterator<Long> keys = pendingDeltas.keySet().iterator();
+      while (keys.hasNext()) {
+        if (storageIdOf(keys.next()) == storageId) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the pending deltas to the stored hashes in one transaction. The
+   * buckets are locked in key order so that concurrent flushes of the
+   * namenodes do not deadlock. If the transaction fails the deltas are kept
+   * for the next flush.
+   */
+  public void flushPendingDeltas() throws IOException {
+    flushLock.writeLock().lock();
+    try {
+      final SortedMap<Long, Long> deltas;
+      synchronized (pendingDeltas) {
+        if (pendingDeltas.isEmpty()) {
+          return;
+        }
+        deltas = new TreeMap<>(pendingDeltas);
+        pendingDeltas.clear();
+      }
+      long start = Time.monotonicNow();
+      try {
+        new LightWeightRequestHandler(HDFSOperationType.FLUSH_STORAGE_HASHES) {
+          @Override
+          public Object performTask() throws IOException {
+            boolean inTransaction = connector.isTransactionActive();
+            if (!inTransaction) {
+              connector.beginTransaction();
+              connector.writeLock();
+            }
+            HashBucketDataAccess da = (HashBucketDataAccess) HdfsStorageFactory
+                .getDataAccess(HashBucketDataAccess.class);
+            List<HashBucket> modified = new ArrayList<>(deltas.size());
+            for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+              int storageId = storageIdOf(delta.getKey());
+              int bucketId = bucketIdOf(delta.getKey());
+              HashBucket bucket = (HashBucket) da.findBucket(storageId,
+                  bucketId);
+              if (bucket == null) {
+                bucket = new HashBucket(storageId, bucketId, 0);
+              }
+              bucket.setHash(bucket.getHash() + delta.getValue());
+              modified.add(bucket);
+            }
+            da.prepare(Collections.EMPTY_LIST, modified);
+            if (!inTransaction) {
+              connector.commit();
+            }
+            return null;
+          }
+        }.handle();
+      } catch (IOException e) {
+        synchronized (pendingDeltas) {
+          for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            merge(pendingDeltas, delta.getKey(), delta.getValue());
+          }
+        }
+        throw e;
+      }
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addHashBucketFlush(Time.monotonicNow() - start, deltas.size());
+      }
+    } finally {
+      flushLock.writeLock().unlock();
+    }
+  }
+
+  private class Flusher implements Runnable {
+    @Override
+    public void run() {
+      while (flushing) {
+        try {
+          Thread.sleep(flushInterval);
+          flushPendingDeltas();
+        } catch (InterruptedException e) {
+          LOG.debug("HashBucketsFlusher interrupted");
+        } catch (IOException e) {
+          LOG.warn("Could not flush the pending hash deltas", e);
+        }
+      }
+    }
+  }
 }
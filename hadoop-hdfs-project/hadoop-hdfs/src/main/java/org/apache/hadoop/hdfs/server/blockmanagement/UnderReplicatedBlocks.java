@@ -34,6 +34,7 @@
 import io.hops.transaction.lock.TransactionLocks;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -42,6 +43,8 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Keep prioritized queues of under replicated blocks.
@@ -108,6 +111,25 @@ class UnderReplicatedBlocks implements Iterable<Block> {
    * The queue for corrupt blocks: {@value}
    */
   static final int QUEUE_WITH_CORRUPT_BLOCKS = 4;
+
+  /**
+   * Decrements of the replication index of each priority, for the blocks
+   * removed from the queues by committed transactions while their
+   * replication work was computed. They are written to the replication index
+   * once the work of the chosen blocks is done, or when the next blocks are
+   * chosen, so that the replication work of several blocks can be computed
+   * concurrently without all of them locking the replication index.
+   */
+  private final AtomicIntegerArray replicationIndexDecrements =
+      new AtomicIntegerArray(LEVEL);
+  //decrements of the running transaction, per queues
+  private static final ThreadLocal<Map<UnderReplicatedBlocks, int[]>>
+      stagedDecrements = new ThreadLocal<Map<UnderReplicatedBlocks, int[]>>() {
+        @Override
+        protected Map<UnderReplicatedBlocks, int[]> initialValue() {
+          return new HashMap<>();
+        }
+      };
   
   /**
    * Create an object.
@@ -367,22 +389,28 @@ void update(BlockInfo block, int curReplicas, int decommissionedReplicas,
    * @return Return a list of block lists to be replicated. The block list index
    * represents its replication priority.
    */
-  private List<List<Block>> chooseUnderReplicatedBlocksInt(int blocksToProcess)
-      throws IOException {
+  private List<List<Block>> chooseUnderReplicatedBlocksInt(int blocksToProcess,
+      int[] decrements) throws IOException {
     // initialize data structure for the return value
     List<List<Block>> blocksToReplicate = new ArrayList<>(LEVEL);
     for (int i = 0; i < LEVEL; i++) {
       blocksToReplicate.add(new ArrayList<Block>());
     }
-    if (size() == 0) { // There are no blocks to collect.
+    int[] sizes = countPerPriority();
+    int size = 0;
+    for (int i = 0; i < LEVEL; i++) {
+      size += sizes[i];
+    }
+    if (size == 0) { // There are no blocks to collect.
       return blocksToReplicate;
     }
     
     List<Integer> priorityToReplIdx = getReplicationIndex();
+    applyDecrements(priorityToReplIdx, decrements);
     List<List<Block>> priorityQueuestmp = createPrioriryQueue();
     
     int blockCount = 0;
-    blocksToProcess = Math.min(blocksToProcess, size());
+    blocksToProcess = Math.min(blocksToProcess, size);
     
     for (int priority = 0; priority < LEVEL; priority++) {
       // Go through all blocks that need replications with current priority.
@@ -402,7 +430,7 @@ private List<List<Block>> chooseUnderReplicatedBlocksInt(int blocksToProcess)
       blockCount += blks.size();
       replIndex += blks.size();
       
-      if (priority == LEVEL - 1 && count(priority) <= replIndex) {
+      if (priority == LEVEL - 1 && sizes[priority] <= replIndex) {
         // reset all priorities replication index to 0 because there is no
         // recently added blocks in any list.
         for (int i = 0; i < LEVEL; i++) {
@@ -554,23 +582,114 @@ int getPriority() {
   }
 
   /**
-   * This method is to decrement the replication index for the given priority
+   * This method is to decrement the replication index for the given priority.
+   * The decrement is staged in the running transaction, and only counted once
+   * the transaction commits.
    *
    * @param priority
    *     - int priority level
    */
-  public void decrementReplicationIndex(int priority)
-      throws StorageException, TransactionContextException {
-    List<Integer> priorityToReplIdx = getReplicationIndex();
-    Integer replIdx = priorityToReplIdx.get(priority);
-    replIdx = replIdx <= 0 ? 0 : (replIdx - 1);
-    priorityToReplIdx.set(priority, replIdx);
-    setReplicationIndex(priorityToReplIdx);
+  public void decrementReplicationIndex(int priority) {
+    Map<UnderReplicatedBlocks, int[]> staged = stagedDecrements.get();
+    int[] decrements = staged.get(this);
+    if (decrements == null) {
+      decrements = new int[LEVEL];
+      staged.put(this, decrements);
+    }
+    decrements[priority]++;
+  }
+
+  /**
+   * Counts the decrements of the transaction that just committed.
+   */
+  static void commitStagedDecrements() {
+    Map<UnderReplicatedBlocks, int[]> staged = stagedDecrements.get();
+    if (staged.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<UnderReplicatedBlocks, int[]> decrements :
+        staged.entrySet()) {
+      for (int i = 0; i < LEVEL; i++) {
+        if (decrements.getValue()[i] > 0) {
+          decrements.getKey().replicationIndexDecrements.addAndGet(i,
+              decrements.getValue()[i]);
+        }
+      }
+    }
+    staged.clear();
+  }
+
+  static void discardStagedDecrements() {
+    stagedDecrements.get().clear();
+  }
+
+  private int[] getDecrements() {
+    int[] decrements = new int[LEVEL];
+    for (int i = 0; i < LEVEL; i++) {
+      decrements[i] = replicationIndexDecrements.get(i);
+    }
+    return decrements;
+  }
+
+  /**
+   * Forgets the decrements once they are in the replication index. The
+   * decrements committed in the meantime are kept.
+   */
+  private void removeDecrements(int[] decrements) {
+    for (int i = 0; i < LEVEL; i++) {
+      if (decrements[i] > 0) {
+        replicationIndexDecrements.addAndGet(i, -decrements[i]);
+      }
+    }
+  }
+
+  private static void applyDecrements(List<Integer> priorityToReplIdx,
+      int[] decrements) {
+    for (int i = 0; i < LEVEL; i++) {
+      priorityToReplIdx.set(i, Math.max(0,
+          priorityToReplIdx.get(i) - decrements[i]));
+    }
+  }
+
+  /**
+   * Writes the committed decrements to the replication index, in one
+   * transaction for all the blocks whose replication work was computed.
+   */
+  void flushReplicationIndexDecrements() throws IOException {
+    final int[] decrements = getDecrements();
+    boolean empty = true;
+    for (int i = 0; i < LEVEL; i++) {
+      empty &= decrements[i] == 0;
+    }
+    if (empty) {
+      return;
+    }
+    new HopsTransactionalRequestHandler(
+        HDFSOperationType.UPDATE_REPLICATION_INDEX) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        LockFactory lf = LockFactory.getInstance();
+        locks.add(lf.getVariableLock(Variable.Finder.ReplicationIndex,
+            TransactionLockTypes.LockType.WRITE));
+      }
+
+      @Override
+      public Object performTask() throws StorageException, IOException {
+        List<Integer> priorityToReplIdx = getReplicationIndex();
+        applyDecrements(priorityToReplIdx, decrements);
+        setReplicationIndex(priorityToReplIdx);
+        return null;
+      }
+    }.handle();
+    removeDecrements(decrements);
   }
 
   public List<List<Block>> chooseUnderReplicatedBlocks(
       final int blocksToProcess) throws IOException {
-    return (List<List<Block>>) new HopsTransactionalRequestHandler(
+    //the decrements not written yet, a retry applies the same ones
+    final int[] decrements = getDecrements();
+    List<List<Block>> blocksToReplicate =
+        (List<List<Block>>) new HopsTransactionalRequestHandler(
         HDFSOperationType.CHOOSE_UNDER_REPLICATED_BLKS) {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
@@ -581,9 +700,11 @@ public void acquireLock(TransactionLocks locks) throws IOException {
 
       @Override
       public Object performTask() throws StorageException, IOException {
-        return chooseUnderReplicatedBlocksInt(blocksToProcess);
+        return chooseUnderReplicatedBlocksInt(blocksToProcess, decrements);
       }
     }.handle();
+    removeDecrements(decrements);
+    return blocksToReplicate;
   }
   
   private boolean remove(UnderReplicatedBlock urb)
@@ -707,6 +828,34 @@ public Object performTask() throws StorageException, IOException {
     }.handle();
   }
   
+  /**
+   * Count the blocks of every priority queue, and publish the counts in the
+   * namenode metrics.
+   */
+  private int[] countPerPriority() throws IOException {
+    int[] sizes = (int[]) new LightWeightRequestHandler(
+        HDFSOperationType.COUNT_UNDER_REPLICATED_BLKS_AT_LVL) {
+      @Override
+      public Object performTask() throws StorageException, IOException {
+        UnderReplicatedBlockDataAccess da =
+            (UnderReplicatedBlockDataAccess) HdfsStorageFactory
+                .getDataAccess(UnderReplicatedBlockDataAccess.class);
+        int[] sizes = new int[LEVEL];
+        for (int level = 0; level < LEVEL; level++) {
+          sizes[level] = da.countByLevel(level);
+        }
+        return sizes;
+      }
+    }.handle();
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      for (int level = 0; level < LEVEL; level++) {
+        metrics.setUnderReplicatedBlocks(level, sizes[level]);
+      }
+    }
+    return sizes;
+  }
+
   int count(final int level) throws IOException {
     return (Integer) new LightWeightRequestHandler(
         HDFSOperationType.COUNT_UNDER_REPLICATED_BLKS_AT_LVL) {
@@ -1093,6 +1093,15 @@ List<DatanodeCommand> blockReport() throws IOException {
       return null;
     }
 
+    // Namenodes that do not know about merged buckets would misread them.
+    if (dnConf.bucketTargetBlocks > 0 && blkReportHander
+        .isCapabilitySupported(NamespaceInfo.Capability.MERGED_BUCKET_REPORTS)) {
+      for (int j = 0; j < reports.length; j++) {
+        reports[j] = new StorageBlockReport(reports[j].getStorage(),
+            reports[j].getReport().mergeBuckets(dnConf.bucketTargetBlocks));
+      }
+    }
+
     // Send the reports to the NN.
     int numReportsSent;
     long brSendStartTime = now();
@@ -78,6 +78,8 @@ static enum RunningState {
   private volatile RunningState runningState = RunningState.CONNECTING;
   
   private volatile boolean shouldServiceRun = true;
+  //capabilities of the namenode, as of the last handshake
+  private volatile long nnCapabilities = 0;
   private final DataNode dn;
   private final DNConf dnConf;
 
@@ -157,12 +159,22 @@ NamespaceInfo retrieveNamespaceInfo() throws IOException {
 
     if (nsInfo != null) {
       checkNNVersion(nsInfo);
+      nnCapabilities = nsInfo.getCapabilities();
     } else {
       throw new IOException("DN shut down before block pool connected");
     }
     return nsInfo;
   }
 
+  /**
+   * @return true if the namenode advertised the capability at the last
+   * handshake
+   */
+  boolean isCapabilitySupported(NamespaceInfo.Capability capability) {
+    long mask = capability.getMask();
+    return (nnCapabilities & mask) == mask;
+  }
+
   private void checkNNVersion(NamespaceInfo nsInfo)
       throws IncorrectVersionException {
     // build and layout versions should match
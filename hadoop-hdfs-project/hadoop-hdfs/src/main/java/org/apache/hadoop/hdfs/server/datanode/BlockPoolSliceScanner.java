@@ -19,37 +19,32 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
-import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
-import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
-import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
-import org.apache.hadoop.hdfs.util.DataTransferThrottler;
-import org.apache.hadoop.util.GSet;
-import org.apache.hadoop.util.LightWeightGSet;
-import org.apache.hadoop.util.LightWeightGSet.LinkedElement;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
 
@@ -58,7 +53,13 @@
 /**
  * Scans the block files under a block pool and verifies that the
  * files are not corrupt.
- * This keeps track of blocks and their last verification times.
+ * Every volume is scanned once per scan period, its blocks in ascending
+ * block id order. Where the scan of a volume stands is kept in a
+ * {@link VolumeScanCursor}, saved in the block pool directory of the
+ * volume, so that a restarted datanode resumes the scan where it stopped.
+ * Nothing is kept per block but the last scans of every volume. The blocks
+ * added with an id lower than the cursor of their volume are first scanned
+ * in the next period.
  * Currently it does not modify the metadata for block.
  */
 
@@ -72,7 +73,11 @@ class BlockPoolSliceScanner {
   private static final int MIN_SCAN_RATE = 1 * 1024 * 1024; // 1MB per sec
   private static final long DEFAULT_SCAN_PERIOD_HOURS = 21*24L; // three weeks
 
-  private static final String VERIFICATION_PREFIX = "dncp_block_verification.log";
+  // the blocks of a volume read from the dataset at a time
+  private static final int BLOCKS_PER_BATCH = 1024;
+  // the last scans of a volume kept for the block scanner report
+  private static final int MAX_RECENT_SCANS = 256;
+  private static final long CURSOR_SAVE_INTERVAL_MS = 60 * 1000L;
 
   private final String blockPoolId;
   private final long scanPeriod;
@@ -80,95 +85,24 @@ class BlockPoolSliceScanner {
 
   private final DataNode datanode;
   private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
-  private final SortedSet<BlockScanInfo> blockInfoSet
-      = new TreeSet<BlockScanInfo>(BlockScanInfo.LAST_SCAN_TIME_COMPARATOR);
 
-  private final SortedSet<BlockScanInfo> newBlockInfoSet =
-      new TreeSet<BlockScanInfo>(BlockScanInfo.LAST_SCAN_TIME_COMPARATOR);
+  // the cursors of the volumes by storage id
+  private final Map<String, VolumeScanCursor> cursors = new HashMap<>();
+  // blocks were added since the volumes were last read
+  private final AtomicBoolean blocksAdded = new AtomicBoolean();
 
-  private final GSet<Block, BlockScanInfo> blockMap
-      = new LightWeightGSet<Block, BlockScanInfo>(
-      LightWeightGSet.computeCapacity(0.5, "BlockMap"));
-
-  // processedBlocks keeps track of which blocks are scanned
-  // since the last run.
-  private volatile HashMap<Long, Integer> processedBlocks;
+  private int blocksProcessedInRun = 0;
 
   private long totalScans = 0;
   private long totalScanErrors = 0;
   private long totalTransientErrors = 0;
   private final AtomicInteger totalBlocksScannedInLastRun = new AtomicInteger(); // Used for test only
 
-  private long currentPeriodStart = Time.monotonicNow();
-  private long bytesLeft = 0; // Bytes to scan in this period
-  private long totalBytesToScan = 0;
-  private boolean isNewPeriod = true;
-
-  private final LogFileHandler verificationLog;
-
-  private final DataTransferThrottler throttler = new DataTransferThrottler(
-      200, MAX_SCAN_RATE);
-
-  private static enum ScanType {
-    VERIFICATION_SCAN,     // scanned as part of periodic verfication
-    NONE,
-  }
-
-  // Extend Block because in the DN process there's a 1-to-1 correspondence of
-  // BlockScanInfo to Block instances, so by extending rather than containing
-  // Block, we can save a bit of Object overhead (about 24 bytes per block
-  // replica.)
-  static class BlockScanInfo extends Block
-      implements LightWeightGSet.LinkedElement {
-
-    /** Compare the info by the last scan time. */
-    static final Comparator<BlockScanInfo> LAST_SCAN_TIME_COMPARATOR
-        = new Comparator<BlockPoolSliceScanner.BlockScanInfo>() {
-
-      @Override
-      public int compare(BlockScanInfo left, BlockScanInfo right) {
-        final long l = left.lastScanTime;
-        final long r = right.lastScanTime;
-        // compare blocks itself if scantimes are same to avoid.
-        // because TreeMap uses comparator if available to check existence of
-        // the object.
-        return l < r? -1: l > r? 1: left.compareTo(right);
-      }
-    };
-
-    long lastScanTime = 0;
-    ScanType lastScanType = ScanType.NONE;
-    boolean lastScanOk = true;
-    private LinkedElement next;
-
-    BlockScanInfo(Block block) {
-      super(block);
-    }
-
-    @Override
-    public int hashCode() {
-      return super.hashCode();
-    }
-
-    @Override
-    public boolean equals(Object that) {
-        return this == that || super.equals(that);
-    }
-
-    long getLastScanTime() {
-      return (lastScanType == ScanType.NONE) ? 0 : lastScanTime;
-    }
-
-    @Override
-    public void setNext(LinkedElement next) {
-      this.next = next;
-    }
-
-    @Override
-    public LinkedElement getNext() {
-      return next;
-    }
-  }
+  private final double maxLatencyRatio;
+  // the throttler of the blocks not found in any volume
+  private final VolumeScanThrottler throttler;
+  private final Map<String, VolumeScanThrottler> volumeThrottlers =
+      new HashMap<>();
 
   BlockPoolSliceScanner(String bpid, DataNode datanode,
       FsDatasetSpi<? extends FsVolumeSpi> dataset, Configuration conf) {
@@ -184,123 +118,51 @@ public LinkedElement getNext() {
     this.scanPeriod = hours * 3600 * 1000;
     LOG.info("Periodic Block Verification Scanner initialized with interval "
         + hours + " hours for block pool " + bpid);
-
-    // get the list of blocks and arrange them in random order
-    List<FinalizedReplica> arr = dataset.getFinalizedBlocks(blockPoolId);
-    Collections.shuffle(arr);
-
-    long scanTime = -1;
-    for (Block block : arr) {
-      BlockScanInfo info = new BlockScanInfo( block );
-      info.lastScanTime = scanTime--;
-      //still keep 'info.lastScanType' to NONE.
-      addBlockInfo(info, false);
-    }
-
-    RollingLogs rollingLogs = null;
-    try {
-      rollingLogs = dataset.createRollingLogs(blockPoolId, VERIFICATION_PREFIX);
-    } catch (IOException e) {
-      LOG.warn("Could not open verfication log. " +
-          "Verification times are not stored.");
-    }
-    verificationLog = rollingLogs == null? null: new LogFileHandler(rollingLogs);
+    this.maxLatencyRatio = conf.getFloat(
+        DFSConfigKeys.DFS_DATANODE_SCAN_MAX_LATENCY_RATIO_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_MAX_LATENCY_RATIO_DEFAULT);
+    this.throttler = new VolumeScanThrottler(200, MAX_SCAN_RATE,
+        maxLatencyRatio);
   }
 
   String getBlockPoolId() {
     return blockPoolId;
   }
 
-  private void updateBytesToScan(long len, long lastScanTime) {
-    // len could be negative when a block is deleted.
-    totalBytesToScan += len;
-    if ( lastScanTime < currentPeriodStart ) {
-      bytesLeft += len;
-    }
-    // Should we change throttler bandwidth every time bytesLeft changes?
-    // not really required.
-  }
-
   /**
-   * Add the BlockScanInfo to sorted set of blockScanInfo
-   * @param info BlockScanInfo to be added
-   * @param isNewBlock true if the block is the new Block, false if
-   *          BlockScanInfo is being updated with new scanTime
+   * @return the cursor of the volume, read from its file the first time,
+   * null if the block pool is not on the volume
    */
-  private synchronized void addBlockInfo(BlockScanInfo info,
-      boolean isNewBlock) {
-    boolean added = false;
-    if (isNewBlock) {
-      // check whether the block already present
-      boolean exists = blockInfoSet.contains(info);
-      added = !exists && newBlockInfoSet.add(info);
-    } else {
-      added = blockInfoSet.add(info);
-    }
-    blockMap.put(info);
-
-    if (added) {
-      updateBytesToScan(info.getNumBytes(), info.lastScanTime);
-    }
-  }
-
-  private synchronized void delBlockInfo(BlockScanInfo info) {
-    boolean exists = blockInfoSet.remove(info);
-    if (!exists){
-      exists = newBlockInfoSet.remove(info);
-    }
-    blockMap.remove(info);
-
-    if (exists) {
-      updateBytesToScan(-info.getNumBytes(), info.lastScanTime);
-    }
-  }
-
-  /** Update blockMap by the given LogEntry */
-  private synchronized void updateBlockInfo(LogEntry e) {
-    BlockScanInfo info = blockMap.get(new Block(e.blockId, 0, e.genStamp));
-
-    if(info != null && e.verificationTime > 0 &&
-        info.lastScanTime < e.verificationTime) {
-      delBlockInfo(info);
-      info.lastScanTime = e.verificationTime;
-      info.lastScanType = ScanType.VERIFICATION_SCAN;
-      addBlockInfo(info, false);
+  private synchronized VolumeScanCursor getCursor(FsVolumeSpi volume) {
+    VolumeScanCursor cursor = cursors.get(volume.getStorageID());
+    if (cursor == null) {
+      File file;
+      try {
+        file = new File(volume.getPath(blockPoolId),
+            VolumeScanCursor.FILE_NAME);
+      } catch (IOException e) {
+        LOG.warn("Block pool " + blockPoolId + " is not on volume " +
+            volume.getStorageID(), e);
+        return null;
+      }
+      cursor = VolumeScanCursor.load(file, Time.now(), MAX_RECENT_SCANS);
+      cursors.put(volume.getStorageID(), cursor);
     }
+    return cursor;
   }
 
-  private synchronized long getNewBlockScanTime() {
-    /* If there are a lot of blocks, this returns a random time with in
-     * the scan period. Otherwise something sooner.
-     */
-    long period = Math.min(scanPeriod,
-        Math.max(blockMap.size(),1) * 600 * 1000L);
-    int periodInt = Math.abs((int)period);
-    long now = Time.monotonicNow();
-    return Time.monotonicNow() - scanPeriod +
-        DFSUtil.getRandom().nextInt(periodInt);
-  }
-
-  /** Adds block to list of blocks */
-  synchronized void addBlock(ExtendedBlock block) {
-    BlockScanInfo info = blockMap.get(block.getLocalBlock());
-    if ( info != null ) {
-      LOG.warn("Adding an already existing block " + block);
-      delBlockInfo(info);
-    }
-
-    info = new BlockScanInfo(block.getLocalBlock());
-    info.lastScanTime = getNewBlockScanTime();
-
-    addBlockInfo(info, true);
-    adjustThrottler();
+  /**
+   * Notes that a block was added, the volumes are read again past their
+   * cursors.
+   */
+  void addBlock(ExtendedBlock block) {
+    blocksAdded.set(true);
   }
 
   /** Deletes the block from internal structures */
   synchronized void deleteBlock(Block block) {
-    BlockScanInfo info = blockMap.get(block);
-    if (info != null) {
-      delBlockInfo(info);
+    for (VolumeScanCursor cursor : cursors.values()) {
+      cursor.removeScan(block.getBlockId());
     }
   }
 
@@ -314,10 +176,18 @@ long getLastScanTime() {
     return lastScanTime.get();
   }
 
-  /** @return the last scan time the given block. */
+  /**
+   * @return the last scan time the given block, 0 if it is not among the
+   * last scans of its volume.
+   */
   synchronized long getLastScanTime(Block block) {
-    BlockScanInfo info = blockMap.get(block);
-    return info == null? 0: info.lastScanTime;
+    for (VolumeScanCursor cursor : cursors.values()) {
+      VolumeScanCursor.LastScan scan = cursor.getScan(block.getBlockId());
+      if (scan != null) {
+        return scan.time;
+      }
+    }
+    return 0;
   }
 
   /** Deletes blocks from internal structures */
@@ -327,25 +197,17 @@ void deleteBlocks(Block[] blocks) {
     }
   }
 
-  private synchronized void updateScanStatus(BlockScanInfo info,
-      ScanType type,
+  private void updateScanStatus(FsVolumeSpi volume, ExtendedBlock block,
       boolean scanOk) {
-    delBlockInfo(info);
-
-    long now = Time.monotonicNow();
-    info.lastScanType = type;
-    info.lastScanTime = now;
-    info.lastScanOk = scanOk;
-    addBlockInfo(info, false);
-
-    // Don't update meta data if the verification failed.
-    if (!scanOk) {
+    if (volume == null) {
       return;
     }
-
-    if (verificationLog != null) {
-      verificationLog.append(now, info.getGenerationStamp(),
-          info.getBlockId());
+    VolumeScanCursor cursor = getCursor(volume);
+    if (cursor != null) {
+      synchronized (this) {
+        cursor.addScan(block.getBlockId(), new VolumeScanCursor.LastScan(
+            block.getGenerationStamp(), Time.now(), scanOk));
+      }
     }
   }
 
@@ -359,65 +221,95 @@ private void handleScanFailure(ExtendedBlock block) {
     }
   }
 
-  static private class LogEntry {
-
-    long blockId = -1;
-    long verificationTime = -1;
-    long genStamp = GenerationStamp.GRANDFATHER_GENERATION_STAMP;
-
-    /**
-     * The format consists of single line with multiple entries. each
-     * entry is in the form : name="value".
-     * This simple text and easily extendable and easily parseable with a
-     * regex.
-     */
-    private static final Pattern entryPattern =
-        Pattern.compile("\\G\\s*([^=\\p{Space}]+)=\"(.*?)\"\\s*");
-
-    static String toString(long verificationTime, long genStamp, long blockId,
-        DateFormat dateFormat) {
-      return "\ndate=\"" + dateFormat.format(new Date(verificationTime))
-          + "\"\t time=\"" + verificationTime
-          + "\"\t genstamp=\"" + genStamp
-          + "\"\t id=\"" + blockId + "\"";
+  /**
+   * Sets the bandwidth of the volume to the rate that scans the bytes left
+   * on it in the rest of its period.
+   */
+  private void adjustThrottler(FsVolumeSpi volume, VolumeScanCursor cursor) {
+    long blockPoolUsed = -1;
+    try {
+      for (StorageReport report : dataset.getStorageReports(blockPoolId)) {
+        if (report.getStorage().getStorageID().equals(
+            volume.getStorageID())) {
+          blockPoolUsed = report.getBlockPoolUsed();
+          break;
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to get the usage of volume " + volume.getStorageID(),
+          e);
+    }
+    VolumeScanThrottler volumeThrottler = getThrottler(volume);
+    if (blockPoolUsed < 0) {
+      return;
+    }
+    synchronized (this) {
+      // the usage also counts the meta files and the replicas being written,
+      // more than the bytes left to scan
+      long bytesLeft = Math.max(0, blockPoolUsed - cursor.getBytesScanned());
+      long timeLeft = Math.max(1L,
+          cursor.getPeriodStart() + scanPeriod - Time.now());
+      long bw = Math.max((bytesLeft * 1000) / timeLeft, MIN_SCAN_RATE);
+      bw = Math.min(bw, MAX_SCAN_RATE);
+      volumeThrottler.setTargetBandwidth(bw);
     }
+  }
 
-    static LogEntry parseEntry(String line) {
-      LogEntry entry = new LogEntry();
-
-      Matcher matcher = entryPattern.matcher(line);
-      while (matcher.find()) {
-        String name = matcher.group(1);
-        String value = matcher.group(2);
-
-        try {
-          if (name.equals("id")) {
-            entry.blockId = Long.parseLong(value);
-          } else if (name.equals("time")) {
-            entry.verificationTime = Long.parseLong(value);
-          } else if (name.equals("genstamp")) {
-            entry.genStamp = Long.parseLong(value);
-          }
-        } catch(NumberFormatException nfe) {
-          LOG.warn("Cannot parse line: " + line, nfe);
-          return null;
-        }
+  /**
+   * @return the throttler of the volume the block is stored on, every
+   * volume is read within its own budget
+   */
+  @VisibleForTesting
+  VolumeScanThrottler getThrottler(ExtendedBlock block) {
+    return getThrottler(dataset.getVolume(block));
+  }
+
+  private VolumeScanThrottler getThrottler(FsVolumeSpi volume) {
+    // not under the lock of the scanner, the dataset calls the scanner
+    // while holding its own
+    List<? extends FsVolumeSpi> volumes = dataset.getVolumes();
+    synchronized (this) {
+      pruneVolumes(volumes);
+      if (volume == null) {
+        return throttler;
       }
+      VolumeScanThrottler volumeThrottler =
+          volumeThrottlers.get(volume.getStorageID());
+      if (volumeThrottler == null) {
+        volumeThrottler = new VolumeScanThrottler(200,
+            throttler.getTargetBandwidth(), maxLatencyRatio);
+        volumeThrottlers.put(volume.getStorageID(), volumeThrottler);
+      }
+      return volumeThrottler;
+    }
+  }
 
-      return entry;
+  /**
+   * Drops the throttlers and the cursors of the volumes removed from the
+   * dataset, such as the failed ones.
+   */
+  private synchronized void pruneVolumes(
+      List<? extends FsVolumeSpi> volumes) {
+    if (volumeThrottlers.isEmpty() && cursors.isEmpty()) {
+      return;
     }
+    Set<String> storageIds = new HashSet<>();
+    for (FsVolumeSpi volume : volumes) {
+      storageIds.add(volume.getStorageID());
+    }
+    volumeThrottlers.keySet().retainAll(storageIds);
+    cursors.keySet().retainAll(storageIds);
   }
 
-  private synchronized void adjustThrottler() {
-    long timeLeft = Math.max(1L,
-        currentPeriodStart + scanPeriod - Time.monotonicNow());
-    long bw = Math.max((bytesLeft * 1000) / timeLeft, MIN_SCAN_RATE);
-    throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
+  @VisibleForTesting
+  synchronized int getNumVolumeThrottlers() {
+    return volumeThrottlers.size();
   }
 
   @VisibleForTesting
   void verifyBlock(ExtendedBlock block) {
     BlockSender blockSender = null;
+    FsVolumeSpi volume = dataset.getVolume(block);
 
     /* In case of failure, attempt to read second time to reduce
      * transient errors. How do we flush block data from kernel
@@ -427,14 +319,15 @@ void verifyBlock(ExtendedBlock block) {
       boolean second = (i > 0);
 
       try {
-        adjustThrottler();
+        VolumeScanThrottler volumeThrottler = getThrottler(volume);
+        volumeThrottler.startBlock();
 
         blockSender = new BlockSender(block, 0, -1, false, true, true, datanode, null, CachingStrategy.newDropBehind());
 
         DataOutputStream out =
             new DataOutputStream(new IOUtils.NullOutputStream());
 
-        blockSender.sendBlock(out, null, throttler);
+        blockSender.sendBlock(out, null, volumeThrottler);
 
         LOG.info((second ? "Second " : "") +
             "Verification succeeded for " + block);
@@ -443,13 +336,11 @@ void verifyBlock(ExtendedBlock block) {
           totalTransientErrors++;
         }
 
-        updateScanStatus((BlockScanInfo)block.getLocalBlock(),
-            ScanType.VERIFICATION_SCAN, true);
+        updateScanStatus(volume, block, true);
 
         return;
       } catch (IOException e) {
-        updateScanStatus((BlockScanInfo)block.getLocalBlock(),
-            ScanType.VERIFICATION_SCAN, false);
+        updateScanStatus(volume, block, false);
 
         // If the block does not exists anymore, then its not an error
         if (!dataset.contains(block)) {
@@ -488,342 +379,211 @@ void verifyBlock(ExtendedBlock block) {
     }
   }
 
-  private synchronized long getEarliestScanTime() {
-    if (!blockInfoSet.isEmpty()) {
-      return blockInfoSet.first().lastScanTime;
-    }
-    return Long.MAX_VALUE;
-  }
-
-  private synchronized boolean isFirstBlockProcessed() {
-    if (!blockInfoSet.isEmpty()) {
-      long blockId = blockInfoSet.first().getBlockId();
-      if ((processedBlocks.get(blockId) != null)
-          && (processedBlocks.get(blockId) == 1)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  // Picks one block and verifies it
-  private void verifyFirstBlock() {
-    BlockScanInfo block = null;
-    synchronized (this) {
-      if (!blockInfoSet.isEmpty()) {
-        block = blockInfoSet.first();
-      }
-    }
-    if ( block != null ) {
-      verifyBlock(new ExtendedBlock(blockPoolId, block));
-      processedBlocks.put(block.getBlockId(), 1);
-    }
-  }
-
   // Used for tests only
   int getBlocksScannedInLastRun() {
     return totalBlocksScannedInLastRun.get();
   }
 
+  private boolean isRunning() {
+    return datanode.shouldRun
+        && !datanode.blockScanner.blockScannerThread.isInterrupted()
+        && datanode.isBPServiceAlive(blockPoolId);
+  }
+
   /**
-   * Reads the current and previous log files (if any) and marks the blocks
-   * processed if they were processed within last scan period. Copies the log
-   * records of recently scanned blocks from previous to current file.
-   * Returns false if the process was interrupted because the thread is marked
-   * to exit.
+   * @return whether the volume has blocks left to scan in its period,
+   * starting a new period if the current one is over
    */
-  private boolean assignInitialVerificationTimes() {
-    //First updates the last verification times from the log file.
-    if (verificationLog != null) {
-      long now = Time.monotonicNow();
-      RollingLogs.LineIterator logIterator = null;
-      try {
-        logIterator = verificationLog.logs.iterator(false);
-        // update verification times from the verificationLog.
-        while (logIterator.hasNext()) {
-          if (!datanode.shouldRun
-              || datanode.blockScanner.blockScannerThread.isInterrupted()) {
-            return false;
-          }
-          LogEntry entry = LogEntry.parseEntry(logIterator.next());
-          if (entry != null) {
-            updateBlockInfo(entry);
-            if (now - entry.verificationTime < scanPeriod) {
-              BlockScanInfo info = blockMap.get(new Block(entry.blockId, 0,
-                  entry.genStamp));
-              if (info != null) {
-                if (processedBlocks.get(entry.blockId) == null) {
-                  if (isNewPeriod) {
-                    updateBytesLeft(-info.getNumBytes());
-                  }
-                  processedBlocks.put(entry.blockId, 1);
-                }
-                if (logIterator.isLastReadFromPrevious()) {
-                  // write the log entry to current file
-                  // so that the entry is preserved for later runs.
-                  verificationLog.append(entry.verificationTime, entry.genStamp,
-                      entry.blockId);
-                }
-              }
-            }
-          }
-        }
-      } catch (IOException e) {
-        LOG.warn("Failed to read previous verification times.", e);
-      } finally {
-        IOUtils.closeStream(logIterator);
-      }
-      isNewPeriod = false;
+  private synchronized boolean hasWork(VolumeScanCursor cursor,
+      boolean blocksAdded, long now) {
+    if (now >= cursor.getPeriodStart() + scanPeriod) {
+      LOG.info("Starting a new period for " + cursor.getFile() +
+          " : blocks scanned in prev period : " + cursor.getBlocksScanned() +
+          (cursor.isCaughtUp() ? ", all of them" : ""));
+      cursor.startPeriod(now);
     }
+    return !cursor.isCaughtUp() || blocksAdded;
+  }
 
-
-    /* Before this loop, entries in blockInfoSet that are not
-     * updated above have lastScanTime of <= 0 . Loop until first entry has
-     * lastModificationTime > 0.
-     */
-    synchronized (this) {
-      final int numBlocks = Math.max(blockMap.size(), 1);
-      // Initially spread the block reads over half of scan period
-      // so that we don't keep scanning the blocks too quickly when restarted.
-      long verifyInterval = Math.min(scanPeriod/(2L * numBlocks), 10*60*1000L);
-      long lastScanTime = Time.monotonicNow() - scanPeriod;
-
-      if (!blockInfoSet.isEmpty()) {
-        BlockScanInfo info;
-        while ((info =  blockInfoSet.first()).lastScanTime < 0) {
-          delBlockInfo(info);
-          info.lastScanTime = lastScanTime;
-          lastScanTime += verifyInterval;
-          addBlockInfo(info, false);
-        }
+  void scanBlockPoolSlice() {
+    List<? extends FsVolumeSpi> volumes = dataset.getVolumes();
+    pruneVolumes(volumes);
+    boolean added = blocksAdded.getAndSet(false);
+    long now = Time.now();
+    List<FsVolumeSpi> toScan = new ArrayList<>();
+    for (FsVolumeSpi volume : volumes) {
+      VolumeScanCursor cursor = getCursor(volume);
+      if (cursor != null && hasWork(cursor, added, now)) {
+        toScan.add(volume);
       }
     }
-
-    return true;
-  }
-
-  private synchronized void updateBytesLeft(long len) {
-    bytesLeft += len;
-  }
-
-  private synchronized void startNewPeriod() {
-    LOG.info("Starting a new period : work left in prev period : "
-        + String.format("%.2f%%", totalBytesToScan == 0 ? 0
-        : (bytesLeft * 100.0) / totalBytesToScan));
-
-    // reset the byte counts :
-    bytesLeft = totalBytesToScan;
-    currentPeriodStart = Time.monotonicNow();
-    isNewPeriod = true;
-  }
-
-  private synchronized boolean workRemainingInCurrentPeriod() {
-    if (bytesLeft <= 0 && Time.monotonicNow() < currentPeriodStart + scanPeriod) {
+    if (toScan.isEmpty()) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("Skipping scan since bytesLeft=" + bytesLeft + ", Start=" +
-            currentPeriodStart + ", period=" + scanPeriod + ", now=" +
-            Time.monotonicNow() + " " + blockPoolId);
+        LOG.debug("Skipping scan since every volume was scanned in its " +
+            "period " + blockPoolId);
       }
-      return false;
-    } else {
-      return true;
-    }
-  }
-
-  void scanBlockPoolSlice() {
-    if (!workRemainingInCurrentPeriod()) {
+      saveCursors();
       return;
     }
 
-    // Create a new processedBlocks structure
-    processedBlocks = new HashMap<>();
-    if (!assignInitialVerificationTimes()) {
-      return;
+    synchronized (this) {
+      blocksProcessedInRun = 0;
     }
     // Start scanning
     try {
-      scan();
+      scan(toScan);
     } finally {
-      totalBlocksScannedInLastRun.set(processedBlocks.size());
-      lastScanTime.set(Time.monotonicNow());
+      synchronized (this) {
+        totalBlocksScannedInLastRun.set(blocksProcessedInRun);
+      }
+      lastScanTime.set(Time.now());
     }
   }
 
   /**
-   * Shuts down this BlockPoolSliceScanner and releases any internal resources.
+   * Shuts down this BlockPoolSliceScanner and saves the cursors of the
+   * volumes.
    */
   void shutdown() {
-    if (verificationLog != null) {
-      verificationLog.close();
-    }
+    saveCursors();
   }
 
-  private void scan() {
+  private void scan(List<FsVolumeSpi> volumes) {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Starting to scan blockpool: " + blockPoolId);
     }
     try {
-      adjustThrottler();
-
-      while (datanode.shouldRun
-          && !datanode.blockScanner.blockScannerThread.isInterrupted()
-          && datanode.isBPServiceAlive(blockPoolId)) {
-        long now = Time.monotonicNow();
-        synchronized (this) {
-          if ( now >= (currentPeriodStart + scanPeriod)) {
-            startNewPeriod();
-          }
-        }
-        if (((now - getEarliestScanTime()) >= scanPeriod)
-            || ((!blockInfoSet.isEmpty()) && !(this.isFirstBlockProcessed()))) {
-          verifyFirstBlock();
-        } else {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("All remaining blocks were processed recently, "
-                + "so this run is complete");
+      // a batch of every volume in turn
+      while (!volumes.isEmpty() && isRunning()) {
+        Iterator<FsVolumeSpi> it = volumes.iterator();
+        while (it.hasNext() && isRunning()) {
+          if (!scanBatch(it.next())) {
+            it.remove();
           }
-          break;
         }
       }
     } catch (RuntimeException e) {
       LOG.warn("RuntimeException during BlockPoolScanner.scan()", e);
       throw e;
     } finally {
-      rollVerificationLogs();
-      rollNewBlocksInfo();
+      saveCursors();
       if (LOG.isDebugEnabled()) {
         LOG.debug("Done scanning block pool: " + blockPoolId);
       }
     }
   }
 
-  // add new blocks to scan in next iteration
-  private synchronized void rollNewBlocksInfo() {
-    for (BlockScanInfo newBlock : newBlockInfoSet) {
-      blockInfoSet.add(newBlock);
+  /**
+   * Verifies the next blocks of the volume past its cursor.
+   * @return whether the volume has blocks left past the cursor
+   */
+  private boolean scanBatch(FsVolumeSpi volume) {
+    VolumeScanCursor cursor = getCursor(volume);
+    if (cursor == null) {
+      return false;
+    }
+    adjustThrottler(volume, cursor);
+    long lastBlockId;
+    synchronized (this) {
+      lastBlockId = cursor.getLastBlockId();
     }
-    newBlockInfoSet.clear();
+    List<FinalizedReplica> batch = dataset.getFinalizedBlocks(blockPoolId,
+        volume, lastBlockId, BLOCKS_PER_BATCH);
+    for (FinalizedReplica replica : batch) {
+      if (!isRunning()) {
+        return false;
+      }
+      verifyBlock(new ExtendedBlock(blockPoolId, replica));
+      byte[] state = null;
+      synchronized (this) {
+        cursor.advance(replica.getBlockId(), replica.getNumBytes());
+        blocksProcessedInRun++;
+        long now = Time.monotonicNow();
+        if (cursor.isSaveDue(now, CURSOR_SAVE_INTERVAL_MS)) {
+          state = cursor.serialize(now);
+        }
+      }
+      if (state != null) {
+        cursor.write(state);
+      }
+    }
+    boolean more = batch.size() == BLOCKS_PER_BATCH;
+    synchronized (this) {
+      cursor.setCaughtUp(!more);
+    }
+    return more;
   }
 
-  private synchronized void rollVerificationLogs() {
-    if (verificationLog != null) {
-      try {
-        verificationLog.logs.roll();
-      } catch (IOException ex) {
-        LOG.warn("Received exception: ", ex);
-        verificationLog.close();
+  /** Saves the cursors that changed since they were saved. */
+  private void saveCursors() {
+    Map<VolumeScanCursor, byte[]> states = new HashMap<>();
+    synchronized (this) {
+      long now = Time.monotonicNow();
+      for (VolumeScanCursor cursor : cursors.values()) {
+        if (cursor.isDirty()) {
+          states.put(cursor, cursor.serialize(now));
+        }
       }
     }
+    // not under the lock of the scanner, the files are synced
+    for (Map.Entry<VolumeScanCursor, byte[]> e : states.entrySet()) {
+      e.getKey().write(e.getValue());
+    }
   }
 
-
   synchronized void printBlockReport(StringBuilder buffer,
       boolean summaryOnly) {
-    long oneHour = 3600*1000;
-    long oneDay = 24*oneHour;
-    long oneWeek = 7*oneDay;
-    long fourWeeks = 4*oneWeek;
-
-    int inOneHour = 0;
-    int inOneDay = 0;
-    int inOneWeek = 0;
-    int inFourWeeks = 0;
-    int inScanPeriod = 0;
-    int neverScanned = 0;
-
     DateFormat dateFormat = new SimpleDateFormat(DATA_FORMAT);
-
-    int total = blockInfoSet.size();
-
-    long now = Time.monotonicNow();
-
+    long now = Time.now();
     Date date = new Date();
 
-    for(BlockScanInfo info : blockInfoSet) {
-
-      long scanTime = info.getLastScanTime();
-      long diff = now - scanTime;
-    
-      if (diff <= oneHour) inOneHour++;
-      if (diff <= oneDay) inOneDay++;
-      if (diff <= oneWeek) inOneWeek++;
-      if (diff <= fourWeeks) inFourWeeks++;
-      if (diff <= scanPeriod) inScanPeriod++;
-      if (scanTime <= 0) neverScanned++;
-    
-      if (!summaryOnly) {
-        date.setTime(scanTime);
-        String scanType =
-            (info.lastScanType == ScanType.VERIFICATION_SCAN) ? "local" : "none";
-        buffer.append(String.format(
-              "%-26s : " +
-              "status : %-6s " +
-              "type : %-6s" +
-              " scan time : %-15d %s%n",
-              info,
-              (info.lastScanOk ? "ok" : "failed"),
-              scanType, scanTime,
-              ( scanTime <= 0) ? "not yet verified" : dateFormat.format(date)));
+    if (!summaryOnly) {
+      for (VolumeScanCursor cursor : cursors.values()) {
+        for (Map.Entry<Long, VolumeScanCursor.LastScan> e :
+            cursor.getScans()) {
+          VolumeScanCursor.LastScan scan = e.getValue();
+          date.setTime(scan.time);
+          buffer.append(String.format(
+                "%-26s : " +
+                "status : %-6s " +
+                "type : %-6s" +
+                " scan time : %-15d %s%n",
+                new Block(e.getKey(), 0, scan.genStamp),
+                (scan.ok ? "ok" : "failed"),
+                "local", scan.time, dateFormat.format(date)));
+        }
       }
     }
 
-    double pctPeriodLeft = (scanPeriod + currentPeriodStart - now)
-        *100.0/scanPeriod;
-    double pctProgress = (totalBytesToScan == 0) ? 100 :
-        (totalBytesToScan-bytesLeft)*100.0/totalBytesToScan;
-
-    buffer.append(String.format("%nTotal Blocks                 : %6d" +
-            "%nVerified in last hour        : %6d" +
-            "%nVerified in last day         : %6d" +
-            "%nVerified in last week        : %6d" +
-            "%nVerified in last four weeks  : %6d" +
-            "%nVerified in SCAN_PERIOD      : %6d" +
-            "%nNot yet verified             : %6d" +
-            "%nVerified since restart       : %6d" +
+    buffer.append(String.format("%nVerified since restart       : %6d" +
             "%nScans since restart          : %6d" +
             "%nScan errors since restart    : %6d" +
             "%nTransient scan errors        : %6d" +
-            "%nCurrent scan rate limit KBps : %6d" +
-            "%nProgress this period         : %6.0f%%" +
-            "%nTime left in cur period      : %6.2f%%" +
             "%n",
-        total, inOneHour, inOneDay, inOneWeek,
-        inFourWeeks, inScanPeriod, neverScanned,
         totalScans, totalScans,
-        totalScanErrors, totalTransientErrors,
-        Math.round(throttler.getBandwidth()/1024.0),
-        pctProgress, pctPeriodLeft));
-  }
-
-  /**
-   * This class takes care of log file used to store the last verification
-   * times of the blocks.
-   */
-  private static class LogFileHandler {
-    private final DateFormat dateFormat = new SimpleDateFormat(DATA_FORMAT);
-
-    private final RollingLogs logs;
-
-    private LogFileHandler(RollingLogs logs)  {
-      this.logs = logs;
-    }
-
-    void append(long verificationTime, long genStamp, long blockId) {
-      final String m = LogEntry.toString(verificationTime, genStamp, blockId,
-          dateFormat);
-      try {
-        logs.appender().append(m);
-      } catch (IOException e) {
-        LOG.warn("Failed to append to " + logs + ", m=" + m, e);
-      }
-    }
-
-    void close() {
-      try {
-        logs.appender().close();
-      } catch (IOException e) {
-        LOG.warn("Failed to close the appender of " + logs, e);
-      }
+        totalScanErrors, totalTransientErrors));
+    for (Map.Entry<String, VolumeScanCursor> e : cursors.entrySet()) {
+      VolumeScanCursor cursor = e.getValue();
+      VolumeScanThrottler volumeThrottler = volumeThrottlers.get(e.getKey());
+      double pctPeriodLeft = (scanPeriod + cursor.getPeriodStart() - now)
+          *100.0/scanPeriod;
+      date.setTime(cursor.getPeriodStart());
+      buffer.append(String.format("%nVolume %s" +
+              "%nCurrent period start         : %s" +
+              "%nTime left in cur period      : %6.2f%%" +
+              "%nBlocks verified this period  : %6d" +
+              "%nKB verified this period      : %6d" +
+              "%nLast block verified          : %s" +
+              "%nCurrent scan rate limit KBps : %6d" +
+              "%n",
+          e.getKey(), dateFormat.format(date), pctPeriodLeft,
+          cursor.getBlocksScanned(),
+          Math.round(cursor.getBytesScanned() / 1024.0),
+          cursor.getLastBlockId() == Long.MIN_VALUE ? "none" :
+              Long.toString(cursor.getLastBlockId()) +
+              (cursor.isCaughtUp() ? ", the last one" : ""),
+          Math.round((volumeThrottler == null ? throttler : volumeThrottler)
+              .getBandwidth() / 1024.0)));
     }
   }
 }
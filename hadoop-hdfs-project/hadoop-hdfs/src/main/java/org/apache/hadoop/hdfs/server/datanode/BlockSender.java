@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -36,6 +37,7 @@
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
@@ -109,6 +111,12 @@ class BlockSender implements java.io.Closeable {
    * Stream to read checksum
    */
   private DataInputStream checksumIn;
+  /**
+   * The checksums of the range read, mapped from the meta file. The long
+   * reads of a finalized replica read them from here rather than through
+   * checksumIn, which then stays at the header.
+   */
+  private MappedByteBuffer checksumMap;
   /**
    * Checksum utility
    */
@@ -252,7 +260,8 @@ class BlockSender implements java.io.Closeable {
       
       final Replica replica;
       final long replicaVisibleLength;
-      synchronized (datanode.data) {
+      datanode.data.lockBlock(block.getBlockId());
+      try {
         if(block.getBlockId()<0){
           LOG.debug("Suffed Inode: Reading Phantom data block.");
           replica = new FinalizedReplica(block.getBlockId(), block.getNumBytes(), block.getGenerationStamp(), null, null);
@@ -260,6 +269,8 @@ class BlockSender implements java.io.Closeable {
           replica = getReplica(block, datanode);
         }
         replicaVisibleLength = replica.getVisibleLength();
+      } finally {
+        datanode.data.unlockBlock(block.getBlockId());
       }
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
@@ -296,8 +307,10 @@ class BlockSender implements java.io.Closeable {
        * False, False: throws IOException file not found
        */
       DataChecksum csum = null;
+      FileChannel metaChannel = null;
       if (block.getBlockId() >= 0 && (verifyChecksum || sendChecksum)) {
-        final InputStream metaIn = datanode.data.getMetaDataInputStream(block);
+        final LengthInputStream metaIn =
+            datanode.data.getMetaDataInputStream(block);
         if (!corruptChecksumOk || metaIn != null) {
           if (metaIn == null) {
             //need checksum but meta-data not found
@@ -306,6 +319,10 @@ class BlockSender implements java.io.Closeable {
 
           checksumIn = new DataInputStream(new BufferedInputStream(metaIn,
               HdfsConstants.IO_FILE_BUFFER_SIZE));
+          if (metaIn.getWrappedStream() instanceof FileInputStream) {
+            metaChannel =
+                ((FileInputStream) metaIn.getWrappedStream()).getChannel();
+          }
 
           // read and handle the common header here. For now just a version
           BlockMetadataHeader header =
@@ -376,13 +393,17 @@ class BlockSender implements java.io.Closeable {
       endOffset = end;
 
       // seek to the right offsets
-      if (offset > 0) {
-        long checksumSkip = (offset / chunkSize) * checksumSize;
+      long checksumSkip = (offset / chunkSize) * checksumSize;
+      if (metaChannel != null && checksumSize > 0 && chunkChecksum == null &&
+          datanode.getDnConf().mmapChecksums &&
+          endOffset - offset >= LONG_READ_THRESHOLD_BYTES) {
+        // a mapping costs more than a read for the short reads
+        checksumMap = mapChecksums(metaChannel, checksumSkip);
+      }
+      if (checksumMap == null && checksumSkip > 0) {
         // note blockInStream is seeked when created below
-        if (checksumSkip > 0) {
-          // Should we use seek() for checksum file as well?
-          IOUtils.skipFully(checksumIn, checksumSkip);
-        }
+        // Should we use seek() for checksum file as well?
+        IOUtils.skipFully(checksumIn, checksumSkip);
       }
       seqno = 0;
 
@@ -410,6 +431,27 @@ class BlockSender implements java.io.Closeable {
     }
   }
 
+  /**
+   * Maps the checksums of the chunks read from the meta file.
+   *
+   * @return null if the checksums cannot be mapped, they are read through
+   * checksumIn then
+   */
+  private MappedByteBuffer mapChecksums(FileChannel metaChannel,
+      long checksumSkip) {
+    try {
+      long position = BlockMetadataHeader.getHeaderSize() + checksumSkip;
+      // a truncated meta file fails when its checksums are read
+      long length = Math.max(0, Math.min(
+          numberOfChunks(endOffset - offset) * (long) checksumSize,
+          metaChannel.size() - position));
+      return metaChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    } catch (IOException e) {
+      LOG.warn("Could not map the checksums of " + block, e);
+      return null;
+    }
+  }
+
   /**
    * close opened files.
    */
@@ -432,6 +474,10 @@ public void close() throws IOException {
     }
     
     IOException ioe = null;
+    if (checksumMap != null) {
+      NativeIO.POSIX.munmap(checksumMap);
+      checksumMap = null;
+    }
     if (checksumIn != null) {
       try {
         checksumIn.close(); // close checksum file
@@ -664,7 +710,15 @@ private void readChecksum(byte[] buf, final int checksumOffset,
       return;
     }
     try {
-      checksumIn.readFully(buf, checksumOffset, checksumLen);
+      if (checksumMap != null) {
+        if (checksumMap.remaining() < checksumLen) {
+          throw new EOFException("Premature EOF from the checksums of " +
+              block);
+        }
+        checksumMap.get(buf, checksumOffset, checksumLen);
+      } else {
+        checksumIn.readFully(buf, checksumOffset, checksumLen);
+      }
     } catch (IOException e) {
       LOG.warn(" Could not read or failed to veirfy checksum for data" +
           " at offset " + offset + " for block " + block, e);
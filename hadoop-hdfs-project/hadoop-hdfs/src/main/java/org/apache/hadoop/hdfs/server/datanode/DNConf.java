@@ -39,6 +39,7 @@ public class DNConf {
   final int socketKeepaliveTimeout;
   
   final boolean transferToAllowed;
+  final boolean mmapChecksums;
   final boolean dropCacheBehindWrites;
   final boolean syncBehindWrites;
   final boolean syncBehindWritesInBackground;
@@ -51,6 +52,7 @@ public class DNConf {
   final long heartBeatInterval;
   final long blockReportInterval;
   final long blockReportSplitThreshold;
+  final int bucketTargetBlocks;
   final long deleteReportInterval;
   final long initialBlockReportDelay;
   final long cacheReportInterval;
@@ -81,6 +83,9 @@ public DNConf(Configuration conf) {
      * to false on some of them. */
     transferToAllowed = conf.getBoolean(DFS_DATANODE_TRANSFERTO_ALLOWED_KEY,
         DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT);
+    mmapChecksums =
+        conf.getBoolean(DFSConfigKeys.DFS_DATANODE_MMAP_CHECKSUMS_KEY,
+            DFSConfigKeys.DFS_DATANODE_MMAP_CHECKSUMS_DEFAULT);
 
     writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY,
         DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
@@ -109,6 +114,8 @@ public DNConf(Configuration conf) {
         DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT);
     this.blockReportSplitThreshold = conf.getLong(DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY,
         DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT);
+    this.bucketTargetBlocks = conf.getInt(DFS_BUCKET_TARGET_BLOCKS_KEY,
+        DFS_BUCKET_TARGET_BLOCKS_DEFAULT);
     long initBRDelay = conf.getLong(DFS_BLOCKREPORT_INITIAL_DELAY_KEY,
         DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT) * 1000L;
     if (initBRDelay >= blockReportInterval) {
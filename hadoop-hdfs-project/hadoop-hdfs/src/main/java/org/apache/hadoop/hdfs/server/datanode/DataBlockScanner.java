@@ -120,13 +120,9 @@ private void waitForInit() {
   }
   
   /**
-   * Find next block pool id to scan. There should be only one current
-   * verification log file. Find which block pool contains the current
-   * verification log file and that is used as the starting block pool id. If
-   * no
-   * current files are found start with first block-pool in the blockPoolSet.
-   * However, if more than one current files are found, the one with latest
-   * modification time is used to find the next block pool id.
+   * Find next block pool id to scan, the one scanned the longest time ago.
+   * If no block pool was scanned yet, the block pools are taken in turn
+   * starting with the first block-pool in the blockPoolSet.
    */
   private BlockPoolSliceScanner getNextBPScanner(String currentBpId) {
     
@@ -147,7 +143,7 @@ private BlockPoolSliceScanner getNextBPScanner(String currentBpId) {
             }
           }
           
-          // nextBpId can still be null if no current log is found,
+          // nextBpId can still be null if no block pool was scanned yet,
           // find nextBpId sequentially.
           if (nextBpId == null) {
             nextBpId = blockPoolScannerMap.higherKey(currentBpId);
@@ -1645,11 +1645,23 @@ private void handleDiskError(String errMsgr) {
   }
 
   /**
-   * Number of concurrent xceivers per node.
+   * Number of concurrent xceivers per node. The connections processed by the
+   * threads of the transfer pools, queued or parked are counted by the
+   * servers, the other xceivers by their thread.
    */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    ThreadGroup group = threadGroup;
+    if (group == null) {
+      return 0;
+    }
+    return group.activeCount() + getNumPeers(dataXceiverServer) +
+        getNumPeers(localDataXceiverServer);
+  }
+
+  private static int getNumPeers(Daemon server) {
+    return server == null ? 0 :
+        ((DataXceiverServer) server.getRunnable()).getNumPeers();
   }
 
   private void reportBadBlock(final BPOfferService bpos,
@@ -2662,7 +2674,8 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized (data) {
+    data.lockBlock(b.getBlockId());
+    try {
       Block storedBlock =
           data.getStoredBlock(b.getBlockPoolId(), b.getBlockId());
       if (null == storedBlock) {
@@ -2685,6 +2698,8 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
         throw new IOException(b + " is neither a RBW nor a Finalized, r=" + r);
       }
       visible = data.getReplicaVisibleLength(b);
+    } finally {
+      data.unlockBlock(b.getBlockId());
     }
     //set visible length
     b.setNumBytes(visible);
@@ -103,6 +103,13 @@ class DataXceiver extends Receiver implements Runnable {
   private final InputStream socketIn;
   private OutputStream socketOut;
 
+  /**
+   * The state kept while the connection is parked between two operations.
+   */
+  private int opsProcessed = 0;
+  private boolean initialized = false;
+  private boolean parkable = false;
+
   /**
    * Client Name used in previous operation. Not available on first request
    * on the socket.
@@ -162,25 +169,55 @@ private OutputStream getOutputStream() {
     return socketOut;
   }
 
+  Peer getPeer() {
+    return peer;
+  }
+
+  /**
+   * Whether the connection can wait for its next operation on the selector
+   * of the server rather than on this thread: nothing was read ahead, and
+   * the connection is read as it is rather than through the streams of a
+   * SASL handshake.
+   */
+  private boolean canPark() throws IOException {
+    return parkable && peer != null && !peer.isClosed() &&
+        dnConf.socketKeepaliveTimeout > 0 && in.available() == 0;
+  }
+
+  /**
+   * Closes the connection while it is parked.
+   */
+  void closeParked() {
+    dataXceiverServer.closePeer(peer);
+    IOUtils.closeStream(in);
+  }
+
   /**
    * Read/write data from/to the DataXceiverServer.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
     
     try {
-      dataXceiverServer.addPeer(peer, Thread.currentThread());
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-        socketIn, datanode.getDatanodeId());
-      input = new BufferedInputStream(saslStreams.in,
-        HdfsConstants.SMALL_BUFFER_SIZE);
-      socketOut = saslStreams.out;
-      
-      super.initialize(new DataInputStream(input));
+      if (!dataXceiverServer.setPeerThread(peer, Thread.currentThread())) {
+        throw new IOException("Server closed.");
+      }
+      if (!initialized) {
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        IOStreamPair saslStreams = datanode.saslServer.receive(peer,
+          socketOut, socketIn, datanode.getDatanodeId());
+        input = new BufferedInputStream(saslStreams.in,
+          HdfsConstants.SMALL_BUFFER_SIZE);
+        socketOut = saslStreams.out;
+        parkable = saslStreams.in == socketIn &&
+            peer.getSelectableChannel() != null;
+
+        super.initialize(new DataInputStream(input));
+        initialized = true;
+      }
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
@@ -222,6 +259,13 @@ public void run() {
         opStartTime = now();
         processOp(op);
         ++opsProcessed;
+
+        // Wait for the next op on the selector of the server, this thread
+        // goes on with another transfer.
+        if (canPark() && dataXceiverServer.park(this)) {
+          parked = true;
+          break;
+        }
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
     } catch (Throwable t) {
@@ -246,10 +290,12 @@ public void run() {
             datanode.getDisplayName() + ":Number of active connections is: " +
                 datanode.getXceiverCount());
       }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      if (!parked) {
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
     }
   }
@@ -21,6 +21,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.balancer.Balancer;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
@@ -35,6 +36,13 @@
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
 
@@ -44,6 +52,12 @@
  * This is created to listen for requests from clients or
  * other DataNodes.  This small server does not use the
  * Hadoop IPC mechanism.
+ * <p/>
+ * The connections accepted are processed by a bounded pool of threads, the
+ * transfers wait in a bounded queue when all the threads are busy. A
+ * connection kept open by its client between two operations is parked on
+ * an {@link IdlePeerSelector} and does not hold a thread until its next
+ * operation arrives.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -60,6 +74,39 @@ class DataXceiverServer implements Runnable {
    */
   int maxXceiverCount = DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /**
+   * The queue of the transfer threads. It refuses a transfer while the pool
+   * can start a thread and no thread is idle, so that the pool grows up to
+   * maxXceiverCount before the transfers are queued.
+   */
+  private class XceiverQueue extends LinkedBlockingQueue<Runnable> {
+    XceiverQueue(int capacity) {
+      super(capacity);
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+      if (workers.getPoolSize() < workers.getMaximumPoolSize() &&
+          numActive.get() + numQueued.get() > workers.getPoolSize()) {
+        return false;
+      }
+      return super.offer(r);
+    }
+
+    boolean force(Runnable r) {
+      return super.offer(r);
+    }
+  }
+
+  private final int queueSize;
+  private final ThreadGroup workerGroup;
+  private final ThreadPoolExecutor workers;
+  private final AtomicInteger numActive = new AtomicInteger();
+  private final AtomicInteger numQueued = new AtomicInteger();
+  private final AtomicInteger numParked = new AtomicInteger();
+  private final IdlePeerSelector idlePeerSelector;
+  private final Daemon idlePeerSelectorThread;
+
   /**
    * A manager to make sure that cluster balancing does not
    * take too much resources.
@@ -117,7 +164,8 @@ synchronized void release() {
   long estimateBlockSize;
   
   
-  DataXceiverServer(PeerServer peerServer, Configuration conf, DataNode datanode) {
+  DataXceiverServer(PeerServer peerServer, Configuration conf, DataNode datanode)
+      throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -135,24 +183,57 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    // The transfer threads are not in the thread group of the data node,
+    // which counts the xceivers, as they stay around idle for a while.
+    this.workerGroup = new ThreadGroup("dataXceiverWorkers");
+    this.queueSize =
+        conf.getInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY,
+            DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT);
+    this.workers = new ThreadPoolExecutor(0, maxXceiverCount, 60,
+        TimeUnit.SECONDS, new XceiverQueue(Math.max(1, queueSize)),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Daemon(workerGroup, r);
+          }
+        },
+        new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable r,
+              ThreadPoolExecutor executor) {
+            if (executor.isShutdown() ||
+                !((XceiverQueue) executor.getQueue()).force(r)) {
+              throw new RejectedExecutionException();
+            }
+          }
+        });
+    this.idlePeerSelector = new IdlePeerSelector(this,
+        datanode.getDnConf().socketKeepaliveTimeout);
+    this.idlePeerSelectorThread =
+        new Daemon(workerGroup, idlePeerSelector);
   }
 
   @Override
   public void run() {
+    idlePeerSelectorThread.start();
     Peer peer = null;
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
 
-        // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
-        if (curXceiverCount > maxXceiverCount) {
-          throw new IOException("Xceiver count " + curXceiverCount +
-              " exceeds the limit of concurrent xcievers: " + maxXceiverCount);
+        DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+        addPeer(peer, null);
+        try {
+          execute(xceiver);
+        } catch (RejectedExecutionException e) {
+          // Make sure the xceiver count is not exceeded
+          closePeer(peer);
+          incrXceiversRejected();
+          throw new IOException("Xceiver count " + numActive.get() +
+              " exceeds the limit of concurrent xcievers: " + maxXceiverCount +
+              ", " + numQueued.get() + " transfers are queued");
         }
-
-        new Daemon(datanode.threadGroup, DataXceiver.create(peer, datanode, this))
-            .start();
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -193,7 +274,11 @@ public void run() {
           ie);
     }
     
-        // if in restart prep stage, notify peers before closing them.
+    // Close the parked peers, they have no operation in progress.
+    idlePeerSelector.shutdown();
+    joinIdlePeerSelector();
+
+    // if in restart prep stage, notify peers before closing them.
     if (datanode.shutdownForUpgrade) {
       restartNotifyPeers();
       // Each thread needs some time to process it. If a thread needs
@@ -211,6 +296,136 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    shutdownWorkers();
+  }
+
+  private void joinIdlePeerSelector() {
+    while (idlePeerSelectorThread.isAlive()) {
+      try {
+        idlePeerSelectorThread.join();
+      } catch (InterruptedException e) {
+        // the data node interrupts its threads until they exit
+      }
+    }
+  }
+
+  private void shutdownWorkers() {
+    workers.shutdownNow();
+    while (!workers.isTerminated()) {
+      try {
+        workers.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        workers.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Processes the operations of a connection on a transfer thread.
+   *
+   * @throws RejectedExecutionException
+   *     if all the threads are busy and the queue is full
+   */
+  private void execute(final DataXceiver xceiver) {
+    numQueued.incrementAndGet();
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.incrQueuedXceivers();
+    }
+    try {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          numQueued.decrementAndGet();
+          numActive.incrementAndGet();
+          if (metrics != null) {
+            metrics.decrQueuedXceivers();
+            metrics.incrActiveXceivers();
+          }
+          try {
+            xceiver.run();
+          } finally {
+            Thread.currentThread().setName("DataXceiver idle");
+            numActive.decrementAndGet();
+            if (metrics != null) {
+              metrics.decrActiveXceivers();
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      numQueued.decrementAndGet();
+      if (metrics != null) {
+        metrics.decrQueuedXceivers();
+      }
+      throw e;
+    }
+  }
+
+  private void incrXceiversRejected() {
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.incrXceiversRejected();
+    }
+  }
+
+  /**
+   * Parks the connection of the xceiver until its next operation arrives,
+   * releasing the thread of the xceiver.
+   *
+   * @return false if the connection cannot be parked, the xceiver then keeps
+   * waiting for the next operation on its thread
+   */
+  boolean park(DataXceiver xceiver) {
+    synchronized (this) {
+      Peer peer = xceiver.getPeer();
+      if (closed || !peers.containsKey(peer)) {
+        return false;
+      }
+      peers.put(peer, null);
+    }
+    numParked.incrementAndGet();
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.incrParkedXceivers();
+    }
+    if (!idlePeerSelector.park(xceiver)) {
+      unpark();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Processes the next operation of a parked connection.
+   */
+  void resume(DataXceiver xceiver) {
+    unpark();
+    try {
+      execute(xceiver);
+    } catch (RejectedExecutionException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: closing " +
+          xceiver.getPeer() + " as all " + maxXceiverCount +
+          " xceivers are busy");
+      incrXceiversRejected();
+      xceiver.closeParked();
+    }
+  }
+
+  /**
+   * Closes a parked connection which expired or could not be parked.
+   */
+  void closeParked(DataXceiver xceiver) {
+    unpark();
+    xceiver.closeParked();
+  }
+
+  private void unpark() {
+    numParked.decrementAndGet();
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.decrParkedXceivers();
+    }
   }
   
   void kill() {
@@ -232,6 +447,19 @@ synchronized void addPeer(Peer peer, Thread t) throws IOException {
     peers.put(peer, t);
   }
 
+  /**
+   * Sets the thread processing the operations of the peer.
+   *
+   * @return false if the peer was closed meanwhile
+   */
+  synchronized boolean setPeerThread(Peer peer, Thread t) {
+    if (closed || !peers.containsKey(peer)) {
+      return false;
+    }
+    peers.put(peer, t);
+    return true;
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     IOUtils.cleanup(null, peer);
@@ -243,8 +471,12 @@ synchronized void closePeer(Peer peer) {
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
     for (Peer p : peers.keySet()) {
-      // interrupt each and every DataXceiver thread.
-      peers.get(p).interrupt();
+      // interrupt each and every DataXceiver thread. The parked and queued
+      // peers have none.
+      Thread t = peers.get(p);
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
@@ -261,6 +493,22 @@ synchronized void closeAllPeers() {
   synchronized int getNumPeers() {
     return peers.size();
   }
+
+  int getNumActive() {
+    return numActive.get();
+  }
+
+  int getNumQueued() {
+    return numQueued.get();
+  }
+
+  int getNumParked() {
+    return numParked.get();
+  }
+
+  int getLargestPoolSize() {
+    return workers.getLargestPoolSize();
+  }
   
   synchronized void releasePeer(Peer peer) {
     peers.remove(peer);
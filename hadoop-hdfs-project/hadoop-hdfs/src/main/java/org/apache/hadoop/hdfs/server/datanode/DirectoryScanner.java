@@ -452,7 +452,8 @@ void scan() {
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
     // Hold FSDataset lock to prevent further changes to the block map
-    synchronized (dataset) {
+    dataset.lockDataset();
+    try {
       for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
         String bpid = entry.getKey();
         ScanInfo[] blockpoolReport = entry.getValue();
@@ -513,7 +514,9 @@ void scan() {
         }
         LOG.info(statsRecord.toString());
       } //end for
-    } //end synchronizedz
+    } finally {
+      dataset.unlockDataset();
+    }
   }
 
   /**
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Waits for the next operation of the idle keep-alive connections of a
+ * {@link DataXceiverServer}, so that a connection kept open by a client
+ * between two reads does not hold a thread.
+ *
+ * A connection parked here is handed back to the server as soon as it is
+ * readable, and closed once it was idle for the keep-alive timeout. The keys
+ * of the connections handed back are kept registered, without interest, so
+ * that parking them again does not have to wait for the key to be
+ * deregistered. A key is cancelled when its connection is closed.
+ *
+ * The keep-alive timeout is the same for every connection, the connections
+ * are therefore expired in the order they were parked.
+ */
+class IdlePeerSelector implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  private static class Parked {
+    private final DataXceiver xceiver;
+    private final SelectionKey key;
+    private final long deadline;
+
+    Parked(DataXceiver xceiver, SelectionKey key, long deadline) {
+      this.xceiver = xceiver;
+      this.key = key;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Whether the connection is still parked, rather than handed back to
+     * the server and maybe parked again since.
+     */
+    boolean isParked() {
+      return key.attachment() == this;
+    }
+  }
+
+  private final DataXceiverServer server;
+  private final long keepaliveTimeout;
+  private final Selector selector;
+  private final Queue<DataXceiver> pending =
+      new ConcurrentLinkedQueue<DataXceiver>();
+  private final Queue<Parked> parked = new ArrayDeque<Parked>();
+  private volatile boolean running = true;
+
+  IdlePeerSelector(DataXceiverServer server, long keepaliveTimeout)
+      throws IOException {
+    this.server = server;
+    this.keepaliveTimeout = keepaliveTimeout;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Parks the connection of the xceiver until its next operation arrives.
+   *
+   * @return false if the selector is shut down
+   */
+  boolean park(DataXceiver xceiver) {
+    if (!running) {
+      return false;
+    }
+    pending.add(xceiver);
+    selector.wakeup();
+    return true;
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        register();
+        selector.select(getSelectTimeout());
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Parked p = (Parked) key.attachment();
+          if (p == null || !key.isValid()) {
+            continue;
+          }
+          key.interestOps(0);
+          key.attach(null);
+          server.resume(p.xceiver);
+        }
+        expire();
+      }
+    } catch (Throwable t) {
+      LOG.error(this + " exiting due to: ", t);
+    } finally {
+      for (Parked p : parked) {
+        if (p.isParked()) {
+          server.closeParked(p.xceiver);
+        }
+      }
+      parked.clear();
+      DataXceiver xceiver;
+      while ((xceiver = pending.poll()) != null) {
+        server.closeParked(xceiver);
+      }
+      IOUtils.cleanup(LOG, selector);
+    }
+  }
+
+  private void register() {
+    DataXceiver xceiver;
+    while ((xceiver = pending.poll()) != null) {
+      SelectableChannel channel = xceiver.getPeer().getSelectableChannel();
+      try {
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null) {
+          key = channel.register(selector, 0);
+        }
+        Parked p = new Parked(xceiver, key,
+            Time.monotonicNow() + keepaliveTimeout);
+        key.attach(p);
+        key.interestOps(SelectionKey.OP_READ);
+        parked.add(p);
+      } catch (Exception e) {
+        // the connection was closed meanwhile
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Could not park " + xceiver.getPeer(), e);
+        }
+        server.closeParked(xceiver);
+      }
+    }
+  }
+
+  private void expire() {
+    long now = Time.monotonicNow();
+    Parked p;
+    while ((p = parked.peek()) != null) {
+      if (p.isParked()) {
+        if (p.key.isValid() && p.deadline > now) {
+          return;
+        }
+        // expired, or closed while parked
+        p.key.attach(null);
+        server.closeParked(p.xceiver);
+      }
+      parked.poll();
+    }
+  }
+
+  /**
+   * Waits until the first parked connection expires, and at most the
+   * keep-alive timeout so that the keys of the connections closed while
+   * handed back are deregistered.
+   */
+  private long getSelectTimeout() {
+    Parked p = parked.peek();
+    if (p == null) {
+      return keepaliveTimeout;
+    }
+    return Math.max(1, Math.min(keepaliveTimeout,
+        p.deadline - Time.monotonicNow()));
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
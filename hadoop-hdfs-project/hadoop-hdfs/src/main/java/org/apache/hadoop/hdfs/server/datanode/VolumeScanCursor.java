@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the block scanner stands on a volume of a block pool.
+ * <p/>
+ * The blocks of a volume are scanned in ascending block id order, the cursor
+ * holds the start of the current scan period and the id of the last block
+ * scanned in it, along with the last scans of the volume for the block
+ * scanner report. It is saved in a small file of the block pool directory
+ * of the volume, so that a restarted datanode resumes the scan where it
+ * stopped. Its size does not depend on the number of blocks.
+ * <p/>
+ * It is not thread safe, the scanner synchronizes its use, except for
+ * {@link #write(byte[])}.
+ */
+class VolumeScanCursor {
+  static final Log LOG = LogFactory.getLog(VolumeScanCursor.class);
+
+  static final String FILE_NAME = "scanner.cursor";
+  private static final int VERSION = 1;
+
+  /** The last scan of a block. */
+  static class LastScan {
+    final long genStamp;
+    final long time;
+    final boolean ok;
+
+    LastScan(long genStamp, long time, boolean ok) {
+      this.genStamp = genStamp;
+      this.time = time;
+      this.ok = ok;
+    }
+  }
+
+  private final File file;
+  private final int maxRecentScans;
+  private long periodStart;
+  private long lastBlockId = Long.MIN_VALUE;
+  private long blocksScanned = 0;
+  private long bytesScanned = 0;
+  /** The last scans by block id, the oldest first. */
+  private final LinkedHashMap<Long, LastScan> recentScans =
+      new LinkedHashMap<>();
+  /** No block was left above the cursor when the volume was last read. */
+  private boolean caughtUp = false;
+  private boolean dirty = false;
+  private long lastSaved = 0;
+
+  VolumeScanCursor(File file, long periodStart, int maxRecentScans) {
+    this.file = file;
+    this.periodStart = periodStart;
+    this.maxRecentScans = maxRecentScans;
+  }
+
+  /**
+   * Reads the cursor saved in the file, or starts a new period if there is
+   * none or it cannot be read.
+   */
+  static VolumeScanCursor load(File file, long now, int maxRecentScans) {
+    if (file.exists()) {
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file)));
+        int version = in.readInt();
+        if (version != VERSION) {
+          throw new IOException("Unknown version " + version);
+        }
+        VolumeScanCursor cursor =
+            new VolumeScanCursor(file, in.readLong(), maxRecentScans);
+        cursor.lastBlockId = in.readLong();
+        cursor.blocksScanned = in.readLong();
+        cursor.bytesScanned = in.readLong();
+        int numScans = in.readInt();
+        for (int i = 0; i < numScans; i++) {
+          long blockId = in.readLong();
+          cursor.addScan(blockId, new LastScan(in.readLong(), in.readLong(),
+              in.readBoolean()));
+        }
+        cursor.dirty = false;
+        return cursor;
+      } catch (IOException e) {
+        LOG.warn("Failed to read the scan cursor " + file +
+            ", the volume is scanned from its first block", e);
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+    VolumeScanCursor cursor = new VolumeScanCursor(file, now, maxRecentScans);
+    cursor.dirty = true;
+    return cursor;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  long getPeriodStart() {
+    return periodStart;
+  }
+
+  long getLastBlockId() {
+    return lastBlockId;
+  }
+
+  long getBlocksScanned() {
+    return blocksScanned;
+  }
+
+  long getBytesScanned() {
+    return bytesScanned;
+  }
+
+  boolean isCaughtUp() {
+    return caughtUp;
+  }
+
+  void setCaughtUp(boolean caughtUp) {
+    this.caughtUp = caughtUp;
+  }
+
+  boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * @return whether the cursor changed and was last saved at least interval
+   * milliseconds ago
+   */
+  boolean isSaveDue(long now, long interval) {
+    return dirty && now - lastSaved >= interval;
+  }
+
+  /** Starts a period, the volume is scanned again from its first block. */
+  void startPeriod(long now) {
+    periodStart = now;
+    lastBlockId = Long.MIN_VALUE;
+    blocksScanned = 0;
+    bytesScanned = 0;
+    caughtUp = false;
+    dirty = true;
+  }
+
+  /** Moves the cursor past a block. */
+  void advance(long blockId, long numBytes) {
+    lastBlockId = Math.max(lastBlockId, blockId);
+    blocksScanned++;
+    bytesScanned += numBytes;
+    dirty = true;
+  }
+
+  void addScan(long blockId, LastScan scan) {
+    // moved to the end
+    recentScans.remove(blockId);
+    recentScans.put(blockId, scan);
+    if (recentScans.size() > maxRecentScans) {
+      Iterator<Long> it = recentScans.keySet().iterator();
+      it.next();
+      it.remove();
+    }
+    dirty = true;
+  }
+
+  LastScan getScan(long blockId) {
+    return recentScans.get(blockId);
+  }
+
+  void removeScan(long blockId) {
+    if (recentScans.remove(blockId) != null) {
+      dirty = true;
+    }
+  }
+
+  Collection<Map.Entry<Long, LastScan>> getScans() {
+    return recentScans.entrySet();
+  }
+
+  /**
+   * @return the content of the file, the cursor is then taken as saved
+   */
+  byte[] serialize(long now) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(periodStart);
+      out.writeLong(lastBlockId);
+      out.writeLong(blocksScanned);
+      out.writeLong(bytesScanned);
+      out.writeInt(recentScans.size());
+      for (Map.Entry<Long, LastScan> e : recentScans.entrySet()) {
+        out.writeLong(e.getKey());
+        out.writeLong(e.getValue().genStamp);
+        out.writeLong(e.getValue().time);
+        out.writeBoolean(e.getValue().ok);
+      }
+      out.flush();
+    } catch (IOException e) {
+      // not thrown by a byte array
+      throw new IllegalStateException(e);
+    }
+    dirty = false;
+    lastSaved = now;
+    return bytes.toByteArray();
+  }
+
+  /** Replaces the file with the serialized cursor. */
+  synchronized void write(byte[] state) {
+    try {
+      AtomicFileOutputStream out = new AtomicFileOutputStream(file);
+      try {
+        out.write(state);
+      } catch (IOException e) {
+        out.abort();
+        throw e;
+      }
+      out.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to save the scan cursor " + file, e);
+    }
+  }
+}
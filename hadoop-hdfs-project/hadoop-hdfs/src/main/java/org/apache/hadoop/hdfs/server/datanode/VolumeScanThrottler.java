@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+
+/**
+ * Throttles the block scanner reading a volume.
+ * <p/>
+ * The scanner reads the volume at most at the target bandwidth, and slower
+ * when the volume is busy serving clients. The time the scanner takes to
+ * read a packet grows with the requests queued on the disk, so whenever the
+ * packets take more than maxLatencyRatio times as long per byte as the
+ * fastest packets read recently, the bandwidth is halved. It grows back by
+ * a sixteenth of the target for every packet read fast. A maxLatencyRatio
+ * of 0 disables the backoff.
+ */
+class VolumeScanThrottler extends DataTransferThrottler {
+
+  /** The packets smaller than this, the last of a block, are not timed. */
+  private static final long MIN_SAMPLE_BYTES = 32 * 1024;
+  /** The lowest fraction of the target bandwidth the scanner backs off to. */
+  private static final double MIN_FRACTION = 1.0 / 64;
+  /**
+   * The growth of the baseline for every packet, so that it forgets the
+   * packets read from the page cache.
+   */
+  private static final double BASELINE_DRIFT = 1.01;
+  private static final double EWMA_WEIGHT = 0.25;
+
+  private final double maxLatencyRatio;
+  private long target;
+  private double fraction = 1;
+  /** Nanoseconds per byte of the fastest packets read recently. */
+  private double baseline = Double.MAX_VALUE;
+  /** Average nanoseconds per byte of the last packets read. */
+  private double latency = 0;
+  /** The end of the last throttle, -1 between two blocks. */
+  private long lastThrottle = -1;
+
+  VolumeScanThrottler(long period, long bandwidthPerSec,
+      double maxLatencyRatio) {
+    super(period, bandwidthPerSec);
+    this.target = bandwidthPerSec;
+    this.maxLatencyRatio = maxLatencyRatio;
+  }
+
+  /**
+   * Sets the bandwidth the scanner reads the volume at when it is not busy.
+   */
+  synchronized void setTargetBandwidth(long bytesPerSecond) {
+    target = bytesPerSecond;
+    setBandwidth(getCurrentBandwidth());
+  }
+
+  synchronized long getTargetBandwidth() {
+    return target;
+  }
+
+  /**
+   * Starts timing the read of a block, the time spent between two blocks
+   * is not counted.
+   */
+  synchronized void startBlock() {
+    lastThrottle = System.nanoTime();
+  }
+
+  @Override
+  public synchronized void throttle(long numOfBytes) {
+    if (maxLatencyRatio > 0 && lastThrottle >= 0 &&
+        numOfBytes >= MIN_SAMPLE_BYTES) {
+      adjust((double) (System.nanoTime() - lastThrottle) / numOfBytes);
+    }
+    super.throttle(numOfBytes);
+    lastThrottle = System.nanoTime();
+  }
+
+  @VisibleForTesting
+  synchronized void adjust(double sample) {
+    baseline = Math.min(sample, baseline * BASELINE_DRIFT);
+    latency = latency == 0 ? sample :
+        EWMA_WEIGHT * sample + (1 - EWMA_WEIGHT) * latency;
+    if (latency > baseline * maxLatencyRatio) {
+      fraction = Math.max(MIN_FRACTION, fraction / 2);
+      // wait for the packets read at the lower bandwidth
+      latency = 0;
+    } else {
+      fraction = Math.min(1, fraction + 1.0 / 16);
+    }
+    setBandwidth(getCurrentBandwidth());
+  }
+
+  private long getCurrentBandwidth() {
+    // a bandwidth below a few bytes per period would never let a packet pass
+    return Math.max(1024, (long) (target * fraction));
+  }
+}
@@ -87,16 +87,6 @@ public boolean isSimulated() {
     }
   }
 
-  /**
-   * Create rolling logs.
-   *
-   * @param prefix
-   *     the prefix of the log names.
-   * @return rolling logs
-   */
-  public RollingLogs createRollingLogs(String bpid, String prefix)
-      throws IOException;
-
   /**
    * @return a list of volumes.
    */
@@ -124,6 +114,14 @@ public StorageReport[] getStorageReports(String bpid)
    */
   public List<FinalizedReplica> getFinalizedBlocks(String bpid);
 
+  /**
+   * @return the finalized blocks of the block pool stored on the volume
+   * whose ids are greater than afterBlockId, at most maxBlocks of them, in
+   * ascending block id order.
+   */
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid,
+      FsVolumeSpi volume, long afterBlockId, int maxBlocks);
+
   /**
    * Check whether the in-memory block record matches the block on the disk,
    * and, in case that they are not matched, update the record or mark it
@@ -153,7 +151,7 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
 
   /**
    * Get reference to the replica meta info in the replicasMap.
-   * To be called from methods that are synchronized on {@link FSDataset}
+   * To be called holding the lock of the block, see {@link #lockBlock(long)}
    *
    * @param blockId
    * @return replica from the replicas map
@@ -166,6 +164,29 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
    */
   public String getReplicaString(String bpid, long blockId);
 
+  /**
+   * Keep the replica of the given block from being changed until
+   * {@link #unlockBlock(long)} is called, for the callers reading several
+   * of its properties.
+   */
+  public void lockBlock(long blockId);
+
+  /**
+   * Release the lock taken by {@link #lockBlock(long)}.
+   */
+  public void unlockBlock(long blockId);
+
+  /**
+   * Keep every replica from being changed until {@link #unlockDataset()} is
+   * called, for the callers comparing the whole dataset.
+   */
+  public void lockDataset();
+
+  /**
+   * Release the lock taken by {@link #lockDataset()}.
+   */
+  public void unlockDataset();
+
   /**
    * @return the generation stamp stored with the block.
    */
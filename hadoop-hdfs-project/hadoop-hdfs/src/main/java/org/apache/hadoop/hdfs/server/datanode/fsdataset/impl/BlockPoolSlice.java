@@ -53,7 +53,8 @@
  * Taken together, all BlockPoolSlices sharing a block pool ID across a
  * cluster represent a single block pool.
  * <p/>
- * This class is synchronized by {@link FsVolumeImpl}.
+ * The replicas of different blocks are moved in and out of the slice
+ * concurrently, the finalized directory tree is synchronized on its root.
  */
 class BlockPoolSlice {
   private final String bpid;
@@ -252,7 +253,10 @@ File createRbwFile(Block b) throws IOException {
   }
 
   File addBlock(Block b, File f) throws IOException {
-    File blockFile = finalizedDir.addBlock(b, f);
+    File blockFile;
+    synchronized (finalizedDir) {
+      blockFile = finalizedDir.addBlock(b, f);
+    }
     File metaFile =
         FsDatasetUtil.getMetaFile(blockFile, b.getGenerationStamp());
     dfsUsage.incDfsUsed(b.getNumBytes() + metaFile.length());
@@ -260,7 +264,9 @@ File addBlock(Block b, File f) throws IOException {
   }
 
   void checkDirs() throws DiskErrorException {
-    finalizedDir.checkDirTree();
+    synchronized (finalizedDir) {
+      finalizedDir.checkDirTree();
+    }
     DiskChecker.checkDir(tmpDir);
     DiskChecker.checkDir(rbwDir);
   }
@@ -429,7 +435,9 @@ private long validateIntegrityAndSetLength(File blockFile, long genStamp) {
   }
 
   void clearPath(File f) {
-    finalizedDir.clearPath(f);
+    synchronized (finalizedDir) {
+      finalizedDir.clearPath(f);
+    }
   }
 
   @Override
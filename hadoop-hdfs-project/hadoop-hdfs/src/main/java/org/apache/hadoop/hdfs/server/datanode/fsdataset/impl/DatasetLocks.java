@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The locks of a {@link FsDatasetImpl}.
+ *
+ * A replica is changed holding the lock of the stripe its block id falls
+ * in, so that the replicas of different blocks are created, finalized,
+ * recovered and deleted concurrently, and the disk I/O on a slow volume
+ * only holds back the blocks of the same stripe.
+ *
+ * Adding a volume and removing the replicas of a failed volume hold the
+ * lock of that volume only, a failed replica is removed holding the lock
+ * of its stripe. The operations on the whole dataset, adding or removing a
+ * block pool and the callers needing a stable view of every replica, hold
+ * the dataset lock exclusively. The operations on a replica and the
+ * readers of the whole replica map hold it shared.
+ *
+ * The locks are taken in this order: the lock of a volume, the dataset
+ * lock, the lock of a stripe.
+ */
+class DatasetLocks {
+
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final ReentrantLock[] blockLocks;
+  private final ConcurrentMap<String, ReentrantLock> volumeLocks =
+      new ConcurrentHashMap<>();
+
+  DatasetLocks(int numStripes) {
+    blockLocks = new ReentrantLock[Math.max(1, numStripes)];
+    for (int i = 0; i < blockLocks.length; i++) {
+      blockLocks[i] = new ReentrantLock();
+    }
+  }
+
+  void lockBlock(long blockId) {
+    datasetLock.readLock().lock();
+    getBlockLock(blockId).lock();
+  }
+
+  void unlockBlock(long blockId) {
+    getBlockLock(blockId).unlock();
+    datasetLock.readLock().unlock();
+  }
+
+  void lockShared() {
+    datasetLock.readLock().lock();
+  }
+
+  void unlockShared() {
+    datasetLock.readLock().unlock();
+  }
+
+  void lockExclusive() {
+    datasetLock.writeLock().lock();
+  }
+
+  void unlockExclusive() {
+    datasetLock.writeLock().unlock();
+  }
+
+  void lockVolume(String storageId) {
+    getVolumeLock(storageId).lock();
+  }
+
+  void unlockVolume(String storageId) {
+    getVolumeLock(storageId).unlock();
+  }
+
+  private ReentrantLock getVolumeLock(String storageId) {
+    ReentrantLock lock = volumeLocks.get(storageId);
+    if (lock == null) {
+      lock = new ReentrantLock();
+      ReentrantLock existing = volumeLocks.putIfAbsent(storageId, lock);
+      if (existing != null) {
+        lock = existing;
+      }
+    }
+    return lock;
+  }
+
+  private ReentrantLock getBlockLock(long blockId) {
+    int hash = (int) (blockId ^ (blockId >>> 32));
+    return blockLocks[(hash & Integer.MAX_VALUE) % blockLocks.length];
+  }
+}
@@ -50,7 +50,6 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
-import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
@@ -82,10 +81,11 @@
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import org.apache.hadoop.hdfs.ExtendedBlockId;
@@ -96,6 +96,10 @@
  * FSDataset manages a set of data blocks.  Each block
  * has a unique name and an extent on disk.
  * <p/>
+ * The replicas are looked up without locking, a replica is changed holding
+ * the lock of its block, a volume is added or removed holding the lock of
+ * that volume and the operations on the whole dataset hold the dataset lock
+ * exclusively, see {@link DatasetLocks}.
  * *************************************************
  */
 @InterfaceAudience.Private
@@ -135,13 +139,13 @@ public DatanodeStorage getStorage(final String storageUuid) {
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null ? (FsVolumeImpl) r.getVolume() : null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
     File blockfile = getFile(bpid, blkid);
     if (blockfile == null) {
@@ -195,6 +199,7 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   final FsVolumeList volumes;
   final Map<String, DatanodeStorage> storageMap;
   final ReplicaMap volumeMap;
+  private final DatasetLocks locks;
   final FsDatasetAsyncDiskService asyncDiskService;
   final FsDatasetCache cacheManager;
   private final Configuration conf;
@@ -211,6 +216,9 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     this.datanode = datanode;
     this.dataStorage = storage;
     this.conf = conf;
+    this.locks = new DatasetLocks(
+        conf.getInt(DFSConfigKeys.DFS_DATANODE_FSDATASET_LOCK_STRIPES_KEY,
+            DFSConfigKeys.DFS_DATANODE_FSDATASET_LOCK_STRIPES_DEFAULT));
     // The number of volumes required for operation is the total number 
     // of volumes minus the number of failed volumes we can tolerate.
     final int volFailuresTolerated =
@@ -270,7 +278,8 @@ private void addVolume(Collection<StorageLocation> dataLocations,
         this, sd.getStorageUuid(), dir, this.conf, storageType);
     ReplicaMap tempVolumeMap = new ReplicaMap(this);
 
-    synchronized (this) {
+    locks.lockVolume(sd.getStorageUuid());
+    try {
       volumeMap.addAll(tempVolumeMap);
       storageMap.put(sd.getStorageUuid(),
           new DatanodeStorage(sd.getStorageUuid(),
@@ -278,6 +287,8 @@ private void addVolume(Collection<StorageLocation> dataLocations,
               storageType));
       asyncDiskService.addVolume(sd.getCurrentDir());
       volumes.addVolume(fsVolume);
+    } finally {
+      locks.unlockVolume(sd.getStorageUuid());
     }
     LOG.info("Added volume - " + dir + ", StorageType: " + storageType);
   }
@@ -409,10 +420,7 @@ File getBlockFile(String bpid, Block b) throws IOException {
    * and thus the exists check is redundant.
    */
   private File getBlockFileNoExistsCheck(ExtendedBlock b) throws IOException {
-    final File f;
-    synchronized (this) {
-      f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-    }
+    final File f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
     if (f == null) {
       throw new IOException("Block " + b + " is not valid");
     }
@@ -484,20 +492,25 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b,
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b,
       long blkOffset, long ckoff) throws IOException {
-    ReplicaInfo info = getReplicaInfo(b);
-    File blockFile = info.getBlockFile();
-    RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
-    if (blkOffset > 0) {
-      blockInFile.seek(blkOffset);
-    }
-    File metaFile = info.getMetaFile();
-    RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
-    if (ckoff > 0) {
-      metaInFile.seek(ckoff);
+    locks.lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo info = getReplicaInfo(b);
+      File blockFile = info.getBlockFile();
+      RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
+      if (blkOffset > 0) {
+        blockInFile.seek(blkOffset);
+      }
+      File metaFile = info.getMetaFile();
+      RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
+      if (ckoff > 0) {
+        metaInFile.seek(ckoff);
+      }
+      return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
+    } finally {
+      locks.unlockBlock(b.getBlockId());
     }
-    return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
   }
 
   static File moveBlockFiles(Block b, File srcfile, File destdir)
@@ -581,33 +594,38 @@ static private void truncateBlock(File blockFile, File metaFile, long oldlen,
 
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline append(ExtendedBlock b, long newGS,
+  public ReplicaInPipeline append(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
-    // If the block was successfully finalized because all packets
-    // were successfully processed at the Datanode but the ack for
-    // some of the packets were not received by the client. The client 
-    // re-opens the connection and retries sending those packets.
-    // The other reason is that an "append" is occurring to this block.
+    locks.lockBlock(b.getBlockId());
+    try {
+      // If the block was successfully finalized because all packets
+      // were successfully processed at the Datanode but the ack for
+      // some of the packets were not received by the client. The client 
+      // re-opens the connection and retries sending those packets.
+      // The other reason is that an "append" is occurring to this block.
     
-    // check the validity of the parameter
-    if (newGS < b.getGenerationStamp()) {
-      throw new IOException("The new generation stamp " + newGS +
-          " should be greater than the replica " + b + "'s generation stamp");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    LOG.info("Appending to " + replicaInfo);
-    if (replicaInfo.getState() != ReplicaState.FINALIZED) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
-    }
-    if (replicaInfo.getNumBytes() != expectedBlockLen) {
-      throw new IOException("Corrupted replica " + replicaInfo +
-          " with a length of " + replicaInfo.getNumBytes() +
-          " expected length is " + expectedBlockLen);
-    }
+      // check the validity of the parameter
+      if (newGS < b.getGenerationStamp()) {
+        throw new IOException("The new generation stamp " + newGS +
+            " should be greater than the replica " + b + "'s generation stamp");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      LOG.info("Appending to " + replicaInfo);
+      if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+      }
+      if (replicaInfo.getNumBytes() != expectedBlockLen) {
+        throw new IOException("Corrupted replica " + replicaInfo +
+            " with a length of " + replicaInfo.getNumBytes() +
+            " expected length is " + expectedBlockLen);
+      }
 
-    return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS,
-        b.getNumBytes());
+      return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS,
+          b.getNumBytes());
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
   }
   
   /**
@@ -628,7 +646,7 @@ public synchronized ReplicaInPipeline append(ExtendedBlock b, long newGS,
    *     if moving the replica from finalized directory
    *     to rbw directory fails
    */
-  private synchronized ReplicaBeingWritten append(String bpid,
+  private ReplicaBeingWritten append(String bpid,
       FinalizedReplica replicaInfo, long newGS, long estimateBlockLen)
       throws IOException {
     // If the block is cached, start uncaching it.
@@ -740,35 +758,45 @@ private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
   }
   
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
+  public ReplicaInPipeline recoverAppend(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed append to " + b);
+    locks.lockBlock(b.getBlockId());
+    try {
+      LOG.info("Recover failed append to " + b);
 
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
 
-    // change the replica's state/gs etc.
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS,
-          b.getNumBytes());
-    } else { //RBW
-      bumpReplicaGS(replicaInfo, newGS);
-      return (ReplicaBeingWritten) replicaInfo;
+      // change the replica's state/gs etc.
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS,
+            b.getNumBytes());
+      } else { //RBW
+        bumpReplicaGS(replicaInfo, newGS);
+        return (ReplicaBeingWritten) replicaInfo;
+      }
+    } finally {
+      locks.unlockBlock(b.getBlockId());
     }
   }
 
   @Override // FsDatasetSpi
   public String recoverClose(ExtendedBlock b, long newGS, long expectedBlockLen)
       throws IOException {
-    LOG.info("Recover failed close " + b);
-    // check replica's state
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-    // bump the replica's GS
-    bumpReplicaGS(replicaInfo, newGS);
-    // finalize the replica if RBW
-    if (replicaInfo.getState() == ReplicaState.RBW) {
-      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    locks.lockBlock(b.getBlockId());
+    try {
+      LOG.info("Recover failed close " + b);
+      // check replica's state
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      // bump the replica's GS
+      bumpReplicaGS(replicaInfo, newGS);
+      // finalize the replica if RBW
+      if (replicaInfo.getState() == ReplicaState.RBW) {
+        finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      }
+      return replicaInfo.getStorageUuid();
+    } finally {
+      locks.unlockBlock(b.getBlockId());
     }
-    return replicaInfo.getStorageUuid();
   }
   
   /**
@@ -804,166 +832,186 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo, long newGS)
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createRbw(StorageType storageType,
+  public ReplicaInPipeline createRbw(StorageType storageType,
       ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
+    locks.lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+            " already exists in state " + replicaInfo.getState() +
+            " and thus cannot be created.");
+      }
+      // create a new block
+      FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
 
-    // create an rbw file to hold block in the designated volume
-    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      // create an rbw file to hold block in the designated volume
+      File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
 
-    // TODO the Hadoop code also keeps track of "reserved" bytes -> what
-    // isn't written yet but will be written soon.
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
-        b.getGenerationStamp(), v, f.getParentFile());
+      // TODO the Hadoop code also keeps track of "reserved" bytes -> what
+      // isn't written yet but will be written soon.
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
+          b.getGenerationStamp(), v, f.getParentFile());
 
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
 
-    return newReplicaInfo;
+      return newReplicaInfo;
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverRbw(ExtendedBlock b, long newGS,
+  public ReplicaInPipeline recoverRbw(ExtendedBlock b, long newGS,
       long minBytesRcvd, long maxBytesRcvd) throws IOException {
-    LOG.info("Recover RBW replica " + b);
+    locks.lockBlock(b.getBlockId());
+    try {
+      LOG.info("Recover RBW replica " + b);
 
-    ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
+      ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
 
-    // check the replica's state
-    if (replicaInfo.getState() != ReplicaState.RBW) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
-    }
-    ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+      // check the replica's state
+      if (replicaInfo.getState() != ReplicaState.RBW) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
+      }
+      ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
 
-    LOG.info("Recovering " + rbw);
+      LOG.info("Recovering " + rbw);
 
-    // Stop the previous writer
-    rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
-    rbw.setWriter(Thread.currentThread());
+      // Stop the previous writer
+      rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
+      rbw.setWriter(Thread.currentThread());
 
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-              ". Expected GS range is [" + b.getGenerationStamp() + ", " +
-              newGS + "].");
-    }
+      // check generation stamp
+      long replicaGenerationStamp = rbw.getGenerationStamp();
+      if (replicaGenerationStamp < b.getGenerationStamp() ||
+          replicaGenerationStamp > newGS) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+                ". Expected GS range is [" + b.getGenerationStamp() + ", " +
+                newGS + "].");
+      }
 
-    // check replica length
-    long bytesAcked = rbw.getBytesAcked();
-    long numBytes = rbw.getNumBytes();
-    if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " +
-          replicaInfo + ": BytesAcked = " + bytesAcked +
-          " BytesRcvd = " + numBytes + " are not in the range of [" +
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
+      // check replica length
+      long bytesAcked = rbw.getBytesAcked();
+      long numBytes = rbw.getNumBytes();
+      if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
+        throw new ReplicaNotFoundException("Unmatched length replica " +
+            replicaInfo + ": BytesAcked = " + bytesAcked +
+            " BytesRcvd = " + numBytes + " are not in the range of [" +
+            minBytesRcvd + ", " + maxBytesRcvd + "].");
+      }
 
-    // Truncate the potentially corrupt portion.
-    // If the source was client and the last node in the pipeline was lost,
-    // any corrupt data written after the acked length can go unnoticed.
-    if (numBytes > bytesAcked) {
-      final File replicafile = rbw.getBlockFile();
-      truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
-      rbw.setLastChecksumAndDataLen(bytesAcked, null);
-    }
+      // Truncate the potentially corrupt portion.
+      // If the source was client and the last node in the pipeline was lost,
+      // any corrupt data written after the acked length can go unnoticed.
+      if (numBytes > bytesAcked) {
+        final File replicafile = rbw.getBlockFile();
+        truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
+        rbw.setLastChecksumAndDataLen(bytesAcked, null);
+      }
 
-    // bump the replica's generation stamp to newGS
-    bumpReplicaGS(rbw, newGS);
+      // bump the replica's generation stamp to newGS
+      bumpReplicaGS(rbw, newGS);
 
-    return rbw;
+      return rbw;
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
-    final long blockId = b.getBlockId();
-    final long expectedGs = b.getGenerationStamp();
-    final long visible = b.getNumBytes();
-    LOG.info(
-        "Convert " + b + " from Temporary to RBW, visible length=" + visible);
-
-    final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    locks.lockBlock(b.getBlockId());
+    try {
+      final long blockId = b.getBlockId();
+      final long expectedGs = b.getGenerationStamp();
+      final long visible = b.getNumBytes();
+      LOG.info(
+          "Convert " + b + " from Temporary to RBW, visible length=" + visible);
+
+      final ReplicaInPipeline temp;
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline) r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs +
+                ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline) r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs +
-              ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(
-          numBytes + " = numBytes < visible = " + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl) temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp=" + temp);
-    }
+      // check length
+      final long numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(
+            numBytes + " = numBytes < visible = " + visible + ", temp=" + temp);
+      }
+      // check volume
+      final FsVolumeImpl v = (FsVolumeImpl) temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp=" + temp);
+      }
     
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(),
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw =
-        new ReplicaBeingWritten(blockId, numBytes, expectedGs, v,
-            dest.getParentFile(), Thread.currentThread());
-    rbw.setBytesAcked(visible);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
+      // move block files to the rbw directory
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(),
+          bpslice.getRbwDir());
+      // create RBW
+      final ReplicaBeingWritten rbw =
+          new ReplicaBeingWritten(blockId, numBytes, expectedGs, v,
+              dest.getParentFile(), Thread.currentThread());
+      rbw.setBytesAcked(visible);
+      // overwrite the RBW in the volume map
+      volumeMap.add(b.getBlockPoolId(), rbw);
+      return rbw;
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createTemporary(StorageType storageType, ExtendedBlock b)
+  public ReplicaInPipeline createTemporary(StorageType storageType, ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
-    }
+    locks.lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+            " already exists in state " + replicaInfo.getState() +
+            " and thus cannot be created.");
+      }
     
-    FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
-    // create a temporary file to hold block in the designated volume
-    File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaInPipeline newReplicaInfo =
-        new ReplicaInPipeline(b.getBlockId(), b.getGenerationStamp(), v,
-            f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
+      // create a temporary file to hold block in the designated volume
+      File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+      ReplicaInPipeline newReplicaInfo =
+          new ReplicaInPipeline(b.getBlockId(), b.getGenerationStamp(), v,
+              f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
     
-    return newReplicaInfo;
+      return newReplicaInfo;
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
   }
 
   /**
@@ -996,21 +1044,26 @@ public void adjustCrcChannelPosition(ExtendedBlock b,
    * Complete the block write!
    */
   @Override // FsDatasetSpi
-  public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
-    if (Thread.interrupted()) {
-      // Don't allow data modifications from interrupted threads
-      throw new IOException("Cannot finalize block from Interrupted Thread");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      // this is legal, when recovery happens on a file that has
-      // been opened for append but never modified
-      return;
+  public void finalizeBlock(ExtendedBlock b) throws IOException {
+    locks.lockBlock(b.getBlockId());
+    try {
+      if (Thread.interrupted()) {
+        // Don't allow data modifications from interrupted threads
+        throw new IOException("Cannot finalize block from Interrupted Thread");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        // this is legal, when recovery happens on a file that has
+        // been opened for append but never modified
+        return;
+      }
+      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    } finally {
+      locks.unlockBlock(b.getBlockId());
     }
-    finalizeReplica(b.getBlockPoolId(), replicaInfo);
   }
   
-  private synchronized FinalizedReplica finalizeReplica(String bpid,
+  private FinalizedReplica finalizeReplica(String bpid,
       ReplicaInfo replicaInfo) throws IOException {
     FinalizedReplica newReplicaInfo;
     if (replicaInfo.getState() == ReplicaState.RUR &&
@@ -1038,19 +1091,24 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
-  public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo =
-        volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
-    if (replicaInfo != null &&
-        replicaInfo.getState() == ReplicaState.TEMPORARY) {
-      // remove from volumeMap
-      volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
+  public void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    locks.lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo =
+          volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
+      if (replicaInfo != null &&
+          replicaInfo.getState() == ReplicaState.TEMPORARY) {
+        // remove from volumeMap
+        volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
       
-      // delete the on-disk temp file
-      if (delBlockFromDisk(replicaInfo.getBlockFile(),
-          replicaInfo.getMetaFile(), b.getLocalBlock())) {
-        LOG.warn("Block " + b + " unfinalized and removed. ");
+        // delete the on-disk temp file
+        if (delBlockFromDisk(replicaInfo.getBlockFile(),
+            replicaInfo.getMetaFile(), b.getLocalBlock())) {
+          LOG.warn("Block " + b + " unfinalized and removed. ");
+        }
       }
+    } finally {
+      locks.unlockBlock(b.getBlockId());
     }
   }
 
@@ -1099,7 +1157,8 @@ public Map<DatanodeStorage, BlockReport> getBlockReports(String bpid) {
       builders.put(v.getStorageID(), BlockReport.builder(NUM_BUCKETS));
     }
 
-    synchronized(this) {
+    locks.lockShared();
+    try {
       for (ReplicaInfo b : volumeMap.replicas(bpid)) {
         switch(b.getState()) {
           case FINALIZED:
@@ -1117,6 +1176,8 @@ public Map<DatanodeStorage, BlockReport> getBlockReports(String bpid) {
             assert false : "Illegal ReplicaInfo state.";
         }
       }
+    } finally {
+      locks.unlockShared();
     }
 
     for (FsVolumeImpl v : curVolumes) {
@@ -1135,18 +1196,61 @@ public List<Long> getCacheReport(String bpid) {
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<FinalizedReplica> getFinalizedBlocks(String bpid) {
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid) {
     ArrayList<FinalizedReplica> finalized =
         new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
   
-    Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
-    if (replicas != null) {
+    locks.lockShared();
+    try {
+      Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+      if (replicas != null) {
+        for (ReplicaInfo b : replicas) {
+          if (b.getState() == ReplicaState.FINALIZED) {
+            finalized.add(new FinalizedReplica((FinalizedReplica)b));
+          }
+        }
+      }
+    } finally {
+      locks.unlockShared();
+    }
+    return finalized;
+  }
+
+  @Override // FsDatasetSpi
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid,
+      FsVolumeSpi volume, long afterBlockId, int maxBlocks) {
+    // the replicas with the lowest ids, the highest of them first
+    PriorityQueue<ReplicaInfo> lowest = new PriorityQueue<ReplicaInfo>(
+        Math.max(1, maxBlocks), Collections.reverseOrder());
+    ArrayList<FinalizedReplica> finalized =
+        new ArrayList<FinalizedReplica>(Math.max(0, maxBlocks));
+
+    locks.lockShared();
+    try {
+      Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+      if (replicas == null || maxBlocks <= 0) {
+        return finalized;
+      }
       for (ReplicaInfo b : replicas) {
-        if (b.getState() == ReplicaState.FINALIZED) {
-          finalized.add(new FinalizedReplica((FinalizedReplica)b));
+        if (b.getState() != ReplicaState.FINALIZED ||
+            b.getBlockId() <= afterBlockId || b.getVolume() == null ||
+            !volume.getStorageID().equals(b.getVolume().getStorageID())) {
+          continue;
+        }
+        if (lowest.size() < maxBlocks) {
+          lowest.add(b);
+        } else if (b.getBlockId() < lowest.peek().getBlockId()) {
+          lowest.poll();
+          lowest.add(b);
         }
       }
+      for (ReplicaInfo b : lowest) {
+        finalized.add(new FinalizedReplica((FinalizedReplica) b));
+      }
+    } finally {
+      locks.unlockShared();
     }
+    Collections.sort(finalized);
     return finalized;
   }
 
@@ -1182,10 +1286,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
    */
   File validateBlockFile(String bpid, Block b) {
     //Should we check for metadata file too?
-    final File f;
-    synchronized (this) {
-      f = getFile(bpid, b.getBlockId());
-    }
+    final File f = getFile(bpid, b.getBlockId());
     
     if (f != null) {
       if (f.exists()) {
@@ -1238,7 +1339,8 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
     for (Block invalidBlk : invalidBlks) {
       final File f;
       final FsVolumeImpl v;
-      synchronized (this) {
+      locks.lockBlock(invalidBlk.getBlockId());
+      try {
         final ReplicaInfo info = volumeMap.get(bpid, invalidBlk);
         if (info == null) {
           // It is okay if the block is not found -- it may be deleted earlier.
@@ -1277,6 +1379,8 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
           v.clearPath(bpid, parent);
         }
         volumeMap.remove(bpid, invalidBlk);
+      } finally {
+        locks.unlockBlock(invalidBlk.getBlockId());
       }
     
       // If a DFSClient has the replica in its cache of short-circuit file
@@ -1314,7 +1418,8 @@ private void cacheBlock(String bpid, long blockId) {
     long length, genstamp;
     Executor volumeExecutor;
 
-    synchronized (this) {
+    locks.lockBlock(blockId);
+    try {
       ReplicaInfo info = volumeMap.get(bpid, blockId);
       boolean success = false;
       try {
@@ -1351,6 +1456,8 @@ private void cacheBlock(String bpid, long blockId) {
       length = info.getVisibleLength();
       genstamp = info.getGenerationStamp();
       volumeExecutor = volume.getCacheExecutor();
+    } finally {
+      locks.unlockBlock(blockId);
     }
     cacheManager.cacheBlock(blockId, bpid, 
         blockFileName, length, genstamp, volumeExecutor);
@@ -1375,7 +1482,7 @@ public boolean isCached(String bpid, long blockId) {
   }
   
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
@@ -1416,24 +1523,21 @@ public void checkDataDir() throws DiskErrorException {
     
     // Otherwise remove blocks for the failed volumes
     long mlsec = Time.now();
-    synchronized (this) {
-      for (FsVolumeImpl fv : failedVols) {
+    for (FsVolumeImpl fv : failedVols) {
+      locks.lockVolume(fv.getStorageID());
+      try {
         for (String bpid : fv.getBlockPoolList()) {
-          Iterator<ReplicaInfo> ib = volumeMap.replicas(bpid).iterator();
-          while (ib.hasNext()) {
-            ReplicaInfo b = ib.next();
+          for (ReplicaInfo b : volumeMap.replicas(bpid)) {
             totalBlocks++;
-            // check if the volume block belongs to still valid
-            if (b.getVolume() == fv) {
-              LOG.warn("Removing replica " + bpid + ":" + b.getBlockId() +
-                  " on failed volume " + fv.getCurrentDir().getAbsolutePath());
-              ib.remove();
+            if (b.getVolume() == fv && removeFailedReplica(bpid, b, fv)) {
               removedBlocks++;
             }
           }
         }
+      } finally {
+        locks.unlockVolume(fv.getStorageID());
       }
-    } // end of sync
+    }
     mlsec = Time.now() - mlsec;
     LOG.warn("Removed " + removedBlocks + " out of " + totalBlocks +
         "(took " + mlsec + " millisecs)");
@@ -1446,6 +1550,27 @@ public void checkDataDir() throws DiskErrorException {
     throw new DiskErrorException("DataNode failed volumes:" + sb);
   }
 
+  /**
+   * Remove the replica from the map if it is still the one on the failed
+   * volume, it may have been moved or replaced since it was listed.
+   */
+  private boolean removeFailedReplica(String bpid, ReplicaInfo b,
+      FsVolumeImpl fv) {
+    locks.lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo current = volumeMap.get(bpid, b.getBlockId());
+      if (current == null || current.getVolume() != fv) {
+        return false;
+      }
+      LOG.warn("Removing replica " + bpid + ":" + b.getBlockId() +
+          " on failed volume " + fv.getCurrentDir().getAbsolutePath());
+      volumeMap.remove(bpid, b.getBlockId());
+      return true;
+    } finally {
+      locks.unlockBlock(b.getBlockId());
+    }
+  }
+
 
   @Override // FsDatasetSpi
   public String toString() {
@@ -1524,7 +1649,8 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
-    synchronized (this) {
+    locks.lockBlock(blockId);
+    try {
       memBlockInfo = volumeMap.get(bpid, blockId);
       if (memBlockInfo != null &&
           memBlockInfo.getState() != ReplicaState.FINALIZED) {
@@ -1645,6 +1771,8 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
             memBlockInfo.getNumBytes() + " to " + memFile.length());
         memBlockInfo.setNumBytesNoPersistance(memFile.length());
       }
+    } finally {
+      locks.unlockBlock(blockId);
     }
 
     // Send corrupt block report outside the lock
@@ -1669,16 +1797,42 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null ? "null" : r.toString();
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaRecoveryInfo initReplicaRecovery(
+  public void lockBlock(long blockId) {
+    locks.lockBlock(blockId);
+  }
+
+  @Override // FsDatasetSpi
+  public void unlockBlock(long blockId) {
+    locks.unlockBlock(blockId);
+  }
+
+  @Override // FsDatasetSpi
+  public void lockDataset() {
+    locks.lockExclusive();
+  }
+
+  @Override // FsDatasetSpi
+  public void unlockDataset() {
+    locks.unlockExclusive();
+  }
+
+  @Override // FsDatasetSpi
+  public ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
-        rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(), datanode.getDnConf().getXceiverStopTimeout());
+    locks.lockBlock(rBlock.getBlock().getBlockId());
+    try {
+      return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
+          rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
+          datanode.getDnConf().getXceiverStopTimeout());
+    } finally {
+      locks.unlockBlock(rBlock.getBlock().getBlockId());
+    }
   }
 
   /**
@@ -1749,52 +1903,57 @@ static ReplicaRecoveryInfo initReplicaRecovery(String bpid, ReplicaMap map,
   }
 
   @Override // FsDatasetSpi
-  public synchronized String updateReplicaUnderRecovery(
+  public String updateReplicaUnderRecovery(
       final ExtendedBlock oldBlock, final long recoveryId, final long newlength)
       throws IOException {
-    //get replica
-    final String bpid = oldBlock.getBlockPoolId();
-    final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
-    LOG.info("updateReplica: " + oldBlock + ", recoveryId=" + recoveryId +
-        ", length=" + newlength + ", replica=" + replica);
+    locks.lockBlock(oldBlock.getBlockId());
+    try {
+      //get replica
+      final String bpid = oldBlock.getBlockPoolId();
+      final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
+      LOG.info("updateReplica: " + oldBlock + ", recoveryId=" + recoveryId +
+          ", length=" + newlength + ", replica=" + replica);
+
+      //check replica
+      if (replica == null) {
+        throw new ReplicaNotFoundException(oldBlock);
+      }
 
-    //check replica
-    if (replica == null) {
-      throw new ReplicaNotFoundException(oldBlock);
-    }
+      //check replica state
+      if (replica.getState() != ReplicaState.RUR) {
+        throw new IOException(
+            "replica.getState() != " + ReplicaState.RUR + ", replica=" + replica);
+      }
 
-    //check replica state
-    if (replica.getState() != ReplicaState.RUR) {
-      throw new IOException(
-          "replica.getState() != " + ReplicaState.RUR + ", replica=" + replica);
-    }
+      //check replica's byte on disk
+      if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
+        throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:" +
+            " replica.getBytesOnDisk() != block.getNumBytes(), block=" +
+            oldBlock + ", replica=" + replica);
+      }
 
-    //check replica's byte on disk
-    if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
-      throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:" +
-          " replica.getBytesOnDisk() != block.getNumBytes(), block=" +
-          oldBlock + ", replica=" + replica);
+      //check replica files before update
+      checkReplicaFiles(replica);
+
+      //update replica
+      final FinalizedReplica finalized =
+          updateReplicaUnderRecovery(oldBlock.getBlockPoolId(),
+              (ReplicaUnderRecovery) replica, recoveryId, newlength);
+      assert finalized.getBlockId() == oldBlock.getBlockId() &&
+          finalized.getGenerationStamp() == recoveryId &&
+          finalized.getNumBytes() == newlength :
+          "Replica information mismatched: oldBlock=" + oldBlock +
+              ", recoveryId=" + recoveryId + ", newlength=" + newlength +
+              ", finalized=" + finalized;
+
+      //check replica files after update
+      checkReplicaFiles(finalized);
+
+      //return storage ID
+      return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+    } finally {
+      locks.unlockBlock(oldBlock.getBlockId());
     }
-
-    //check replica files before update
-    checkReplicaFiles(replica);
-
-    //update replica
-    final FinalizedReplica finalized =
-        updateReplicaUnderRecovery(oldBlock.getBlockPoolId(),
-            (ReplicaUnderRecovery) replica, recoveryId, newlength);
-    assert finalized.getBlockId() == oldBlock.getBlockId() &&
-        finalized.getGenerationStamp() == recoveryId &&
-        finalized.getNumBytes() == newlength :
-        "Replica information mismatched: oldBlock=" + oldBlock +
-            ", recoveryId=" + recoveryId + ", newlength=" + newlength +
-            ", finalized=" + finalized;
-
-    //check replica files after update
-    checkReplicaFiles(finalized);
-
-    //return storage ID
-    return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
   }
 
   private FinalizedReplica updateReplicaUnderRecovery(String bpid,
@@ -1828,7 +1987,7 @@ private FinalizedReplica updateReplicaUnderRecovery(String bpid,
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
       throws IOException {
     final Replica replica =
         getReplicaInfo(block.getBlockPoolId(), block.getBlockId());
@@ -1844,18 +2003,26 @@ public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
   public void addBlockPool(String bpid, Configuration conf)
       throws IOException {
     LOG.info("Adding block pool " + bpid);
-    synchronized(this) {
+    locks.lockExclusive();
+    try {
       volumes.addBlockPool(bpid, conf);
       volumeMap.initBlockPool(bpid);
+    } finally {
+      locks.unlockExclusive();
     }
     volumes.getAllVolumesMap(bpid, volumeMap);
   }
 
   @Override
-  public synchronized void shutdownBlockPool(String bpid) {
+  public void shutdownBlockPool(String bpid) {
     LOG.info("Removing block pool " + bpid);
-    volumeMap.cleanUpBlockPool(bpid);
-    volumes.removeBlockPool(bpid);
+    locks.lockExclusive();
+    try {
+      volumeMap.cleanUpBlockPool(bpid);
+      volumes.removeBlockPool(bpid);
+    } finally {
+      locks.unlockExclusive();
+    }
   }
   
   /**
@@ -1909,19 +2076,24 @@ public Map<String, Object> getVolumeInfoMap() {
   }
 
   @Override //FsDatasetSpi
-  public synchronized void deleteBlockPool(String bpid, boolean force)
+  public void deleteBlockPool(String bpid, boolean force)
       throws IOException {
-    if (!force) {
-      for (FsVolumeImpl volume : volumes.getVolumes()) {
-        if (!volume.isBPDirEmpty(bpid)) {
-          LOG.warn(bpid + " has some block files, cannot delete unless forced");
-          throw new IOException(
-              "Cannot delete block pool, " + "it contains some block files");
+    locks.lockExclusive();
+    try {
+      if (!force) {
+        for (FsVolumeImpl volume : volumes.getVolumes()) {
+          if (!volume.isBPDirEmpty(bpid)) {
+            LOG.warn(bpid + " has some block files, cannot delete unless forced");
+            throw new IOException(
+                "Cannot delete block pool, " + "it contains some block files");
+          }
         }
       }
-    }
-    for (FsVolumeImpl volume : volumes.getVolumes()) {
-      volume.deleteBPDirectories(bpid, force);
+      for (FsVolumeImpl volume : volumes.getVolumes()) {
+        volume.deleteBPDirectories(bpid, force);
+      }
+    } finally {
+      locks.unlockExclusive();
     }
   }
   
@@ -1994,24 +2166,6 @@ public boolean trashEnabled(String bpid) {
     return dataStorage.trashEnabled(bpid);
   }
   
-  @Override
-  public RollingLogs createRollingLogs(String bpid, String prefix)
-      throws IOException {
-    String dir = null;
-    final List<FsVolumeImpl> volumes = getVolumes();
-    for (FsVolumeImpl vol : volumes) {
-      String bpDir = vol.getPath(bpid);
-      if (RollingLogsImpl.isFilePresent(bpDir, prefix)) {
-        dir = bpDir;
-        break;
-      }
-    }
-    if (dir == null) {
-      dir = volumes.get(0).getPath(bpid);
-    }
-    return new RollingLogsImpl(dir, prefix);
-  }
-  
   @Override
   public void submitBackgroundSyncFileRangeRequest(ExtendedBlock block,
       FileDescriptor fd, long offset, long nbytes, int flags) {
@@ -46,7 +46,9 @@
 /**
  * The underlying volume used to store replica.
  * <p/>
- * It uses the {@link FsDatasetImpl} object for synchronization.
+ * The block pool slices are kept in a concurrent map and their usage is
+ * counted atomically, the usage of a volume is updated and read without
+ * locking the {@link FsDatasetImpl}.
  */
 @InterfaceAudience.Private
 public class FsVolumeImpl implements FsVolumeSpi {
@@ -107,20 +109,16 @@ File getRbwDir(String bpid) throws IOException {
   }
   
   void decDfsUsed(String bpid, long value) {
-    synchronized (dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.decDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.decDfsUsed(value);
     }
   }
   
   long getDfsUsed() throws IOException {
     long dfsUsed = 0;
-    synchronized (dataset) {
-      for (BlockPoolSlice s : bpSlices.values()) {
-        dfsUsed += s.getDfsUsed();
-      }
+    for (BlockPoolSlice s : bpSlices.values()) {
+      dfsUsed += s.getDfsUsed();
     }
     return dfsUsed;
   }
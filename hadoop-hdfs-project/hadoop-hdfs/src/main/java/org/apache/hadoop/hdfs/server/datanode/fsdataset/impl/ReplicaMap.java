@@ -22,19 +22,25 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Maintains the replica map.
+ *
+ * The map is concurrent, the replicas are looked up and iterated without
+ * locking and a single operation on the map is atomic. The callers
+ * changing a replica in several steps serialize them on their own lock.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
+  // Object the callers synchronize on for a consistent view of several
+  // operations
   private final Object mutex;
   
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private Map<String, Map<Long, ReplicaInfo>> map =
-      new HashMap<>();
+  private final ConcurrentMap<String, ConcurrentMap<Long, ReplicaInfo>> map =
+      new ConcurrentHashMap<>();
   
   ReplicaMap(Object mutex) {
     if (mutex == null) {
@@ -45,9 +51,7 @@ class ReplicaMap {
   }
   
   String[] getBlockPoolList() {
-    synchronized (mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -97,10 +101,8 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized (mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.get(blockId) : null;
   }
   
   /**
@@ -117,22 +119,17 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized (mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<>();
-        map.put(bpid, m);
-      }
-      return m.put(replicaInfo.getBlockId(), replicaInfo);
-    }
+    return getOrCreate(bpid).put(replicaInfo.getBlockId(), replicaInfo);
   }
 
   /**
    * Add all entries from the given replica map into the local replica map.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    for (Map.Entry<String, ConcurrentMap<Long, ReplicaInfo>> entry :
+        other.map.entrySet()) {
+      getOrCreate(entry.getKey()).putAll(entry.getValue());
+    }
   }
   
   /**
@@ -150,18 +147,17 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized (mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        Long key = block.getBlockId();
-        ReplicaInfo replicaInfo = m.get(key);
-        if (replicaInfo != null &&
-            block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
-          return m.remove(key);
-        }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      Long key = block.getBlockId();
+      ReplicaInfo replicaInfo = m.get(key);
+      // only removed if it was not replaced in the meantime
+      if (replicaInfo != null &&
+          block.getGenerationStamp() == replicaInfo.getGenerationStamp() &&
+          m.remove(key, replicaInfo)) {
+        return replicaInfo;
       }
     }
-    
     return null;
   }
   
@@ -176,13 +172,8 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized (mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        return m.remove(blockId);
-      }
-    }
-    return null;
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.remove(blockId) : null;
   }
 
   /**
@@ -193,19 +184,16 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized (mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.size() : 0;
   }
   
   /**
-   * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Get a collection of the replicas for given block pool.
+   * The collection is a live view that can be iterated while the map is
+   * modified, the iterator never throws
+   * {@link java.util.ConcurrentModificationException} and may or may not
+   * reflect the changes made after it was created.
    *
    * @param bpid
    *     block pool id
@@ -218,21 +206,25 @@ Collection<ReplicaInfo> replicas(String bpid) {
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized (mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<>();
-        map.put(bpid, m);
-      }
-    }
+    getOrCreate(bpid);
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized (mutex) {
-      map.remove(bpid);
+    map.remove(bpid);
+  }
+
+  private ConcurrentMap<Long, ReplicaInfo> getOrCreate(String bpid) {
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      // Add an entry for block pool if it does not exist already
+      m = new ConcurrentHashMap<>();
+      ConcurrentMap<Long, ReplicaInfo> existing = map.putIfAbsent(bpid, m);
+      if (existing != null) {
+        m = existing;
+      }
     }
+    return m;
   }
   
   /**
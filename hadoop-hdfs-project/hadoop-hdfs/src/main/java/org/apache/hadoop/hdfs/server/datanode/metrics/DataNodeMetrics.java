@@ -27,6 +27,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -82,6 +83,15 @@ public class DataNodeMetrics {
   @Metric
   MutableCounterLong volumeFailures;
 
+  @Metric("Transfers being processed by a thread")
+  MutableGaugeInt activeXceivers;
+  @Metric("Idle connections waiting for their next operation")
+  MutableGaugeInt parkedXceivers;
+  @Metric("Transfers waiting for a thread")
+  MutableGaugeInt queuedXceivers;
+  @Metric("Connections closed because all threads were busy")
+  MutableCounterLong xceiversRejected;
+
   @Metric
   MutableRate readBlockOp;
   @Metric
@@ -293,6 +303,34 @@ public void incrVolumeFailures() {
     volumeFailures.incr();
   }
 
+  public void incrActiveXceivers() {
+    activeXceivers.incr();
+  }
+
+  public void decrActiveXceivers() {
+    activeXceivers.decr();
+  }
+
+  public void incrParkedXceivers() {
+    parkedXceivers.incr();
+  }
+
+  public void decrParkedXceivers() {
+    parkedXceivers.decr();
+  }
+
+  public void incrQueuedXceivers() {
+    queuedXceivers.incr();
+  }
+
+  public void decrQueuedXceivers() {
+    queuedXceivers.decr();
+  }
+
+  public void incrXceiversRejected() {
+    xceiversRejected.incr();
+  }
+
   /**
    * Increment for getBlockLocalPathInfo calls
    */
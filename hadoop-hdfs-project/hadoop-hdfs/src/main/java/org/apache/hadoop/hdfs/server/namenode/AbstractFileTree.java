@@ -47,8 +47,7 @@
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 @VisibleForTesting
@@ -58,7 +57,9 @@ abstract class AbstractFileTree {
   private final FSNamesystem namesystem;
   private final FSPermissionChecker fsPermissionChecker;
   private final INodeIdentifier subtreeRootId;
-  private ConcurrentLinkedQueue<Future> activeCollectors = new ConcurrentLinkedQueue<>();
+  private final Object scanLock = new Object();
+  private final Queue<PendingDirectory> pendingDirectories = new ArrayDeque<>();
+  private int inFlightBatches = 0;
 
   public INodeIdentifier getSubtreeRootId() {
     return subtreeRootId;
@@ -67,6 +68,7 @@ public INodeIdentifier getSubtreeRootId() {
   private final FsAction subAccess;
   private final boolean ignoreEmptyDir;
   private volatile IOException exception;
+  private volatile RuntimeException runtimeException;
   private List<AclEntry> subtreeRootDefaultEntries;
   
   public static class BuildingUpFileTreeFailedException extends IOException {
@@ -75,21 +77,50 @@ public static class BuildingUpFileTreeFailedException extends IOException {
     }
   }
   
-  private class ChildCollector implements Runnable {
-    private final ProjectedINode parent;
+  /**
+   * A directory whose children still have to be read.
+   */
+  private static class PendingDirectory {
+    private final ProjectedINode inode;
     private final short depth; //this is the depth of the inode in the file system tree
     private final int level;
-    private List<AclEntry> inheritedDefaultsAsAccess;
-    
-    private ChildCollector(ProjectedINode parent, short depth, int level, List<AclEntry> inheritedDefaultsAsAccess) {
-      this.parent = parent;
-      this.level = level;
+    //the default entries the children inherit, as access entries
+    private final List<AclEntry> inheritedDefaultsAsAccess;
+    //the entries to check the directory against once we know if it is empty,
+    //null if the directory does not need to be checked
+    private final List<AclEntry> accessCheckEntries;
+
+    private PendingDirectory(ProjectedINode inode, short depth, int level,
+        List<AclEntry> inheritedDefaultsAsAccess,
+        List<AclEntry> accessCheckEntries) {
+      this.inode = inode;
       this.depth = depth;
+      this.level = level;
       this.inheritedDefaultsAsAccess = inheritedDefaultsAsAccess;
+      this.accessCheckEntries = accessCheckEntries;
+    }
+  }
+
+  /**
+   * Reads the children of a batch of directories and queues the directories
+   * found for the next level. The directories are read in as few requests as
+   * possible, a request reading no more directories once it has read and
+   * locked {@link FSNamesystem#getSubtreeScanBatchMaxChildren()} children.
+   */
+  private class ChildCollector implements Runnable {
+    private final List<PendingDirectory> batch;
+    private final List<PendingDirectory> next = new ArrayList<>();
+    //the directories read by the running request
+    private List<PendingDirectory> parents;
+
+    private ChildCollector(List<PendingDirectory> batch) {
+      this.batch = batch;
     }
     
     @Override
     public void run() {
+      final int maxChildren =
+          Math.max(1, namesystem.getSubtreeScanBatchMaxChildren());
       LightWeightRequestHandler handler =
           new LightWeightRequestHandler(HDFSOperationType.GET_CHILD_INODES) {
             @Override
@@ -97,56 +128,88 @@ public Object performTask() throws StorageException, IOException {
               INodeDataAccess<INode> dataAccess =
                   (INodeDataAccess) HdfsStorageFactory
                       .getDataAccess(INodeDataAccess.class);
-              List<ProjectedINode> children = Collections.EMPTY_LIST;
-              if (INode.isTreeLevelRandomPartitioned(depth)) {
-                children = dataAccess.findInodesFTISTx(parent.getId(),
-                        EntityContext.LockMode.READ_COMMITTED);
-              } else {
-                //then the partitioning key is the parent id
-                children = dataAccess.findInodesPPISTx(parent.getId(), parent.getId(),
-                        EntityContext.LockMode.READ_COMMITTED);
+              List<List<ProjectedINode>> childrenOfParents =
+                  new ArrayList<>(parents.size());
+              List<ProjectedINode> allChildren = new ArrayList<>();
+              for (int p = 0; p < parents.size(); p++) {
+                if (allChildren.size() >= maxChildren) {
+                  //the remaining directories are read by the next request
+                  parents = parents.subList(0, p);
+                  break;
+                }
+                PendingDirectory parent = parents.get(p);
+                List<ProjectedINode> children = Collections.EMPTY_LIST;
+                if (INode.isTreeLevelRandomPartitioned(parent.depth)) {
+                  children = dataAccess.findInodesFTISTx(parent.inode.getId(),
+                      EntityContext.LockMode.READ_COMMITTED);
+                } else {
+                  //then the partitioning key is the parent id
+                  children = dataAccess.findInodesPPISTx(parent.inode.getId(),
+                      parent.inode.getId(),
+                      EntityContext.LockMode.READ_COMMITTED);
+                }
+                childrenOfParents.add(children);
+                allChildren.addAll(children);
+
+                //the directory was added by the previous level, now we know
+                //if it is empty
+                if (parent.accessCheckEntries != null &&
+                    !(children.isEmpty() && ignoreEmptyDir)) {
+                  checkAccess(parent.inode, subAccess,
+                      parent.accessCheckEntries);
+                }
               }
 
               //locking with FTIS and PPIS is not a good idea. See JIRA HOPS-458
               //using batch operations to lock the children
-              lockInodesUsingBatchOperation(children, dataAccess);
+              lockInodesUsingBatchOperation(allChildren, dataAccess);
 
               Map<ProjectedINode, List<AclEntry>> acls = new HashMap<>();
-              for (ProjectedINode child : children) {
-                if (namesystem.isPermissionEnabled() && subAccess != null && child.isDirectory()) {
-                  List<AclEntry> inodeAclNoTransaction = INodeUtil.getInodeOwnAclNoTransaction(child);
-                  acls.put(child, inodeAclNoTransaction);
-                  List<INode> cList = INodeUtil.getChildrenListNotTransactional(child.getId(), depth+1);
-                  if (!(cList.isEmpty() && ignoreEmptyDir)) {
-                    if (inodeAclNoTransaction.isEmpty()) {
-                      checkAccess(child, subAccess, asAccessEntries(inheritedDefaultsAsAccess));
-                    } else {
-                      checkAccess(child, subAccess, inodeAclNoTransaction);
-                    }
+              for (int i = 0; i < parents.size(); i++) {
+                PendingDirectory parent = parents.get(i);
+                for (ProjectedINode child : childrenOfParents.get(i)) {
+                  if (namesystem.isPermissionEnabled() && subAccess != null &&
+                      child.isDirectory()) {
+                    acls.put(child,
+                        INodeUtil.getInodeOwnAclNoTransaction(child));
                   }
+                  addChildNode(parent.inode, parent.level, child);
                 }
-                addChildNode(parent, level, child);
               }
   
               if (exception != null) {
                 return null;
               }
   
-              for (ProjectedINode child : children) {
-                List<ActiveNode> activeNamenodes = namesystem.getNameNode().
-                    getActiveNameNodes().getActiveNodes();
-                if (SubtreeLockHelper.isSTOLocked(child.isSubtreeLocked(),
-                    child.getSubtreeLockOwner(), activeNamenodes)) {
-                  exception = new RetriableException("The subtree: "+child.getName()
-                      +" is locked by Namenode: "+child.getSubtreeLockOwner()+"."+
-                          " Active Namenodes: "+activeNamenodes);
-                  return null;
-                }
+              List<ActiveNode> activeNamenodes = namesystem.getNameNode().
+                  getActiveNameNodes().getActiveNodes();
+              for (int i = 0; i < parents.size(); i++) {
+                PendingDirectory parent = parents.get(i);
+                for (ProjectedINode child : childrenOfParents.get(i)) {
+                  if (SubtreeLockHelper.isSTOLocked(child.isSubtreeLocked(),
+                      child.getSubtreeLockOwner(), activeNamenodes)) {
+                    exception = new RetriableException("The subtree: " +
+                        child.getName() + " is locked by Namenode: " +
+                        child.getSubtreeLockOwner() + "." +
+                        " Active Namenodes: " + activeNamenodes);
+                    return null;
+                  }
 
-                List<AclEntry> newDefaults = filterAccessEntries(acls.get(child));
-                if (child.isDirectory()) {
-                  collectChildren(child, ((short) (depth + 1)), level + 1, newDefaults.isEmpty()
-                      ? inheritedDefaultsAsAccess : newDefaults);
+                  if (child.isDirectory()) {
+                    List<AclEntry> ownAcl = acls.get(child);
+                    List<AclEntry> newDefaults = filterAccessEntries(ownAcl);
+                    List<AclEntry> accessCheckEntries = null;
+                    if (ownAcl != null) {
+                      accessCheckEntries = ownAcl.isEmpty() ?
+                          asAccessEntries(parent.inheritedDefaultsAsAccess) :
+                          ownAcl;
+                    }
+                    next.add(new PendingDirectory(child,
+                        (short) (parent.depth + 1), parent.level + 1,
+                        newDefaults.isEmpty() ?
+                            parent.inheritedDefaultsAsAccess : newDefaults,
+                        accessCheckEntries));
+                  }
                 }
               }
               return null;
@@ -154,9 +217,18 @@ public Object performTask() throws StorageException, IOException {
           };
       
       try {
-        handler.handle(this);
+        int read = 0;
+        while (read < batch.size() && exception == null) {
+          parents = batch.subList(read, batch.size());
+          handler.handle(this);
+          read += parents.size();
+        }
       } catch (IOException e) {
         setExceptionIfNull(e);
+      } catch (RuntimeException e) {
+        setRuntimeExceptionIfNull(e);
+      } finally {
+        collectorDone(next);
       }
     }
 
@@ -236,41 +308,88 @@ private void checkAccess(ProjectedINode node, FsAction action, List<AclEntry> ac
     }
   }
   
+  /**
+   * Reads the subtree breadth first. The directories whose children still
+   * have to be read are queued and handed out in batches to the executor, the
+   * next level being read while the previous one is still in flight. At most
+   * {@link FSNamesystem#getSubtreeScanMaxInFlightBatches()} batches are
+   * submitted at any time, which bounds the memory used by the queue of the
+   * executor for very large subtrees.
+   */
   public void buildUp() throws IOException {
     INode subtreeRoot = readSubtreeRoot();
     if (!subtreeRoot.isDirectory()) {
       return;
     }
     
-    
-    collectChildren(newProjectedInode(subtreeRoot, 0), subtreeRootId.getDepth(), 2, subtreeRootDefaultEntries);
-    while (true) {
-      try {
-        Future future = activeCollectors.poll();
-        if (future == null) {
-          break;
+    //the access of the subtree root is checked when it is read
+    pendingDirectories.add(new PendingDirectory(
+        newProjectedInode(subtreeRoot, 0), subtreeRootId.getDepth(), 2,
+        subtreeRootDefaultEntries, null));
+    final int batchSize = Math.max(1, namesystem.getSubtreeScanBatchSize());
+    final int maxInFlight =
+        Math.max(1, namesystem.getSubtreeScanMaxInFlightBatches());
+    try {
+      while (true) {
+        List<PendingDirectory> batch;
+        synchronized (scanLock) {
+          while (exception == null && runtimeException == null &&
+              (inFlightBatches >= maxInFlight ||
+                  (pendingDirectories.isEmpty() && inFlightBatches > 0))) {
+            scanLock.wait();
+          }
+          if (exception != null || runtimeException != null ||
+              pendingDirectories.isEmpty()) {
+            break;
+          }
+          //spread a small level over the available slots
+          int size = Math.min(batchSize, Math.max(1,
+              pendingDirectories.size() / maxInFlight));
+          batch = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            batch.add(pendingDirectories.poll());
+          }
+          inFlightBatches++;
         }
-        future.get();
-      } catch (InterruptedException e) {
-        LOG.info("FileTree builder was interrupted");
-        throw new BuildingUpFileTreeFailedException(
-            "Building the up the file tree was interrupted.");
-      } catch (ExecutionException e) {
-        if (e.getCause() instanceof RuntimeException) {
-          throw new RuntimeException(e.getCause());
-        } else {
-          // This should not happen as it is a Runnable
-          String message = "FileTree.buildUp received an unexpected execution exception";
-          LOG.warn( message, e);
-          throw new RetriableException(message);
+        collectChildren(batch);
+      }
+      //let the running collectors finish before returning
+      synchronized (scanLock) {
+        while (inFlightBatches > 0) {
+          scanLock.wait();
         }
       }
+    } catch (InterruptedException e) {
+      LOG.info("FileTree builder was interrupted");
+      throw new BuildingUpFileTreeFailedException(
+          "Building the up the file tree was interrupted.");
+    }
+    if (runtimeException != null) {
+      throw new RuntimeException(runtimeException);
     }
     if (exception != null) {
       throw exception;
     }
   }
   
+  private void collectorDone(List<PendingDirectory> next) {
+    synchronized (scanLock) {
+      if (exception == null && runtimeException == null) {
+        pendingDirectories.addAll(next);
+      }
+      inFlightBatches--;
+      scanLock.notifyAll();
+    }
+  }
+
+  private void setRuntimeExceptionIfNull(RuntimeException e) {
+    synchronized (scanLock) {
+      if (runtimeException == null) {
+        runtimeException = e;
+      }
+    }
+  }
+
   protected synchronized void setExceptionIfNull(IOException e) {
     if (exception == null) {
       exception = e;
@@ -323,9 +442,13 @@ public Object performTask() throws IOException {
     }.handle(this);
   }
   
-  private void collectChildren(ProjectedINode parent, short depth, int level, List<AclEntry> inheritedDefaults) {
-    activeCollectors.add(namesystem.getFSOperationsExecutor().
-        submit(new ChildCollector(parent, depth, level, inheritedDefaults)));
+  private void collectChildren(List<PendingDirectory> parents) {
+    try {
+      namesystem.getFSOperationsExecutor().execute(new ChildCollector(parents));
+    } catch (RejectedExecutionException e) {
+      setRuntimeExceptionIfNull(e);
+      collectorDone(Collections.<PendingDirectory>emptyList());
+    }
   }
   
   /**
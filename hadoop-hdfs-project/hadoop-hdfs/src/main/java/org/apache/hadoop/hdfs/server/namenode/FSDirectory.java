@@ -1061,6 +1061,10 @@ private void addMetaDataLogForDirDeletion(INode targetNode) throws TransactionCo
     targetNode.logMetadataEvent(MetadataLogEntry.Operation.DELETE);
   }
 
+  int getLsLimit() {
+    return lsLimit;
+  }
+
   private byte getStoragePolicyID(byte inodePolicy, byte parentPolicy) {
     return inodePolicy != BlockStoragePolicySuite.ID_UNSPECIFIED ? inodePolicy : parentPolicy;
   }
@@ -1074,10 +1078,16 @@ private byte getStoragePolicyID(byte inodePolicy, byte parentPolicy) {
    *     the name to start listing after
    * @param needLocation
    *     if block locations are returned
+   * @param childrenPage
+   *     the children after startAfter read by the inode lock, sorted by
+   *     name, or null to read all the children of the directory
+   * @param remainingChildren
+   *     the number of children after the page
    * @return a partial listing starting after startAfter
    */
   DirectoryListing getListing(String src, byte[] startAfter,
-      boolean needLocation, boolean isSuperUser)
+      boolean needLocation, boolean isSuperUser, List<INode> childrenPage,
+      int remainingChildren)
       throws UnresolvedLinkException, IOException, StorageException {
     String srcs = normalizePath(src);
     INode targetNode = getNode(srcs, true);
@@ -1094,9 +1104,18 @@ DirectoryListing getListing(String src, byte[] startAfter,
               needLocation, parentStoragePolicy)}, 0);
     }
     INodeDirectory dirInode = (INodeDirectory) targetNode;
-    List<INode> contents = dirInode.getChildrenList();
-    int startChild = dirInode.nextChild(contents, startAfter);
-    int totalNumChildren = contents.size();
+    List<INode> contents;
+    int startChild;
+    int totalNumChildren;
+    if (childrenPage != null) {
+      contents = childrenPage;
+      startChild = 0;
+      totalNumChildren = childrenPage.size() + remainingChildren;
+    } else {
+      contents = dirInode.getChildrenList();
+      startChild = dirInode.nextChild(contents, startAfter);
+      totalNumChildren = contents.size();
+    }
     int numOfListing = Math.min(totalNumChildren - startChild, this.lsLimit);
     int locationBudget = this.lsLimit;
       int listingCnt = 0;
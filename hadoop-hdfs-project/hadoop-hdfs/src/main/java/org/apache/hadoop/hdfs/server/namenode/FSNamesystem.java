@@ -250,6 +250,12 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_REPLICATION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_EXECUTOR_LIMIT_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUPPORT_APPEND_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_SUPPORT_APPEND_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.FS_TRASH_INTERVAL_DEFAULT;
@@ -459,18 +465,23 @@ private void logAuditEvent(boolean succeeded, UserGroupInformation ugi,
   private NameNode nameNode;
   private final Configuration conf;
   private final QuotaUpdateManager quotaUpdateManager;
+  private final LeaseRenewalBatcher leaseRenewalBatcher;
 
   private final ExecutorService fsOperationsExecutor;
   private final boolean erasureCodingEnabled;
   private final ErasureCodingManager erasureCodingManager;
 
   private final boolean storeSmallFilesInDB;
+  private final SmallFileDataCache smallFileDataCache;
   private static int DB_ON_DISK_FILE_MAX_SIZE;
   private static int DB_ON_DISK_SMALL_FILE_MAX_SIZE;
   private static int DB_ON_DISK_MEDIUM_FILE_MAX_SIZE;
   private static int DB_ON_DISK_LARGE_FILE_MAX_SIZE;
   private static int DB_IN_MEMORY_FILE_MAX_SIZE;
   private final long BIGGEST_DELETABLE_DIR;
+  private final int subtreeScanBatchSize;
+  private final int subtreeScanBatchMaxChildren;
+  private final int subtreeScanMaxInFlightBatches;
 
   /** flag indicating whether replication queues have been initialized */
   boolean initializedReplQueues = false;
@@ -637,6 +648,13 @@ private FSNamesystem(Configuration conf, NameNode namenode, boolean ignoreRetryC
       DB_ON_DISK_LARGE_FILE_MAX_SIZE == DB_ON_DISK_FILE_MAX_SIZE)){
         throw new IllegalArgumentException("The size for the database files is not correctly set");
       }
+      long smallFileCacheSize = conf.getLong(
+          DFSConfigKeys.DFS_DB_FILE_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_DB_FILE_CACHE_SIZE_DEFAULT);
+      this.smallFileDataCache = storeSmallFilesInDB && smallFileCacheSize > 0 ?
+          new SmallFileDataCache(smallFileCacheSize, conf.getInt(
+              DFSConfigKeys.DFS_DB_FILE_CACHE_MAX_FILE_SIZE_KEY,
+              DFSConfigKeys.DFS_DB_FILE_CACHE_MAX_FILE_SIZE_DEFAULT)) : null;
 
       this.datanodeStatistics =
           blockManager.getDatanodeManager().getDatanodeStatistics();
@@ -656,11 +674,26 @@ private FSNamesystem(Configuration conf, NameNode namenode, boolean ignoreRetryC
       blockManager.setBlockPoolId(blockPoolId);
       hopSpecificInitialization(conf);
       this.quotaUpdateManager = new QuotaUpdateManager(this, conf);
+      this.leaseRenewalBatcher = new LeaseRenewalBatcher(conf,
+          new LeaseRenewalBatcher.Committer() {
+            @Override
+            public void renewLeases(List<String> holders) throws IOException {
+              renewLeasesInt(holders);
+            }
+          });
       fsOperationsExecutor = Executors.newFixedThreadPool(
           conf.getInt(DFS_SUBTREE_EXECUTOR_LIMIT_KEY,
               DFS_SUBTREE_EXECUTOR_LIMIT_DEFAULT));
       BIGGEST_DELETABLE_DIR = conf.getLong(DFS_DIR_DELETE_BATCH_SIZE,
               DFS_DIR_DELETE_BATCH_SIZE_DEFAULT);
+      subtreeScanBatchSize = conf.getInt(DFS_SUBTREE_SCAN_BATCH_SIZE_KEY,
+          DFS_SUBTREE_SCAN_BATCH_SIZE_DEFAULT);
+      subtreeScanBatchMaxChildren = conf.getInt(
+          DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_KEY,
+          DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_DEFAULT);
+      subtreeScanMaxInFlightBatches = conf.getInt(
+          DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY,
+          DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_DEFAULT);
 
       LOG.info("fsOwner             = " + fsOwner);
       LOG.info("superGroup          = " + superGroup);
@@ -778,11 +811,15 @@ static RetryCacheDistributed initRetryCache(Configuration conf) {
       long entryExpiryMillis = conf.getLong(
           DFS_NAMENODE_RETRY_CACHE_EXPIRYTIME_MILLIS_KEY,
           DFS_NAMENODE_RETRY_CACHE_EXPIRYTIME_MILLIS_DEFAULT);
+      boolean lockFirstAttempts = conf.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_KEY,
+          DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_DEFAULT);
       LOG.info("Retry cache will use " + heapPercent
           + " of total heap and retry cache entry expiry time is "
-          + entryExpiryMillis + " millis");
+          + entryExpiryMillis + " millis" + (lockFirstAttempts ? "" :
+          ", the entries of first attempts are not locked"));
       return new RetryCacheDistributed("NameNodeRetryCache", heapPercent,
-          entryExpiryMillis);
+          entryExpiryMillis, lockFirstAttempts);
     }
     return null;
   }
@@ -854,7 +891,7 @@ private void stopSecretManager() {
   void startCommonServices(Configuration conf) throws IOException {
     this.registerMBean(); // register the MBean for the FSNamesystemState
     IDsMonitor.getInstance().start();
-    RootINodeCache.start();
+    RootINodeCache.start(conf);
     nnResourceChecker = new NameNodeResourceChecker(conf);
     checkAvailableResources();
     if (isLeader()) {
@@ -915,7 +952,7 @@ void startActiveServices() throws IOException {
         }
       }
 
-      leaseManager.startMonitor();
+      leaseManager.startMonitor(conf);
       startSecretManagerIfNecessary();
 
       //ResourceMonitor required only at ActiveNN. See HDFS-2914
@@ -1548,7 +1585,7 @@ private LocatedBlocks getPhantomBlockLocationsUpdateTimes(String src,
       }
 
       return blockManager
-          .createPhantomLocatedBlocks(inode, inode.getFileDataInDB(),
+          .createPhantomLocatedBlocks(inode, getFileDataInDB(inode),
               inode.isUnderConstruction(), needBlockToken);
     }
     return null; // can never reach here
@@ -1607,7 +1644,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                 .setActiveNameNodes(nameNode.getActiveNameNodes().getActiveNodes());
         locks.add(il).add(lf.getBlockLock()).add(
             lf.getBlockRelated(BLK.RE, BLK.CR, BLK.ER, BLK.PE, BLK.UC, BLK.IV));
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
             locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
                 Server.getCallId()));
         }
@@ -1864,7 +1901,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                 .setNameNodeID(nameNode.getId())
                 .setActiveNameNodes(nameNode.getActiveNameNodes().getActiveNodes());
         locks.add(il).add(lf.getAcesLock());
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -2254,7 +2291,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
 
           locks.add(lf.getAllUsedHashBucketsLock());
 
-          if(isRetryCacheEnabled) {
+          if(lockRetryCacheEntry()) {
             locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
                 Server.getCallId()));
           }
@@ -2718,7 +2755,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                     .add(lf.getLeasePathLock(LockType.READ_COMMITTED))
                     .add(lf.getBlockRelated(BLK.RE, BLK.CR, BLK.ER, BLK.UC, BLK.UR, BLK.IV, BLK.PE))
                     .add(lf.getLastBlockHashBucketsLock());
-            if(isRetryCacheEnabled) {
+            if(lockRetryCacheEntry()) {
               locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
                   Server.getCallId()));
             }
@@ -2965,6 +3002,7 @@ public Object performTask() throws IOException {
 
               pendingFile.setFileStoredInDB(false);
               pendingFile.deleteFileDataStoredInDB();
+              invalidateFileDataInDB(pendingFile);
               LOG.debug("Stuffed Inode:  appending to a file stored in the database. In the current implementation there is" +
                   " potential for data loss if the client fails");
               //the data has been deleted. if the client fails to write the data on the datanodes then the data will
@@ -3459,6 +3497,7 @@ private boolean completeFileStoredInDataBase(String src, String holder, long fil
     //in-memory to on disk
     if(pendingFile.isFileStoredInDB()){
       pendingFile.deleteFileDataStoredInDB();
+      invalidateFileDataInDB(pendingFile);
     }
 
     pendingFile.setFileStoredInDB(true);
@@ -3601,7 +3640,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                     .add(lf.getLeasePathLock(LockType.READ_COMMITTED)).add(lf.getBlockLock())
                     .add(lf.getBlockRelated(BLK.RE, BLK.CR, BLK.UC, BLK.UR,
                         BLK.PE, BLK.IV));
-            if(isRetryCacheEnabled) {
+            if(lockRetryCacheEntry()) {
               locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
                   Server.getCallId()));
             }
@@ -4486,6 +4525,10 @@ BlockInfo getStoredBlock(Block block) throws StorageException, TransactionContex
    * Renew the lease(s) held by the given client
    */
   void renewLease(final String holder) throws IOException {
+    if (leaseRenewalBatcher.isEnabled()) {
+      leaseRenewalBatcher.renewLease(holder);
+      return;
+    }
     new HopsTransactionalRequestHandler(HDFSOperationType.RENEW_LEASE) {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
@@ -4502,6 +4545,35 @@ public Object performTask() throws IOException {
     }.handle(this);
   }
 
+  /**
+   * Renew the leases held by the given clients in one transaction
+   */
+  private void renewLeasesInt(final List<String> holders) throws IOException {
+    long start = Time.monotonicNow();
+    new HopsTransactionalRequestHandler(HDFSOperationType.RENEW_LEASES) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        LockFactory lf = LockFactory.getInstance();
+        locks.add(lf.getLeasesLock(LockType.WRITE, holders));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        checkNameNodeSafeMode("Cannot renew leases for " + holders.size() +
+            " clients");
+        for (String holder : holders) {
+          leaseManager.renewLease(holder);
+        }
+        return null;
+      }
+    }.handle(this);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addLeaseRenewalBatch(holders.size(),
+          Time.monotonicNow() - start);
+    }
+  }
+
   /**
    * Get a partial listing of the indicated directory
    *
@@ -4546,13 +4618,17 @@ DirectoryListing getListing(final String src1, byte[] startAfter1,
     HopsTransactionalRequestHandler getListingHandler =
         new HopsTransactionalRequestHandler(HDFSOperationType.GET_LISTING,
             src) {
+          private INodeLock il;
+
           @Override
           public void acquireLock(TransactionLocks locks) throws IOException {
             LockFactory lf = LockFactory.getInstance();
-            INodeLock il = lf.getINodeLock( INodeLockType.READ, INodeResolveType.PATH_AND_IMMEDIATE_CHILDREN, src)
+            //only the children of the requested page are read
+            il = lf.getINodeLock( INodeLockType.READ, INodeResolveType.PATH_AND_IMMEDIATE_CHILDREN, src)
                     .setNameNodeID(nameNode.getId())
                     .setActiveNameNodes(nameNode.getActiveNameNodes().getActiveNodes())
-                    .skipReadingQuotaAttr(true);
+                    .skipReadingQuotaAttr(true)
+                    .setChildrenPage(startAfter, dir.getLsLimit());
             locks.add(il);
             if (needLocation) {
               locks.add(lf.getBlockLock()).add(lf.getBlockRelated(BLK.RE, BLK.ER, BLK.CR, BLK.UC, BLK.CA));
@@ -4563,7 +4639,8 @@ public void acquireLock(TransactionLocks locks) throws IOException {
           @Override
           public Object performTask() throws IOException {
             try {
-              return getListingInt(src, startAfter, needLocation);
+              return getListingInt(src, startAfter, needLocation,
+                  il.getChildrenPage(), il.getRemainingChildren());
             } catch (AccessControlException e) {
               logAuditEvent(false, "listStatus", src);
               throw e;
@@ -4574,7 +4651,7 @@ public Object performTask() throws IOException {
   }
 
   private DirectoryListing getListingInt(String src, byte[] startAfter,
-      boolean needLocation)
+      boolean needLocation, List<INode> childrenPage, int remainingChildren)
       throws IOException {
     DirectoryListing dl;
     FSPermissionChecker pc = getPermissionChecker();
@@ -4588,7 +4665,8 @@ private DirectoryListing getListingInt(String src, byte[] startAfter,
       isSuperUser = pc.isSuperUser();
     }
     logAuditEvent(true, "listStatus", src);
-    dl = dir.getListing(src, startAfter, needLocation, isSuperUser);
+    dl = dir.getListing(src, startAfter, needLocation, isSuperUser,
+        childrenPage, remainingChildren);
     return dl;
   }
 
@@ -6404,7 +6482,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                 .add(lf.getBlockLock(oldBlock.getBlockId(), inodeIdentifier))
                 .add(lf.getBlockRelated(BLK.UC))
                 .add(lf.getLastBlockHashBucketsLock());
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7379,7 +7457,7 @@ long addCacheDirective(final CacheDirectiveInfo directive, final EnumSet<CacheFl
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7456,7 +7534,7 @@ public void setUp() throws StorageException, IOException {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7505,7 +7583,7 @@ void removeCacheDirective(final Long id) throws IOException {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7568,7 +7646,7 @@ public void addCachePool(final CachePoolInfo req) throws IOException {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7616,7 +7694,7 @@ public void modifyCachePool(final CachePoolInfo req) throws IOException {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7660,7 +7738,7 @@ public void removeCachePool(final String cachePoolName) throws IOException {
       @Override
       public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = getInstance();
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -7816,6 +7894,26 @@ public long getNamenodeId() {
     return nameNode.getLeCurrentId();
   }
 
+  /**
+   * Background work that is split between the active namenodes is split by
+   * their index in the sorted list of active namenode ids.
+   *
+   * @return the partition of this namenode and the number of partitions
+   */
+  int[] getNameNodePartition() {
+    List<Long> ids = new ArrayList<>();
+    for (ActiveNode node : nameNode.getActiveNameNodes().getActiveNodes()) {
+      ids.add(node.getId());
+    }
+    Collections.sort(ids);
+    int index = ids.indexOf(getNamenodeId());
+    if (index < 0) {
+      //we are not in the list yet, do not take any work
+      return new int[]{-1, Math.max(ids.size(), 1)};
+    }
+    return new int[]{index, ids.size()};
+  }
+
   public String getSuperGroup() {
     return this.superGroup;
   }
@@ -8020,6 +8118,18 @@ public ExecutorService getFSOperationsExecutor() {
     return fsOperationsExecutor;
   }
 
+  int getSubtreeScanBatchSize() {
+    return subtreeScanBatchSize;
+  }
+
+  int getSubtreeScanBatchMaxChildren() {
+    return subtreeScanBatchMaxChildren;
+  }
+
+  int getSubtreeScanMaxInFlightBatches() {
+    return subtreeScanMaxInFlightBatches;
+  }
+
   /**
    * Setting the quota of a directory in multiple transactions. Calculating the
    * namespace counts of a large directory tree might take to much time for a
@@ -8085,16 +8195,7 @@ void multiTransactionalSetQuota(final String path1, final long nsQuota,
       fileTree.buildUp();
       Iterator<Long> idIterator =
           fileTree.getOrderedIds().descendingIterator();
-      synchronized (idIterator) {
-        quotaUpdateManager.addPrioritizedUpdates(idIterator);
-        try {
-          idIterator.wait();
-        } catch (InterruptedException e) {
-          // Not sure if this can happen if we are not shutting down but we
-          // need to abort in case it happens.
-          throw new IOException("Operation failed due to an Interrupt");
-        }
-      }
+      quotaUpdateManager.applyPrioritizedUpdates(idIterator);
 
       HopsTransactionalRequestHandler setQuotaHandler =
           new HopsTransactionalRequestHandler(HDFSOperationType.SET_QUOTA,
@@ -8883,15 +8984,7 @@ private boolean multiTransactionalDeleteInternal(final String path1,
 
           if (dir.isQuotaEnabled()) {
             Iterator<Long> idIterator = fileTree.getAllINodesIds().iterator();
-            synchronized (idIterator) {
-              quotaUpdateManager.addPrioritizedUpdates(idIterator);
-              try {
-                idIterator.wait();
-              } catch (InterruptedException e) {
-                // Not sure if this can happen if we are not shutting down but we need to abort in case it happens.
-                throw new IOException("Operation failed due to an Interrupt");
-              }
-            }
+            quotaUpdateManager.applyPrioritizedUpdates(idIterator);
           }
 
           for (int i = fileTree.getHeight(); i > 0; i--) {
@@ -9358,7 +9451,7 @@ public void acquireLock(TransactionLocks locks) throws IOException {
                 .setActiveNameNodes(nameNode.getActiveNameNodes().getActiveNodes());
         locks.add(il);
         locks.add(lf.getEncodingStatusLock(LockType.WRITE, sourcePath));
-        if(isRetryCacheEnabled) {
+        if(lockRetryCacheEntry()) {
           locks.add(lf.getRetryCacheEntryLock(Server.getClientId(),
               Server.getCallId()));
         }
@@ -10108,6 +10201,30 @@ public static int dbInMemorySmallFileMaxSize() {
     return DB_IN_MEMORY_FILE_MAX_SIZE;
   }
 
+  /**
+   * Returns the data of a file stored in the database. The data of the
+   * closed files is served from the small file cache when the cache holds
+   * the current version of the file.
+   */
+  private byte[] getFileDataInDB(INodeFile file) throws StorageException {
+    if (smallFileDataCache == null || file.isUnderConstruction()) {
+      return file.getFileDataInDB();
+    }
+    byte[] data = smallFileDataCache.get(file.getId(),
+        file.getModificationTime(), file.getSize());
+    if (data == null) {
+      data = file.getFileDataInDB();
+      smallFileDataCache.put(file.getId(), file.getModificationTime(), data);
+    }
+    return data;
+  }
+
+  private void invalidateFileDataInDB(INodeFile file) {
+    if (smallFileDataCache != null) {
+      smallFileDataCache.invalidate(file.getId());
+    }
+  }
+
   public byte[] getSmallFileData(final long id) throws IOException {
     final long inodeId = -id;
     return (byte[]) ( new HopsTransactionalRequestHandler(HDFSOperationType.GET_SMALL_FILE_DATA) {
@@ -10138,7 +10255,7 @@ public Object performTask() throws IOException {
             throw new  IOException("The requested file is not stored in the database.");
           }
 
-          return ((INodeFile)iNode).getFileDataInDB();
+          return getFileDataInDB(file);
         } else{
           throw new  FileNotFoundException("Inode id: "+id+" is not a file.");
         }
@@ -10235,6 +10352,15 @@ public Object performTask() throws IOException {
 
   }
 
+  /**
+   * @return whether the retry cache entry of the current call is locked in
+   * the transaction of its operation
+   */
+  private boolean lockRetryCacheEntry() {
+    return isRetryCacheEnabled &&
+        RetryCacheDistributed.isLockedInTransaction(retryCache);
+  }
+
   private CacheEntry retryCacheWaitForCompletionTransactional() throws IOException {
     if(!isRetryCacheEnabled){
       return null;
@@ -10318,7 +10444,7 @@ public Object performTask() throws IOException {
             rh.handle();
           }
 
-          if (isLeader() && numRun % 60 == 0) {
+          if (numRun % 60 == 0 && isRetryCacheSweepTurn(numRun / 60)) {
             new LightWeightRequestHandler(
                 HDFSOperationType.CLEAN_RETRY_CACHE) {
               @Override
@@ -10343,6 +10469,15 @@ public Object performTask() throws IOException {
     public void stopMonitor() {
       shouldCacheCleanerRun = false;
     }
+
+    /**
+     * The namenodes sweep the expired entries in turn, so that the sweep is
+     * not always run by the leader.
+     */
+    private boolean isRetryCacheSweepTurn(int round) {
+      int[] partition = getNameNodePartition();
+      return round % partition[1] == partition[0];
+    }
   }
 
   private List<AclEntry> calculateNearestDefaultAclForSubtree(final PathInformation pathInfo) throws IOException {
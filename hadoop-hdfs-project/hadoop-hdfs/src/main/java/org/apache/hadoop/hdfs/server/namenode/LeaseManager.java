@@ -19,6 +19,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.hops.common.INodeUtil;
 import io.hops.exception.StorageException;
 import io.hops.exception.TransactionContextException;
@@ -39,11 +40,15 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -54,6 +59,11 @@
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static io.hops.transaction.lock.LockFactory.BLK;
 import static io.hops.transaction.lock.LockFactory.getInstance;
@@ -86,6 +96,9 @@
 public class LeaseManager {
   public static final Log LOG = LogFactory.getLog(LeaseManager.class);
 
+  //the recheck interval grows up to 32 times after failed rounds
+  private static final int MAX_RECHECK_BACKOFF_SHIFT = 5;
+
   private final FSNamesystem fsnamesystem;
 
   private long softLimit = HdfsConstants.LEASE_SOFTLIMIT_PERIOD;
@@ -93,6 +106,8 @@ public class LeaseManager {
   
   private Daemon lmthread;
   private volatile boolean shouldRunMonitor;
+  private int recoveryBatchSize;
+  private ExecutorService recoveryPool;
 
   LeaseManager(FSNamesystem fsnamesystem) {
     this.fsnamesystem = fsnamesystem;
@@ -425,26 +440,21 @@ class Monitor implements Runnable {
      */
     @Override
     public void run() {
+      int failedRounds = 0;
       for (; shouldRunMonitor && fsnamesystem.isRunning(); ) {
         try {
-          if (fsnamesystem.isLeader()) {
-            try {
-              if (!fsnamesystem.isInSafeMode()) {
-                SortedSet<Lease> sortedLeases =
-                    (SortedSet<Lease>) findExpiredLeaseHandler
-                        .handle(fsnamesystem);
-                if (sortedLeases != null) {
-                  for (Lease expiredLease : sortedLeases) {
-                    expiredLeaseHandler.setParams(expiredLease.getHolder())
-                        .handle(fsnamesystem);
-                  }
-                }
-              }
-            } catch (IOException ex) {
-              LOG.error(ex);
+          boolean failed = false;
+          try {
+            if (!fsnamesystem.isInSafeMode()) {
+              failed = recoverExpiredLeases() > 0;
             }
+          } catch (IOException ex) {
+            LOG.error(ex);
+            failed = true;
           }
-          Thread.sleep(HdfsServerConstants.NAMENODE_LEASE_RECHECK_INTERVAL);
+          //back off while the recoveries keep failing
+          failedRounds = failed ? failedRounds + 1 : 0;
+          Thread.sleep(getRecheckInterval(failedRounds));
         } catch (InterruptedException ie) {
           if (LOG.isDebugEnabled()) {
             LOG.debug(name + " is interrupted", ie);
@@ -452,58 +462,158 @@ public void run() {
         }
       }
     }
+  }
 
-    LightWeightRequestHandler findExpiredLeaseHandler =
-        new LightWeightRequestHandler(
-            HDFSOperationType.PREPARE_LEASE_MANAGER_MONITOR) {
-          @Override
-          public Object performTask() throws StorageException, IOException {
-            long expiredTime = now() - hardLimit;
-            LeaseDataAccess da = (LeaseDataAccess) HdfsStorageFactory
-                .getDataAccess(LeaseDataAccess.class);
-            return new TreeSet<Lease>(da.findByTimeLimit(expiredTime));
-          }
-        };
+  /**
+   * @return the time to wait before the next round, doubled for each round
+   * in a row in which some recovery failed
+   */
+  @VisibleForTesting
+  static long getRecheckInterval(int failedRounds) {
+    return HdfsServerConstants.NAMENODE_LEASE_RECHECK_INTERVAL <<
+        Math.min(failedRounds, MAX_RECHECK_BACKOFF_SHIFT);
+  }
 
-    HopsTransactionalRequestHandler expiredLeaseHandler =
-        new HopsTransactionalRequestHandler(
-            HDFSOperationType.LEASE_MANAGER_MONITOR) {
-          private Set<String> leasePaths = null;
+  private static boolean inPartition(int holderId, int[] partition) {
+    return ((holderId % partition[1]) + partition[1]) % partition[1] ==
+        partition[0];
+  }
 
-          @Override
-          public void setUp() throws StorageException {
-            String holder = (String) getParams()[0];
-            leasePaths = INodeUtil.findPathsByLeaseHolder(holder);
-            if(leasePaths!=null){
-              LOG.debug("Total Paths "+leasePaths.size()+" Paths: "+Arrays.toString(leasePaths.toArray()));
-            }
-            
-          }
+  /**
+   * Recovers the expired leases of the partition of this namenode, oldest
+   * first, in batches whose leases are recovered in parallel. The leases are
+   * split between the active namenodes by the hash of their holder. A lease
+   * recovered by two namenodes while the partitions change is only released
+   * once, the transaction checks that it is still expired.
+   * <p/>
+   * The expired leases are read once per round, the whole backlog of the
+   * partition is worked off from that read rather than reading them again
+   * for every batch.
+   *
+   * @return the number of leases whose recovery failed
+   */
+  private int recoverExpiredLeases()
+      throws IOException, InterruptedException {
+    SortedSet<Lease> expiredLeases =
+        (SortedSet<Lease>) findExpiredLeaseHandler.handle(fsnamesystem);
+    if (expiredLeases == null) {
+      return 0;
+    }
+    int[] partition = fsnamesystem.getNameNodePartition();
+    List<String> holders = new ArrayList<>();
+    for (Lease lease : expiredLeases) {
+      if (inPartition(lease.getHolderID(), partition)) {
+        holders.add(lease.getHolder());
+      }
+    }
 
-          @Override
-          public void acquireLock(TransactionLocks locks) throws IOException {
-            String holder = (String) getParams()[0];
-            LockFactory lf = getInstance();
-            INodeLock il = lf.getINodeLock(INodeLockType.WRITE,
-                    INodeResolveType.PATH,
-                    leasePaths.toArray(new String[leasePaths.size()])).setNameNodeID(fsnamesystem.getNameNode().getId())
-                    .setActiveNameNodes(fsnamesystem.getNameNode().getActiveNameNodes().getActiveNodes());
-
-            locks.add(il).add(lf.getNameNodeLeaseLock(LockType.WRITE))
-                    .add(lf.getLeaseLock(LockType.WRITE, holder))
-                    .add(lf.getLeasePathLock(LockType.WRITE, leasePaths.size()))
-                    .add(lf.getBlockLock()).add(lf.getBlockRelated(BLK.RE, BLK.CR, BLK.ER, BLK.UC, BLK.UR));
-          }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    int failed = 0;
+    for (int i = 0; i < holders.size() && shouldRunMonitor;
+         i += recoveryBatchSize) {
+      if (metrics != null) {
+        metrics.setLeaseRecoveryBacklog(holders.size() - i);
+      }
+      failed += recoverLeases(holders.subList(i,
+          Math.min(holders.size(), i + recoveryBatchSize)), metrics);
+    }
+    if (metrics != null) {
+      metrics.setLeaseRecoveryBacklog(0);
+    }
+    return failed;
+  }
 
-          @Override
-          public Object performTask() throws StorageException, IOException {
-            String holder = (String) getParams()[0];
-            if (holder != null) {
-              checkLeases(holder);
+  /**
+   * Recovers the leases of the holders in parallel.
+   *
+   * @return the number of leases whose recovery failed
+   */
+  private int recoverLeases(List<String> holders,
+      final NameNodeMetrics metrics) throws InterruptedException {
+    List<Future<Boolean>> futures = new ArrayList<>(holders.size());
+    for (final String holder : holders) {
+      futures.add(recoveryPool.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          long start = Time.monotonicNow();
+          try {
+            newExpiredLeaseHandler().setParams(holder).handle(fsnamesystem);
+            if (metrics != null) {
+              metrics.addLeaseRecovery(Time.monotonicNow() - start);
             }
-            return null;
+            return true;
+          } catch (IOException e) {
+            LOG.error("Could not recover the lease of " + holder, e);
+            return false;
           }
-        };
+        }
+      }));
+    }
+    int failed = 0;
+    for (Future<Boolean> future : futures) {
+      try {
+        if (!future.get()) {
+          failed++;
+        }
+      } catch (ExecutionException e) {
+        LOG.error("Lease recovery worker failed", e.getCause());
+        failed++;
+      }
+    }
+    return failed;
+  }
+
+  private final LightWeightRequestHandler findExpiredLeaseHandler =
+      new LightWeightRequestHandler(
+          HDFSOperationType.PREPARE_LEASE_MANAGER_MONITOR) {
+        @Override
+        public Object performTask() throws StorageException, IOException {
+          long expiredTime = now() - hardLimit;
+          LeaseDataAccess da = (LeaseDataAccess) HdfsStorageFactory
+              .getDataAccess(LeaseDataAccess.class);
+          return new TreeSet<Lease>(da.findByTimeLimit(expiredTime));
+        }
+      };
+
+  private HopsTransactionalRequestHandler newExpiredLeaseHandler() {
+    return new HopsTransactionalRequestHandler(
+        HDFSOperationType.LEASE_MANAGER_MONITOR) {
+      private Set<String> leasePaths = null;
+
+      @Override
+      public void setUp() throws StorageException {
+        String holder = (String) getParams()[0];
+        leasePaths = INodeUtil.findPathsByLeaseHolder(holder);
+        if(leasePaths!=null){
+          LOG.debug("Total Paths "+leasePaths.size()+" Paths: "+Arrays.toString(leasePaths.toArray()));
+        }
+
+      }
+
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        String holder = (String) getParams()[0];
+        LockFactory lf = getInstance();
+        INodeLock il = lf.getINodeLock(INodeLockType.WRITE,
+                INodeResolveType.PATH,
+                leasePaths.toArray(new String[leasePaths.size()])).setNameNodeID(fsnamesystem.getNameNode().getId())
+                .setActiveNameNodes(fsnamesystem.getNameNode().getActiveNameNodes().getActiveNodes());
+
+        locks.add(il).add(lf.getNameNodeLeaseLock(LockType.WRITE))
+                .add(lf.getLeaseLock(LockType.WRITE, holder))
+                .add(lf.getLeasePathLock(LockType.WRITE, leasePaths.size()))
+                .add(lf.getBlockLock()).add(lf.getBlockRelated(BLK.RE, BLK.CR, BLK.ER, BLK.UC, BLK.UR));
+      }
+
+      @Override
+      public Object performTask() throws StorageException, IOException {
+        String holder = (String) getParams()[0];
+        if (holder != null) {
+          checkLeases(holder);
+        }
+        return null;
+      }
+    };
   }
 
   /**
@@ -572,8 +682,16 @@ private boolean checkLeases(String holder)
     return needSync;
   }
 
-  void startMonitor() {
+  void startMonitor(Configuration conf) {
     Preconditions.checkState(lmthread == null, "Lease Monitor already running");
+    recoveryBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_BATCH_SIZE_DEFAULT);
+    recoveryPool = Executors.newFixedThreadPool(conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_THREADS_DEFAULT),
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("LeaseRecoveryWorker-%d").build());
     shouldRunMonitor = true;
     lmthread = new Daemon(new Monitor());
     lmthread.start();
@@ -590,6 +708,10 @@ void stopMonitor() {
       }
       lmthread = null;
     }
+    if (recoveryPool != null) {
+      recoveryPool.shutdownNow();
+      recoveryPool = null;
+    }
   }
 
   /**
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Group commit of the lease renewals. The first renewal that arrives opens
+ * a batch and waits for the window to pass, or for the batch to fill up,
+ * the renewals that arrive in the meantime join the batch. The first
+ * renewal then commits the leases of all the holders of the batch in one
+ * transaction, ordered by holder, and all the renewals of the batch return
+ * once it is committed, or fail with its error.
+ *
+ * A renewal waits at most the window before being committed. The window is
+ * kept below a hundredth of the lease soft limit so that batching never
+ * gets in the way of a client renewing its leases in time.
+ */
+class LeaseRenewalBatcher {
+
+  static final Log LOG = LogFactory.getLog(LeaseRenewalBatcher.class);
+
+  interface Committer {
+    void renewLeases(List<String> holders) throws IOException;
+  }
+
+  private static class Batch {
+    private final SortedSet<String> holders = new TreeSet<>();
+    private boolean closed = false;
+    private boolean committed = false;
+    private IOException error;
+  }
+
+  private final Committer committer;
+  private final boolean enabled;
+  private final long window;
+  private final int maxSize;
+  //the batch renewals join, guarded by this
+  private Batch open;
+
+  LeaseRenewalBatcher(Configuration conf, Committer committer) {
+    this.committer = committer;
+    enabled = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_ENABLED_DEFAULT);
+    long configuredWindow = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_DEFAULT);
+    long maxWindow = HdfsConstants.LEASE_SOFTLIMIT_PERIOD / 100;
+    if (configuredWindow > maxWindow) {
+      LOG.warn(DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_KEY +
+          " = " + configuredWindow + " is too close to the lease soft " +
+          "limit, using " + maxWindow + " ms");
+    }
+    window = Math.max(0, Math.min(configuredWindow, maxWindow));
+    maxSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_MAX_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_MAX_SIZE_DEFAULT));
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Renews the leases of the holder in the next batch and waits for it to
+   * be committed.
+   */
+  void renewLease(String holder) throws IOException {
+    Batch batch;
+    boolean first;
+    synchronized (this) {
+      first = open == null;
+      if (first) {
+        open = new Batch();
+      }
+      batch = open;
+      batch.holders.add(holder);
+      if (batch.holders.size() >= maxSize) {
+        open = null;
+        synchronized (batch) {
+          batch.closed = true;
+          batch.notifyAll();
+        }
+      }
+    }
+
+    if (first) {
+      commit(batch);
+    } else {
+      awaitCommit(batch);
+    }
+  }
+
+  private void commit(Batch batch) throws IOException {
+    long deadline = Time.monotonicNow() + window;
+    try {
+      synchronized (batch) {
+        long remaining;
+        while (!batch.closed &&
+            (remaining = deadline - Time.monotonicNow()) > 0) {
+          batch.wait(remaining);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (open == batch) {
+        open = null;
+      }
+    }
+
+    IOException error = null;
+    try {
+      //no renewal joins a batch once it is closed
+      committer.renewLeases(new ArrayList<>(batch.holders));
+    } catch (IOException e) {
+      error = e;
+    } catch (RuntimeException e) {
+      error = new IOException(e);
+    }
+    synchronized (batch) {
+      batch.closed = true;
+      batch.committed = true;
+      batch.error = error;
+      batch.notifyAll();
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private void awaitCommit(Batch batch) throws IOException {
+    synchronized (batch) {
+      while (!batch.committed) {
+        try {
+          batch.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted waiting for the lease renewal batch");
+        }
+      }
+      if (batch.error != null) {
+        throw batch.error;
+      }
+    }
+  }
+}
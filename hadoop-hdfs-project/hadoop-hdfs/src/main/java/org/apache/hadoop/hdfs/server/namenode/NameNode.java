@@ -24,6 +24,8 @@
 import io.hops.leader_election.node.SortedActiveNodeList;
 import io.hops.metadata.HdfsStorageFactory;
 import io.hops.metadata.HdfsVariables;
+import io.hops.resolvingcache.Cache;
+import io.hops.resolvingcache.InvalidationPublisher;
 import io.hops.security.UsersGroups;
 import io.hops.transaction.handler.RequestHandler;
 import org.apache.commons.logging.Log;
@@ -245,6 +247,7 @@ public long getProtocolVersion(String protocol, long clientVersion)
    * Metadata cleaner service. Cleans stale metadata left my dead NNs
    */
   private MDCleaner mdCleaner;
+  private InvalidationPublisher invalidationPublisher;
   private long stoTableCleanDelay = 0;
 
   private ObjectName nameNodeStatusBeanName;
@@ -591,6 +594,8 @@ private void startCommonServices(Configuration conf) throws IOException {
     startLeaderElectionService();
 
     startMDCleanerService();
+
+    startResolvingCacheInvalidationPublisher(conf);
     
     namesystem.startCommonServices(conf);
     registerNNSMXBean();
@@ -653,6 +658,12 @@ private void stopCommonServices() {
       mdCleaner.stopMDCleanerMonitor();
     }
 
+    if (invalidationPublisher != null) {
+      Cache.getInstance().unsetPublisher(invalidationPublisher);
+      invalidationPublisher.stop();
+      invalidationPublisher = null;
+    }
+
     if (plugins != null) {
       for (ServicePlugin p : plugins) {
         try {
@@ -1314,6 +1325,14 @@ private void startMDCleanerService(){
     mdCleaner.startMDCleanerMonitor(namesystem, leaderElection,stoTableCleanDelay);
   }
 
+  private void startResolvingCacheInvalidationPublisher(Configuration conf) {
+    if (Cache.getInstance().isCoherent()) {
+      invalidationPublisher = new InvalidationPublisher(this, conf);
+      invalidationPublisher.start();
+      Cache.getInstance().setPublisher(invalidationPublisher);
+    }
+  }
+
   private void stopMDCleanerService(){
     mdCleaner.stopMDCleanerMonitor();
   }
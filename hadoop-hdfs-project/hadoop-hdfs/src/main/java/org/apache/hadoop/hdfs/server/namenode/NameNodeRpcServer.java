@@ -23,6 +23,9 @@
 import io.hops.leader_election.node.SortedActiveNodeList;
 import io.hops.metadata.hdfs.entity.EncodingPolicy;
 import io.hops.metadata.hdfs.entity.EncodingStatus;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import io.hops.resolvingcache.Cache;
+import io.hops.transaction.context.RootINodeCache;
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
@@ -1021,6 +1024,28 @@ public NamespaceInfo versionRequest() throws IOException {
     return namesystem.getNamespaceInfo();
   }
 
+  @Override // NamenodeProtocol
+  public void invalidateResolvingCache(long senderId,
+      List<INodeIdentifier> inodes, boolean flushAll) throws IOException {
+    namesystem.checkSuperuserPrivilege();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Namenode " + senderId + " invalidated " + inodes.size() +
+          " resolving cache entries" + (flushAll ? " and asked for a flush" :
+          ""));
+    }
+    Cache.getInstance().receiveInvalidations(inodes, flushAll);
+    if (flushAll) {
+      RootINodeCache.refresh();
+    } else {
+      for (INodeIdentifier inode : inodes) {
+        if (inode.getInodeId() == INode.ROOT_INODE_ID) {
+          RootINodeCache.refresh();
+          break;
+        }
+      }
+    }
+  }
+
   @Override
   public byte[] getSmallFileData(int id) throws IOException {
     return namesystem.getSmallFileData(id);
@@ -15,6 +15,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.hops.common.IDsGeneratorFactory;
 import io.hops.exception.StorageException;
 import io.hops.exception.TransactionContextException;
@@ -35,19 +36,39 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.apache.hadoop.util.ExitUtil.terminate;
 
 /**
  * Daemon that is asynchronously updating the quota counts of directories.
  * Each operation that affects the quota adds a log entry to our database.
- * This daemon periodically reads a batch of these updates, combines them if
- * possible and applies them.
+ * This daemon combines the entries of a directory and applies them.
+ *
+ * The work is split between all the active namenodes without sharing a
+ * query: once a transaction adding updates commits, the inodes it updated
+ * are queued on the namenode that ran it, and that namenode applies them,
+ * which queues the parents in turn. The inodes are applied in parallel by a
+ * pool of threads, all the updates of an inode being combined in a single
+ * transaction. The transaction locks the inode and reads its updates again,
+ * so an inode applied twice, by the orphan scan of the leader or through
+ * {@link #applyPrioritizedUpdates(Iterator)}, is never counted twice.
+ *
+ * The updates left behind by a namenode which died, or by a failed apply,
+ * are picked up by the leader, which reads the oldest updates every round
+ * and applies those it has seen for a while.
  */
 public class QuotaUpdateManager {
 
@@ -57,11 +78,42 @@ public class QuotaUpdateManager {
 
   private final int updateInterval;
   private final int updateLimit;
+  private final int updateThreads;
 
   private final Daemon updateThread = new Daemon(new QuotaUpdateMonitor());
 
-  private final ConcurrentLinkedQueue<Iterator<Long>> prioritizedUpdates =
-      new ConcurrentLinkedQueue<>();
+  private ExecutorService updatePool;
+  private ExecutorService prioritizedPool;
+
+  /**
+   * The update intervals after which the leader takes an update it keeps
+   * reading as orphaned.
+   */
+  private static final int ORPHAN_AGE_INTERVALS = 10;
+
+  /** The inodes updated by the transactions of the running thread. */
+  private static final ThreadLocal<StagedUpdates> stagedUpdates =
+      new ThreadLocal<StagedUpdates>() {
+        @Override
+        protected StagedUpdates initialValue() {
+          return new StagedUpdates();
+        }
+      };
+
+  private static class StagedUpdates {
+    private QuotaUpdateManager manager;
+    private final Set<Long> inodes = new HashSet<>();
+  }
+
+  //inodes with updates added by the transactions of this namenode
+  private final Set<Long> pendingInodes =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  //when the leader first read the updates of its last orphan scan
+  private Map<Integer, Long> firstSeenUpdates = new HashMap<>();
+
+  //last time all the updates queued on this namenode were applied
+  private long lastDrained = Time.monotonicNow();
 
   public QuotaUpdateManager(FSNamesystem namesystem, Configuration conf) {
     this.namesystem = namesystem;
@@ -70,10 +122,19 @@ public QuotaUpdateManager(FSNamesystem namesystem, Configuration conf) {
             DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_INTERVAL_DEFAULT);
     updateLimit = conf.getInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_LIMIT_KEY,
         DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_LIMIT_DEFAULT);
+    updateThreads =
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_THREADS_KEY,
+            DFSConfigKeys.DFS_NAMENODE_QUOTA_UPDATE_THREADS_DEFAULT);
   }
 
   public void activate() {
     LOG.debug("QuotaUpdateMonitor is running");
+    updatePool = Executors.newFixedThreadPool(updateThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("QuotaUpdateWorker-%d").build());
+    prioritizedPool = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("QuotaUpdatePrioritized").build());
     updateThread.start();
   }
 
@@ -86,6 +147,12 @@ public void close() {
         e.printStackTrace();
       }
     }
+    if (updatePool != null) {
+      updatePool.shutdownNow();
+    }
+    if (prioritizedPool != null) {
+      prioritizedPool.shutdownNow();
+    }
   }
 
   private int nextId() {
@@ -99,6 +166,27 @@ public void addUpdate(final long inodeId, final long namespaceDelta,
     QuotaUpdate update =
         new QuotaUpdate(nextId(), inodeId, namespaceDelta, diskspaceDelta);
     EntityManager.add(update);
+    StagedUpdates staged = stagedUpdates.get();
+    staged.manager = this;
+    staged.inodes.add(inodeId);
+  }
+
+  /**
+   * Queues the inodes updated by the transaction that just committed on the
+   * namenode that ran it.
+   */
+  public static void commitStagedUpdates() {
+    StagedUpdates staged = stagedUpdates.get();
+    if (staged.manager != null) {
+      staged.manager.pendingInodes.addAll(staged.inodes);
+    }
+    discardStagedUpdates();
+  }
+
+  public static void discardStagedUpdates() {
+    StagedUpdates staged = stagedUpdates.get();
+    staged.manager = null;
+    staged.inodes.clear();
   }
 
   private class QuotaUpdateMonitor implements Runnable {
@@ -108,22 +196,17 @@ public void run() {
       while (namesystem.isRunning()) {
         startTime = System.currentTimeMillis();
         try {
+          boolean backlog = processPendingUpdates();
           if (namesystem.isLeader()) {
-            if (!prioritizedUpdates.isEmpty()) {
-              Iterator<Long> iterator = prioritizedUpdates.poll();
-              while (iterator.hasNext()) {
-                processUpdates(iterator.next());
-              }
-              synchronized (iterator) {
-                iterator.notify();
-              }
-            }
-            processNextUpdateBatch();
+            backlog |= processOrphanedUpdates();
           }
-          long sleepDuration =
-              updateInterval - (System.currentTimeMillis() - startTime);
-          if (sleepDuration > 0) {
-            Thread.sleep(updateInterval);
+          //keep going while there is a backlog of updates
+          if (!backlog) {
+            long sleepDuration =
+                updateInterval - (System.currentTimeMillis() - startTime);
+            if (sleepDuration > 0) {
+              Thread.sleep(sleepDuration);
+            }
           }
         } catch (InterruptedException ie) {
           LOG.warn("QuotaUpdateMonitor thread received InterruptedException.",
@@ -138,38 +221,49 @@ public void run() {
     }
   }
 
-  private final Comparator<QuotaUpdate> quotaUpdateComparator =
-      new Comparator<QuotaUpdate>() {
-        @Override
-        public int compare(QuotaUpdate quotaUpdate, QuotaUpdate quotaUpdate2) {
-          if (quotaUpdate.getInodeId() < quotaUpdate2.getInodeId()) {
-            return -1;
-          }
-          if (quotaUpdate.getInodeId() > quotaUpdate2.getInodeId()) {
-            return 1;
-          }
-          return 0;
-        }
-      };
+  /**
+   * Applies the updates of the inodes queued by the transactions of this
+   * namenode.
+   *
+   * @return true if more inodes are queued than a round takes
+   */
+  private boolean processPendingUpdates() throws InterruptedException {
+    Set<Long> inodes = new TreeSet<>();
+    Iterator<Long> it = pendingInodes.iterator();
+    while (it.hasNext() && inodes.size() < updateLimit) {
+      inodes.add(it.next());
+      it.remove();
+    }
 
-  private void processUpdates(final Long id) throws IOException {
-    LightWeightRequestHandler findHandler =
-        new LightWeightRequestHandler(HDFSOperationType.GET_UPDATES_FOR_ID) {
-          @Override
-          public Object performTask() throws IOException {
-            QuotaUpdateDataAccess<QuotaUpdate> dataAccess =
-                (QuotaUpdateDataAccess) HdfsStorageFactory
-                    .getDataAccess(QuotaUpdateDataAccess.class);
-            return dataAccess.findByInodeId(id);
-          }
-        };
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.setQuotaUpdateBacklog(inodes.size() + pendingInodes.size());
+    }
 
-    List<QuotaUpdate> quotaUpdates = (List<QuotaUpdate>) findHandler.handle();
-    LOG.debug("processUpdates for inode id="+id+" quotaUpdates ids are "+ Arrays.toString(quotaUpdates.toArray()));
-    applyBatchedUpdate(quotaUpdates);
+    applyInParallel(inodes);
+
+    boolean backlog = !pendingInodes.isEmpty();
+    if (!backlog) {
+      lastDrained = Time.monotonicNow();
+    }
+    if (metrics != null) {
+      metrics.setQuotaUpdateLag(Time.monotonicNow() - lastDrained);
+    }
+    return backlog;
   }
 
-  private void processNextUpdateBatch() throws IOException {
+  /**
+   * Applies the updates nobody applies: the updates of a namenode which died
+   * before applying them, or whose apply failed. An update is taken as
+   * orphaned once it has been seen for ORPHAN_AGE_INTERVALS update intervals.
+   * Updates still queued by a live namenode may be applied here too, which
+   * is harmless as the updates are read again under the inode lock.
+   *
+   * @return true if the batch was full and some of it was orphaned, in which
+   * case the next batch should be read right away
+   */
+  private boolean processOrphanedUpdates()
+      throws IOException, InterruptedException {
     LightWeightRequestHandler findHandler =
         new LightWeightRequestHandler(HDFSOperationType.GET_NEXT_QUOTA_BATCH) {
           @Override
@@ -182,37 +276,66 @@ public Object performTask() throws IOException {
         };
 
     List<QuotaUpdate> quotaUpdates = (List<QuotaUpdate>) findHandler.handle();
-    Collections.sort(quotaUpdates, quotaUpdateComparator);
+    long now = Time.monotonicNow();
+    long orphanAge = ORPHAN_AGE_INTERVALS * updateInterval;
 
-    ArrayList<QuotaUpdate> batch = new ArrayList<>();
+    Map<Integer, Long> seen = new HashMap<>();
+    Set<Long> inodes = new TreeSet<>();
     for (QuotaUpdate update : quotaUpdates) {
-      if (batch.size() == 0 ||
-          batch.get(0).getInodeId() == update.getInodeId()) {
-        batch.add(update);
-      } else {
-        applyBatchedUpdate(batch);
-        batch = new ArrayList<>();
-        batch.add(update);
+      Long firstSeen = firstSeenUpdates.get(update.getId());
+      if (firstSeen == null) {
+        firstSeen = now;
+      } else if (now - firstSeen >= orphanAge) {
+        inodes.add(update.getInodeId());
       }
+      seen.put(update.getId(), firstSeen);
     }
+    //forget the updates which were applied in the meantime
+    firstSeenUpdates = seen;
 
-    if (batch.size() != 0) {
-      applyBatchedUpdate(batch);
+    if (!inodes.isEmpty()) {
+      LOG.debug("Applying the orphaned quota updates of " + inodes.size() +
+          " inodes");
+      applyInParallel(inodes);
     }
+    return quotaUpdates.size() >= updateLimit && !inodes.isEmpty();
   }
 
-  private void applyBatchedUpdate(final List<QuotaUpdate> updates)
-      throws IOException {
-    if (updates.size() == 0) {
-      return;
+  private void applyInParallel(Set<Long> inodes) throws InterruptedException {
+    List<Future<?>> futures = new ArrayList<>(inodes.size());
+    for (final Long inodeId : inodes) {
+      futures.add(updatePool.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            applyUpdates(inodeId);
+          } catch (IOException e) {
+            //the updates stay in the database for the orphan scan of the
+            //leader
+            LOG.warn("Could not apply the quota updates of inode " + inodeId,
+                e);
+          }
+        }
+      }));
     }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        LOG.error("Quota update worker failed", e.getCause());
+      }
+    }
+  }
+
+  private void applyUpdates(final long inodeId) throws IOException {
+    final long startTime = Time.monotonicNow();
     new HopsTransactionalRequestHandler(HDFSOperationType.APPLY_QUOTA_UPDATE) {
       INodeIdentifier iNodeIdentifier;
 
       @Override
       public void setUp() throws IOException {
         super.setUp();
-        iNodeIdentifier = new INodeIdentifier(updates.get(0).getInodeId());
+        iNodeIdentifier = new INodeIdentifier(inodeId);
       }
 
       @Override
@@ -220,13 +343,14 @@ public void acquireLock(TransactionLocks locks) throws IOException {
         LockFactory lf = LockFactory.getInstance();
         locks.add(
             lf.getIndividualINodeLock(TransactionLockTypes.INodeLockType.WRITE,
-                iNodeIdentifier));
+                iNodeIdentifier))
+            .add(lf.getIndividualQuotaUpdateLock(inodeId));
       }
 
       @Override
       public Object performTask() throws IOException {
         INodeDirectory dir = (INodeDirectory) EntityManager
-            .find(INode.Finder.ByINodeIdFTIS, updates.get(0).getInodeId());
+            .find(INode.Finder.ByINodeIdFTIS, inodeId);
         if (dir != null && SubtreeLockHelper
             .isSTOLocked(dir.isSTOLocked(), dir.getSTOLockOwner(),
                 namesystem.getNameNode().getActiveNameNodes()
@@ -240,6 +364,16 @@ public Object performTask() throws IOException {
           return null;
         }
 
+        //read under the inode lock, updates applied by someone else since
+        //the batch was read are gone
+        Collection<QuotaUpdate> updates = EntityManager
+            .findList(QuotaUpdate.Finder.ByINodeId, inodeId);
+        if (updates == null || updates.isEmpty()) {
+          return null;
+        }
+        LOG.debug("processUpdates for inode id=" + inodeId +
+            " quotaUpdates ids are " + Arrays.toString(updates.toArray()));
+
         long namespaceDelta = 0;
         long diskspaceDelta = 0;
         for (QuotaUpdate update : updates) {
@@ -250,7 +384,7 @@ public Object performTask() throws IOException {
         }
 
         if (dir == null) {
-          LOG.debug("dropping update for " + updates.get(0) + " ns " +
+          LOG.debug("dropping update for inode " + inodeId + " ns " +
               namespaceDelta + " ds " + diskspaceDelta +
               " because of deletion");
           return null;
@@ -272,31 +406,62 @@ public Object performTask() throws IOException {
         }
 
         if (dir != null && dir.getId() != INodeDirectory.ROOT_INODE_ID) {
-          QuotaUpdate parentUpdate =
-              new QuotaUpdate(nextId(), dir.getParentId(), namespaceDelta,
-                  diskspaceDelta);
-          EntityManager.add(parentUpdate);
-          LOG.debug("adding parent update " + parentUpdate);
+          addUpdate(dir.getParentId(), namespaceDelta, diskspaceDelta);
+          LOG.debug("adding parent update for " + dir.getParentId());
         }
         return null;
       }
     }.handle(this);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addQuotaUpdateApply(Time.monotonicNow() - startTime);
+    }
   }
 
   /**
-   * Ids which updates need to be applied. Note that children must occur before
-   * their parents
-   * in order to guarantee that updates are applied completely.
+   * Applies the updates of the given inodes before returning. Note that
+   * children must occur before their parents in order to guarantee that
+   * updates are applied completely.
    *
    * @param iterator
    *     Ids to be updates sorted from the leaves to the root of the subtree
+   * @throws QuotaUpdateException
+   *     if the updates of an inode could not be applied, the quota counts of
+   *     the subtree are then not complete
    */
-  void addPrioritizedUpdates(Iterator<Long> iterator) throws QuotaUpdateException {
-      if(namesystem.isLeader()) {
-        prioritizedUpdates.add(iterator);
-      } else {
-        throw  new QuotaUpdateException("Non leader name" +
-                "node cannot prioritize quota updates for inodes");
-      }
+  void applyPrioritizedUpdates(final Iterator<Long> iterator)
+      throws IOException {
+    if (prioritizedPool == null) {
+      throw new QuotaUpdateException("Quota updates are not being processed");
+    }
+    Future<?> future;
+    try {
+      future = prioritizedPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          while (iterator.hasNext()) {
+            applyUpdates(iterator.next());
+          }
+          return null;
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw new QuotaUpdateException("Quota updates are not being processed");
+    }
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      // Not sure if this can happen if we are not shutting down but we
+      // need to abort in case it happens.
+      throw new IOException("Operation failed due to an Interrupt");
+    } catch (ExecutionException e) {
+      LOG.error("Could not apply the prioritized quota updates", e.getCause());
+      QuotaUpdateException qe = new QuotaUpdateException(
+          "Could not apply the quota updates of the subtree: " +
+              e.getCause().getMessage());
+      qe.initCause(e.getCause());
+      throw qe;
+    }
   }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the data of the files stored in the database, so that the files
+ * read over and over are not read from the database on every open.
+ *
+ * The data of a file is cached with the modification time and the size the
+ * file had when it was read, and it is only served to a reader that found
+ * the same modification time and size in the inode it read in its
+ * transaction. Appending to or overwriting the file changes them, a deleted
+ * file is not looked up anymore and ages out of the cache, so every
+ * namenode can keep its own cache without invalidations being exchanged.
+ *
+ * The cache is bounded by the total size of the data cached and evicts the
+ * least recently read files first. The cached arrays are shared with the
+ * readers which must not modify them.
+ */
+class SmallFileDataCache {
+
+  private static class Entry {
+    private final long modificationTime;
+    private final byte[] data;
+
+    Entry(long modificationTime, byte[] data) {
+      this.modificationTime = modificationTime;
+      this.data = data;
+    }
+  }
+
+  private final long capacity;
+  private final int maxFileSize;
+  private final LinkedHashMap<Long, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+
+  /**
+   * @param capacity
+   *     the maximum number of bytes cached
+   * @param maxFileSize
+   *     the size of the largest file cached
+   */
+  SmallFileDataCache(long capacity, int maxFileSize) {
+    this.capacity = capacity;
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * Returns the cached data of the file, or null if the file is not cached
+   * or was modified since it was cached.
+   */
+  synchronized byte[] get(long inodeId, long modificationTime, long fileSize) {
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    Entry entry = entries.get(inodeId);
+    if (entry != null && (entry.modificationTime != modificationTime ||
+        entry.data.length != fileSize)) {
+      remove(inodeId);
+      entry = null;
+    }
+    if (entry == null) {
+      if (metrics != null) {
+        metrics.incrSmallFileCacheMisses();
+      }
+      return null;
+    }
+    if (metrics != null) {
+      metrics.incrSmallFileCacheHits(entry.data.length);
+    }
+    return entry.data;
+  }
+
+  synchronized void put(long inodeId, long modificationTime, byte[] data) {
+    if (data == null || data.length > maxFileSize || data.length > capacity) {
+      return;
+    }
+    remove(inodeId);
+    entries.put(inodeId, new Entry(modificationTime, data));
+    size += data.length;
+
+    int evicted = 0;
+    Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+    while (size > capacity && it.hasNext()) {
+      size -= it.next().getValue().data.length;
+      it.remove();
+      evicted++;
+    }
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (evicted > 0 && metrics != null) {
+      metrics.incrSmallFileCacheEvictions(evicted);
+    }
+  }
+
+  synchronized void invalidate(long inodeId) {
+    remove(inodeId);
+  }
+
+  synchronized long size() {
+    return size;
+  }
+
+  private void remove(long inodeId) {
+    Entry entry = entries.remove(inodeId);
+    if (entry != null) {
+      size -= entry.data.length;
+    }
+  }
+}
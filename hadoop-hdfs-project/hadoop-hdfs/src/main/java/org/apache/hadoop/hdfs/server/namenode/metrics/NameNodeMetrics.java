@@ -27,6 +27,7 @@
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -74,6 +75,67 @@ public class NameNodeMetrics {
   MutableCounterLong blockReceivedAndDeletedOps;
   @Metric("Number of blockReports from individual storages")
   MutableCounterLong storageBlockReportOps;
+  @Metric("Number of paths found in the resolving cache")
+  MutableCounterLong resolvingCacheHits;
+  @Metric("Number of paths not found in the resolving cache")
+  MutableCounterLong resolvingCacheMisses;
+  @Metric("Number of resolving cache entries that did not match the database")
+  MutableCounterLong resolvingCacheStaleHits;
+  @Metric("Number of resolving cache entries invalidated by renames and deletes")
+  MutableCounterLong resolvingCacheInvalidations;
+  @Metric("Number of resolving cache invalidations sent to other namenodes")
+  MutableCounterLong resolvingCacheInvalidationsPublished;
+  @Metric("Inodes with quota updates queued on this namenode")
+  MutableGaugeLong quotaUpdateBacklog;
+  @Metric("Time since the quota updates queued on this namenode were " +
+      "last fully applied in msec")
+  MutableGaugeLong quotaUpdateLag;
+  @Metric("Applying the quota updates of an inode")
+  MutableRate quotaUpdateApply;
+  @Metric("Number of times the cached root inode was reloaded")
+  MutableCounterLong rootINodeCacheRefreshes;
+  @Metric("Number of root inode reads that bypassed an outdated cached root")
+  MutableCounterLong rootINodeCacheStaleReads;
+  @Metric("Time between a root inode change and the cache reload")
+  MutableRate rootINodeCacheRefreshDelay;
+  @Metric("Number of batched reads done to resolve multi path operations")
+  MutableCounterLong batchedPathResolutionReads;
+  @Metric("Database round trips saved per multi path operation by batching")
+  MutableRate batchedPathResolutionRoundTripsSaved;
+  @Metric("Flushing the coalesced hash bucket deltas")
+  MutableRate hashBucketFlush;
+  @Metric("Number of hash buckets updated by the flushes")
+  MutableCounterLong hashBucketsFlushed;
+  @Metric("Number of clients whose leases are renewed per batch")
+  MutableRate leaseRenewalBatchSize;
+  @Metric("Committing a batch of lease renewals")
+  MutableRate leaseRenewalBatchCommit;
+  @Metric("Expired leases of this namenode's partition found in the last " +
+      "round")
+  MutableGaugeLong leaseRecoveryBacklog;
+  @Metric("Number of expired leases recovered")
+  MutableCounterLong leasesRecovered;
+  @Metric("Recovering an expired lease")
+  MutableRate leaseRecovery;
+  @Metric("Number of operations that found no ids left to hand out")
+  MutableCounterLong idsStalls;
+  @Metric("Waiting for ids to be leased")
+  MutableRate idsStall;
+  @Metric("Choosing the under replicated blocks to replicate")
+  MutableRate underReplicatedBlocksChoose;
+  @Metric("Number of blocks scheduled for replication by this namenode")
+  MutableCounterLong blocksScheduledForReplication;
+  @Metric("Number of file data reads served from the small file cache")
+  MutableCounterLong smallFileCacheHits;
+  @Metric("Number of file data reads that missed the small file cache")
+  MutableCounterLong smallFileCacheMisses;
+  @Metric("Bytes of file data served from the small file cache")
+  MutableCounterLong smallFileCacheBytesServed;
+  @Metric("Number of files evicted from the small file cache")
+  MutableCounterLong smallFileCacheEvictions;
+  // Blocks in the under replication queue of each priority, the highest
+  // priority first
+  MutableGaugeLong[] underReplicatedBlocks;
 
   MutableQuantiles[] syncsQuantiles;
   @Metric("Block report")
@@ -98,6 +160,15 @@ public class NameNodeMetrics {
     blockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
+    String[] replicationQueues = {"HighestPriority", "VeryUnderReplicated",
+        "UnderReplicated", "BadlyDistributed", "Corrupt"};
+    underReplicatedBlocks = new MutableGaugeLong[replicationQueues.length];
+    for (int i = 0; i < replicationQueues.length; i++) {
+      underReplicatedBlocks[i] = registry.newGauge(
+          "underReplicatedBlocks" + replicationQueues[i],
+          "Blocks in the under replication queue of priority " + i, 0L);
+    }
+
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
       syncsQuantiles[i] = registry
@@ -196,6 +267,100 @@ public void incrStorageBlockReportOps() {
     storageBlockReportOps.incr();
   }
 
+  public void incrResolvingCacheHits() {
+    resolvingCacheHits.incr();
+  }
+
+  public void incrResolvingCacheMisses() {
+    resolvingCacheMisses.incr();
+  }
+
+  public void incrResolvingCacheStaleHits() {
+    resolvingCacheStaleHits.incr();
+  }
+
+  public void incrResolvingCacheInvalidations(long delta) {
+    resolvingCacheInvalidations.incr(delta);
+  }
+
+  public void incrResolvingCacheInvalidationsPublished(long delta) {
+    resolvingCacheInvalidationsPublished.incr(delta);
+  }
+
+  public void setQuotaUpdateBacklog(long inodes) {
+    quotaUpdateBacklog.set(inodes);
+  }
+
+  public void setQuotaUpdateLag(long lag) {
+    quotaUpdateLag.set(lag);
+  }
+
+  public void addQuotaUpdateApply(long latency) {
+    quotaUpdateApply.add(latency);
+  }
+
+  public void addRootINodeCacheRefresh(long delay) {
+    rootINodeCacheRefreshes.incr();
+    rootINodeCacheRefreshDelay.add(delay);
+  }
+
+  public void incrRootINodeCacheStaleReads() {
+    rootINodeCacheStaleReads.incr();
+  }
+
+  public void addBatchedPathResolution(long reads, long roundTripsSaved) {
+    batchedPathResolutionReads.incr(reads);
+    batchedPathResolutionRoundTripsSaved.add(roundTripsSaved);
+  }
+
+  public void addHashBucketFlush(long latency, long buckets) {
+    hashBucketFlush.add(latency);
+    hashBucketsFlushed.incr(buckets);
+  }
+
+  public void addLeaseRenewalBatch(long size, long latency) {
+    leaseRenewalBatchSize.add(size);
+    leaseRenewalBatchCommit.add(latency);
+  }
+
+  public void setLeaseRecoveryBacklog(long backlog) {
+    leaseRecoveryBacklog.set(backlog);
+  }
+
+  public void addLeaseRecovery(long latency) {
+    leasesRecovered.incr();
+    leaseRecovery.add(latency);
+  }
+
+  public void addIdsStall(long latency) {
+    idsStalls.incr();
+    idsStall.add(latency);
+  }
+
+  public void setUnderReplicatedBlocks(int priority, long blocks) {
+    if (priority < underReplicatedBlocks.length) {
+      underReplicatedBlocks[priority].set(blocks);
+    }
+  }
+
+  public void addReplicationWork(long chooseLatency, long blocksScheduled) {
+    underReplicatedBlocksChoose.add(chooseLatency);
+    blocksScheduledForReplication.incr(blocksScheduled);
+  }
+
+  public void incrSmallFileCacheHits(long bytesServed) {
+    smallFileCacheHits.incr();
+    smallFileCacheBytesServed.incr(bytesServed);
+  }
+
+  public void incrSmallFileCacheMisses() {
+    smallFileCacheMisses.incr();
+  }
+
+  public void incrSmallFileCacheEvictions(long evictions) {
+    smallFileCacheEvictions.incr(evictions);
+  }
+
   public void setFsImageLoadTime(long elapsed) {
     fsImageLoadTime.set((int) elapsed);
   }
@@ -94,12 +94,75 @@ private static int bucket(Block block, int numBuckets){
     return bucket(block.getBlockId(), numBuckets);
   }
   
-  private static int bucket(long blockId, int numBuckets){
+  public static int bucket(long blockId, int numBuckets){
     int reminder = (int)(blockId % numBuckets);
     return reminder >= 0 ? reminder : numBuckets + reminder;
     
   }
 
+  /**
+   * The number of buckets a storage reports with: the smallest divisor of
+   * maxBuckets that keeps at most targetBlocksPerBucket blocks per bucket.
+   * As it divides maxBuckets, the bucket of a block in the report is its
+   * bucket among maxBuckets modulo the reported count, so the hash of a
+   * reported bucket is the sum of the hashes of those finer buckets.
+   */
+  public static int adaptiveBucketCount(int maxBuckets, int numBlocks,
+      int targetBlocksPerBucket) {
+    if (targetBlocksPerBucket <= 0) {
+      return maxBuckets;
+    }
+    for (int count = 1; count < maxBuckets; count++) {
+      if (maxBuckets % count == 0 &&
+          (long) count * targetBlocksPerBucket >= numBlocks) {
+        return count;
+      }
+    }
+    return maxBuckets;
+  }
+
+  /**
+   * The sub-bucket of a block within its bucket, the namenode keeping the
+   * hashes of the sub-buckets to narrow down a mismatching bucket. Blocks of
+   * the same bucket differ by a multiple of numBuckets, so the quotient
+   * spreads them over the sub-buckets.
+   */
+  public static int subBucket(long blockId, int numBuckets, int numSubBuckets){
+    long quotient = blockId / numBuckets;
+    if (blockId % numBuckets < 0) {
+      quotient--;
+    }
+    int reminder = (int)(quotient % numSubBuckets);
+    return reminder >= 0 ? reminder : numSubBuckets + reminder;
+  }
+
+  /**
+   * Merges the buckets of the report into as few buckets as possible while
+   * keeping at most targetBlocksPerBucket blocks per bucket, see
+   * {@link #adaptiveBucketCount(int, int, int)}. The hashes being additive,
+   * the hash of a merged bucket is the sum of the hashes of its buckets.
+   * Only to be sent to a namenode that supports
+   * {@link NamespaceInfo.Capability#MERGED_BUCKET_REPORTS}.
+   */
+  public BlockReport mergeBuckets(int targetBlocksPerBucket){
+    int count = adaptiveBucketCount(buckets.length, numBlocks,
+        targetBlocksPerBucket);
+    if (count == buckets.length) {
+      return this;
+    }
+    Bucket[] merged = new Bucket[count];
+    long[] mergedHashes = new long[count];
+    for (int i = 0; i < count; i++){
+      List<ReportedBlock> blocks = new ArrayList<>();
+      for (int fine = i; fine < buckets.length; fine += count) {
+        blocks.addAll(Arrays.asList(buckets[fine].getBlocks()));
+        mergedHashes[i] += hashes[fine];
+      }
+      merged[i] = new Bucket(blocks.toArray(new ReportedBlock[blocks.size()]));
+    }
+    return new BlockReport(merged, mergedHashes, numBlocks);
+  }
+
   /**
    * Corrupt the generation stamp of the block with the given index.
    * Not meant to be used outside of tests.
@@ -158,6 +221,29 @@ private static long hash(Replica replica){
         .getNumBytes(), replica.getState().getValue());
   }
   
+  public static long hash(ReportedBlock block){
+    return hash(block.getBlockId(), block.getGenerationStamp(),
+        block.getLength(), toReplicaState(block.getState()).getValue());
+  }
+
+  private static HdfsServerConstants.ReplicaState toReplicaState(
+      BlockReportBlockState state) {
+    switch (state){
+      case FINALIZED:
+        return HdfsServerConstants.ReplicaState.FINALIZED;
+      case RBW:
+        return HdfsServerConstants.ReplicaState.RBW;
+      case RUR:
+        return HdfsServerConstants.ReplicaState.RUR;
+      case RWR:
+        return HdfsServerConstants.ReplicaState.RWR;
+      case TEMPORARY:
+        return HdfsServerConstants.ReplicaState.TEMPORARY;
+      default:
+        throw new RuntimeException("Unimplemented state");
+    }
+  }
+
   public static long hash(Block block, HdfsServerConstants.ReplicaState state){
     return hash(block.getBlockId(), block.getGenerationStamp(), block
         .getNumBytes(), state.getValue());
@@ -193,26 +279,7 @@ private Builder(int numBuckets) {
     public Builder add(ReportedBlock reportBlock){
       int bucket = bucket(reportBlock.getBlockId(), NUM_BUCKETS);
       buckets[bucket].add(reportBlock);
-      HdfsServerConstants.ReplicaState replicaState = null;
-      switch (reportBlock.getState()){
-        case FINALIZED:
-          replicaState = HdfsServerConstants.ReplicaState.FINALIZED;
-          break;
-        case RBW:
-          replicaState = HdfsServerConstants.ReplicaState.RBW;
-          break;
-        case RUR:
-          replicaState = HdfsServerConstants.ReplicaState.RUR;
-          break;
-        case RWR:
-          replicaState = HdfsServerConstants.ReplicaState.RWR;
-          break;
-        case TEMPORARY:
-          replicaState = HdfsServerConstants.ReplicaState.TEMPORARY;
-          break;
-      }
-      hashes[bucket] += hash(reportBlock.getBlockId(),reportBlock.getGenerationStamp(),reportBlock.getLength(),
-              replicaState.getValue());
+      hashes[bucket] += hash(reportBlock);
       blockCounter++;
       return this;
     }
@@ -253,8 +320,7 @@ public BlockReport build(){
       }
       return new BlockReport(bucketArray, hashes, blockCounter);
     }
-  
-  
+
     private BlockReportBlockState fromReplicaState(HdfsServerConstants
         .ReplicaState state) {
       switch (state) {
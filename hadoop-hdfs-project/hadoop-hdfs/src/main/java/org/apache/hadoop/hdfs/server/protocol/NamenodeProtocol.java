@@ -24,7 +24,9 @@
 import org.apache.hadoop.hdfs.security.token.block.ExportedBlockKeys;
 import org.apache.hadoop.security.KerberosInfo;
 
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
 import java.io.IOException;
+import java.util.List;
 import org.apache.hadoop.io.retry.Idempotent;
 
 /**
@@ -100,5 +102,20 @@ public BlocksWithLocations getBlocks(DatanodeInfo datanode, long size)
    */
   @Idempotent
   public NamespaceInfo versionRequest() throws IOException;
-}
 
+  /**
+   * Drop renamed or deleted inodes from the resolving cache of this
+   * name-node. Used by the other name-nodes to keep the caches coherent.
+   *
+   * @param senderId
+   *     id of the name-node publishing the invalidations
+   * @param inodes
+   *     the inodes as they were before being renamed or deleted
+   * @param flushAll
+   *     drop all the entries of the resolving cache
+   * @throws IOException
+   */
+  @Idempotent
+  public void invalidateResolvingCache(long senderId,
+      List<INodeIdentifier> inodes, boolean flushAll) throws IOException;
+}
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.hdfs.server.protocol;
 
+import com.google.common.base.Preconditions;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -36,19 +37,64 @@ public class NamespaceInfo extends StorageInfo {
   String buildVersion;
   String blockPoolID = "";    // id of the block pool
   String softwareVersion;
+  long capabilities;
+
+  /**
+   * Features of the namenode the datanodes may rely on. A namenode that does
+   * not know about a feature does not advertise it.
+   */
+  public enum Capability {
+    UNKNOWN(false),
+    // the reports of a storage may merge its hash buckets
+    MERGED_BUCKET_REPORTS(true);
+
+    private final long mask;
+    private final boolean supported;
+
+    Capability(boolean isSupported) {
+      int bits = ordinal() - 1;
+      mask = (bits < 0) ? 0 : (1L << bits);
+      supported = isSupported;
+    }
+
+    public long getMask() {
+      return mask;
+    }
+  }
+
+  /**
+   * The capabilities this namenode advertises to the datanodes.
+   */
+  private static long getSupportedCapabilities() {
+    long supported = 0;
+    for (Capability capability : Capability.values()) {
+      if (capability.supported) {
+        supported |= capability.mask;
+      }
+    }
+    return supported;
+  }
 
   public NamespaceInfo() {
     super(NodeType.NAME_NODE);
     buildVersion = null;
+    capabilities = getSupportedCapabilities();
   }
 
   public NamespaceInfo(int nsID, String clusterID, String bpID, long cT,
       String buildVersion, String softwareVersion) {
+    this(nsID, clusterID, bpID, cT, buildVersion, softwareVersion,
+        getSupportedCapabilities());
+  }
+
+  public NamespaceInfo(int nsID, String clusterID, String bpID, long cT,
+      String buildVersion, String softwareVersion, long capabilities) {
         super(HdfsConstants.NAMENODE_LAYOUT_VERSION, nsID, clusterID, cT,
             NodeType.NAME_NODE, bpID);
     blockPoolID = bpID;
     this.buildVersion = buildVersion;
     this.softwareVersion = softwareVersion;
+    this.capabilities = capabilities;
   }
 
   public NamespaceInfo(int nsID, String clusterID, String bpID, long cT) {
@@ -68,6 +114,17 @@ public String getSoftwareVersion() {
     return softwareVersion;
   }
 
+  public long getCapabilities() {
+    return capabilities;
+  }
+
+  public boolean isCapabilitySupported(Capability capability) {
+    Preconditions.checkArgument(capability != Capability.UNKNOWN,
+        "cannot test for unknown capability");
+    long mask = capability.getMask();
+    return (capabilities & mask) == mask;
+  }
+
   @Override
   public String toString() {
     return super.toString() + ";bpid=" + blockPoolID;
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of the byte arrays the packets of the output streams of a client
+ * are written to, so that a client writing fast does not allocate an array
+ * for every packet it sends.
+ * <p/>
+ * An array is returned to the pool once its packet is acknowledged by the
+ * pipeline. The pool keeps at most capacity bytes of arrays, the arrays
+ * returned beyond it are left to the garbage collector. Like
+ * {@link DirectBufferPool}, an array is only reused for a request of the
+ * same size.
+ */
+@InterfaceAudience.Private
+public class PacketBufferPool {
+
+  private final long capacity;
+  private final ConcurrentMap<Integer, Queue<byte[]>> buffersBySize =
+      new ConcurrentHashMap<>();
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final AtomicLong allocated = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+
+  /**
+   * @param capacity
+   *     the maximum number of bytes kept in the pool, 0 disables the pooling
+   */
+  public PacketBufferPool(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get an array of the specified size, in bytes. The content of a pooled
+   * array is not cleared.
+   */
+  public byte[] getBuffer(int size) {
+    Queue<byte[]> list = buffersBySize.get(size);
+    if (list != null) {
+      byte[] buf = list.poll();
+      if (buf != null) {
+        pooledBytes.addAndGet(-size);
+        reused.incrementAndGet();
+        return buf;
+      }
+    }
+    allocated.incrementAndGet();
+    return new byte[size];
+  }
+
+  /**
+   * Return an array to the pool. After being returned, the array may be
+   * reused, so the user must not continue to use it in any way.
+   */
+  public void returnBuffer(byte[] buf) {
+    if (pooledBytes.addAndGet(buf.length) > capacity) {
+      pooledBytes.addAndGet(-buf.length);
+      return;
+    }
+    Queue<byte[]> list = buffersBySize.get(buf.length);
+    if (list == null) {
+      list = new ConcurrentLinkedQueue<>();
+      Queue<byte[]> prev = buffersBySize.putIfAbsent(buf.length, list);
+      if (prev != null) {
+        list = prev;
+      }
+    }
+    list.add(buf);
+  }
+
+  /**
+   * The number of arrays allocated because none of the size was pooled.
+   */
+  public long getNumAllocated() {
+    return allocated.get();
+  }
+
+  /**
+   * The number of arrays taken from the pool.
+   */
+  public long getNumReused() {
+    return reused.get();
+  }
+
+  @VisibleForTesting
+  long getPooledBytes() {
+    return pooledBytes.get();
+  }
+}
@@ -23,7 +23,9 @@
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -213,4 +215,50 @@ public void testCountersQueue(){
 
   }
 
+  @Test
+  public void testCountersQueueConcurrentNext() throws Exception {
+    final int numThreads = 16;
+    final int inc = 1000;
+    final int numCounters = 64;
+    final CountersQueue queue = new CountersQueue();
+    for (int i = 0; i < numCounters; i++) {
+      queue.addCounter(new CountersQueue.Counter(i * inc * 2,
+          i * inc * 2 + inc));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<List<Long>>> futures = Lists.newArrayList();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(executor.submit(new Callable<List<Long>>() {
+        @Override
+        public List<Long> call() throws Exception {
+          List<Long> ids = Lists.newArrayList();
+          try {
+            while (true) {
+              long previous = ids.isEmpty() ? -1 : ids.get(ids.size() - 1);
+              long id = queue.next();
+              assertTrue("ids of a thread should be increasing",
+                  id > previous);
+              ids.add(id);
+            }
+          } catch (CountersQueue.EmptyCountersQueueException ex) {
+          }
+          return ids;
+        }
+      }));
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+
+    Set<Long> ids = new HashSet<>();
+    for (Future<List<Long>> future : futures) {
+      for (Long id : future.get()) {
+        assertTrue("id " + id + " handed out twice", ids.add(id));
+        assertTrue("id " + id + " out of the counters",
+            (id / inc) % 2 == 0);
+      }
+    }
+    assertEquals(numCounters * inc, ids.size());
+    assertFalse(queue.has(1));
+  }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import io.hops.security.UsersGroups;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the set/get throughput and the memory footprint of the resolving
+ * cache implementations.
+ *
+ * Usage: ResolvingCacheBenchmark [-type InMemory|OffHeap|all]
+ *   [-paths numPaths] [-depth pathDepth] [-threads numThreads]
+ *   [-gets getsPerThread]
+ */
+public class ResolvingCacheBenchmark extends Configured implements Tool {
+
+  private static final PermissionStatus PERMISSIONS =
+      new PermissionStatus("user", "group", FsPermission.getDefault());
+
+  private int numPaths = 1000000;
+  private int depth = 10;
+  private int numThreads = 8;
+  private int getsPerThread = 1000000;
+
+  private String[] paths;
+  private INode[][] inodes;
+
+  private void generatePaths() throws IOException {
+    paths = new String[numPaths];
+    inodes = new INode[numPaths][];
+    INode root = new INodeDirectory(INode.ROOT_INODE_ID,
+        INodeDirectory.ROOT_NAME, PERMISSIONS);
+    root.setParentIdNoPersistance(INode.ROOT_PARENT_ID);
+    long nextId = INode.ROOT_INODE_ID + 1;
+    //paths share their first depth - 1 components ten by ten
+    INode[] parents = new INode[depth];
+    for (int p = 0; p < numPaths; p++) {
+      INode[] path = new INode[depth + 1];
+      path[0] = root;
+      StringBuilder name = new StringBuilder();
+      int shared = p % 10 == 0 ? 0 : depth - 1;
+      for (int d = 1; d <= depth; d++) {
+        INode inode;
+        if (d <= shared) {
+          inode = parents[d - 1];
+        } else {
+          inode = new INodeDirectory(nextId++, "dir" + d + "_" + p,
+              PERMISSIONS);
+          inode.setParentIdNoPersistance(path[d - 1].getId());
+          inode.setPartitionIdNoPersistance(path[d - 1].getId());
+          parents[d - 1] = inode;
+        }
+        path[d] = inode;
+        name.append("/").append(inode.getLocalName());
+      }
+      paths[p] = name.toString();
+      inodes[p] = path;
+    }
+  }
+
+  private Cache newCache(String type) throws IOException {
+    Configuration conf = new Configuration(getConf());
+    conf.setInt(DFSConfigKeys.DFS_INMEMORY_CACHE_MAX_SIZE,
+        numPaths * depth);
+    Cache cache;
+    if (type.equalsIgnoreCase("InMemory")) {
+      cache = new InMemoryCache();
+    } else if (type.equalsIgnoreCase("OffHeap")) {
+      cache = new OffHeapCache();
+    } else {
+      throw new IllegalArgumentException("Unknown cache type " + type);
+    }
+    cache.setConfiguration(conf);
+    return cache;
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static long usedDirect() {
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(
+        BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        return pool.getMemoryUsed();
+      }
+    }
+    return 0;
+  }
+
+  private void benchmark(String type) throws Exception {
+    long heapBefore = usedHeap();
+    long directBefore = usedDirect();
+    final Cache cache = newCache(type);
+
+    long start = Time.monotonicNow();
+    for (int p = 0; p < numPaths; p++) {
+      cache.set(paths[p], inodes[p]);
+    }
+    long setTime = Math.max(1, Time.monotonicNow() - start);
+
+    long heap = usedHeap() - heapBefore;
+    long direct = usedDirect() - directBefore;
+
+    final AtomicLong found = new AtomicLong();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final Random rand = new Random(t);
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          long localFound = 0;
+          try {
+            for (int i = 0; i < getsPerThread; i++) {
+              long[] ids = cache.get(paths[rand.nextInt(numPaths)]);
+              if (ids != null) {
+                localFound += ids.length;
+              }
+            }
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          found.addAndGet(localFound);
+        }
+      };
+    }
+    start = Time.monotonicNow();
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long getTime = Math.max(1, Time.monotonicNow() - start);
+    long gets = (long) numThreads * getsPerThread;
+
+    System.out.println(type + ":");
+    System.out.println("  set paths/sec:   " + (numPaths * 1000L / setTime));
+    System.out.println("  get paths/sec:   " + (gets * 1000L / getTime));
+    System.out.println("  components hit:  " + found.get() * 100 /
+        (gets * (depth + 1)) + "%");
+    System.out.println("  heap bytes:      " + heap);
+    System.out.println("  off-heap bytes:  " + direct);
+    cache.flush();
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String type = "all";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-type")) {
+        type = args[++i];
+      } else if (args[i].equals("-paths")) {
+        numPaths = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-depth")) {
+        depth = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-gets")) {
+        getsPerThread = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: ResolvingCacheBenchmark " +
+            "[-type InMemory|OffHeap|all] [-paths numPaths] [-depth depth] " +
+            "[-threads numThreads] [-gets getsPerThread]");
+        return -1;
+      }
+    }
+    //inodes are created without a database
+    LogManager.getLogger(UsersGroups.class).setLevel(Level.ERROR);
+    generatePaths();
+    if (type.equals("all")) {
+      benchmark("InMemory");
+      benchmark("OffHeap");
+    } else {
+      benchmark(type);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(),
+        new ResolvingCacheBenchmark(), args));
+  }
+}
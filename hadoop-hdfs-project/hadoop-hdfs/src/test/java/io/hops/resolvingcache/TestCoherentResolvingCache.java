@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs several namenodes against the same database and checks that renames
+ * and deletes invalidate the resolving cache entries of the moved subtree
+ * once they commit, and that the rpc a peer publishes its invalidations
+ * through applies them. The namenodes of a MiniDFSCluster share the cache of
+ * the JVM, the propagation between the caches of different namenodes is
+ * tested by {@link TestInvalidationPublisher}.
+ */
+public class TestCoherentResolvingCache {
+
+  private static final int NUM_NAMENODES = 2;
+
+  private MiniDFSCluster cluster;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED, true);
+    conf.setLong(
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS, 10);
+    cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHOPSTopology(NUM_NAMENODES))
+        .numDataNodes(1).build();
+    cluster.waitActive();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testRenameInvalidatesSubtree() throws Exception {
+    DistributedFileSystem fs0 = cluster.getFileSystem(0);
+    DistributedFileSystem fs1 = cluster.getFileSystem(1);
+
+    fs0.mkdirs(new Path("/a/b/c"));
+    DFSTestUtil.createFile(fs0, new Path("/a/b/c/f"), 0, (short) 1, 0);
+    //resolve the path on the second namenode to fill its cache
+    fs1.getFileStatus(new Path("/a/b/c/f"));
+    assertEquals(5, Cache.getInstance().get("/a/b/c/f").length);
+
+    fs0.rename(new Path("/a/b"), new Path("/a/x"));
+
+    long[] cached = Cache.getInstance().get("/a/b/c/f");
+    assertEquals("only the root and /a should still resolve", 2,
+        cached.length);
+    fs1.getFileStatus(new Path("/a/x/c/f"));
+    assertEquals(5, Cache.getInstance().get("/a/x/c/f").length);
+  }
+
+  @Test
+  public void testDeleteInvalidatesSubtree() throws Exception {
+    DistributedFileSystem fs0 = cluster.getFileSystem(0);
+    DistributedFileSystem fs1 = cluster.getFileSystem(1);
+
+    fs0.mkdirs(new Path("/d/e"));
+    DFSTestUtil.createFile(fs0, new Path("/d/e/f"), 0, (short) 1, 0);
+    fs1.getFileStatus(new Path("/d/e/f"));
+    assertEquals(4, Cache.getInstance().get("/d/e/f").length);
+
+    fs0.delete(new Path("/d/e"), true);
+
+    assertEquals(2, Cache.getInstance().get("/d/e/f").length);
+  }
+
+  @Test
+  public void testInvalidationsFromPeer() throws Exception {
+    DistributedFileSystem fs0 = cluster.getFileSystem(0);
+    fs0.mkdirs(new Path("/p/q"));
+    fs0.getFileStatus(new Path("/p/q"));
+    long[] ids = Cache.getInstance().get("/p/q");
+    assertEquals(3, ids.length);
+
+    NamenodeProtocol peer = NameNodeProxies.createNonHAProxy(conf,
+        cluster.getNameNode(1).getNameNodeAddress(), NamenodeProtocol.class,
+        UserGroupInformation.getCurrentUser(), false).getProxy();
+    peer.invalidateResolvingCache(cluster.getNameNode(0).getId(),
+        Collections.singletonList(new INodeIdentifier(ids[2], ids[1], "q",
+            0L)), false);
+    assertEquals(2, Cache.getInstance().get("/p/q").length);
+
+    peer.invalidateResolvingCache(cluster.getNameNode(0).getId(),
+        Collections.<INodeIdentifier>emptyList(), true);
+    assertNull(Cache.getInstance().get("/p/q"));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import com.google.common.base.Supplier;
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the resolving caches of several namenodes side by side in one JVM and
+ * checks that the invalidations committed on one of them reach the caches of
+ * its peers, and only those.
+ */
+public class TestInvalidationPublisher {
+
+  private static final PermissionStatus PERMISSIONS =
+      new PermissionStatus("user", "group", FsPermission.getDefault());
+  private static final long LOCAL_ID = 1;
+  private static final long PEER_ID = 2;
+
+  private Configuration conf;
+  private Cache local;
+  private Cache peer;
+  private Cache other;
+  private DirectPublisher publisher;
+
+  private INode root;
+  private INode a, b, c;
+  private INode x, y;
+
+  /**
+   * Publishes straight to the cache of the peer, as its rpc server would,
+   * rather than over rpc.
+   */
+  private static class DirectPublisher extends InvalidationPublisher {
+    private final Map<Long, Cache> peers = new ConcurrentHashMap<>();
+    private final AtomicBoolean reachable = new AtomicBoolean(true);
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    DirectPublisher(Configuration conf) {
+      super(null, LOCAL_ID, conf);
+    }
+
+    @Override
+    protected Map<Long, InetSocketAddress> getActivePeers() {
+      Map<Long, InetSocketAddress> active = new HashMap<>();
+      for (long id : peers.keySet()) {
+        active.put(id, InetSocketAddress.createUnresolved("nn", (int) id));
+      }
+      return active;
+    }
+
+    @Override
+    protected NamenodeProtocol connect(InetSocketAddress address)
+        throws IOException {
+      final Cache cache = peers.get((long) address.getPort());
+      NamenodeProtocol proxy = Mockito.mock(NamenodeProtocol.class);
+      Mockito.doAnswer(new Answer<Void>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          if (!reachable.get()) {
+            failed.incrementAndGet();
+            throw new IOException("unreachable");
+          }
+          Object[] args = invocation.getArguments();
+          cache.receiveInvalidations((List<INodeIdentifier>) args[1],
+              (Boolean) args[2]);
+          delivered.incrementAndGet();
+          return null;
+        }
+      }).when(proxy).invalidateResolvingCache(Mockito.anyLong(),
+          Mockito.anyListOf(INodeIdentifier.class), Mockito.anyBoolean());
+      return proxy;
+    }
+
+    @Override
+    protected void disconnect(NamenodeProtocol proxy) {
+    }
+  }
+
+  private Cache newCache() throws IOException {
+    InMemoryCache cache = new InMemoryCache();
+    cache.setConfiguration(conf);
+    return cache;
+  }
+
+  private static INode newINode(long id, String name, INode parent)
+      throws IOException {
+    INodeDirectory inode = new INodeDirectory(id, name, PERMISSIONS);
+    long parentId = parent == null ? INode.ROOT_PARENT_ID : parent.getId();
+    inode.setParentIdNoPersistance(parentId);
+    inode.setPartitionIdNoPersistance(parentId);
+    return inode;
+  }
+
+  private void fill(Cache cache) {
+    cache.set("/a/b/c", Arrays.asList(root, a, b, c));
+    cache.set("/x/y", Arrays.asList(root, x, y));
+  }
+
+  private static int resolved(Cache cache, String path) throws IOException {
+    long[] ids = cache.get(path);
+    return ids == null ? 0 : ids.length;
+  }
+
+  private static void waitFor(final Cache cache, final String path,
+      final int length) throws TimeoutException, InterruptedException {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return resolved(cache, path) == length;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, 10, 10000);
+  }
+
+  private void waitForDelivery(final AtomicInteger counter, final int count)
+      throws TimeoutException, InterruptedException {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return counter.get() >= count;
+      }
+    }, 10, 10000);
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_RESOLVING_CACHE_COHERENT_ENABLED, true);
+    conf.setLong(
+        DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_FLUSH_INTERVAL_MS, 10);
+    conf.setInt(DFSConfigKeys.DFS_RESOLVING_CACHE_INVALIDATION_MAX_PENDING, 2);
+
+    root = newINode(INode.ROOT_INODE_ID, INodeDirectory.ROOT_NAME, null);
+    a = newINode(10, "a", root);
+    b = newINode(11, "b", a);
+    c = newINode(12, "c", b);
+    x = newINode(20, "x", root);
+    y = newINode(21, "y", x);
+
+    local = newCache();
+    peer = newCache();
+    other = newCache();
+
+    publisher = new DirectPublisher(conf);
+    publisher.peers.put(PEER_ID, peer);
+    local.setPublisher(publisher);
+    publisher.start();
+    // a new peer is flushed first, as it may have cached anything
+    waitForDelivery(publisher.delivered, 1);
+
+    fill(local);
+    fill(peer);
+    fill(other);
+  }
+
+  @After
+  public void tearDown() {
+    local.unsetPublisher(publisher);
+    publisher.stop();
+  }
+
+  @Test
+  public void testInvalidationReachesPeer() throws Exception {
+    local.stageInvalidations(Arrays.asList(b, c));
+    local.commitStagedInvalidations();
+    assertEquals(2, resolved(local, "/a/b/c"));
+
+    waitFor(peer, "/a/b/c", 2);
+    assertNull(peer.get(b.getId()));
+    // only the subtree is invalidated on the peer, it is not flushed
+    assertEquals(3, resolved(peer, "/x/y"));
+    // a namenode which is not a peer keeps its entries
+    assertEquals(4, resolved(other, "/a/b/c"));
+  }
+
+  @Test
+  public void testDiscardedInvalidationsAreNotPublished() throws Exception {
+    local.stageInvalidations(Arrays.asList(b));
+    local.discardStagedInvalidations();
+    local.stageInvalidations(Arrays.asList(y));
+    local.commitStagedInvalidations();
+
+    waitFor(peer, "/x/y", 2);
+    assertEquals(4, resolved(peer, "/a/b/c"));
+  }
+
+  @Test
+  public void testUnreachablePeerIsFlushed() throws Exception {
+    publisher.reachable.set(false);
+    int failed = publisher.failed.get();
+    local.stageInvalidations(Arrays.asList(a, x, c));
+    local.commitStagedInvalidations();
+    waitForDelivery(publisher.failed, failed + 1);
+    assertEquals(4, resolved(peer, "/a/b/c"));
+
+    // more invalidations are pending than the peer is sent, it is flushed
+    publisher.reachable.set(true);
+    waitFor(peer, "/x/y", 0);
+    assertEquals(0, resolved(peer, "/a/b/c"));
+  }
+}
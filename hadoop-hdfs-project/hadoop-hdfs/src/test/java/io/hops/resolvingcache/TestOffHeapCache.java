@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.resolvingcache;
+
+import io.hops.metadata.hdfs.entity.INodeIdentifier;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapCache {
+
+  private static final PermissionStatus PERMISSIONS =
+      new PermissionStatus("user", "group", FsPermission.getDefault());
+
+  private OffHeapCache newCache(int maxSize) throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_INMEMORY_CACHE_MAX_SIZE, maxSize);
+    OffHeapCache cache = new OffHeapCache();
+    cache.setConfiguration(conf);
+    return cache;
+  }
+
+  private INode[] path(String... names) throws IOException {
+    INode[] inodes = new INode[names.length + 1];
+    inodes[0] = newINode(INode.ROOT_INODE_ID, INodeDirectory.ROOT_NAME,
+        INode.ROOT_PARENT_ID);
+    for (int i = 0; i < names.length; i++) {
+      inodes[i + 1] = newINode(inodes[i].getId() * 10 + i + 1, names[i],
+          inodes[i].getId());
+    }
+    return inodes;
+  }
+
+  private INode newINode(long id, String name, long parentId)
+      throws IOException {
+    INodeDirectory inode = new INodeDirectory(id, name, PERMISSIONS);
+    inode.setParentIdNoPersistance(parentId);
+    inode.setPartitionIdNoPersistance(parentId);
+    return inode;
+  }
+
+  private long[] ids(INode[] inodes, int length) {
+    long[] ids = new long[length];
+    for (int i = 0; i < length; i++) {
+      ids[i] = inodes[i].getId();
+    }
+    return ids;
+  }
+
+  @Test
+  public void testSetAndGet() throws IOException {
+    OffHeapCache cache = newCache(1000);
+    INode[] inodes = path("a", "b", "c");
+    cache.set("/a/b/c", inodes);
+
+    assertArrayEquals(ids(inodes, 4), cache.get("/a/b/c"));
+    assertArrayEquals(ids(inodes, 3), cache.get("/a/b/d"));
+    assertNull(cache.get("/x"));
+
+    INodeIdentifier identifier = cache.get(inodes[2].getId());
+    assertEquals(inodes[2].getId(), identifier.getInodeId());
+    assertEquals(inodes[1].getId(), (long) identifier.getPid());
+    assertEquals("b", identifier.getName());
+    assertEquals(inodes[1].getId(), (long) identifier.getPartitionId());
+  }
+
+  @Test
+  public void testDeleteAndInvalidate() throws IOException {
+    OffHeapCache cache = newCache(1000);
+    INode[] inodes = path("a", "b", "c");
+    cache.set("/a/b/c", inodes);
+
+    cache.delete(inodes[3]);
+    assertArrayEquals(ids(inodes, 3), cache.get("/a/b/c"));
+    assertNull(cache.get(inodes[3].getId()));
+
+    //an invalidation for another inode with the same name is ignored
+    cache.invalidate(Collections.singletonList(new INodeIdentifier(
+        inodes[2].getId() + 1, inodes[1].getId(), "b", 0L)));
+    assertArrayEquals(ids(inodes, 3), cache.get("/a/b/c"));
+
+    cache.invalidate(Collections.singletonList(new INodeIdentifier(
+        inodes[2].getId(), inodes[1].getId(), "b", 0L)));
+    assertArrayEquals(ids(inodes, 2), cache.get("/a/b/c"));
+    assertNull(cache.get(inodes[2].getId()));
+
+    cache.flush();
+    assertNull(cache.get("/a"));
+  }
+
+  @Test
+  public void testLongNamesAreNotCachedById() throws IOException {
+    OffHeapCache cache = newCache(1000);
+    String longName = StringUtils.repeat("x", OffHeapCache.MAX_NAME_BYTES + 1);
+    INode[] inodes = path(longName);
+    cache.set("/" + longName, inodes);
+
+    assertArrayEquals(ids(inodes, 2), cache.get("/" + longName));
+    assertNull(cache.get(inodes[1].getId()));
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    int maxSize = 640;
+    OffHeapCache cache = newCache(maxSize);
+    INode root = newINode(INode.ROOT_INODE_ID, INodeDirectory.ROOT_NAME,
+        INode.ROOT_PARENT_ID);
+    for (int i = 0; i < maxSize * 10; i++) {
+      cache.set("/f" + i, Arrays.asList(root, newINode(i + 2, "f" + i,
+          INode.ROOT_INODE_ID)));
+      //keep the first file hot, CLOCK should not evict it
+      assertEquals(2, cache.get("/f0").length);
+    }
+    assertTrue(cache.size() <= maxSize);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.util.PacketBufferPool;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the write throughput of many output streams of a client and the
+ * packet buffers they allocate. Run it with -poolCapacity 0 to compare with
+ * a client allocating a buffer for every packet.
+ *
+ * Usage: PacketBufferPoolBenchmark [-writers w1,w2,..] [-fileSize bytes]
+ *   [-poolCapacity bytes]
+ */
+public class PacketBufferPoolBenchmark extends Configured implements Tool {
+
+  private long fileSize = 64L * 1024 * 1024;
+  private long poolCapacity =
+      DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_DEFAULT;
+
+  private void benchmark(MiniDFSCluster cluster, int numWriters)
+      throws Exception {
+    Configuration conf = new HdfsConfiguration(cluster.getConfiguration(0));
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_CAPACITY_KEY,
+        poolCapacity);
+    final DistributedFileSystem fs = (DistributedFileSystem)
+        DistributedFileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      PacketBufferPool pool = fs.getClient().packetBufferPool;
+      final AtomicLong failures = new AtomicLong();
+      final byte[] data = new byte[64 * 1024];
+
+      Thread[] writers = new Thread[numWriters];
+      for (int t = 0; t < numWriters; t++) {
+        final Path file = new Path("/packetbench/" + numWriters + "/" + t);
+        writers[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              FSDataOutputStream out = fs.create(file, (short) 1);
+              try {
+                for (long written = 0; written < fileSize;
+                     written += data.length) {
+                  out.write(data);
+                }
+              } finally {
+                out.close();
+              }
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            }
+          }
+        };
+      }
+
+      long gcCount = getGcCount();
+      long gcTime = getGcTime();
+      long start = Time.monotonicNow();
+      for (Thread t : writers) {
+        t.start();
+      }
+      for (Thread t : writers) {
+        t.join();
+      }
+      long elapsed = Math.max(1, Time.monotonicNow() - start);
+
+      long bytes = numWriters * fileSize;
+      long packets = pool.getNumAllocated() + pool.getNumReused();
+      System.out.println(String.format(
+          "writers %4d: %6d MB in %7d ms, %8.1f MB/s, %8d packets, " +
+              "%8d buffers allocated (%8.1f per s), %5d GCs of %6d ms, " +
+              "%d failed",
+          numWriters, bytes / (1024 * 1024), elapsed,
+          bytes * 1000.0 / elapsed / (1024 * 1024), packets,
+          pool.getNumAllocated(), pool.getNumAllocated() * 1000.0 / elapsed,
+          getGcCount() - gcCount, getGcTime() - gcTime, failures.get()));
+    } finally {
+      fs.delete(new Path("/packetbench"), true);
+      fs.close();
+    }
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc :
+        ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long getGcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc :
+        ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return time;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String writers = "1,8,64";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-writers")) {
+        writers = args[++i];
+      } else if (args[i].equals("-fileSize")) {
+        fileSize = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-poolCapacity")) {
+        poolCapacity = Long.parseLong(args[++i]);
+      } else {
+        System.err.println("Usage: PacketBufferPoolBenchmark " +
+            "[-writers w1,w2,..] [-fileSize bytes] [-poolCapacity bytes]");
+        return -1;
+      }
+    }
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(
+        new HdfsConfiguration(getConf())).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      for (String numWriters : writers.split(",")) {
+        benchmark(cluster, Integer.parseInt(numWriters.trim()));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new PacketBufferPoolBenchmark(), args));
+  }
+}
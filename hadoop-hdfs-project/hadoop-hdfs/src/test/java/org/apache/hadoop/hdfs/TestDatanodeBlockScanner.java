@@ -134,7 +134,7 @@ private static long waitForVerification(int infoPort, FileSystem fs,
 
   @Test
   public void testDatanodeBlockScanner() throws IOException, TimeoutException {
-    long startTime = Time.monotonicNow();
+    long startTime = Time.now();
 
     Configuration conf = new HdfsConfiguration();
     MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
@@ -345,7 +345,7 @@ public void testTruncatedBlockReport() throws Exception {
     conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 3L);
     conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_KEY, false);
 
-    long startTime = Time.monotonicNow();
+    long startTime = Time.now();
     MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
         .numDataNodes(REPLICATION_FACTOR)
         .build();
@@ -458,7 +458,7 @@ private static void waitForBlockDeleted(ExtendedBlock blk, int dnIndex,
 
   @Test
   public void testDuplicateScans() throws Exception {
-    long startTime = Time.monotonicNow();
+    long startTime = Time.now();
     MiniDFSCluster cluster = new MiniDFSCluster.Builder(new Configuration())
         .numDataNodes(1).build();
     FileSystem fs = null;
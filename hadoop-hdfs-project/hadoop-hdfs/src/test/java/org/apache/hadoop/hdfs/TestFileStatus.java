@@ -27,6 +27,7 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
@@ -329,4 +330,38 @@ public void testGetFileStatusOnDir() throws Exception {
     }
     fs.delete(dir, true);
   }
+
+  /**
+   * Pages of a listing hold the children after startAfter in name order,
+   * even when startAfter is not a child, and count the children left.
+   */
+  @Test
+  public void testListingPages() throws IOException {
+    Path dir = new Path("/test/listingPages");
+    String[] names = {"e", "a", "d", "b", "c"};
+    for (String name : names) {
+      fs.mkdirs(new Path(dir, name));
+    }
+
+    DirectoryListing listing = dfsClient.listPaths(dir.toString(),
+        HdfsFileStatus.EMPTY_NAME, false);
+    assertEquals(2, listing.getPartialListing().length);
+    assertEquals("a", listing.getPartialListing()[0].getLocalName());
+    assertEquals("b", listing.getPartialListing()[1].getLocalName());
+    assertEquals(3, listing.getRemainingEntries());
+
+    listing = dfsClient.listPaths(dir.toString(), listing.getLastName(),
+        false);
+    assertEquals("c", listing.getPartialListing()[0].getLocalName());
+    assertEquals("d", listing.getPartialListing()[1].getLocalName());
+    assertEquals(1, listing.getRemainingEntries());
+
+    listing = dfsClient.listPaths(dir.toString(), "bb".getBytes(), false);
+    assertEquals("c", listing.getPartialListing()[0].getLocalName());
+    assertEquals(1, listing.getRemainingEntries());
+
+    listing = dfsClient.listPaths(dir.toString(), "e".getBytes(), false);
+    assertEquals(0, listing.getPartialListing().length);
+    assertEquals(0, listing.getRemainingEntries());
+  }
 }
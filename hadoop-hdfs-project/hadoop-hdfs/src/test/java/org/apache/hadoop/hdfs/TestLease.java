@@ -362,6 +362,68 @@ public void testLeaseAfterRenameAndRecreate() throws Exception {
     }
   }
   
+  @Test
+  public void testBatchedLeaseRenewal() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_ENABLED_KEY, true);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_LEASE_RENEWAL_BATCH_WINDOW_MS_KEY, 200);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    final int numClients = 10;
+    FileSystem[] clients = new FileSystem[numClients];
+    try {
+      cluster.waitActive();
+      final String[] paths = new String[numClients];
+      final String[] holders = new String[numClients];
+      long[] renewedAt = new long[numClients];
+      for (int i = 0; i < numClients; i++) {
+        clients[i] = FileSystem.newInstance(cluster.getURI(), conf);
+        paths[i] = dirString + "/batched" + i;
+        DataOutputStream out = clients[i].create(new Path(paths[i]));
+        out.writeBytes("something");
+        holders[i] = NameNodeAdapter.getLeaseHolderForPath(
+            cluster.getNameNode(), paths[i]);
+        renewedAt[i] = NameNodeAdapter.getLeaseRenewalTime(
+            cluster.getNameNode(), paths[i]);
+      }
+      Thread.sleep(100);
+
+      final NamenodeProtocols nn = cluster.getNameNodeRpc();
+      final IOException[] errors = new IOException[numClients];
+      Thread[] renewers = new Thread[numClients];
+      for (int i = 0; i < numClients; i++) {
+        final int client = i;
+        renewers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              nn.renewLease(holders[client]);
+            } catch (IOException e) {
+              errors[client] = e;
+            }
+          }
+        };
+        renewers[i].start();
+      }
+      for (int i = 0; i < numClients; i++) {
+        renewers[i].join();
+        Assert.assertNull(errors[i]);
+        Assert.assertTrue("lease of " + holders[i] + " was not renewed",
+            NameNodeAdapter.getLeaseRenewalTime(cluster.getNameNode(),
+                paths[i]) > renewedAt[i]);
+      }
+    } finally {
+      for (FileSystem client : clients) {
+        if (client != null) {
+          client.close();
+        }
+      }
+      cluster.shutdown();
+    }
+  }
+
   @Test
   public void testLease() throws Exception {
     MiniDFSCluster cluster =
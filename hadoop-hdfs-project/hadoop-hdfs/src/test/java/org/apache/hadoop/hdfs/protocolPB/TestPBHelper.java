@@ -19,6 +19,7 @@
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -362,6 +363,15 @@ public void testConvertNamespaceInfo() {
     compare(info, info2); //Compare the StorageInfo
     assertEquals(info.getBlockPoolID(), info2.getBlockPoolID());
     assertEquals(info.getBuildVersion(), info2.getBuildVersion());
+    assertEquals(info.getCapabilities(), info2.getCapabilities());
+    assertTrue(info2.isCapabilitySupported(
+        NamespaceInfo.Capability.MERGED_BUCKET_REPORTS));
+
+    //a namenode without capabilities does not advertise any
+    NamespaceInfo old = PBHelper.convert(proto.toBuilder()
+        .clearCapabilities().build());
+    assertFalse(old.isCapabilitySupported(
+        NamespaceInfo.Capability.MERGED_BUCKET_REPORTS));
   }
 
   private void compare(StorageInfo expected, StorageInfo actual) {
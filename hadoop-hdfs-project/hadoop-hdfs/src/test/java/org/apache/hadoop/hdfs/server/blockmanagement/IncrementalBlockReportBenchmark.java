@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of concurrent incremental block reports of one
+ * storage, with the hash buckets updated in each transaction and with the
+ * hash deltas coalesced. The finalized blocks of the storage are reported
+ * as received again and again, which leaves the hashes of the storage off,
+ * the cluster is only meant for the benchmark.
+ *
+ * Usage: IncrementalBlockReportBenchmark [-coalesce true|false|both]
+ *   [-blocks numBlocks] [-buckets numBuckets] [-threads numThreads]
+ *   [-reports reportsPerThread]
+ */
+public class IncrementalBlockReportBenchmark extends Configured
+    implements Tool {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private int numBlocks = 1000;
+  private int numBuckets = 10;
+  private int numThreads = 32;
+  private int reportsPerThread = 1000;
+
+  private void benchmark(boolean coalesce) throws Exception {
+    Configuration conf = new HdfsConfiguration(getConf());
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_NUM_BUCKETS_KEY, numBuckets);
+    conf.setBoolean(DFSConfigKeys.DFS_BUCKET_COALESCE_ENABLED_KEY, coalesce);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).format(true).build();
+    try {
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/ibr_bench");
+      DFSTestUtil.createFile(fs, file, (long) numBlocks * BLOCK_SIZE,
+          (short) 1, 0L);
+
+      final List<Block> blocks = new ArrayList<>(numBlocks);
+      final List<String> storages = new ArrayList<>(numBlocks);
+      for (LocatedBlock lb : cluster.getNameNodeRpc().getBlockLocations(
+          file.toString(), 0, (long) numBlocks * BLOCK_SIZE)
+          .getLocatedBlocks()) {
+        blocks.add(lb.getBlock().getLocalBlock());
+        storages.add(lb.getStorageIDs()[0]);
+      }
+
+      DataNode dn = cluster.getDataNodes().get(0);
+      final DatanodeRegistration reg = dn.getDNRegistrationForBP(
+          cluster.getNamesystem().getBlockPoolId());
+      final BlockManager bm = cluster.getNamesystem().getBlockManager();
+      final AtomicLong failures = new AtomicLong();
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final Random rand = new Random(t);
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < reportsPerThread; i++) {
+              int b = rand.nextInt(blocks.size());
+              ReceivedDeletedBlockInfo rdbi = new ReceivedDeletedBlockInfo(
+                  blocks.get(b), ReceivedDeletedBlockInfo.BlockStatus.RECEIVED,
+                  null);
+              try {
+                bm.processIncrementalBlockReport(reg,
+                    new StorageReceivedDeletedBlocks(storages.get(b),
+                        new ReceivedDeletedBlockInfo[]{rdbi}));
+              } catch (Exception e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+      }
+      long start = Time.monotonicNow();
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      long elapsed = Math.max(1, Time.monotonicNow() - start);
+      long reports = (long) numThreads * reportsPerThread;
+      System.out.println(String.format(
+          "coalesce %5s buckets %5d threads %3d: %8d reports in %6d ms, " +
+              "%8d reports/sec, %d failed",
+          coalesce, numBuckets, numThreads, reports, elapsed,
+          reports * 1000 / elapsed, failures.get()));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String coalesce = "both";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-coalesce")) {
+        coalesce = args[++i];
+      } else if (args[i].equals("-blocks")) {
+        numBlocks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-buckets")) {
+        numBuckets = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-reports")) {
+        reportsPerThread = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: IncrementalBlockReportBenchmark " +
+            "[-coalesce true|false|both] [-blocks numBlocks] " +
+            "[-buckets numBuckets] [-threads numThreads] " +
+            "[-reports reportsPerThread]");
+        return -1;
+      }
+    }
+    if (coalesce.equals("both")) {
+      benchmark(false);
+      benchmark(true);
+    } else {
+      benchmark(Boolean.parseBoolean(coalesce));
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new IncrementalBlockReportBenchmark(), args));
+  }
+}
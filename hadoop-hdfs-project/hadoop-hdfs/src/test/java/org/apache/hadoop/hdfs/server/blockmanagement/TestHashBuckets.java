@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import io.hops.exception.TransientStorageException;
+import io.hops.metadata.HdfsStorageFactory;
+import io.hops.metadata.hdfs.dal.HashBucketDataAccess;
+import io.hops.metadata.hdfs.entity.HashBucket;
+import io.hops.transaction.handler.HDFSOperationType;
+import io.hops.transaction.handler.HopsTransactionalRequestHandler;
+import io.hops.transaction.handler.LightWeightRequestHandler;
+import io.hops.transaction.lock.LockFactory;
+import io.hops.transaction.lock.TransactionLocks;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.protocol.BlockReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHashBuckets {
+
+  private static final int NUM_BUCKETS = 10;
+  private static final int NUM_SUB_BUCKETS = 4;
+  private static final int STORAGE_ID = 4242;
+
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NUM_BUCKETS_KEY, NUM_BUCKETS);
+    conf.setInt(DFSConfigKeys.DFS_NUM_SUB_BUCKETS_KEY, NUM_SUB_BUCKETS);
+    conf.setBoolean(DFSConfigKeys.DFS_BUCKET_COALESCE_ENABLED_KEY, true);
+    // flushed by the test only
+    conf.setLong(DFSConfigKeys.DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_KEY,
+        Long.MAX_VALUE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    cluster.waitActive();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * The deltas staged by a failed attempt of a transaction are not
+   * committed together with the ones of its retry.
+   */
+  @Test
+  public void testRetriedTransactionAppliesHashOnce() throws IOException {
+    final HashBuckets hashBuckets = HashBuckets.getInstance();
+    final Block block = new Block(NUM_BUCKETS * 7 + 3, 1024, 1001);
+    final int bucketId = hashBuckets.getBucketForBlock(block);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    new HopsTransactionalRequestHandler(
+        HDFSOperationType.COMMIT_BLOCK_SYNCHRONIZATION) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        LockFactory lf = LockFactory.getInstance();
+        locks.add(lf.getIndividualHashBucketLock(STORAGE_ID, bucketId));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        hashBuckets.applyHash(STORAGE_ID,
+            HdfsServerConstants.ReplicaState.FINALIZED, block);
+        if (attempts.incrementAndGet() == 1) {
+          throw new TransientStorageException();
+        }
+        return null;
+      }
+    }.handle();
+
+    assertEquals("The transaction should have been retried", 2,
+        attempts.get());
+    hashBuckets.flushPendingDeltas();
+
+    long hash = BlockReport.hash(block,
+        HdfsServerConstants.ReplicaState.FINALIZED);
+    assertEquals(hash, getStoredHash(bucketId));
+    int subBucket = BlockReport.subBucket(block.getBlockId(), NUM_BUCKETS,
+        NUM_SUB_BUCKETS);
+    assertEquals(hash, getStoredHash(hashBuckets.getSubBucketId(bucketId,
+        subBucket)));
+  }
+
+  private static long getStoredHash(final int bucketId) throws IOException {
+    return (Long) new LightWeightRequestHandler(
+        HDFSOperationType.GET_STORAGE_HASHES) {
+      @Override
+      public Object performTask() throws IOException {
+        HashBucketDataAccess da = (HashBucketDataAccess) HdfsStorageFactory
+            .getDataAccess(HashBucketDataAccess.class);
+        HashBucket bucket = (HashBucket) da.findBucket(STORAGE_ID, bucketId);
+        return bucket == null ? 0L : bucket.getHash();
+      }
+    }.handle();
+  }
+}
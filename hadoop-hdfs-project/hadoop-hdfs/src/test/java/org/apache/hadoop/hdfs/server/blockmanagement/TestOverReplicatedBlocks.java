@@ -80,17 +80,19 @@ public void testProcesOverReplicateBlock() throws Exception {
       final ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, fileName);
       assertTrue(TestDatanodeBlockScanner.corruptReplica(block, 0));
       DataNodeProperties dnProps = cluster.stopDataNode(0);
-      // remove block scanner log to trigger block scanning
-      File scanLog = new File(MiniDFSCluster
-          .getFinalizedDir(cluster.getInstanceStorageDir(0, 0),
-              cluster.getNamesystem().getBlockPoolId()).getParent().toString() +
-          "/../dncp_block_verification.log.prev");
-      //wait for one minute for deletion to succeed;
-      for (int i = 0; !scanLog.delete(); i++) {
-        assertTrue("Could not delete log file in one minute", i < 60);
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException ignored) {
+      // remove the block scanner cursors to trigger block scanning
+      for (int dirIndex = 0; dirIndex < 2; dirIndex++) {
+        File scanCursor = new File(MiniDFSCluster
+            .getFinalizedDir(cluster.getInstanceStorageDir(0, dirIndex),
+                cluster.getNamesystem().getBlockPoolId()).getParent() +
+            "/../scanner.cursor");
+        //wait for one minute for deletion to succeed;
+        for (int i = 0; scanCursor.exists() && !scanCursor.delete(); i++) {
+          assertTrue("Could not delete cursor file in one minute", i < 60);
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException ignored) {
+          }
         }
       }
       
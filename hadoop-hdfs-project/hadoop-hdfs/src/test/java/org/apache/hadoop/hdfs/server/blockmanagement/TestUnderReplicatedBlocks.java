@@ -19,16 +19,21 @@
 
 import io.hops.common.INodeUtil;
 import io.hops.exception.StorageException;
+import io.hops.exception.TransientStorageException;
+import io.hops.metadata.HdfsVariables;
+import io.hops.metadata.common.entity.Variable;
 import io.hops.metadata.hdfs.entity.INodeIdentifier;
 import io.hops.transaction.handler.HDFSOperationType;
 import io.hops.transaction.handler.HopsTransactionalRequestHandler;
 import io.hops.transaction.lock.LockFactory;
+import io.hops.transaction.lock.TransactionLockTypes;
 import io.hops.transaction.lock.TransactionLockTypes.INodeLockType;
 import io.hops.transaction.lock.TransactionLocks;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsShell;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -38,8 +43,12 @@
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class TestUnderReplicatedBlocks {
   @Test(timeout = 60000) // 5 min timeout
@@ -143,4 +152,98 @@ public Object performTask() throws StorageException, IOException {
     
   }
 
+  /**
+   * A replication index decrement is only counted once its transaction
+   * commits: the failed attempts of a retried transaction and a rolled back
+   * transaction do not decrement the index.
+   */
+  @Test(timeout = 60000)
+  public void testReplicationIndexDecrementedOnCommit() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    // no replication monitor round while the test runs
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 1000);
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    try {
+      cluster.waitActive();
+      final UnderReplicatedBlocks neededReplications =
+          cluster.getNamesystem().getBlockManager().neededReplications;
+      setReplicationIndex(Arrays.asList(5, 5, 5, 5, 5));
+
+      final AtomicInteger attempts = new AtomicInteger();
+      new HopsTransactionalRequestHandler(HDFSOperationType.TEST) {
+        @Override
+        public void acquireLock(TransactionLocks locks) throws IOException {
+        }
+
+        @Override
+        public Object performTask() throws IOException {
+          neededReplications.decrementReplicationIndex(1);
+          if (attempts.incrementAndGet() == 1) {
+            throw new TransientStorageException();
+          }
+          return null;
+        }
+      }.handle();
+      assertEquals("The transaction should have been retried", 2,
+          attempts.get());
+
+      try {
+        new HopsTransactionalRequestHandler(HDFSOperationType.TEST) {
+          @Override
+          public void acquireLock(TransactionLocks locks) throws IOException {
+          }
+
+          @Override
+          public Object performTask() throws IOException {
+            neededReplications.decrementReplicationIndex(2);
+            throw new IOException("rolled back");
+          }
+        }.handle();
+        fail("The transaction should have failed");
+      } catch (IOException expected) {
+      }
+
+      neededReplications.flushReplicationIndexDecrements();
+      assertEquals(Arrays.asList(5, 4, 5, 5, 5), getReplicationIndex());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static void setReplicationIndex(final List<Integer> index)
+      throws IOException {
+    new HopsTransactionalRequestHandler(HDFSOperationType.TEST) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        LockFactory lf = LockFactory.getInstance();
+        locks.add(lf.getVariableLock(Variable.Finder.ReplicationIndex,
+            TransactionLockTypes.LockType.WRITE));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        HdfsVariables.setReplicationIndex(index);
+        return null;
+      }
+    }.handle();
+  }
+
+  private static List<Integer> getReplicationIndex() throws IOException {
+    return (List<Integer>) new HopsTransactionalRequestHandler(
+        HDFSOperationType.TEST) {
+      @Override
+      public void acquireLock(TransactionLocks locks) throws IOException {
+        LockFactory lf = LockFactory.getInstance();
+        locks.add(lf.getVariableLock(Variable.Finder.ReplicationIndex,
+            TransactionLockTypes.LockType.READ));
+      }
+
+      @Override
+      public Object performTask() throws IOException {
+        return HdfsVariables.getReplicationIndex();
+      }
+    }.handle();
+  }
+
 }
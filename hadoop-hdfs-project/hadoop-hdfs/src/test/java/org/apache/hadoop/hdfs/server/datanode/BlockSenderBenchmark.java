@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of the reads served by a data node, and the
+ * throughput per second of CPU time spent by the data node and the readers.
+ * The readers either read the whole file sequentially or read small
+ * random ranges of it. Run it with -nommap or -notransferto to compare
+ * with the checksums read through a buffer or the data copied through
+ * the heap.
+ *
+ * Usage: BlockSenderBenchmark [-readers r1,r2,..] [-fileSize bytes]
+ *   [-readSize bytes] [-seconds duration] [-nommap] [-notransferto]
+ */
+public class BlockSenderBenchmark extends Configured implements Tool {
+
+  private static final Path FILE = new Path("/blocksenderbench/file");
+
+  private long fileSize = 256L * 1024 * 1024;
+  private int readSize = 4096;
+  private int seconds = 20;
+  private boolean mmapChecksums = true;
+  private boolean transferTo = true;
+
+  private void benchmark(final FileSystem fs, int numReaders,
+      final boolean sequential) throws Exception {
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong reads = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong readerCpu = new AtomicLong();
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final long end = Time.monotonicNow() + seconds * 1000L;
+
+    Thread[] readers = new Thread[numReaders];
+    for (int t = 0; t < numReaders; t++) {
+      final long seed = t;
+      readers[t] = new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          byte[] buf = new byte[sequential ? 64 * 1024 : readSize];
+          try {
+            FSDataInputStream in = fs.open(FILE);
+            try {
+              while (Time.monotonicNow() < end) {
+                if (sequential) {
+                  in.seek(0);
+                  int n;
+                  while ((n = in.read(buf)) > 0) {
+                    bytes.addAndGet(n);
+                  }
+                } else {
+                  long position = (long) (random.nextDouble() *
+                      (fileSize - readSize));
+                  in.readFully(position, buf);
+                  bytes.addAndGet(buf.length);
+                }
+                reads.incrementAndGet();
+              }
+            } finally {
+              in.close();
+            }
+          } catch (IOException e) {
+            failures.incrementAndGet();
+          }
+          readerCpu.addAndGet(threads.getCurrentThreadCpuTime());
+        }
+      };
+    }
+
+    Map<Long, Long> cpuBefore = getThreadCpuTimes(threads);
+    long start = Time.monotonicNow();
+    for (Thread t : readers) {
+      t.start();
+    }
+    for (Thread t : readers) {
+      t.join();
+    }
+    long elapsed = Math.max(1, Time.monotonicNow() - start);
+    long cpu = readerCpu.get();
+    for (Map.Entry<Long, Long> e : getThreadCpuTimes(threads).entrySet()) {
+      Long before = cpuBefore.get(e.getKey());
+      cpu += e.getValue() - (before == null ? 0 : before);
+    }
+
+    double mb = bytes.get() / (1024.0 * 1024);
+    System.out.println(String.format(
+        "%10s readers %4d: %8d reads, %9.1f MB in %6d ms, %8.1f MB/s, " +
+            "%8.1f reads/s, %8.1f MB per CPU second, %d failed",
+        sequential ? "sequential" : "random", numReaders, reads.get(), mb,
+        elapsed, mb * 1000 / elapsed, reads.get() * 1000.0 / elapsed,
+        mb / Math.max(1e-9, cpu / 1e9), failures.get()));
+  }
+
+  private static Map<Long, Long> getThreadCpuTimes(ThreadMXBean threads) {
+    Map<Long, Long> times = new HashMap<Long, Long>();
+    for (long id : threads.getAllThreadIds()) {
+      long time = threads.getThreadCpuTime(id);
+      if (time > 0) {
+        times.put(id, time);
+      }
+    }
+    return times;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String readers = "1,4,16";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-readers")) {
+        readers = args[++i];
+      } else if (args[i].equals("-fileSize")) {
+        fileSize = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-readSize")) {
+        readSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-nommap")) {
+        mmapChecksums = false;
+      } else if (args[i].equals("-notransferto")) {
+        transferTo = false;
+      } else {
+        System.err.println("Usage: BlockSenderBenchmark " +
+            "[-readers r1,r2,..] [-fileSize bytes] [-readSize bytes] " +
+            "[-seconds duration] [-nommap] [-notransferto]");
+        return -1;
+      }
+    }
+
+    Configuration conf = new HdfsConfiguration(getConf());
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_MMAP_CHECKSUMS_KEY,
+        mmapChecksums);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_KEY,
+        transferTo);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      DFSTestUtil.createFile(fs, FILE, fileSize, (short) 1, 0L);
+      for (String numReaders : readers.split(",")) {
+        benchmark(fs, Integer.parseInt(numReaders.trim()), true);
+        benchmark(fs, Integer.parseInt(numReaders.trim()), false);
+      }
+    } finally {
+      cluster.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new BlockSenderBenchmark(), args));
+  }
+}
@@ -114,9 +114,8 @@ public static InterDatanodeProtocol createInterDatanodeProtocolProxy(
   
   public static void runBlockScannerForBlock(DataNode dn, ExtendedBlock b) {
     BlockPoolSliceScanner bpScanner = getBlockPoolScanner(dn, b);
-    bpScanner.verifyBlock(new ExtendedBlock(b.getBlockPoolId(),
-        new BlockPoolSliceScanner.BlockScanInfo(b.getLocalBlock())));
-}
+    bpScanner.verifyBlock(new ExtendedBlock(b));
+  }
 
   private static BlockPoolSliceScanner getBlockPoolScanner(DataNode dn,
       ExtendedBlock b) {
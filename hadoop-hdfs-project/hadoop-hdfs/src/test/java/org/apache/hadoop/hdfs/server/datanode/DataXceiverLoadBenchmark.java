@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures a data node serving many concurrent readers which keep their
+ * connections open between two reads. Every reader reads a small range of
+ * a file over and over, waiting between two reads as a client working on
+ * the data would, so most connections are idle at any time.
+ *
+ * Every reader holds a connection, run it with a limit of open files
+ * above twice the number of readers.
+ *
+ * Usage: DataXceiverLoadBenchmark [-readers r1,r2,..] [-seconds duration]
+ *   [-think millis] [-readSize bytes] [-threads maxTransferThreads]
+ */
+public class DataXceiverLoadBenchmark extends Configured implements Tool {
+
+  private static final Path FILE = new Path("/xceiverbench/file");
+  private static final int FILE_SIZE = 1024 * 1024;
+
+  private int seconds = 30;
+  private int thinkTime = 1000;
+  private int readSize = 4096;
+  private int maxThreads =
+      DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
+
+  private void benchmark(final int numReaders) throws Exception {
+    Configuration conf = new HdfsConfiguration(getConf());
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
+        maxThreads);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_CAPACITY_KEY,
+        numReaders);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      DFSTestUtil.createFile(fs, FILE, FILE_SIZE, (short) 1, 0L);
+      DataXceiverServer server = (DataXceiverServer) cluster.getDataNodes()
+          .get(0).dataXceiverServer.getRunnable();
+
+      final AtomicLong reads = new AtomicLong();
+      final AtomicLong readTime = new AtomicLong();
+      final AtomicLong failures = new AtomicLong();
+      final CountDownLatch started = new CountDownLatch(numReaders);
+      final long end = Time.monotonicNow() + seconds * 1000L;
+
+      Thread[] readers = new Thread[numReaders];
+      for (int t = 0; t < numReaders; t++) {
+        final int reader = t;
+        readers[t] = new Thread() {
+          @Override
+          public void run() {
+            byte[] buf = new byte[readSize];
+            long position = (long) reader * readSize % (FILE_SIZE - readSize);
+            FSDataInputStream in = null;
+            try {
+              in = fs.open(FILE);
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            } finally {
+              started.countDown();
+            }
+            if (in == null) {
+              return;
+            }
+            try {
+              started.await();
+              while (Time.monotonicNow() < end) {
+                long start = Time.monotonicNow();
+                try {
+                  in.readFully(position, buf);
+                  readTime.addAndGet(Time.monotonicNow() - start);
+                  reads.incrementAndGet();
+                } catch (IOException e) {
+                  failures.incrementAndGet();
+                }
+                Thread.sleep(thinkTime);
+              }
+            } catch (InterruptedException e) {
+              // exit
+            } finally {
+              try {
+                in.close();
+              } catch (IOException ignored) {
+              }
+            }
+          }
+        };
+        readers[t].start();
+      }
+
+      started.await();
+      long start = Time.monotonicNow();
+      int maxActive = 0;
+      int maxParked = 0;
+      int maxQueued = 0;
+      while (Time.monotonicNow() < end) {
+        maxActive = Math.max(maxActive, server.getNumActive());
+        maxParked = Math.max(maxParked, server.getNumParked());
+        maxQueued = Math.max(maxQueued, server.getNumQueued());
+        Thread.sleep(10);
+      }
+      for (Thread t : readers) {
+        t.join();
+      }
+      long elapsed = Math.max(1, Time.monotonicNow() - start);
+
+      System.out.println(String.format(
+          "readers %5d: %8d reads in %6d ms, %9.1f reads/s, " +
+              "%7.3f ms per read, %5d threads, max %5d active, " +
+              "%5d parked, %5d queued, %d failed",
+          numReaders, reads.get(), elapsed, reads.get() * 1000.0 / elapsed,
+          (double) readTime.get() / Math.max(1, reads.get()),
+          server.getLargestPoolSize(), maxActive, maxParked, maxQueued,
+          failures.get()));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String readers = "100,1000,10000";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-readers")) {
+        readers = args[++i];
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-think")) {
+        thinkTime = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-readSize")) {
+        readSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        maxThreads = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: DataXceiverLoadBenchmark " +
+            "[-readers r1,r2,..] [-seconds duration] [-think millis] " +
+            "[-readSize bytes] [-threads maxTransferThreads]");
+        return -1;
+      }
+    }
+    for (String numReaders : readers.split(",")) {
+      benchmark(Integer.parseInt(numReaders.trim()));
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new DataXceiverLoadBenchmark(), args));
+  }
+}
@@ -32,7 +32,6 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
-import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.BlockReport;
@@ -601,6 +600,24 @@ public synchronized String getReplicaString(String bpid, long blockId) {
     return r == null ? "null" : r.toString();
   }
 
+  @Override // FsDatasetSpi
+  public void lockBlock(long blockId) {
+    // every method is synchronized
+  }
+
+  @Override // FsDatasetSpi
+  public void unlockBlock(long blockId) {
+  }
+
+  @Override // FsDatasetSpi
+  public void lockDataset() {
+    // every method is synchronized
+  }
+
+  @Override // FsDatasetSpi
+  public void unlockDataset() {
+  }
+
   @Override // FsDatasetSpi
   public Block getStoredBlock(String bpid, long blkid) throws IOException {
     final Map<Block, BInfo> map = blockMap.get(bpid);
@@ -1110,12 +1127,13 @@ public List<FinalizedReplica> getFinalizedBlocks(String bpid) {
   }
 
   @Override
-  public Map<String, Object> getVolumeInfoMap() {
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid,
+      FsVolumeSpi volume, long afterBlockId, int maxBlocks) {
     throw new UnsupportedOperationException();
   }
 
   @Override
-  public RollingLogs createRollingLogs(String bpid, String prefix) {
+  public Map<String, Object> getVolumeInfoMap() {
     throw new UnsupportedOperationException();
   }
 
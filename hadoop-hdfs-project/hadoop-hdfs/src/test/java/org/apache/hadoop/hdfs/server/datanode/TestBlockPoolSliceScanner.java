@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestBlockPoolSliceScanner {
+
+  private static final String BPID = "BP-TEST";
+
+  private static FsVolumeSpi mockVolume(String storageId) {
+    FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+    Mockito.when(volume.getStorageID()).thenReturn(storageId);
+    return volume;
+  }
+
+  /**
+   * The throttler of a volume removed from the dataset is dropped.
+   */
+  @Test
+  public void testThrottlersOfRemovedVolumesPruned() {
+    FsVolumeSpi volume1 = mockVolume("DS-1");
+    FsVolumeSpi volume2 = mockVolume("DS-2");
+    ExtendedBlock block1 = new ExtendedBlock(BPID, 1, 1024, 1001);
+    ExtendedBlock block2 = new ExtendedBlock(BPID, 2, 1024, 1001);
+    FsDatasetSpi<?> dataset = Mockito.mock(FsDatasetSpi.class);
+    Mockito.doReturn(volume1).when(dataset).getVolume(block1);
+    Mockito.doReturn(volume2).when(dataset).getVolume(block2);
+    Mockito.doReturn(Arrays.asList(volume1, volume2)).when(dataset)
+        .getVolumes();
+
+    BlockPoolSliceScanner scanner = new BlockPoolSliceScanner(BPID,
+        Mockito.mock(DataNode.class), dataset, new HdfsConfiguration());
+    VolumeScanThrottler throttler1 = scanner.getThrottler(block1);
+    VolumeScanThrottler throttler2 = scanner.getThrottler(block2);
+    assertNotSame(throttler1, throttler2);
+    assertEquals(2, scanner.getNumVolumeThrottlers());
+
+    // the second volume failed
+    Mockito.doReturn(Arrays.asList(volume1)).when(dataset).getVolumes();
+    assertSame(throttler1, scanner.getThrottler(block1));
+    assertEquals(1, scanner.getNumVolumeThrottlers());
+  }
+}
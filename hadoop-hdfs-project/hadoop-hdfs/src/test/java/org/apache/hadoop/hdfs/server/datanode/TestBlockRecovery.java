@@ -698,9 +698,12 @@ public void run() {
             final RecoveringBlock recoveringBlock =
                 new RecoveringBlock(block.getBlock(), locations,
                     block.getBlock().getGenerationStamp() + 1);
-            synchronized (dataNode.data) {
+            dataNode.data.lockBlock(block.getBlock().getBlockId());
+            try {
               Thread.sleep(2000);
               dataNode.initReplicaRecovery(recoveringBlock);
+            } finally {
+              dataNode.data.unlockBlock(block.getBlock().getBlockId());
             }
           } catch (Exception e) {
             recoveryInitResult.set(false);
@@ -1064,6 +1064,131 @@ public void blockReport_13() throws IOException, InterruptedException {
     }
   }
 
+  /**
+   * Storages with few blocks may report fewer buckets than the namenode
+   * stores, the namenode compares them with the sums of its buckets. A
+   * mismatching bucket is narrowed down to its mismatching sub-buckets.
+   */
+  @Test
+  public void blockReport_adaptiveBuckets() throws Exception {
+    DistributedFileSystem fs = null;
+    MiniDFSCluster cluster = null;
+    final int NUM_DATANODES = 1;
+    final short REPLICATION = 1;
+    final int numBuckets = 12;
+    try {
+      Configuration conf = new Configuration();
+      setConfiguration(conf, numBuckets);
+      cluster = new MiniDFSCluster.Builder(conf).format
+              (true).numDataNodes(NUM_DATANODES).build();
+      cluster.waitActive();
+      fs = (DistributedFileSystem) cluster.getFileSystem();
+      String poolId = cluster.getNamesystem().getBlockPoolId();
+
+      final String METHOD_NAME = GenericTestUtils.getMethodName();
+      LOG.info("Running test " + METHOD_NAME);
+
+      prepareForRide(cluster, new Path("/" + METHOD_NAME + ".dat"),
+              REPLICATION, 4);
+      Thread.sleep(10000); // wait for the IBRs to be processed
+
+      DataNode dn = cluster.getDataNodes().get(0);
+      BlockManager bm = cluster.getNamesystem().getBlockManager();
+      DatanodeDescriptor datanode = bm.getDatanodeManager().getDatanode(dn
+              .getDatanodeId());
+      Map<DatanodeStorage, BlockReport> reports = dn.getFSDataset()
+              .getBlockReports(poolId);
+      for (Map.Entry<DatanodeStorage, BlockReport> entry : reports.entrySet()) {
+        BlockReport report = entry.getValue();
+        assertEquals(numBuckets, report.getBuckets().length);
+        DatanodeStorageInfo storageInfo = datanode.getStorageInfo(entry
+                .getKey().getStorageID());
+
+        BlockReport merged = report.mergeBuckets(2);
+        int reportedBuckets = merged.getBuckets().length;
+        if (report.getNumberOfBlocks() > 0) {
+          assertTrue("The report should be coarser than the stored buckets",
+                  reportedBuckets < numBuckets);
+        }
+        assertEquals(0, numBuckets % reportedBuckets);
+        assertEquals(report.getNumberOfBlocks(), merged.getNumberOfBlocks());
+        BlockManager.ReportStatistics stats = bm.processReport(storageInfo,
+                merged);
+        checkStats(stats, numBuckets);
+
+        if (report.getNumberOfBlocks() > 0) {
+          BlockReport corrupt = report.corruptBlockGSForTesting(0, rand);
+          stats = bm.processReport(storageInfo, corrupt);
+          assertEquals("Only the bucket of the corrupt block should mismatch",
+                  numBuckets - 1, stats.numBucketsMatching);
+          assertEquals("The mismatch should be narrowed to its sub-bucket",
+                  1, stats.numBucketsNarrowed);
+        }
+      }
+
+      assertEquals(1, BlockReport.adaptiveBucketCount(numBuckets, 2, 2));
+      assertEquals(3, BlockReport.adaptiveBucketCount(numBuckets, 5, 2));
+      assertEquals(numBuckets, BlockReport.adaptiveBucketCount(numBuckets,
+              100, 2));
+      assertEquals(numBuckets, BlockReport.adaptiveBucketCount(numBuckets,
+              0, 0));
+    } finally {
+      if (fs != null) {
+        fs.close();
+      }
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * With the hash deltas coalesced the stored hashes lag behind the
+   * incremental reports until the deltas are flushed, a full report flushes
+   * them before comparing the hashes.
+   */
+  @Test
+  public void blockReport_coalescedHashes() throws Exception {
+    DistributedFileSystem fs = null;
+    MiniDFSCluster cluster = null;
+    final int NUM_DATANODES = 3;
+    final short REPLICATION = 3;
+    final int numBuckets = 5;
+    try {
+      Configuration conf = new Configuration();
+      setConfiguration(conf, numBuckets);
+      conf.setBoolean(DFSConfigKeys.DFS_BUCKET_COALESCE_ENABLED_KEY, true);
+      //only the full reports flush the deltas
+      conf.setLong(DFSConfigKeys.DFS_BUCKET_COALESCE_FLUSH_INTERVAL_MS_KEY,
+              Long.MAX_VALUE);
+      cluster = new MiniDFSCluster.Builder(conf).format
+              (true).numDataNodes(NUM_DATANODES).build();
+      cluster.waitActive();
+      fs = (DistributedFileSystem) cluster.getFileSystem();
+      String poolId = cluster.getNamesystem().getBlockPoolId();
+      assertTrue(HashBuckets.getInstance().isCoalescing());
+
+      final String METHOD_NAME = GenericTestUtils.getMethodName();
+      LOG.info("Running test " + METHOD_NAME);
+
+      for (int i = 0; i < 3; i++) {
+        prepareForRide(cluster, new Path("/" + METHOD_NAME + i + ".dat"),
+                REPLICATION, 3);
+      }
+      Thread.sleep(10000); // wait for the IBRs to be processed
+
+      sendAndCheckBR(0, NUM_DATANODES, cluster, poolId, 0, numBuckets);
+      matchDNandNNState(0, NUM_DATANODES, cluster, 0, numBuckets);
+    } finally {
+      if (fs != null) {
+        fs.close();
+      }
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private void checkStats(ReportStatistics stats, int numBuckets) {
     assertEquals("No buckets should have mismatched ", 0, numBuckets - stats
             .getNumBucketsMatching());
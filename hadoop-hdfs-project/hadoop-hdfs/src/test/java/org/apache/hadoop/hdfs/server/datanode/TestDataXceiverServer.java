@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import com.google.common.base.Supplier;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Sender;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the parking of the keep-alive connections of the
+ * {@link DataXceiverServer} and the bounds of its transfer pool.
+ */
+public class TestDataXceiverServer {
+  private static final Path TEST_FILE = new Path("/test");
+  private static final int LONG_KEEPALIVE = 60000;
+  private static final int SHORT_KEEPALIVE = 1000;
+  private static final int SOCKET_TIMEOUT = 10000;
+
+  private MiniDFSCluster cluster;
+  private DataNode dn;
+  private DataXceiverServer server;
+  private ExtendedBlock block;
+  private final List<Socket> sockets = new ArrayList<Socket>();
+
+  private void startCluster(int keepalive, int maxXceivers)
+      throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        keepalive);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
+        maxXceivers);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dn = cluster.getDataNodes().get(0);
+    server = (DataXceiverServer) dn.dataXceiverServer.getRunnable();
+
+    FileSystem fs = cluster.getFileSystem();
+    DFSTestUtil.createFile(fs, TEST_FILE, 1024L, (short) 1, 0L);
+    block = DFSTestUtil.getFirstBlock(fs, TEST_FILE);
+    // the connection of the write is closed by the client
+    waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return server.getNumPeers() == 0;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    for (Socket s : sockets) {
+      IOUtils.closeSocket(s);
+    }
+    sockets.clear();
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private Socket connect() throws IOException {
+    Socket s = new Socket();
+    sockets.add(s);
+    s.connect(NetUtils.createSocketAddr(dn.getDatanodeId().getXferAddr()),
+        SOCKET_TIMEOUT);
+    s.setSoTimeout(SOCKET_TIMEOUT);
+    return s;
+  }
+
+  private void blockChecksum(Socket s) throws IOException {
+    new Sender(new DataOutputStream(s.getOutputStream()))
+        .blockChecksum(block, BlockTokenSecretManager.DUMMY_TOKEN);
+    BlockOpResponseProto reply = BlockOpResponseProto.parseFrom(
+        PBHelper.vintPrefixed(s.getInputStream()));
+    assertEquals(Status.SUCCESS, reply.getStatus());
+  }
+
+  private static void assertClosed(Socket s) {
+    try {
+      assertEquals(-1, s.getInputStream().read());
+    } catch (SocketTimeoutException e) {
+      fail("The data node did not close the connection");
+    } catch (IOException e) {
+      // reset by the data node
+    }
+  }
+
+  private long getXceiversRejected() {
+    return getLongCounter("XceiversRejected",
+        getMetrics(dn.getMetrics().name()));
+  }
+
+  private static void waitFor(Supplier<Boolean> check) throws Exception {
+    GenericTestUtils.waitFor(check, 50, SOCKET_TIMEOUT);
+  }
+
+  private void waitForCounts(final int active, final int queued,
+      final int parked) throws Exception {
+    waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return server.getNumActive() == active &&
+            server.getNumQueued() == queued &&
+            server.getNumParked() == parked;
+      }
+    });
+  }
+
+  /**
+   * A parked connection is handed back to a transfer thread when its next
+   * operation arrives.
+   */
+  @Test(timeout = 60000)
+  public void testParkedConnectionResumes() throws Exception {
+    startCluster(LONG_KEEPALIVE,
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
+    Socket s = connect();
+    blockChecksum(s);
+    waitForCounts(0, 0, 1);
+
+    blockChecksum(s);
+    waitForCounts(0, 0, 1);
+    assertEquals(1, server.getNumPeers());
+  }
+
+  /**
+   * A parked connection is closed once it was idle for the keep-alive
+   * timeout.
+   */
+  @Test(timeout = 60000)
+  public void testParkedConnectionExpires() throws Exception {
+    startCluster(SHORT_KEEPALIVE,
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
+    Socket s = connect();
+    long sentAt = Time.monotonicNow();
+    blockChecksum(s);
+    waitForCounts(0, 0, 1);
+
+    assertClosed(s);
+    assertTrue("Closed before the keep-alive timeout",
+        Time.monotonicNow() - sentAt >= SHORT_KEEPALIVE);
+    waitForCounts(0, 0, 0);
+    assertEquals(0, server.getNumPeers());
+  }
+
+  /**
+   * A connection is closed when every transfer thread is busy and the
+   * queue is full.
+   */
+  @Test(timeout = 60000)
+  public void testRejectedWhenQueueFull() throws Exception {
+    startCluster(LONG_KEEPALIVE, 1);
+    final long rejected = getXceiversRejected();
+
+    // waits for its first operation on the only thread
+    connect();
+    waitForCounts(1, 0, 0);
+    connect();
+    waitForCounts(1, 1, 0);
+
+    Socket s = connect();
+    assertClosed(s);
+    waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return getXceiversRejected() == rejected + 1;
+      }
+    });
+    assertEquals(2, server.getNumPeers());
+    waitForCounts(1, 1, 0);
+  }
+
+  /**
+   * The parked, active and queued connections are closed when the data node
+   * shuts down.
+   */
+  @Test(timeout = 60000)
+  public void testShutdownClosesConnections() throws Exception {
+    startCluster(LONG_KEEPALIVE, 1);
+    Socket parked = connect();
+    blockChecksum(parked);
+    waitForCounts(0, 0, 1);
+    Socket active = connect();
+    waitForCounts(1, 0, 1);
+    Socket queued = connect();
+    waitForCounts(1, 1, 1);
+
+    cluster.stopDataNode(0);
+    assertClosed(parked);
+    assertClosed(active);
+    assertClosed(queued);
+    assertEquals(0, server.getNumPeers());
+    assertEquals(0, server.getNumParked());
+  }
+}
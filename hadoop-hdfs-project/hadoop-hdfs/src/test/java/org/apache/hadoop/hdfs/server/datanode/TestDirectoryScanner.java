@@ -84,7 +84,8 @@ private void createFile(String fileName, long fileLen) throws IOException {
    * Truncate a block file
    */
   private long truncateBlockFile() throws IOException {
-    synchronized (fds) {
+    fds.lockDataset();
+    try {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -103,6 +104,8 @@ private long truncateBlockFile() throws IOException {
           }
         }
       }
+    } finally {
+      fds.unlockDataset();
     }
     return 0;
   }
@@ -111,7 +114,8 @@ private long truncateBlockFile() throws IOException {
    * Delete a block file
    */
   private long deleteBlockFile() {
-    synchronized (fds) {
+    fds.lockDataset();
+    try {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -121,6 +125,8 @@ private long deleteBlockFile() {
           return b.getBlockId();
         }
       }
+    } finally {
+      fds.unlockDataset();
     }
     return 0;
   }
@@ -129,7 +135,8 @@ private long deleteBlockFile() {
    * Delete block meta file
    */
   private long deleteMetaFile() {
-    synchronized (fds) {
+    fds.lockDataset();
+    try {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File file = b.getMetaFile();
         // Delete a metadata file
@@ -138,6 +145,8 @@ private long deleteMetaFile() {
           return b.getBlockId();
         }
       }
+    } finally {
+      fds.unlockDataset();
     }
     return 0;
   }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestVolumeScanCursor {
+
+  private static final int MAX_RECENT_SCANS = 2;
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    File dir = PathUtils.getTestDir(getClass());
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    file = new File(dir, VolumeScanCursor.FILE_NAME);
+  }
+
+  private static void save(VolumeScanCursor cursor) {
+    cursor.write(cursor.serialize(0));
+  }
+
+  /**
+   * A saved cursor is read back as it was, with its last scans.
+   */
+  @Test
+  public void testSaveAndLoad() {
+    VolumeScanCursor cursor =
+        VolumeScanCursor.load(file, 1000, MAX_RECENT_SCANS);
+    assertEquals(1000, cursor.getPeriodStart());
+    assertEquals(Long.MIN_VALUE, cursor.getLastBlockId());
+    assertTrue(cursor.isDirty());
+
+    cursor.advance(10, 1024);
+    cursor.addScan(10, new VolumeScanCursor.LastScan(1001, 2000, true));
+    cursor.advance(20, 512);
+    cursor.addScan(20, new VolumeScanCursor.LastScan(1002, 3000, false));
+    save(cursor);
+    assertFalse(cursor.isDirty());
+
+    VolumeScanCursor loaded =
+        VolumeScanCursor.load(file, 5000, MAX_RECENT_SCANS);
+    assertFalse(loaded.isDirty());
+    assertEquals(1000, loaded.getPeriodStart());
+    assertEquals(20, loaded.getLastBlockId());
+    assertEquals(2, loaded.getBlocksScanned());
+    assertEquals(1536, loaded.getBytesScanned());
+    VolumeScanCursor.LastScan scan = loaded.getScan(20);
+    assertEquals(1002, scan.genStamp);
+    assertEquals(3000, scan.time);
+    assertFalse(scan.ok);
+    assertTrue(loaded.getScan(10).ok);
+  }
+
+  /**
+   * Only the last scans are kept.
+   */
+  @Test
+  public void testRecentScansBounded() {
+    VolumeScanCursor cursor =
+        VolumeScanCursor.load(file, 1000, MAX_RECENT_SCANS);
+    cursor.addScan(10, new VolumeScanCursor.LastScan(1001, 2000, true));
+    cursor.addScan(20, new VolumeScanCursor.LastScan(1001, 2001, true));
+    // scanned again, now the last one
+    cursor.addScan(10, new VolumeScanCursor.LastScan(1001, 2002, true));
+    cursor.addScan(30, new VolumeScanCursor.LastScan(1001, 2003, true));
+    assertEquals(MAX_RECENT_SCANS, cursor.getScans().size());
+    assertNull(cursor.getScan(20));
+    assertEquals(2002, cursor.getScan(10).time);
+    assertNotNull(cursor.getScan(30));
+  }
+
+  /**
+   * A new period scans the volume from its first block again.
+   */
+  @Test
+  public void testStartPeriod() {
+    VolumeScanCursor cursor =
+        VolumeScanCursor.load(file, 1000, MAX_RECENT_SCANS);
+    cursor.advance(10, 1024);
+    cursor.setCaughtUp(true);
+    save(cursor);
+
+    cursor.startPeriod(9000);
+    assertTrue(cursor.isDirty());
+    assertFalse(cursor.isCaughtUp());
+    assertEquals(9000, cursor.getPeriodStart());
+    assertEquals(Long.MIN_VALUE, cursor.getLastBlockId());
+    assertEquals(0, cursor.getBlocksScanned());
+    assertEquals(0, cursor.getBytesScanned());
+  }
+
+  /**
+   * A cursor that cannot be read starts a new period.
+   */
+  @Test
+  public void testUnreadableCursor() throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[] {0, 0, 0, 1, 0});
+    } finally {
+      out.close();
+    }
+    VolumeScanCursor cursor =
+        VolumeScanCursor.load(file, 7000, MAX_RECENT_SCANS);
+    assertEquals(7000, cursor.getPeriodStart());
+    assertEquals(Long.MIN_VALUE, cursor.getLastBlockId());
+    assertTrue(cursor.isDirty());
+  }
+}
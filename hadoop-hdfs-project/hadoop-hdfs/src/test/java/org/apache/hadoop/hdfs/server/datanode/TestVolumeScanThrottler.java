@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestVolumeScanThrottler {
+
+  private static final long BANDWIDTH = 1024 * 1024;
+
+  @Test
+  public void testBackoffAndRecovery() {
+    VolumeScanThrottler throttler =
+        new VolumeScanThrottler(1000, BANDWIDTH, 2);
+    for (int i = 0; i < 10; i++) {
+      throttler.adjust(10);
+    }
+    assertEquals(BANDWIDTH, throttler.getBandwidth());
+
+    // the disk gets busy
+    throttler.adjust(100);
+    assertEquals(BANDWIDTH / 2, throttler.getBandwidth());
+    throttler.adjust(100);
+    assertEquals(BANDWIDTH / 4, throttler.getBandwidth());
+    for (int i = 0; i < 10; i++) {
+      throttler.adjust(100);
+    }
+    assertEquals(BANDWIDTH / 64, throttler.getBandwidth());
+
+    // and idle again
+    for (int i = 0; i < 16; i++) {
+      throttler.adjust(10);
+    }
+    assertEquals(BANDWIDTH, throttler.getBandwidth());
+  }
+
+  @Test
+  public void testTargetBandwidth() {
+    VolumeScanThrottler throttler =
+        new VolumeScanThrottler(1000, BANDWIDTH, 2);
+    throttler.adjust(10);
+    throttler.adjust(100);
+    throttler.setTargetBandwidth(4 * BANDWIDTH);
+    assertEquals(4 * BANDWIDTH, throttler.getTargetBandwidth());
+    assertEquals(2 * BANDWIDTH, throttler.getBandwidth());
+  }
+
+  @Test
+  public void testBaselineForgetsFastReads() {
+    VolumeScanThrottler throttler =
+        new VolumeScanThrottler(1000, BANDWIDTH, 2);
+    // a read from the page cache
+    throttler.adjust(1);
+    for (int i = 0; i < 1000; i++) {
+      throttler.adjust(10);
+    }
+    assertEquals(BANDWIDTH, throttler.getBandwidth());
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.Storage;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.hdfs.server.datanode.DNConf;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataStorage;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipelineInterface;
+import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.mockito.Mockito;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the throughput of many writers writing blocks to a dataset
+ * concurrently while the block reports are generated. Every writer goes
+ * through the dataset calls of a BlockReceiver: it creates an RBW replica,
+ * writes its data and checksums packet by packet and finalizes it.
+ * Run it on two revisions to compare the locking of the dataset.
+ *
+ * Usage: FsDatasetConcurrencyBenchmark [-writers w1,w2,..]
+ *   [-blocks blocksPerWriter] [-blockSize bytes] [-volumes numVolumes]
+ *   [-simulated]
+ */
+public class FsDatasetConcurrencyBenchmark extends Configured
+    implements Tool {
+
+  private static final String BASE_DIR =
+      System.getProperty("test.build.dir", "target/test-dir") +
+          "/fsdatasetbench";
+  private static final String BPID = "BP-BENCH";
+  private static final int PACKET_SIZE = 64 * 1024;
+
+  private int blocksPerWriter = 100;
+  private int blockSize = 1024 * 1024;
+  private int numVolumes = 2;
+  private boolean simulated = false;
+
+  private FsDatasetSpi<?> createDataset(Configuration conf)
+      throws IOException {
+    if (simulated) {
+      SimulatedFSDataset dataset = new SimulatedFSDataset(null, conf);
+      dataset.addBlockPool(BPID, conf);
+      return dataset;
+    }
+    final DataNode datanode = Mockito.mock(DataNode.class);
+    DataStorage storage = Mockito.mock(DataStorage.class);
+    List<String> dirs = new ArrayList<String>();
+    for (int i = 0; i < numVolumes; i++) {
+      String dir = BASE_DIR + "/data" + i;
+      dirs.add(dir);
+      when(storage.getStorageDir(i)).thenReturn(
+          new Storage.StorageDirectory(new File(dir)));
+    }
+    when(storage.getNumStorageDirs()).thenReturn(numVolumes);
+    conf.set(DFSConfigKeys.DFS_DATANODE_DATA_DIR_KEY,
+        StringUtils.join(",", dirs));
+    when(datanode.getConf()).thenReturn(conf);
+    when(datanode.getDnConf()).thenReturn(new DNConf(conf));
+
+    FsDatasetImpl dataset = new FsDatasetImpl(datanode, storage, conf);
+    dataset.addBlockPool(BPID, conf);
+    return dataset;
+  }
+
+  private static void writeBlock(FsDatasetSpi<?> dataset, long blockId,
+      int blockSize, byte[] packet, DataChecksum checksum) throws IOException {
+    ExtendedBlock block = new ExtendedBlock(BPID, blockId, 0, 1000);
+    ReplicaInPipelineInterface replica =
+        dataset.createRbw(StorageType.DEFAULT, block);
+    ReplicaOutputStreams streams = replica.createStreams(true, checksum);
+    try {
+      DataOutputStream checksumOut =
+          new DataOutputStream(streams.getChecksumOut());
+      checksumOut.writeShort(BlockMetadataHeader.VERSION);
+      checksum.writeHeader(checksumOut);
+      byte[] checksums = new byte[checksum.getChecksumSize(packet.length)];
+      long offset = 0;
+      while (offset < blockSize) {
+        int len = (int) Math.min(packet.length, blockSize - offset);
+        checksum.calculateChunkedSums(packet, 0, len, checksums, 0);
+        streams.getDataOut().write(packet, 0, len);
+        checksumOut.write(checksums, 0,
+            checksum.getChecksumSize(len));
+        offset += len;
+        replica.setNumBytesNoPersistance(offset);
+        replica.setLastChecksumAndDataLen(offset, null);
+        replica.setBytesAcked(offset);
+      }
+      checksumOut.flush();
+    } finally {
+      streams.close();
+    }
+    block.setNumBytes(replica.getNumBytes());
+    dataset.finalizeBlock(block);
+  }
+
+  private void benchmark(int numWriters) throws Exception {
+    FileUtils.deleteDirectory(new File(BASE_DIR));
+    Configuration conf = new HdfsConfiguration(getConf());
+    final FsDatasetSpi<?> dataset = createDataset(conf);
+    final byte[] packet = new byte[PACKET_SIZE];
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong reports = new AtomicLong();
+    final AtomicLong reportTime = new AtomicLong();
+    final long[] writerTime = new long[numWriters];
+
+    Thread[] writers = new Thread[numWriters];
+    for (int t = 0; t < numWriters; t++) {
+      final int writer = t;
+      writers[t] = new Thread() {
+        @Override
+        public void run() {
+          DataChecksum checksum =
+              DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C, 512);
+          long start = Time.monotonicNow();
+          for (int i = 0; i < blocksPerWriter; i++) {
+            try {
+              writeBlock(dataset, (long) writer * blocksPerWriter + i + 1,
+                  blockSize, packet, checksum);
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            }
+          }
+          writerTime[writer] = Time.monotonicNow() - start;
+        }
+      };
+    }
+    final Thread[] writersToWatch = writers;
+    Thread reporter = new Thread() {
+      @Override
+      public void run() {
+        while (isAlive(writersToWatch)) {
+          long start = Time.monotonicNow();
+          dataset.getBlockReports(BPID);
+          reportTime.addAndGet(Time.monotonicNow() - start);
+          reports.incrementAndGet();
+        }
+      }
+    };
+
+    long start = Time.monotonicNow();
+    for (Thread t : writers) {
+      t.start();
+    }
+    reporter.start();
+    for (Thread t : writers) {
+      t.join();
+    }
+    reporter.join();
+    long elapsed = Math.max(1, Time.monotonicNow() - start);
+
+    long blocks = (long) numWriters * blocksPerWriter;
+    long totalWriterTime = 0;
+    for (long time : writerTime) {
+      totalWriterTime += time;
+    }
+    System.out.println(String.format(
+        "writers %4d: %8d blocks in %7d ms, %8.1f blocks/s, %8.1f MB/s, " +
+            "%7.3f ms per block, %5d block reports of %7.3f ms, %d failed",
+        numWriters, blocks, elapsed, blocks * 1000.0 / elapsed,
+        (double) blocks * blockSize * 1000 / elapsed / (1024 * 1024),
+        (double) totalWriterTime / blocks, reports.get(),
+        (double) reportTime.get() / Math.max(1, reports.get()),
+        failures.get()));
+    dataset.shutdown();
+  }
+
+  private static boolean isAlive(Thread[] threads) {
+    for (Thread t : threads) {
+      if (t.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String writers = "1,8,32,128";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-writers")) {
+        writers = args[++i];
+      } else if (args[i].equals("-blocks")) {
+        blocksPerWriter = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-blockSize")) {
+        blockSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-volumes")) {
+        numVolumes = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-simulated")) {
+        simulated = true;
+      } else {
+        System.err.println("Usage: FsDatasetConcurrencyBenchmark " +
+            "[-writers w1,w2,..] [-blocks blocksPerWriter] " +
+            "[-blockSize bytes] [-volumes numVolumes] [-simulated]");
+        return -1;
+      }
+    }
+    try {
+      for (String numWriters : writers.split(",")) {
+        benchmark(Integer.parseInt(numWriters.trim()));
+      }
+    } finally {
+      FileUtils.deleteDirectory(new File(BASE_DIR));
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new FsDatasetConcurrencyBenchmark(), args));
+  }
+}
@@ -20,25 +20,43 @@
 import com.google.common.collect.Lists;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.common.Storage;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DNConf;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipelineInterface;
 import org.apache.hadoop.hdfs.server.datanode.StorageLocation;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.protocol.BlockReport;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportBlockState;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.ReportedBlock;
+import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 public class TestFsDatasetImpl {
@@ -48,6 +66,11 @@ public class TestFsDatasetImpl {
   private static final String CLUSTER_ID = "cluser-id";
   private static final String[] BLOCK_POOL_IDS = {"bpid-0", "bpid-1"};
 
+  private static final int NUM_WRITERS = 8;
+  private static final int BLOCKS_PER_WRITER = 50;
+  private static final long GEN_STAMP = 1000;
+
+  private Configuration conf;
   private DataStorage storage;
   private FsDatasetImpl dataset;
 
@@ -72,7 +95,7 @@ private static void createStorageDirs(DataStorage storage, Configuration conf,
   public void setUp() throws IOException {
     final DataNode datanode = Mockito.mock(DataNode.class);
     storage = Mockito.mock(DataStorage.class);
-    Configuration conf = new Configuration();
+    conf = new Configuration();
     final DNConf dnConf = new DNConf(conf);
 
     when(datanode.getConf()).thenReturn(conf);
@@ -85,5 +108,106 @@ public void setUp() throws IOException {
     assertEquals(0, dataset.getNumFailedVolumes());
   }
 
+  private ExtendedBlock createRbw(String bpid, long blockId)
+      throws IOException {
+    ExtendedBlock block = new ExtendedBlock(bpid, blockId, 0, GEN_STAMP);
+    ReplicaInPipelineInterface replica =
+        dataset.createRbw(StorageType.DEFAULT, block);
+    DataChecksum checksum =
+        DataChecksum.newDataChecksum(DataChecksum.Type.CRC32, 512);
+    ReplicaOutputStreams streams = replica.createStreams(true, checksum);
+    try {
+      DataOutputStream checksumOut =
+          new DataOutputStream(streams.getChecksumOut());
+      checksumOut.writeShort(BlockMetadataHeader.VERSION);
+      checksum.writeHeader(checksumOut);
+      checksumOut.flush();
+    } finally {
+      streams.close();
+    }
+    return block;
+  }
+
+  /**
+   * The writers recover and finalize their replicas while the block reports
+   * are generated, every report lists every replica once, in one of the
+   * states it goes through.
+   */
+  @Test(timeout = 120000)
+  public void testConcurrentRecoverFinalizeAndBlockReports()
+      throws Exception {
+    final String bpid = BLOCK_POOL_IDS[0];
+    dataset.addBlockPool(bpid, conf);
+    final int numBlocks = NUM_WRITERS * BLOCKS_PER_WRITER;
+    for (int i = 0; i < numBlocks; i++) {
+      createRbw(bpid, i);
+    }
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    Thread reporter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (writing.get()) {
+            checkReport(dataset.getBlockReports(bpid), numBlocks, false);
+          }
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+      }
+    };
+    reporter.start();
+
+    Thread[] writers = new Thread[NUM_WRITERS];
+    for (int t = 0; t < NUM_WRITERS; t++) {
+      final int writer = t;
+      writers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = writer; i < numBlocks; i += NUM_WRITERS) {
+              ExtendedBlock block =
+                  new ExtendedBlock(bpid, i, 0, GEN_STAMP);
+              dataset.recoverRbw(block, GEN_STAMP + 1, 0, 0);
+              block.setGenerationStamp(GEN_STAMP + 1);
+              dataset.finalizeBlock(block);
+            }
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      };
+      writers[t].start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    writing.set(false);
+    reporter.join();
+
+    assertNull("Unexpected error " + error.get(), error.get());
+    checkReport(dataset.getBlockReports(bpid), numBlocks, true);
+  }
+
+  private static void checkReport(
+      Map<DatanodeStorage, BlockReport> reports, int numBlocks,
+      boolean finalized) {
+    Set<Long> reported = new HashSet<Long>();
+    for (BlockReport report : reports.values()) {
+      for (ReportedBlock block : report) {
+        assertTrue("Block reported twice " + block.getBlockId(),
+            reported.add(block.getBlockId()));
+        if (block.getState() == BlockReportBlockState.FINALIZED) {
+          assertEquals(GEN_STAMP + 1, block.getGenerationStamp());
+        } else {
+          assertTrue("Unexpected replica state " + block.getState(),
+              !finalized && block.getState() == BlockReportBlockState.RBW);
+        }
+      }
+    }
+    assertEquals(numBlocks, reported.size());
+  }
+
   //TODO: HOPS the tests will eventually be added when they catch back on the code that as already be merged in the tested class
 }
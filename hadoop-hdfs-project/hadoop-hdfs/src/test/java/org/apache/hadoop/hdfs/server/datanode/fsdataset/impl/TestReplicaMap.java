@@ -22,6 +22,7 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
@@ -110,4 +111,16 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  @Test
+  public void testAddAll() {
+    // the replicas of a block pool already in the map are kept
+    ReplicaMap other = new ReplicaMap(TestReplicaMap.class);
+    other.add(bpid, new FinalizedReplica(new Block(1, 1, 1), null, null));
+    other.add("BP-OTHER", new FinalizedReplica(block, null, null));
+    map.addAll(other);
+    assertEquals(2, map.size(bpid));
+    assertNotNull(map.get(bpid, block));
+    assertEquals(1, map.size("BP-OTHER"));
+  }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the latency of create and rename, the retry cache entries of the
+ * first attempts being locked in the transaction of the operations or only
+ * written in it.
+ *
+ * Usage: RetryCacheBenchmark [-threads numThreads] [-files filesPerThread]
+ */
+public class RetryCacheBenchmark extends Configured implements Tool {
+
+  private int numThreads = 16;
+  private int filesPerThread = 500;
+
+  private void benchmark(boolean lockFirstAttempts) throws Exception {
+    Configuration conf = new HdfsConfiguration(getConf());
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY, true);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_KEY,
+        lockFirstAttempts);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(0).format(true).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      final AtomicLong createTime = new AtomicLong();
+      final AtomicLong renameTime = new AtomicLong();
+      final AtomicLong failures = new AtomicLong();
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final Path dir = new Path("/retry_cache_bench/" + t);
+        fs.mkdirs(dir);
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < filesPerThread; i++) {
+              Path file = new Path(dir, "f" + i);
+              try {
+                long start = Time.monotonicNow();
+                fs.create(file).close();
+                long created = Time.monotonicNow();
+                fs.rename(file, new Path(dir, "r" + i));
+                createTime.addAndGet(created - start);
+                renameTime.addAndGet(Time.monotonicNow() - created);
+              } catch (Exception e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      long ops = Math.max(1, (long) numThreads * filesPerThread -
+          failures.get());
+      System.out.println(String.format(
+          "first attempts %8s threads %3d: create %8.3f ms, " +
+              "rename %8.3f ms on average, %d failed",
+          lockFirstAttempts ? "locked" : "unlocked", numThreads, (double) createTime.get() / ops,
+          (double) renameTime.get() / ops, failures.get()));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads")) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-files")) {
+        filesPerThread = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: RetryCacheBenchmark " +
+            "[-threads numThreads] [-files filesPerThread]");
+        return -1;
+      }
+    }
+    benchmark(true);
+    benchmark(false);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new RetryCacheBenchmark(), args));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+
+/**
+ * Measures how long it takes to build up the file tree of generated subtrees
+ * of different fan-outs and depths. Every directory holds fan-out
+ * subdirectories and fan-out files, down to the given depth.
+ *
+ * Usage: SubtreeScanBenchmark [-fanouts f1,f2,..] [-depths d1,d2,..]
+ *   [-maxInodes maxInodesPerTree] [-runs runsPerTree]
+ *   [-batch directoriesPerBatch] [-inflight maxInFlightBatches]
+ */
+public class SubtreeScanBenchmark extends Configured implements Tool {
+
+  private int[] fanouts = {2, 10, 100};
+  private int[] depths = {2, 4, 8};
+  private long maxInodes = 100000;
+  private int runs = 3;
+
+  private static int[] parseInts(String value) {
+    String[] parts = value.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+
+  private static long treeSize(int fanout, int depth) {
+    long size = 1;
+    long dirs = 1;
+    for (int d = 0; d < depth; d++) {
+      size += dirs * 2 * fanout;
+      dirs *= fanout;
+    }
+    return size;
+  }
+
+  private void generate(DistributedFileSystem fs, Path dir, int fanout,
+      int depth) throws IOException {
+    if (depth == 0) {
+      return;
+    }
+    for (int i = 0; i < fanout; i++) {
+      fs.create(new Path(dir, "file" + i)).close();
+      Path child = new Path(dir, "dir" + i);
+      fs.mkdirs(child);
+      generate(fs, child, fanout, depth - 1);
+    }
+  }
+
+  private void benchmark(MiniDFSCluster cluster, int fanout, int depth)
+      throws Exception {
+    String root = "/bench_" + fanout + "_" + depth;
+    DistributedFileSystem fs = cluster.getFileSystem();
+    fs.mkdirs(new Path(root));
+    long start = Time.monotonicNow();
+    generate(fs, new Path(root), fanout, depth);
+    long generateTime = Time.monotonicNow() - start;
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    long count = 0;
+    for (int r = 0; r < runs; r++) {
+      AbstractFileTree.CountingFileTree tree = AbstractFileTree
+          .createCountingFileTreeFromPath(cluster.getNamesystem(), root);
+      start = Time.monotonicNow();
+      tree.buildUp();
+      long elapsed = Time.monotonicNow() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+      count = tree.getNamespaceCount();
+    }
+    System.out.println(String.format(
+        "fanout %4d depth %2d inodes %8d generated in %6d ms, " +
+            "scan best %6d ms avg %6d ms, %8d inodes/sec",
+        fanout, depth, count, generateTime, best, total / runs,
+        count * 1000 / Math.max(1, best)));
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = new HdfsConfiguration(getConf());
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-fanouts")) {
+        fanouts = parseInts(args[++i]);
+      } else if (args[i].equals("-depths")) {
+        depths = parseInts(args[++i]);
+      } else if (args[i].equals("-maxInodes")) {
+        maxInodes = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-runs")) {
+        runs = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-batch")) {
+        conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_KEY,
+            Integer.parseInt(args[++i]));
+      } else if (args[i].equals("-inflight")) {
+        conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY,
+            Integer.parseInt(args[++i]));
+      } else {
+        System.err.println("Usage: SubtreeScanBenchmark " +
+            "[-fanouts f1,f2,..] [-depths d1,d2,..] " +
+            "[-maxInodes maxInodesPerTree] [-runs runsPerTree] " +
+            "[-batch directoriesPerBatch] [-inflight maxInFlightBatches]");
+        return -1;
+      }
+    }
+
+    System.out.println("batch size " + conf.getInt(
+        DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_DEFAULT) +
+        ", max in-flight batches " + conf.getInt(
+        DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY,
+        DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_DEFAULT));
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(0).format(true).build();
+    try {
+      cluster.waitActive();
+      for (int fanout : fanouts) {
+        for (int depth : depths) {
+          if (treeSize(fanout, depth) > maxInodes) {
+            System.out.println(String.format(
+                "fanout %4d depth %2d skipped, more than %d inodes", fanout,
+                depth, maxInodes));
+            continue;
+          }
+          benchmark(cluster, fanout, depth);
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new SubtreeScanBenchmark(), args));
+  }
+}
@@ -26,11 +26,19 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import static org.junit.Assert.assertEquals;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClientAdapter;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.TestLease;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -63,6 +71,50 @@ public void testRemoveLeaseWithPrefixPath() throws Exception {
     assertNull(getLeaseByPath(lm, "/a/c"));
   }
 
+  @Test(timeout = 120000)
+  public void testExpiredLeasesRecoveredInBatches() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_BATCH_SIZE_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_LEASE_RECOVERY_THREADS_KEY, 2);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      LeaseManager lm =
+          NameNodeAdapter.getLeaseManager(cluster.getNamesystem());
+      final int numClients = 5;
+      for (int i = 0; i < numClients; i++) {
+        DistributedFileSystem client = (DistributedFileSystem) FileSystem
+            .newInstance(cluster.getURI(), conf);
+        client.create(new Path("/expired" + i));
+        DFSClientAdapter.stopLeaseRenewer(client);
+      }
+      assertEquals(numClients, lm.countLease());
+
+      //the files are empty, recovering their leases closes them
+      cluster.setLeasePeriod(HdfsConstants.LEASE_SOFTLIMIT_PERIOD, 1000);
+      while (lm.countLease() > 0) {
+        Thread.sleep(500);
+      }
+      for (int i = 0; i < numClients; i++) {
+        assertNull(getLeaseByPath(lm, "/expired" + i));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testRecheckIntervalBacksOff() {
+    long interval = HdfsServerConstants.NAMENODE_LEASE_RECHECK_INTERVAL;
+    assertEquals(interval, LeaseManager.getRecheckInterval(0));
+    assertEquals(2 * interval, LeaseManager.getRecheckInterval(1));
+    assertEquals(8 * interval, LeaseManager.getRecheckInterval(3));
+    //the backoff is bounded
+    assertEquals(LeaseManager.getRecheckInterval(5),
+        LeaseManager.getRecheckInterval(100));
+  }
+
   private void addLease(final LeaseManager lm, final String holder, final String path) throws IOException {
     new HopsTransactionalRequestHandler(HDFSOperationType.TEST) {
       @Override
@@ -358,6 +358,46 @@ public void testRetryCacheConfig() {
     Assert.assertNull(FSNamesystem.initRetryCache(conf));
   }
   
+  /**
+   * The entry of a first attempt which is not locked is written in the
+   * transaction of its operation, its retry finds it once the namenode lost
+   * its memory.
+   */
+  @Test
+  public void testRetryCacheFirstAttemptNotLocked() throws Exception {
+    cluster.shutdown();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_LOCK_FIRST_ATTEMPTS_KEY, false);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    cluster.waitActive();
+    namesystem = cluster.getNamesystem();
+    filesystem = cluster.getFileSystem();
+    String target = "/testNamenodeRetryCache/testFirstAttemptNotLocked/target";
+
+    // first attempt, looked up in memory only
+    Server.getCurCall().set(new Server.Call(++callId, 0, null, null,
+        RpcKind.RPC_PROTOCOL_BUFFER, CLIENT_ID));
+    namesystem.createSymlink(target, "/a/c", perm, true);
+
+    cluster.restartNameNode();
+    cluster.waitActive();
+    namesystem = cluster.getNamesystem();
+
+    // the retry finds the entry in the database and succeeds
+    Server.getCurCall().set(new Server.Call(callId, 1, null, null,
+        RpcKind.RPC_PROTOCOL_BUFFER, CLIENT_ID));
+    namesystem.createSymlink(target, "/a/c", perm, true);
+
+    // non-retried call fails
+    newCall();
+    try {
+      namesystem.createSymlink(target, "/a/c", perm, true);
+      Assert.fail("expected exception is not thrown");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
   /**
    * After run a set of operations, restart NN and check if the retry cache has
    * been rebuilt based on the editlog.
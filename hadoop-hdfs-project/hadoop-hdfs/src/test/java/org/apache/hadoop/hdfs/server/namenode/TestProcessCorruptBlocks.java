@@ -312,11 +312,13 @@ private void corruptBlock(MiniDFSCluster cluster, FileSystem fs,
       final String bpid = cluster.getNamesystem().getBlockPoolId();
       File storageDir = MiniDFSCluster.getStorageDir(dnIndex, dirIndex);
       File dataDir = MiniDFSCluster.getFinalizedDir(storageDir, bpid);
-      File scanLogFile = new File(dataDir, "dncp_block_verification.log.curr");
-      if (scanLogFile.exists()) {
+      // the block pool directory
+      File scanCursorFile = new File(
+          dataDir.getParentFile().getParentFile(), "scanner.cursor");
+      if (scanCursorFile.exists()) {
         // wait for one minute for deletion to succeed;
-        for (int i = 0; !scanLogFile.delete(); i++) {
-          assertTrue("Could not delete log file in one minute", i < 60);
+        for (int i = 0; !scanCursorFile.delete(); i++) {
+          assertTrue("Could not delete cursor file in one minute", i < 60);
           try {
             Thread.sleep(1000);
           } catch (InterruptedException ignored) {
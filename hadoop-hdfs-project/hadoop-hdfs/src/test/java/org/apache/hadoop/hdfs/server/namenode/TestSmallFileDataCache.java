@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestSmallFileDataCache {
+
+  @Test
+  public void testModifiedFileIsNotServed() {
+    SmallFileDataCache cache = new SmallFileDataCache(1024, 100);
+    byte[] data = new byte[10];
+    cache.put(1, 100, data);
+    assertSame(data, cache.get(1, 100, 10));
+
+    // appended to, or overwritten
+    assertNull(cache.get(1, 200, 20));
+    assertEquals(0, cache.size());
+    assertNull(cache.get(1, 100, 10));
+  }
+
+  @Test
+  public void testBoundedBySize() {
+    SmallFileDataCache cache = new SmallFileDataCache(30, 20);
+    cache.put(1, 100, new byte[21]);
+    assertNull(cache.get(1, 100, 21));
+
+    cache.put(1, 100, new byte[10]);
+    cache.put(2, 100, new byte[10]);
+    cache.put(3, 100, new byte[10]);
+    assertEquals(30, cache.size());
+
+    // 1 is read last, 2 is the least recently read
+    cache.get(1, 100, 10);
+    cache.put(4, 100, new byte[10]);
+    assertEquals(30, cache.size());
+    assertNull(cache.get(2, 100, 10));
+    assertEquals(10, cache.get(1, 100, 10).length);
+
+    cache.invalidate(1);
+    assertEquals(20, cache.size());
+  }
+}
@@ -176,6 +176,77 @@ public void testFileTree() throws IOException {
     }
   }
 
+  @Test
+  public void testFileTreeWithSmallScanBatches() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_KEY, 2);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY, 1);
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      //three levels of five directories, the deepest ones with a file
+      int dirs = 5 + 5 * 5 + 5 * 5 * 5;
+      for (int i = 0; i < 5; i++) {
+        for (int j = 0; j < 5; j++) {
+          for (int k = 0; k < 5; k++) {
+            Path dir = new Path("/tree/d" + i + "/d" + j + "/d" + k);
+            dfs.mkdirs(dir);
+            dfs.create(new Path(dir, "file")).close();
+          }
+        }
+      }
+
+      AbstractFileTree.FileTree fileTree = AbstractFileTree
+          .createFileTreeFromPath(cluster.getNamesystem(), "/tree");
+      fileTree.buildUp();
+      assertEquals(1 + dirs + 5 * 5 * 5, fileTree.getAll().size());
+      assertEquals(5, fileTree.getHeight());
+      assertEquals(5, fileTree.getDirsByLevel(2).size());
+      assertEquals(5 * 5 * 5, fileTree.getInodesByLevel(5).size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testFileTreeWithChildBoundedBatches() throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      //a batch takes a whole level but is split after every few children
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_SIZE_KEY, 100);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_BATCH_MAX_CHILDREN_KEY, 3);
+      conf.setInt(DFSConfigKeys.DFS_SUBTREE_SCAN_MAX_INFLIGHT_BATCHES_KEY, 1);
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      //a wide directory and narrow ones next to it
+      for (int i = 0; i < 10; i++) {
+        dfs.mkdirs(new Path("/tree/wide/d" + i));
+      }
+      for (int i = 0; i < 4; i++) {
+        dfs.create(new Path("/tree/narrow" + i + "/file")).close();
+      }
+
+      AbstractFileTree.FileTree fileTree = AbstractFileTree
+          .createFileTreeFromPath(cluster.getNamesystem(), "/tree");
+      fileTree.buildUp();
+      assertEquals(1 + 1 + 10 + 4 + 4, fileTree.getAll().size());
+      assertEquals(5, fileTree.getDirsByLevel(2).size());
+      assertEquals(10 + 4, fileTree.getInodesByLevel(3).size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   @Test
   public void testCountingFileTree() throws IOException {
     MiniDFSCluster cluster = null;
@@ -51,6 +51,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertCounterGt;
 import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
 import static org.apache.hadoop.test.MetricsAsserts.assertQuantileGauges;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
@@ -354,6 +355,19 @@ public void testRenameMetrics() throws Exception {
     assertCounter("FilesRenamed", 1L, rb);
     assertCounter("FilesDeleted", 1L, rb);
   }
+
+  @Test
+  public void testBatchedPathResolutionMetrics() throws Exception {
+    Path src = getTestPath("a/b/c/d/src");
+    createFile(src, 100, (short) 1);
+    Path target = getTestPath("a/b/c/e/target");
+    fs.mkdirs(target.getParent());
+    fs.rename(src, target);
+    updateMetrics();
+    MetricsRecordBuilder rb = getMetrics(NN_METRICS);
+    assertCounterGt("BatchedPathResolutionReads", 0L, rb);
+    assertCounterGt("BatchedPathResolutionRoundTripsSavedNumOps", 0L, rb);
+  }
   
   /**
    * Test numGetBlockLocations metric
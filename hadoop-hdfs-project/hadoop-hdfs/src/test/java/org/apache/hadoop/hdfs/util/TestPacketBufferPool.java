@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 hops.io.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestPacketBufferPool {
+
+  @Test
+  public void testBasics() {
+    PacketBufferPool pool = new PacketBufferPool(1000);
+    byte[] a = pool.getBuffer(100);
+    assertEquals(100, a.length);
+    pool.returnBuffer(a);
+    assertEquals(100, pool.getPooledBytes());
+
+    // Getting a new buffer should return the same one
+    byte[] b = pool.getBuffer(100);
+    assertSame(a, b);
+    assertEquals(0, pool.getPooledBytes());
+
+    // A buffer of another size is not reused
+    byte[] c = pool.getBuffer(50);
+    assertEquals(50, c.length);
+    pool.returnBuffer(b);
+    assertNotSame(b, pool.getBuffer(50));
+
+    assertEquals(3, pool.getNumAllocated());
+    assertEquals(1, pool.getNumReused());
+  }
+
+  @Test
+  public void testBoundedByCapacity() {
+    PacketBufferPool pool = new PacketBufferPool(250);
+    byte[] a = pool.getBuffer(100);
+    byte[] b = pool.getBuffer(100);
+    byte[] c = pool.getBuffer(100);
+    pool.returnBuffer(a);
+    pool.returnBuffer(b);
+    pool.returnBuffer(c);
+    assertEquals(200, pool.getPooledBytes());
+
+    assertSame(a, pool.getBuffer(100));
+    assertSame(b, pool.getBuffer(100));
+    assertNotSame(c, pool.getBuffer(100));
+  }
+
+  @Test
+  public void testDisabled() {
+    PacketBufferPool pool = new PacketBufferPool(0);
+    byte[] a = pool.getBuffer(100);
+    pool.returnBuffer(a);
+    assertEquals(0, pool.getPooledBytes());
+    assertNotSame(a, pool.getBuffer(100));
+  }
+}
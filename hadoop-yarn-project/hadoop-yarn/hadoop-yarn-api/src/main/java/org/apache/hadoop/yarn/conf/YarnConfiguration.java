@@ -2541,6 +2541,43 @@ public static String getClusterId(Configuration conf) {
   public static final String HOPS_EVENT_STREAMING_DB_PORT = HOPS_RM_PREFIX
           + "event-streaming.db.port";
 
+  /**
+   * Interval at which the database commits of the heartbeats of the
+   * RMNodes are grouped in one transaction, 0 to commit every heartbeat on
+   * its own.
+   */
+  public static final String HOPS_HEARTBEAT_GROUP_COMMIT_INTERVAL_MS =
+          HOPS_RM_PREFIX + "heartbeat.group-commit.interval-ms";
+  public static final long DEFAULT_HOPS_HEARTBEAT_GROUP_COMMIT_INTERVAL_MS = 10;
+  /**
+   * Maximum number of heartbeats committed in one transaction.
+   */
+  public static final String HOPS_HEARTBEAT_GROUP_COMMIT_MAX_SIZE =
+          HOPS_RM_PREFIX + "heartbeat.group-commit.max-size";
+  public static final int DEFAULT_HOPS_HEARTBEAT_GROUP_COMMIT_MAX_SIZE = 500;
+
+  /**
+   * Maximum number of streamed DB events replayed by the scheduler at once.
+   */
+  public static final String HOPS_EVENT_STREAMING_REPLAY_BATCH_SIZE =
+          HOPS_RM_PREFIX + "event-streaming.replay.batch-size";
+  public static final int DEFAULT_HOPS_EVENT_STREAMING_REPLAY_BATCH_SIZE = 1000;
+  /**
+   * Maximum number of streamed pending events waiting for their components,
+   * the oldest are read from the database above it.
+   */
+  public static final String HOPS_EVENT_STREAMING_PARTIAL_MAX =
+          HOPS_RM_PREFIX + "event-streaming.partial.max";
+  public static final int DEFAULT_HOPS_EVENT_STREAMING_PARTIAL_MAX = 100000;
+  /**
+   * Time after which a streamed pending event still missing components is
+   * read from the database.
+   */
+  public static final String HOPS_EVENT_STREAMING_PARTIAL_TIMEOUT_MS =
+          HOPS_RM_PREFIX + "event-streaming.partial.timeout-ms";
+  public static final long DEFAULT_HOPS_EVENT_STREAMING_PARTIAL_TIMEOUT_MS =
+          60000;
+
   /**
    * The address of the RM group membership interface.
    */
@@ -18,11 +18,13 @@
 import io.hops.metadata.yarn.entity.PendingEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.Time;
 
 public class PendingEventEvent implements DBEvent {
 
   private static final Log LOG = LogFactory.getLog(PendingEventEvent.class);
   private final PendingEvent pendingEvent;
+  private final long receivedTime = Time.monotonicNow();
 
   public PendingEventEvent(int id, String rmnodeId, String type,
           String status, int contains) {
@@ -35,4 +37,8 @@ public PendingEvent getPendingEvent() {
     return pendingEvent;
   }
 
+  public long getReceivedTime() {
+    return receivedTime;
+  }
+
 }
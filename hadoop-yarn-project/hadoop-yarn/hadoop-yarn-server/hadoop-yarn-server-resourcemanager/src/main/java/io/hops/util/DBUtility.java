@@ -21,7 +21,6 @@
 import io.hops.metadata.common.entity.Variable;
 import io.hops.metadata.hdfs.dal.VariableDataAccess;
 import io.hops.metadata.yarn.dal.*;
-import io.hops.metadata.yarn.entity.NextHeartbeat;
 import io.hops.metadata.yarn.dal.util.YARNOperationType;
 import io.hops.metadata.yarn.entity.*;
 import io.hops.transaction.handler.AsyncLightWeightRequestHandler;
@@ -45,276 +44,12 @@
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.UpdatedContainerInfo;
 import io.hops.metadata.yarn.entity.ContainerStatus;
 import io.hops.transaction.handler.LightWeightRequestHandler;
-import org.apache.hadoop.yarn.api.protocolrecords.SignalContainerRequest;
 import org.apache.hadoop.yarn.api.records.impl.pb.TokenPBImpl;
 
 public class DBUtility {
 
   private static final Log LOG = LogFactory.getLog(DBUtility.class);
 
-  public static void removeContainersToClean(final Set<ContainerId> containers,
-          final org.apache.hadoop.yarn.api.records.NodeId nodeId) throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler removeContainerToClean
-            = new AsyncLightWeightRequestHandler(
-            YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerIdToCleanDataAccess ctcDA
-                = (ContainerIdToCleanDataAccess) RMStorageFactory
-                .getDataAccess(ContainerIdToCleanDataAccess.class);
-        List<io.hops.metadata.yarn.entity.ContainerId> containersToClean
-                = new ArrayList<io.hops.metadata.yarn.entity.ContainerId>();
-        for (ContainerId cid : containers) {
-          containersToClean.add(new io.hops.metadata.yarn.entity.ContainerId(
-                  nodeId.toString(), cid.toString()));
-        }
-        ctcDA.removeAll(containersToClean);
-        connector.commit();
-        return null;
-      }
-    };
-
-    removeContainerToClean.handle();
-    long duration = System.currentTimeMillis() - start;
-    if(duration>10){
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void removeContainersToSignal(final Set<SignalContainerRequest> containerRequests, final NodeId nodeId)
-      throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler removeContainerToSignal
-        = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerToSignalDataAccess ctsDA = (ContainerToSignalDataAccess) RMStorageFactory.getDataAccess(
-            ContainerToSignalDataAccess.class);
-        List<ContainerToSignal> containersToSignal = new ArrayList<ContainerToSignal>();
-        for (SignalContainerRequest cr : containerRequests) {
-          containersToSignal.add(new ContainerToSignal(nodeId.toString(), cr.getContainerId().toString(), cr.
-              getCommand().toString()));
-        }
-        ctsDA.removeAll(containersToSignal);
-        connector.commit();
-        return null;
-      }
-    };
-
-    removeContainerToSignal.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void addContainerToSignal(final SignalContainerRequest containerRequest, final NodeId nodeId)
-      throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler addContainerToSignal = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerToSignalDataAccess ctsDA = (ContainerToSignalDataAccess) RMStorageFactory.getDataAccess(
-            ContainerToSignalDataAccess.class);
-        ContainerToSignal containerToSignal = new ContainerToSignal(nodeId.toString(),
-            containerRequest.getContainerId().toString(), containerRequest.getCommand().toString());
-
-        ctsDA.add(containerToSignal);
-        connector.commit();
-        return null;
-      }
-    };
-
-    addContainerToSignal.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void removeContainersToDecrease(
-      final Collection<org.apache.hadoop.yarn.api.records.Container> containers) throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler removeContainerToDecrease
-        = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerToDecreaseDataAccess ctsDA = (ContainerToDecreaseDataAccess) RMStorageFactory.getDataAccess(
-            ContainerToDecreaseDataAccess.class);
-        List<io.hops.metadata.yarn.entity.Container> containersToDecrease
-            = new ArrayList<io.hops.metadata.yarn.entity.Container>();
-        for (org.apache.hadoop.yarn.api.records.Container container : containers) {
-          containersToDecrease.add(new io.hops.metadata.yarn.entity.Container(container.getId().toString(), container.
-              getNodeId().toString(),
-              container.getNodeHttpAddress(), container.getPriority().getPriority(), container.getResource().
-              getMemorySize(), container.getResource().getVirtualCores(), container.getResource().getGPUs(), container.
-              getVersion()));
-        }
-        ctsDA.removeAll(containersToDecrease);
-        connector.commit();
-        return null;
-      }
-    };
-
-    removeContainerToDecrease.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void addContainersToDecrease(final List<org.apache.hadoop.yarn.api.records.Container> containers) throws
-      IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler addContainerToDecrease = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerToDecreaseDataAccess ctsDA = (ContainerToDecreaseDataAccess) RMStorageFactory.getDataAccess(
-            ContainerToDecreaseDataAccess.class);
-        List<io.hops.metadata.yarn.entity.Container> containersToDecrease
-            = new ArrayList<io.hops.metadata.yarn.entity.Container>();
-        for (org.apache.hadoop.yarn.api.records.Container container : containers) {
-          containersToDecrease.add(new io.hops.metadata.yarn.entity.Container(container.getId().toString(), container.
-              getNodeId().toString(), container.getNodeHttpAddress(), container.getPriority().getPriority(), container.
-              getResource().getMemorySize(), container.getResource().getVirtualCores(), container.getResource().
-              getGPUs(), container.getVersion()));
-        }
-        ctsDA.addAll(containersToDecrease);
-        connector.commit();
-        return null;
-      }
-    };
-
-    addContainerToDecrease.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void removeRMNodeApplications(
-      final List<ApplicationId> applications, final org.apache.hadoop.yarn.api.records.NodeId nodeId,
-      final RMNodeApplication.RMNodeApplicationStatus status)
-      throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler removeRMNodeApplication
-        = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        RMNodeApplicationsDataAccess faDA = (RMNodeApplicationsDataAccess) RMStorageFactory.getDataAccess(
-            RMNodeApplicationsDataAccess.class);
-        List<RMNodeApplication> rmNodeApps = new ArrayList<RMNodeApplication>();
-        for (ApplicationId appId : applications) {
-          rmNodeApps.add(new RMNodeApplication(nodeId.toString(), appId.toString(), status));
-        }
-        faDA.removeAll(rmNodeApps);
-        connector.commit();
-
-        return null;
-      }
-    };
-
-    removeRMNodeApplication.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void removeRMNodeApplication(final ApplicationId appId,
-      final org.apache.hadoop.yarn.api.records.NodeId nodeId, final RMNodeApplication.RMNodeApplicationStatus status)
-      throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler removeRMNodeApplication
-        = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        RMNodeApplicationsDataAccess faDA = (RMNodeApplicationsDataAccess) RMStorageFactory.getDataAccess(
-            RMNodeApplicationsDataAccess.class);
-        RMNodeApplication rmNodeApp = new RMNodeApplication(nodeId.toString(), appId.toString(), status);
-
-        faDA.remove(rmNodeApp);
-        connector.commit();
-
-        return null;
-      }
-    };
-
-    removeRMNodeApplication.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-    
-  public static void addRMNodeApplication(final ApplicationId appId,
-      final org.apache.hadoop.yarn.api.records.NodeId nodeId, final RMNodeApplication.RMNodeApplicationStatus status)
-      throws IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler addRMNodeApplication = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        RMNodeApplicationsDataAccess faDA = (RMNodeApplicationsDataAccess) RMStorageFactory.getDataAccess(
-            RMNodeApplicationsDataAccess.class);
-        faDA.add(new RMNodeApplication(nodeId.toString(), appId.toString(), status));
-        connector.commit();
-
-        return null;
-      }
-    };
-
-    addRMNodeApplication.handle();
-    long duration = System.currentTimeMillis() - start;
-    if (duration > 10) {
-      LOG.error("too long " + duration);
-    }
-  }
-
-  public static void addContainerToClean(final ContainerId containerId,
-          final org.apache.hadoop.yarn.api.records.NodeId nodeId) throws
-          IOException {
-    long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler addContainerToClean
-            = new AsyncLightWeightRequestHandler(
-                    YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        ContainerIdToCleanDataAccess ctcDA
-                = (ContainerIdToCleanDataAccess) RMStorageFactory
-                .getDataAccess(ContainerIdToCleanDataAccess.class);
-        ctcDA.add(
-                new io.hops.metadata.yarn.entity.ContainerId(nodeId.toString(),
-                        containerId.toString()));
-        connector.commit();
-        return null;
-      }
-    };
-    addContainerToClean.handle();
-    long duration = System.currentTimeMillis() - start;
-    if(duration>10){
-      LOG.error("too long " + duration);
-    }
-  }
-
   public static RMNode processHopRMNodeCompsForScheduler(RMNodeComps hopRMNodeComps, RMContext rmContext)
           throws InvalidProtocolBufferException {
     org.apache.hadoop.yarn.api.records.NodeId nodeId;
@@ -432,96 +167,98 @@ public static RMNode processHopRMNodeCompsForScheduler(RMNodeComps hopRMNodeComp
     return rmNode;
   }
   
-  public static void addNextHB(final boolean nextHB, final String nodeId) throws IOException {
-           long start = System.currentTimeMillis();
-    AsyncLightWeightRequestHandler addNextHB
-            = new AsyncLightWeightRequestHandler(
-                    YARNOperationType.TEST) {
+  /**
+   * Reads the pending events and their components from the database, for
+   * the pending events whose rows were not all streamed. The DAL only reads
+   * the components table by table, this is meant for the few pending events
+   * the streaming lost.
+   *
+   * @return the components of the pending events still in the database
+   */
+  public static Map<PendingEventID, RMNodeComps> getRMNodeComps(
+          final Collection<PendingEventID> ids) throws IOException {
+    LightWeightRequestHandler getRMNodeCompsHandler
+            = new LightWeightRequestHandler(YARNOperationType.TEST) {
       @Override
-      public Object performTask() throws StorageException {
+      public Object performTask() throws IOException {
         connector.beginTransaction();
-        connector.writeLock();
-        NextHeartbeatDataAccess nhbDA
-                = (NextHeartbeatDataAccess) RMStorageFactory
-                .getDataAccess(NextHeartbeatDataAccess.class);
-        nhbDA.update(new NextHeartbeat(nodeId, nextHB));
-        connector.commit();
-        return null;
-              }
-            };
-    addNextHB.handle();
-    long duration = System.currentTimeMillis() - start;
-    if(duration>10){
-      LOG.error("too long " + duration);
-    }
-  }
+        connector.readCommitted();
+        Map<PendingEventID, RMNodeComps> comps = new HashMap<>();
+        PendingEventDataAccess peDA = (PendingEventDataAccess)
+                YarnAPIStorageFactory.getDataAccess(
+                        PendingEventDataAccess.class);
+        for (PendingEvent pendingEvent : (List<PendingEvent>) peDA.getAll()) {
+          if (ids.contains(pendingEvent.getId())) {
+            RMNodeComps comp = new RMNodeComps();
+            comp.setPendingEvent(pendingEvent);
+            comps.put(pendingEvent.getId(), comp);
+          }
+        }
+        if (comps.isEmpty()) {
+          connector.commit();
+          return comps;
+        }
 
-  public static void removeUCI(List<UpdatedContainerInfo> ContainerInfoList,
-          String nodeId) throws IOException {
-    long start = System.currentTimeMillis();
-    final List<io.hops.metadata.yarn.entity.UpdatedContainerInfo> uciToRemove
-            = new ArrayList<io.hops.metadata.yarn.entity.UpdatedContainerInfo>();
-    final List<ContainerStatus> containerStatusToRemove
-            = new ArrayList<ContainerStatus>();
-    for (UpdatedContainerInfo uci : ContainerInfoList) {
-      if (uci.getNewlyLaunchedContainers() != null
-              && !uci.getNewlyLaunchedContainers().isEmpty()) {
-        for (org.apache.hadoop.yarn.api.records.ContainerStatus containerStatus
-                : uci
-                .getNewlyLaunchedContainers()) {
-          io.hops.metadata.yarn.entity.UpdatedContainerInfo hopUCI
-                  = new io.hops.metadata.yarn.entity.UpdatedContainerInfo(nodeId,
-                  containerStatus.getContainerId().toString(), uci.
-                  getUciId());
-          uciToRemove.add(hopUCI);
-
-          ContainerStatus hopConStatus = new ContainerStatus(containerStatus.
-                  getContainerId().toString(), nodeId, uci.getUciId());
-          containerStatusToRemove.add(hopConStatus);
+        RMNodeDataAccess rmNodeDA = (RMNodeDataAccess) YarnAPIStorageFactory.
+                getDataAccess(RMNodeDataAccess.class);
+        Map<String, io.hops.metadata.yarn.entity.RMNode> rmNodes =
+                rmNodeDA.getAll();
+        for (io.hops.metadata.yarn.entity.RMNode rmNode : rmNodes.values()) {
+          RMNodeComps comp = comps.get(new PendingEventID(
+                  rmNode.getPendingEventId(), rmNode.getNodeId()));
+          if (comp != null) {
+            comp.setRMNode(rmNode);
+          }
         }
-      }
-      if (uci.getCompletedContainers() != null
-              && !uci.getCompletedContainers().isEmpty()) {
-        for (org.apache.hadoop.yarn.api.records.ContainerStatus containerStatus
-                : uci
-                .getCompletedContainers()) {
-          io.hops.metadata.yarn.entity.UpdatedContainerInfo hopUCI
-                  = new io.hops.metadata.yarn.entity.UpdatedContainerInfo(nodeId,
-                  containerStatus.getContainerId().toString(), uci.
-                  getUciId());
-          uciToRemove.add(hopUCI);
-          ContainerStatus hopConStatus = new ContainerStatus(containerStatus.
-                  getContainerId().toString(), nodeId, uci.getUciId());
-          containerStatusToRemove.add(hopConStatus);
+
+        ResourceDataAccess resourceDA = (ResourceDataAccess)
+                YarnAPIStorageFactory.getDataAccess(ResourceDataAccess.class);
+        Map<String, io.hops.metadata.yarn.entity.Resource> resources =
+                resourceDA.getAll();
+        for (io.hops.metadata.yarn.entity.Resource resource : resources.
+                values()) {
+          RMNodeComps comp = comps.get(new PendingEventID(
+                  resource.getPendingEventId(), resource.getId()));
+          if (comp != null) {
+            comp.setResource(resource);
+          }
         }
-      }
-    }
 
-    AsyncLightWeightRequestHandler removeUCIHandler
-            = new AsyncLightWeightRequestHandler(
-            YARNOperationType.TEST) {
-      @Override
-      public Object performTask() throws StorageException {
-        connector.beginTransaction();
-        connector.writeLock();
-        UpdatedContainerInfoDataAccess uciDA
-                = (UpdatedContainerInfoDataAccess) RMStorageFactory
-                .getDataAccess(UpdatedContainerInfoDataAccess.class);
-        uciDA.removeAll(uciToRemove);
-
-        ContainerStatusDataAccess csDA
-                = (ContainerStatusDataAccess) RMStorageFactory
-                .getDataAccess(ContainerStatusDataAccess.class);
-        csDA.removeAll(containerStatusToRemove);
+        UpdatedContainerInfoDataAccess uciDA = (UpdatedContainerInfoDataAccess)
+                YarnAPIStorageFactory.getDataAccess(
+                        UpdatedContainerInfoDataAccess.class);
+        Map<String, Map<Integer,
+                List<io.hops.metadata.yarn.entity.UpdatedContainerInfo>>> ucis =
+                uciDA.getAll();
+        for (Map.Entry<PendingEventID, RMNodeComps> comp : comps.entrySet()) {
+          Map<Integer, List<io.hops.metadata.yarn.entity.UpdatedContainerInfo>>
+                  nodeUcis = ucis.get(comp.getKey().getNodeId());
+          if (nodeUcis == null || !nodeUcis.containsKey(comp.getKey().
+                  getEventId())) {
+            continue;
+          }
+          for (io.hops.metadata.yarn.entity.UpdatedContainerInfo uci
+                  : nodeUcis.get(comp.getKey().getEventId())) {
+            comp.getValue().addUpdatedContainerInfo(uci);
+          }
+        }
+
+        ContainerStatusDataAccess csDA = (ContainerStatusDataAccess)
+                YarnAPIStorageFactory.getDataAccess(
+                        ContainerStatusDataAccess.class);
+        Map<String, ContainerStatus> statuses = csDA.getAll();
+        for (ContainerStatus status : statuses.values()) {
+          RMNodeComps comp = comps.get(new PendingEventID(
+                  status.getPendingEventId(), status.getRMNodeId()));
+          if (comp != null) {
+            comp.addContainersStatus(status);
+          }
+        }
         connector.commit();
-        return null;
+        return comps;
       }
     };
-    removeUCIHandler.handle();
-    long duration = System.currentTimeMillis() - start;
-    if(duration>10){
-      LOG.error("too long " + duration);
-    }
+    return (Map<PendingEventID, RMNodeComps>) getRMNodeCompsHandler.handle();
   }
 
   public static Map<String, Load> getAllLoads() throws IOException {
@@ -560,12 +297,9 @@ public Object performTask() throws IOException {
     updateLoadHandler.handle();
   }
 
-  public static void removePendingEvent(String rmNodeId, PendingEvent.Type type,
-          PendingEvent.Status status, int id, int contains) throws IOException {
-long start = System.currentTimeMillis();
-    final PendingEvent pendingEvent = new PendingEvent(rmNodeId, type, status,
-            id, contains);
-
+  public static void removePendingEvents(final List<PendingEvent> pendingEvents)
+          throws IOException {
+    long start = System.currentTimeMillis();
     AsyncLightWeightRequestHandler removePendingEvents
             = new AsyncLightWeightRequestHandler(YARNOperationType.TEST) {
       @Override
@@ -576,7 +310,9 @@ public Object performTask() throws IOException {
         PendingEventDataAccess pendingEventDAO
                 = (PendingEventDataAccess) YarnAPIStorageFactory
                 .getDataAccess(PendingEventDataAccess.class);
-        pendingEventDAO.removePendingEvent(pendingEvent);
+        for (PendingEvent pendingEvent : pendingEvents) {
+          pendingEventDAO.removePendingEvent(pendingEvent);
+        }
         connector.commit();
 
         return null;
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.util;
+
+import io.hops.exception.StorageException;
+import io.hops.metadata.yarn.dal.util.YARNOperationType;
+import io.hops.transaction.handler.LightWeightRequestHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+
+/**
+ * Group commit of the heartbeats of the RMNodes. The {@link ToCommitHB} of
+ * the RMNodes are queued and committed by one thread on a fixed cadence,
+ * all the heartbeats queued during an interval being committed in one
+ * transaction. A batch holds at most one heartbeat of each node so that the
+ * heartbeats of a node are committed in order, one transaction after the
+ * other.
+ *
+ * The commits of heartbeats were asynchronous already, the caller does not
+ * wait for them, except for the commit of a node being added which the
+ * caller waits for as before.
+ */
+public class HeartbeatCommitter {
+
+  private static final Log LOG = LogFactory.getLog(HeartbeatCommitter.class);
+
+  private static HeartbeatCommitter instance;
+
+  private final long interval;
+  private final int maxSize;
+  private final LinkedBlockingQueue<ToCommitHB> queue =
+          new LinkedBlockingQueue<>();
+  private final Thread committerThread;
+  private volatile boolean running = true;
+
+  private HeartbeatCommitter(long interval, int maxSize) {
+    this.interval = interval;
+    this.maxSize = maxSize;
+    committerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        commitLoop();
+      }
+    }, "HeartbeatCommitter");
+    committerThread.setDaemon(true);
+  }
+
+  /**
+   * Starts grouping the heartbeat commits, unless the interval is 0.
+   */
+  public static synchronized void start(Configuration conf) {
+    if (instance != null) {
+      LOG.error("HOP :: HeartbeatCommitter has already started");
+      return;
+    }
+    long interval = conf.getLong(
+            YarnConfiguration.HOPS_HEARTBEAT_GROUP_COMMIT_INTERVAL_MS,
+            YarnConfiguration.DEFAULT_HOPS_HEARTBEAT_GROUP_COMMIT_INTERVAL_MS);
+    int maxSize = conf.getInt(
+            YarnConfiguration.HOPS_HEARTBEAT_GROUP_COMMIT_MAX_SIZE,
+            YarnConfiguration.DEFAULT_HOPS_HEARTBEAT_GROUP_COMMIT_MAX_SIZE);
+    if (interval <= 0) {
+      return;
+    }
+    instance = new HeartbeatCommitter(interval, Math.max(1, maxSize));
+    instance.committerThread.start();
+  }
+
+  /**
+   * Commits the heartbeats still queued and stops grouping the commits.
+   */
+  public static void stop() throws InterruptedException {
+    HeartbeatCommitter committer;
+    synchronized (HeartbeatCommitter.class) {
+      committer = instance;
+      instance = null;
+    }
+    if (committer != null) {
+      committer.running = false;
+      committer.committerThread.interrupt();
+      committer.committerThread.join();
+    }
+  }
+
+  static synchronized HeartbeatCommitter getInstance() {
+    return instance;
+  }
+
+  void commit(ToCommitHB toCommit) throws IOException {
+    queue.add(toCommit);
+    if (!running && queue.remove(toCommit)) {
+      //stopped, the committer thread may be gone already
+      persist(Collections.singletonList(toCommit));
+      return;
+    }
+    if (toCommit.isNodeAdded()) {
+      toCommit.awaitCommitted();
+    }
+  }
+
+  private void commitLoop() {
+    while (running) {
+      long start = Time.monotonicNow();
+      boolean more = commitBatch();
+      long remaining = interval - (Time.monotonicNow() - start);
+      if (!more && remaining > 0) {
+        try {
+          Thread.sleep(remaining);
+        } catch (InterruptedException e) {
+          //stopping, the loop below commits what is left
+        }
+      }
+    }
+    while (commitBatch()) {
+    }
+  }
+
+  /**
+   * Commits the next batch of queued heartbeats.
+   *
+   * @return true if heartbeats are still queued
+   */
+  private boolean commitBatch() {
+    final List<ToCommitHB> batch = new ArrayList<>();
+    Set<String> nodes = new HashSet<>();
+    ToCommitHB next;
+    while (batch.size() < maxSize && (next = queue.peek()) != null
+            && nodes.add(next.getNodeId())) {
+      batch.add(queue.poll());
+    }
+    if (batch.isEmpty()) {
+      return false;
+    }
+
+    long start = Time.monotonicNow();
+    try {
+      persist(batch);
+      for (ToCommitHB toCommit : batch) {
+        toCommit.setCommitted(null);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to commit " + batch.size() + " heartbeats in one "
+              + "transaction, committing them one by one", e);
+      //one heartbeat must not fail the others
+      for (ToCommitHB toCommit : batch) {
+        try {
+          persist(Collections.singletonList(toCommit));
+          toCommit.setCommitted(null);
+        } catch (IOException ex) {
+          LOG.error(ex, ex);
+          toCommit.setCommitted(ex);
+        }
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("committed " + batch.size() + " heartbeats in "
+              + (Time.monotonicNow() - start) + " ms");
+    }
+    return !queue.isEmpty();
+  }
+
+  private void persist(final List<ToCommitHB> batch) throws IOException {
+    new LightWeightRequestHandler(YARNOperationType.TEST) {
+      @Override
+      public Object performTask() throws StorageException {
+        connector.beginTransaction();
+        connector.writeLock();
+        for (ToCommitHB toCommit : batch) {
+          toCommit.persist();
+        }
+        connector.commit();
+        return null;
+      }
+    }.handle();
+  }
+}
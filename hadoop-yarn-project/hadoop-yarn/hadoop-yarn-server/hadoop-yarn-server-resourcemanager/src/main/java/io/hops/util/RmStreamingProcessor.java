@@ -15,6 +15,7 @@
  */
 package io.hops.util;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.hops.metadata.yarn.entity.ContainerStatus;
 import io.hops.metadata.yarn.entity.PendingEvent;
@@ -27,8 +28,13 @@
 import io.hops.streaming.PendingEventEvent;
 import io.hops.streaming.ResourceEvent;
 import io.hops.streaming.UpdatedContainerInfoEvent;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.resourcemanager.ClusterMetrics;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeAddedSchedulerEvent;
@@ -36,19 +42,55 @@
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeUpdateSchedulerEvent;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+/**
+ * Replays on the scheduler the heartbeats committed by the resource
+ * trackers. The streamed DB events are drained in batches and assembled
+ * into the components of their pending event. The pending events completed
+ * in a batch are replayed in order. The node updates of a node are
+ * collapsed into one scheduler update per batch, since the scheduler pulls
+ * all the container updates of the node at once. An update still pending
+ * is dispatched before the node is added or removed.
+ *
+ * The pending events still missing components are bounded in number and
+ * age. Above the bounds the oldest are read from the database instead, and
+ * replayed if they are complete there. The rows of the pending events that
+ * cannot be completed are removed.
+ */
 public class RmStreamingProcessor extends StreamingReceiver {
 
   private final ExecutorService exec;
+  private final int batchSize;
+  private final int maxPartialComps;
+  private final long partialCompsTimeout;
+  //the hosts already normalized, only used by the retrieving thread
+  private final Set<String> normalizedHosts = new HashSet<>();
+  private static final int MAX_NORMALIZED_HOSTS = 100000;
 
   public RmStreamingProcessor(RMContext rmContext) {
     super(rmContext, "RM Event retriever");
     setRetrievingRunnable(new RetrievingThread());
-    exec = Executors.newCachedThreadPool();
+    exec = Executors.newSingleThreadExecutor();
+    Configuration conf = rmContext.getYarnConfiguration();
+    batchSize = Math.max(1, conf.getInt(
+            YarnConfiguration.HOPS_EVENT_STREAMING_REPLAY_BATCH_SIZE,
+            YarnConfiguration.DEFAULT_HOPS_EVENT_STREAMING_REPLAY_BATCH_SIZE));
+    maxPartialComps = Math.max(1, conf.getInt(
+            YarnConfiguration.HOPS_EVENT_STREAMING_PARTIAL_MAX,
+            YarnConfiguration.DEFAULT_HOPS_EVENT_STREAMING_PARTIAL_MAX));
+    partialCompsTimeout = conf.getLong(
+            YarnConfiguration.HOPS_EVENT_STREAMING_PARTIAL_TIMEOUT_MS,
+            YarnConfiguration.DEFAULT_HOPS_EVENT_STREAMING_PARTIAL_TIMEOUT_MS);
   }
 
   private void updateRMContext(RMNode rmNode) {
@@ -69,27 +111,39 @@ private void updateRMContext(RMNode rmNode) {
     }
   }
 
-  private void triggerEvent(final RMNode rmNode, PendingEvent pendingEvent) {
+  /**
+   * Triggers the scheduler event of the pending event. The node updates are
+   * added to toUpdate and dispatched at the end of the batch.
+   */
+  private void triggerEvent(final RMNode rmNode, PendingEvent pendingEvent,
+          Map<NodeId, RMNode> toUpdate) {
     if (LOG.isDebugEnabled()) {
       LOG.debug("NodeUpdate event_pending event trigger event: " + pendingEvent.
               getId().getEventId() + " : " + pendingEvent.getId().getNodeId());
     }
 
-    // TODO Maybe we should put back Hops Global Thread pool
-    exec.submit(new Runnable() {
-      @Override
-      public void run() {
-        NetUtils.normalizeHostName(rmNode.getHostName());
-      }
-    });
+    if (normalizedHosts.size() >= MAX_NORMALIZED_HOSTS) {
+      normalizedHosts.clear();
+    }
+    if (normalizedHosts.add(rmNode.getHostName())) {
+      exec.submit(new Runnable() {
+        @Override
+        public void run() {
+          NetUtils.normalizeHostName(rmNode.getHostName());
+        }
+      });
+    }
 
     if (pendingEvent.getType().equals(PendingEvent.Type.NODE_ADDED)) {
       LOG.debug("HOP :: PendingEventRetrieval event NodeAdded: " + pendingEvent);
+      dispatchNodeUpdate(toUpdate.remove(rmNode.getNodeID()));
       rmContext.getDispatcher().getEventHandler().handle(
               new NodeAddedSchedulerEvent(rmNode));
     } else if (pendingEvent.getType().equals(PendingEvent.Type.NODE_REMOVED)) {
       LOG.debug("HOP :: PendingEventRetrieval event NodeRemoved: "
               + pendingEvent);
+      dispatchNodeUpdate(toUpdate.remove(rmNode.getNodeID()));
+      normalizedHosts.remove(rmNode.getHostName());
       rmContext.getDispatcher().getEventHandler().handle(
               new NodeRemovedSchedulerEvent(rmNode));
     } else if (pendingEvent.getType().equals(PendingEvent.Type.NODE_UPDATED)) {
@@ -99,8 +153,7 @@ public void run() {
                 "HOP :: NodeUpdate event - event_scheduler - finished_processing RMNode: "
                 + rmNode.getNodeID() + " pending event: "
                 + pendingEvent.getId().getEventId());
-        rmContext.getDispatcher().getEventHandler().handle(
-                new NodeUpdateSchedulerEvent(rmNode));
+        toUpdate.put(rmNode.getNodeID(), rmNode);
       } else if (pendingEvent.getStatus().equals(
               PendingEvent.Status.SCHEDULER_NOT_FINISHED_PROCESSING)) {
         LOG.debug(
@@ -111,92 +164,233 @@ public void run() {
     }
   }
 
-  Map<PendingEventID, RMNodeComps> partialRMNodeComps = new HashMap<>();
+  private void dispatchNodeUpdate(RMNode rmNode) {
+    if (rmNode != null) {
+      rmContext.getDispatcher().getEventHandler().handle(
+              new NodeUpdateSchedulerEvent(rmNode));
+    }
+  }
+
+  private static class PartialRMNodeComps {
+    private final RMNodeComps comps;
+    private final long since = Time.monotonicNow();
+    private long pendingEventReceived;
+
+    PartialRMNodeComps() {
+      this(new RMNodeComps());
+    }
+
+    PartialRMNodeComps(RMNodeComps comps) {
+      this.comps = comps;
+      this.pendingEventReceived = since;
+    }
+  }
+
+  //the pending events missing components, oldest first
+  private final Map<PendingEventID, PartialRMNodeComps> partialRMNodeComps =
+          new LinkedHashMap<>();
+
+  private PartialRMNodeComps getRMNodeComps(PendingEventID id) {
+    PartialRMNodeComps partial = partialRMNodeComps.get(id);
+    if (partial == null) {
+      partial = new PartialRMNodeComps();
+      partialRMNodeComps.put(id, partial);
+    }
+    return partial;
+  }
+
+  private PartialRMNodeComps addToRMNodeComps(DBEvent event) {
+    PartialRMNodeComps partial;
+    if (event instanceof PendingEventEvent) {
+      PendingEvent pendingEvent = ((PendingEventEvent) event).
+              getPendingEvent();
+      partial = getRMNodeComps(pendingEvent.getId());
+      partial.comps.setPendingEvent(pendingEvent);
+      partial.pendingEventReceived =
+              ((PendingEventEvent) event).getReceivedTime();
+    } else if (event instanceof io.hops.streaming.RMNodeEvent) {
+      io.hops.metadata.yarn.entity.RMNode rmNode
+              = ((io.hops.streaming.RMNodeEvent) event).getRmNode();
+      partial = getRMNodeComps(
+              new PendingEventID(rmNode.getPendingEventId(), rmNode.
+                      getNodeId()));
+      partial.comps.setRMNode(rmNode);
+    } else if (event instanceof ResourceEvent) {
+      Resource resource = ((ResourceEvent) event).getResource();
+      partial = getRMNodeComps(new PendingEventID(resource.
+              getPendingEventId(), resource.getId()));
+      partial.comps.setResource(resource);
+    } else if (event instanceof UpdatedContainerInfoEvent) {
+      UpdatedContainerInfo uci = ((UpdatedContainerInfoEvent) event).
+              getUpdatedContainerInfo();
+      partial = getRMNodeComps(new PendingEventID(uci.getPendingEventId(),
+              uci.getRmnodeid()));
+      partial.comps.addUpdatedContainerInfo(uci);
+    } else if (event instanceof ContainerStatusEvent) {
+      ContainerStatus containerStatus = ((ContainerStatusEvent) event).
+              getContainerStatus();
+      partial = getRMNodeComps(new PendingEventID(containerStatus.
+              getPendingEventId(), containerStatus.getRMNodeId()));
+      partial.comps.addContainersStatus(containerStatus);
+    } else {
+      LOG.error("should not receive events of type " + event.getClass().
+              getCanonicalName());
+      return null;
+    }
+    return partial;
+  }
+
+  /**
+   * Takes out the oldest pending events missing components when there are
+   * too many of them or they waited too long.
+   *
+   * @return the ids of the pending events taken out
+   */
+  private List<PendingEventID> collectPartialRMNodeComps() {
+    long now = Time.monotonicNow();
+    List<PendingEventID> collected = new ArrayList<>();
+    Iterator<Map.Entry<PendingEventID, PartialRMNodeComps>> it =
+            partialRMNodeComps.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<PendingEventID, PartialRMNodeComps> partial = it.next();
+      if (partialRMNodeComps.size() <= maxPartialComps
+              && now - partial.getValue().since < partialCompsTimeout) {
+        break;
+      }
+      it.remove();
+      collected.add(partial.getKey());
+    }
+    return collected;
+  }
 
-  private RMNodeComps getRMNodeComps(PendingEventID id) {
-    RMNodeComps comps = partialRMNodeComps.get(id);
-    if (comps == null) {
-      comps = new RMNodeComps();
-      partialRMNodeComps.put(id, comps);
+  /**
+   * Reads the components of the pending events taken out from the database.
+   * The pending events complete there are added to completed, the rows of
+   * the others are added to toRemove.
+   */
+  private void recoverPartialRMNodeComps(List<PendingEventID> ids,
+          List<PartialRMNodeComps> completed, List<PendingEvent> toRemove) {
+    Map<PendingEventID, RMNodeComps> fetched;
+    try {
+      fetched = fetchRMNodeComps(ids);
+    } catch (IOException ex) {
+      LOG.error("HOP :: Error reading " + ids.size() + " pending events "
+              + "missing components from DB: " + ex, ex);
+      fetched = new HashMap<>();
+    }
+    int recovered = 0;
+    for (PendingEventID id : ids) {
+      RMNodeComps comps = fetched.get(id);
+      if (comps == null) {
+        //already removed, or never committed
+        continue;
+      }
+      if (comps.isComplet()) {
+        completed.add(new PartialRMNodeComps(comps));
+        recovered++;
+      } else {
+        toRemove.add(comps.getPendingEvent());
+      }
+    }
+    int dropped = ids.size() - recovered;
+    LOG.warn("HOP :: " + ids.size() + " pending events were still missing "
+            + "components, recovered " + recovered + " from DB");
+    ClusterMetrics metrics = ClusterMetrics.getMetrics();
+    metrics.incrStreamingRecoveredPendingEvents(recovered);
+    if (dropped > 0) {
+      metrics.incrStreamingDroppedPendingEvents(dropped);
+    }
+  }
+
+  @VisibleForTesting
+  protected Map<PendingEventID, RMNodeComps> fetchRMNodeComps(
+          List<PendingEventID> ids) throws IOException {
+    return DBUtility.getRMNodeComps(new HashSet<>(ids));
+  }
+
+  @VisibleForTesting
+  protected RMNode toSchedulerRMNode(RMNodeComps comps)
+          throws InvalidProtocolBufferException {
+    return DBUtility.processHopRMNodeCompsForScheduler(comps, rmContext);
+  }
+
+  @VisibleForTesting
+  protected void removePendingEvents(List<PendingEvent> pendingEvents)
+          throws IOException {
+    DBUtility.removePendingEvents(pendingEvents);
+  }
+
+  @VisibleForTesting
+  void replay(List<DBEvent> events) {
+    List<PartialRMNodeComps> completed = new ArrayList<>();
+    for (DBEvent event : events) {
+      PartialRMNodeComps partial = addToRMNodeComps(event);
+      if (partial != null && partial.comps.isComplet()) {
+        partialRMNodeComps.remove(partial.comps.getPendingEvent().getId());
+        completed.add(partial);
+      }
+    }
+    List<PendingEvent> toRemove = new ArrayList<>();
+    List<PendingEventID> collected = collectPartialRMNodeComps();
+    if (!collected.isEmpty()) {
+      recoverPartialRMNodeComps(collected, completed, toRemove);
+    }
+    ClusterMetrics metrics = ClusterMetrics.getMetrics();
+    metrics.setStreamingQueueDepth(DBEvent.receivedEvents.size());
+    metrics.setStreamingPartialPendingEvents(partialRMNodeComps.size());
+    if (!rmContext.isDistributed()) {
+      return;
+    }
+
+    Map<NodeId, RMNode> toUpdate = new LinkedHashMap<>();
+    List<Long> received = new ArrayList<>(completed.size());
+    for (PartialRMNodeComps partial : completed) {
+      try {
+        RMNode rmNode = toSchedulerRMNode(partial.comps);
+        LOG.debug("HOP :: RetrievingThread RMNode: " + rmNode);
+
+        if (rmNode != null) {
+          updateRMContext(rmNode);
+          triggerEvent(rmNode, partial.comps.getPendingEvent(), toUpdate);
+        }
+        toRemove.add(partial.comps.getPendingEvent());
+        received.add(partial.pendingEventReceived);
+      } catch (InvalidProtocolBufferException ex) {
+        LOG.error("HOP :: Error retrieving RMNode: " + ex, ex);
+      }
+    }
+    for (RMNode rmNode : toUpdate.values()) {
+      dispatchNodeUpdate(rmNode);
+    }
+
+    long now = Time.monotonicNow();
+    for (long time : received) {
+      metrics.addStreamingReplayLag(now - time);
+    }
+    if (toRemove.isEmpty()) {
+      return;
+    }
+    try {
+      removePendingEvents(toRemove);
+    } catch (IOException ex) {
+      LOG.error("HOP :: Error removing from DB: " + ex, ex);
     }
-    return comps;
   }
 
   private class RetrievingThread implements Runnable {
 
     @Override
     public void run() {
+      List<DBEvent> events = new ArrayList<>(batchSize);
       while (running) {
         try {
-          DBEvent event = DBEvent.receivedEvents.take();
-          RMNodeComps comps;
-          if (event instanceof PendingEventEvent) {
-            PendingEvent pendingEvent = ((PendingEventEvent) event).
-                    getPendingEvent();
-            comps = getRMNodeComps(pendingEvent.getId());
-            comps.setPendingEvent(pendingEvent);
-          } else if (event instanceof io.hops.streaming.RMNodeEvent) {
-            io.hops.metadata.yarn.entity.RMNode rmNode
-                    = ((io.hops.streaming.RMNodeEvent) event).getRmNode();
-            comps = getRMNodeComps(
-                    new PendingEventID(rmNode.getPendingEventId(), rmNode.
-                            getNodeId()));
-            comps.setRMNode(rmNode);
-          } else if (event instanceof ResourceEvent) {
-            Resource resource = ((ResourceEvent) event).getResource();
-            comps = getRMNodeComps(new PendingEventID(resource.
-                    getPendingEventId(), resource.getId()));
-            comps.setResource(resource);
-          } else if (event instanceof UpdatedContainerInfoEvent) {
-            UpdatedContainerInfo uci = ((UpdatedContainerInfoEvent) event).
-                    getUpdatedContainerInfo();
-            comps = getRMNodeComps(new PendingEventID(uci.getPendingEventId(),
-                    uci.getRmnodeid()));
-            comps.addUpdatedContainerInfo(uci);
-          } else if (event instanceof ContainerStatusEvent) {
-            ContainerStatus containerStatus = ((ContainerStatusEvent) event).
-                    getContainerStatus();
-            comps = getRMNodeComps(new PendingEventID(containerStatus.
-                    getPendingEventId(), containerStatus.getRMNodeId()));
-            comps.addContainersStatus(containerStatus);
-          } else {
-            LOG.error("should not receive events of type " + event.getClass().
-                    getCanonicalName());
-            continue;
-          }
-          if (comps.isComplet()) {
-            partialRMNodeComps.remove(comps.getPendingEvent().getId());
-            if (comps != null) {
-              if (rmContext.isDistributed()) {
-
-                RMNode rmNode = null;
-
-                try {
-                  rmNode = DBUtility.processHopRMNodeCompsForScheduler(comps,
-                          rmContext);
-                  LOG.debug("HOP :: RetrievingThread RMNode: " + rmNode);
-
-                  if (rmNode != null) {
-                    updateRMContext(rmNode);
-                    triggerEvent(rmNode, comps.getPendingEvent());
-                  }
-
-                  DBUtility.removePendingEvent(comps.getPendingEvent().getId().
-                          getNodeId(),
-                          comps.getPendingEvent().getType(),
-                          comps.getPendingEvent().getStatus(),
-                          comps.getPendingEvent().getId().getEventId(),
-                          comps.getPendingEvent().getContains());
-                } catch (InvalidProtocolBufferException ex) {
-                  LOG.error("HOP :: Error retrieving RMNode: " + ex, ex);
-                } catch (IOException ex) {
-                  LOG.error("HOP :: Error removing from DB: " + ex, ex);
-                }
-              }
-            }
-          }
+          events.add(DBEvent.receivedEvents.take());
+          DBEvent.receivedEvents.drainTo(events, batchSize - 1);
+          replay(events);
         } catch (InterruptedException ex) {
           LOG.error(ex, ex);
+        } finally {
+          events.clear();
         }
       }
 
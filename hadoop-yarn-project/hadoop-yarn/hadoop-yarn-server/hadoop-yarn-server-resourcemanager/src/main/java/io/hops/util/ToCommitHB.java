@@ -16,31 +16,56 @@
 package io.hops.util;
 
 import io.hops.exception.StorageException;
+import io.hops.metadata.yarn.dal.ContainerIdToCleanDataAccess;
 import io.hops.metadata.yarn.dal.ContainerStatusDataAccess;
+import io.hops.metadata.yarn.dal.ContainerToDecreaseDataAccess;
+import io.hops.metadata.yarn.dal.ContainerToSignalDataAccess;
 import io.hops.metadata.yarn.dal.NextHeartbeatDataAccess;
 import io.hops.metadata.yarn.dal.PendingEventDataAccess;
+import io.hops.metadata.yarn.dal.RMNodeApplicationsDataAccess;
 import io.hops.metadata.yarn.dal.RMNodeDataAccess;
 import io.hops.metadata.yarn.dal.ResourceDataAccess;
 import io.hops.metadata.yarn.dal.UpdatedContainerInfoDataAccess;
 import io.hops.metadata.yarn.dal.util.YARNOperationType;
 import io.hops.metadata.yarn.entity.ContainerStatus;
+import io.hops.metadata.yarn.entity.ContainerToSignal;
 import io.hops.metadata.yarn.entity.NextHeartbeat;
 import io.hops.metadata.yarn.entity.PendingEvent;
 import io.hops.metadata.yarn.entity.RMNode;
+import io.hops.metadata.yarn.entity.RMNodeApplication;
 import io.hops.transaction.handler.AsyncLightWeightRequestHandler;
 import io.hops.transaction.handler.LightWeightRequestHandler;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.hops.transaction.handler.RequestHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.yarn.api.protocolrecords.SignalContainerRequest;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.api.records.NodeState;
 import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.UpdatedContainerInfo;
 
+/**
+ * All the database mutations caused by one event of an RMNode, the
+ * heartbeat of the node manager and the removal of what the heartbeat
+ * response carried to it, are collected here and committed in a single
+ * transaction. If the {@link HeartbeatCommitter} is running the commit is
+ * handed over to it and grouped with the commits of other RMNodes.
+ *
+ * Within the transaction the rows are removed before the rows are added, a
+ * removal of a row added earlier in the same ToCommitHB cancels the
+ * addition, so the result is the one of applying the mutations in order.
+ */
 public class ToCommitHB {
   private static final Log LOG = LogFactory.getLog(ToCommitHB.class);
   private static AtomicInteger nextPendingEventId = new AtomicInteger(0);
@@ -60,6 +85,31 @@ public class ToCommitHB {
   io.hops.metadata.yarn.entity.Resource rmNodeResource = null;
   NextHeartbeat nextHeartBeat = null;
 
+  final Map<String, io.hops.metadata.yarn.entity.ContainerId>
+          containersToCleanToAdd = new LinkedHashMap<>();
+  final Map<String, io.hops.metadata.yarn.entity.ContainerId>
+          containersToCleanToRemove = new LinkedHashMap<>();
+  final Map<String, ContainerToSignal> containersToSignalToAdd
+          = new LinkedHashMap<>();
+  final Map<String, ContainerToSignal> containersToSignalToRemove
+          = new LinkedHashMap<>();
+  final Map<String, io.hops.metadata.yarn.entity.Container>
+          containersToDecreaseToAdd = new LinkedHashMap<>();
+  final Map<String, io.hops.metadata.yarn.entity.Container>
+          containersToDecreaseToRemove = new LinkedHashMap<>();
+  final Map<String, RMNodeApplication> rmNodeApplicationsToAdd
+          = new LinkedHashMap<>();
+  final Map<String, RMNodeApplication> rmNodeApplicationsToRemove
+          = new LinkedHashMap<>();
+  final List<io.hops.metadata.yarn.entity.UpdatedContainerInfo> uciToRemove
+          = new ArrayList<>();
+  final List<ContainerStatus> containerStatusToRemove
+          = new ArrayList<>();
+
+  //set by the HeartbeatCommitter, guarded by this
+  private boolean committed = false;
+  private IOException error;
+
   public ToCommitHB(String nodeId) {
     this.nodeId = nodeId;
     this.pendingEventId = nextPendingEventId.incrementAndGet();
@@ -137,22 +187,168 @@ public void addNextHeartBeat(boolean nextHeartBeat){
     this.nextHeartBeat = new NextHeartbeat(nodeId, nextHeartBeat);
   }
   
+  public void addContainerToClean(ContainerId containerId) {
+    String key = containerId.toString();
+    containersToCleanToAdd.put(key,
+            new io.hops.metadata.yarn.entity.ContainerId(nodeId, key));
+  }
+
+  public void removeContainersToClean(Collection<ContainerId> containers) {
+    for (ContainerId containerId : containers) {
+      String key = containerId.toString();
+      containersToCleanToAdd.remove(key);
+      containersToCleanToRemove.put(key,
+              new io.hops.metadata.yarn.entity.ContainerId(nodeId, key));
+    }
+  }
+
+  public void addContainerToSignal(SignalContainerRequest containerRequest) {
+    String key = containerRequest.getContainerId().toString();
+    containersToSignalToAdd.put(key, new ContainerToSignal(nodeId, key,
+            containerRequest.getCommand().toString()));
+  }
+
+  public void removeContainersToSignal(
+          Collection<SignalContainerRequest> containerRequests) {
+    for (SignalContainerRequest containerRequest : containerRequests) {
+      String key = containerRequest.getContainerId().toString();
+      containersToSignalToAdd.remove(key);
+      containersToSignalToRemove.put(key, new ContainerToSignal(nodeId, key,
+              containerRequest.getCommand().toString()));
+    }
+  }
+
+  public void addContainersToDecrease(Collection<Container> containers) {
+    for (Container container : containers) {
+      containersToDecreaseToAdd.put(container.getId().toString(),
+              toHopContainer(container));
+    }
+  }
+
+  public void removeContainersToDecrease(Collection<Container> containers) {
+    for (Container container : containers) {
+      String key = container.getId().toString();
+      containersToDecreaseToAdd.remove(key);
+      containersToDecreaseToRemove.put(key, toHopContainer(container));
+    }
+  }
+
+  private io.hops.metadata.yarn.entity.Container toHopContainer(
+          Container container) {
+    return new io.hops.metadata.yarn.entity.Container(
+            container.getId().toString(), container.getNodeId().toString(),
+            container.getNodeHttpAddress(),
+            container.getPriority().getPriority(),
+            container.getResource().getMemorySize(),
+            container.getResource().getVirtualCores(),
+            container.getResource().getGPUs(), container.getVersion());
+  }
+
+  public void addRMNodeApplication(ApplicationId appId,
+          RMNodeApplication.RMNodeApplicationStatus status) {
+    rmNodeApplicationsToAdd.put(appId + "_" + status,
+            new RMNodeApplication(nodeId, appId.toString(), status));
+  }
+
+  public void removeRMNodeApplications(Collection<ApplicationId> applications,
+          RMNodeApplication.RMNodeApplicationStatus status) {
+    for (ApplicationId appId : applications) {
+      String key = appId + "_" + status;
+      rmNodeApplicationsToAdd.remove(key);
+      rmNodeApplicationsToRemove.put(key,
+              new RMNodeApplication(nodeId, appId.toString(), status));
+    }
+  }
+
+  public void removeUCI(List<UpdatedContainerInfo> containerInfoList) {
+    for (UpdatedContainerInfo uci : containerInfoList) {
+      if (uci.getNewlyLaunchedContainers() != null) {
+        for (org.apache.hadoop.yarn.api.records.ContainerStatus containerStatus
+                : uci.getNewlyLaunchedContainers()) {
+          removeUCI(containerStatus, uci.getUciId());
+        }
+      }
+      if (uci.getCompletedContainers() != null) {
+        for (org.apache.hadoop.yarn.api.records.ContainerStatus containerStatus
+                : uci.getCompletedContainers()) {
+          removeUCI(containerStatus, uci.getUciId());
+        }
+      }
+    }
+  }
+
+  private void removeUCI(
+          org.apache.hadoop.yarn.api.records.ContainerStatus containerStatus,
+          int uciId) {
+    String containerId = containerStatus.getContainerId().toString();
+    uciToRemove.add(new io.hops.metadata.yarn.entity.UpdatedContainerInfo(
+            nodeId, containerId, uciId));
+    containerStatusToRemove.add(new ContainerStatus(containerId, nodeId,
+            uciId));
+  }
+
+  String getNodeId() {
+    return nodeId;
+  }
+
+  boolean isNodeAdded() {
+    return pendingEventType != null
+            && pendingEventType.equals(PendingEvent.Type.NODE_ADDED);
+  }
+
+  boolean isEmpty() {
+    return pendingEventType == null && nextHeartBeat == null
+            && containersToCleanToAdd.isEmpty()
+            && containersToCleanToRemove.isEmpty()
+            && containersToSignalToAdd.isEmpty()
+            && containersToSignalToRemove.isEmpty()
+            && containersToDecreaseToAdd.isEmpty()
+            && containersToDecreaseToRemove.isEmpty()
+            && rmNodeApplicationsToAdd.isEmpty()
+            && rmNodeApplicationsToRemove.isEmpty()
+            && uciToRemove.isEmpty();
+  }
+
+  synchronized void setCommitted(IOException error) {
+    this.committed = true;
+    this.error = error;
+    notifyAll();
+  }
+
+  synchronized void awaitCommitted() throws IOException {
+    while (!committed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the commit "
+                + "of the heartbeat of " + nodeId);
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
   public void commit() throws IOException {
-    if (pendingEventType == null) {
+    if (isEmpty()) {
+      return;
+    }
+    HeartbeatCommitter committer = HeartbeatCommitter.getInstance();
+    if (committer != null) {
+      committer.commit(this);
       return;
     }
-    final PendingEvent pendingEvent = new PendingEvent(nodeId, pendingEventType,
-            pendingEventStatus, pendingEventId, pendingEventContains);
     RequestHandler handler = null;
 
-    if (pendingEvent.getType().equals(PendingEvent.Type.NODE_ADDED)) {
+    if (isNodeAdded()) {
       handler = new LightWeightRequestHandler(
               YARNOperationType.TEST) {
         @Override
         public Object performTask() throws StorageException {
           connector.beginTransaction();
           connector.writeLock();
-          persistHeartbeat(pendingEvent);
+          persist();
           connector.commit();
           return null;
         }
@@ -164,7 +360,7 @@ public Object performTask() throws StorageException {
         public Object performTask() throws StorageException {
           connector.beginTransaction();
           connector.writeLock();
-          persistHeartbeat(pendingEvent);
+          persist();
           connector.commit();
           return null;
         }
@@ -175,7 +371,10 @@ public Object performTask() throws StorageException {
     handler.handle();
   }
 
-  private void persistHeartbeat(PendingEvent pendingEvent) throws StorageException {
+  /**
+   * Applies the mutations in the transaction of the caller.
+   */
+  void persist() throws StorageException {
     PendingEventDataAccess peDA = (PendingEventDataAccess) RMStorageFactory
             .getDataAccess(PendingEventDataAccess.class);
     NextHeartbeatDataAccess nextHBDA = (NextHeartbeatDataAccess) RMStorageFactory
@@ -189,24 +388,94 @@ private void persistHeartbeat(PendingEvent pendingEvent) throws StorageException
     ResourceDataAccess resourceDA = (ResourceDataAccess) RMStorageFactory
             .getDataAccess(ResourceDataAccess.class);
 
-    peDA.add(pendingEvent);
+    persistRemovals();
 
-    if (pendingEvent.getType().equals(PendingEvent.Type.NODE_ADDED)) {
-      nextHBDA.update(new NextHeartbeat(nodeId, true));
-    }
+    //the rows of the pending event are only written along with it
+    if (pendingEventType != null) {
+      peDA.add(new PendingEvent(nodeId, pendingEventType, pendingEventStatus,
+              pendingEventId, pendingEventContains));
 
-    if (!uciToAdd.isEmpty()) {
-      uciDA.addAll(uciToAdd);
-      contStatDA.addAll(containerStatusToAdd);
-    }
+      if (isNodeAdded()) {
+        nextHBDA.update(new NextHeartbeat(nodeId, true));
+      }
+
+      if (!uciToAdd.isEmpty()) {
+        uciDA.addAll(uciToAdd);
+        contStatDA.addAll(containerStatusToAdd);
+      }
 
-    if (rmNode != null) {
-      rmNodeDA.add(rmNode);
-      resourceDA.add(rmNodeResource);
+      if (rmNode != null) {
+        rmNodeDA.add(rmNode);
+        resourceDA.add(rmNodeResource);
+      }
     }
 
     if (nextHeartBeat != null) {
       nextHBDA.update(nextHeartBeat);
     }
+
+    persistAdditions();
+  }
+
+  private void persistRemovals() throws StorageException {
+    if (!containersToCleanToRemove.isEmpty()) {
+      ContainerIdToCleanDataAccess ctcDA = (ContainerIdToCleanDataAccess)
+              RMStorageFactory.getDataAccess(ContainerIdToCleanDataAccess.class);
+      ctcDA.removeAll(new ArrayList<>(containersToCleanToRemove.values()));
+    }
+    if (!containersToSignalToRemove.isEmpty()) {
+      ContainerToSignalDataAccess ctsDA = (ContainerToSignalDataAccess)
+              RMStorageFactory.getDataAccess(ContainerToSignalDataAccess.class);
+      ctsDA.removeAll(new ArrayList<>(containersToSignalToRemove.values()));
+    }
+    if (!containersToDecreaseToRemove.isEmpty()) {
+      ContainerToDecreaseDataAccess ctdDA = (ContainerToDecreaseDataAccess)
+              RMStorageFactory.getDataAccess(ContainerToDecreaseDataAccess.class);
+      ctdDA.removeAll(new ArrayList<>(containersToDecreaseToRemove.values()));
+    }
+    if (!rmNodeApplicationsToRemove.isEmpty()) {
+      RMNodeApplicationsDataAccess faDA = (RMNodeApplicationsDataAccess)
+              RMStorageFactory.getDataAccess(RMNodeApplicationsDataAccess.class);
+      faDA.removeAll(new ArrayList<>(rmNodeApplicationsToRemove.values()));
+    }
+    if (!uciToRemove.isEmpty()) {
+      UpdatedContainerInfoDataAccess uciDA = (UpdatedContainerInfoDataAccess)
+              RMStorageFactory.getDataAccess(UpdatedContainerInfoDataAccess.class);
+      uciDA.removeAll(uciToRemove);
+      ContainerStatusDataAccess csDA = (ContainerStatusDataAccess)
+              RMStorageFactory.getDataAccess(ContainerStatusDataAccess.class);
+      csDA.removeAll(containerStatusToRemove);
+    }
+  }
+
+  private void persistAdditions() throws StorageException {
+    if (!containersToCleanToAdd.isEmpty()) {
+      ContainerIdToCleanDataAccess ctcDA = (ContainerIdToCleanDataAccess)
+              RMStorageFactory.getDataAccess(ContainerIdToCleanDataAccess.class);
+      for (io.hops.metadata.yarn.entity.ContainerId containerId
+              : containersToCleanToAdd.values()) {
+        ctcDA.add(containerId);
+      }
+    }
+    if (!containersToSignalToAdd.isEmpty()) {
+      ContainerToSignalDataAccess ctsDA = (ContainerToSignalDataAccess)
+              RMStorageFactory.getDataAccess(ContainerToSignalDataAccess.class);
+      for (ContainerToSignal containerToSignal
+              : containersToSignalToAdd.values()) {
+        ctsDA.add(containerToSignal);
+      }
+    }
+    if (!containersToDecreaseToAdd.isEmpty()) {
+      ContainerToDecreaseDataAccess ctdDA = (ContainerToDecreaseDataAccess)
+              RMStorageFactory.getDataAccess(ContainerToDecreaseDataAccess.class);
+      ctdDA.addAll(new ArrayList<>(containersToDecreaseToAdd.values()));
+    }
+    if (!rmNodeApplicationsToAdd.isEmpty()) {
+      RMNodeApplicationsDataAccess faDA = (RMNodeApplicationsDataAccess)
+              RMStorageFactory.getDataAccess(RMNodeApplicationsDataAccess.class);
+      for (RMNodeApplication rmNodeApp : rmNodeApplicationsToAdd.values()) {
+        faDA.add(rmNodeApp);
+      }
+    }
   }
 }
@@ -29,6 +29,7 @@
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import com.google.common.annotations.VisibleForTesting;
@@ -48,6 +49,15 @@ public class ClusterMetrics {
   @Metric("# of Shutdown NMs") MutableGaugeInt numShutdownNMs;
   @Metric("AM container launch delay") MutableRate aMLaunchDelay;
   @Metric("AM register delay") MutableRate aMRegisterDelay;
+  @Metric("# of streamed DB events waiting to be replayed")
+  MutableGaugeInt streamingQueueDepth;
+  @Metric("# of streamed pending events missing components")
+  MutableGaugeInt streamingPartialPendingEvents;
+  @Metric("# of incomplete streamed pending events dropped")
+  MutableCounterLong streamingDroppedPendingEvents;
+  @Metric("# of incomplete streamed pending events recovered from the DB")
+  MutableCounterLong streamingRecoveredPendingEvents;
+  @Metric("Streamed pending event replay lag") MutableRate streamingReplayLag;
 
   private static final MetricsInfo RECORD_INFO = info("ClusterMetrics",
   "Metrics for the Yarn Cluster");
@@ -190,4 +200,40 @@ public void addAMRegisterDelay(long delay) {
     aMRegisterDelay.add(delay);
   }
 
+  public void setStreamingQueueDepth(int depth) {
+    streamingQueueDepth.set(depth);
+  }
+
+  public int getStreamingQueueDepth() {
+    return streamingQueueDepth.value();
+  }
+
+  public void setStreamingPartialPendingEvents(int num) {
+    streamingPartialPendingEvents.set(num);
+  }
+
+  public int getStreamingPartialPendingEvents() {
+    return streamingPartialPendingEvents.value();
+  }
+
+  public void incrStreamingDroppedPendingEvents(int num) {
+    streamingDroppedPendingEvents.incr(num);
+  }
+
+  public long getStreamingDroppedPendingEvents() {
+    return streamingDroppedPendingEvents.value();
+  }
+
+  public void incrStreamingRecoveredPendingEvents(int num) {
+    streamingRecoveredPendingEvents.incr(num);
+  }
+
+  public long getStreamingRecoveredPendingEvents() {
+    return streamingRecoveredPendingEvents.value();
+  }
+
+  public void addStreamingReplayLag(long lag) {
+    streamingReplayLag.add(lag);
+  }
+
 }
@@ -663,6 +663,7 @@ protected void serviceStart() throws Exception {
       pauseMonitor.start();
 
       if (rmContext.isDistributed()) {
+        HeartbeatCommitter.start(conf);
         if (!rmContext.isLeader()) {
           LOG.info("streaming processor is starting for resource tracker");
           RMStorageFactory.kickEventStreamingAPI(false, conf);
@@ -703,6 +704,7 @@ protected void serviceStop() throws Exception {
         streamingReceiver.stop();
         RMStorageFactory.stopEventStreamingAPI();
       }
+      HeartbeatCommitter.stop();
       super.serviceStop();
     }
   }
@@ -67,6 +67,10 @@ public class ContainersLogsService extends CompositeService {
 
   Map<String, ContainerLog> activeContainers
           = new HashMap<>();
+  // Active containers by checkpoint slot, a container being checkpointed
+  // on the ticks where tick % checkpointInterval equals its slot. A tick
+  // only visits the containers of its own slot.
+  List<Map<String, ContainerLog>> checkpointSlots;
   Map<String, ContainerLog> updateContainers = new HashMap<>();
   LinkedBlockingQueue<ContainerStatus> eventContainers
           = new LinkedBlockingQueue<>();
@@ -100,6 +104,11 @@ public void serviceInit(Configuration conf) throws Exception {
             YarnConfiguration.DEFAULT_QUOTA_CONTAINERS_LOGS_CHECKPOINTS_MINTICKS)
             * this.conf.getInt(YarnConfiguration.QUOTA_MIN_TICKS_CHARGE,
                     YarnConfiguration.DEFAULT_QUOTA_MIN_TICKS_CHARGE);
+    this.checkpointInterval = Math.max(1, this.checkpointInterval);
+    checkpointSlots = new ArrayList<>(checkpointInterval);
+    for (int i = 0; i < checkpointInterval; i++) {
+      checkpointSlots.add(new HashMap<String, ContainerLog>());
+    }
     
     this.multiplicatorPeirod = this.conf.getLong(
             YarnConfiguration.QUOTA_FIXED_MULTIPLICATOR_PERIOD,
@@ -174,12 +183,22 @@ public synchronized void setCurrentPrices(Map<PriceMultiplicator.MultiplicatorTy
    */
   private List<ContainerStatus> getLatestEvents() {
     List<ContainerStatus> oldEvents = new ArrayList<>();
+    eventContainers.drainTo(oldEvents);
+    return oldEvents;
+  }
 
-    while (!eventContainers.isEmpty()) {
-      oldEvents.add(eventContainers.poll());
-    }
+  private Map<String, ContainerLog> getCheckpointSlot(long start) {
+    return checkpointSlots.get((int) (start % checkpointInterval));
+  }
 
-    return oldEvents;
+  private void addActiveContainer(ContainerLog cl) {
+    activeContainers.put(cl.getContainerid(), cl);
+    getCheckpointSlot(cl.getStart()).put(cl.getContainerid(), cl);
+  }
+
+  private void removeActiveContainer(ContainerLog cl) {
+    activeContainers.remove(cl.getContainerid());
+    getCheckpointSlot(cl.getStart()).remove(cl.getContainerid());
   }
 
   /**
@@ -220,6 +239,9 @@ private void finishLogging(){
       updateContainers.put(log.getContainerId(), log);
     }
     activeContainers.clear();
+    for (Map<String, ContainerLog> slot : checkpointSlots) {
+      slot.clear();
+    }
   }
   
   private synchronized void checkEventContainerStatuses(
@@ -259,14 +281,14 @@ private synchronized void checkEventContainerStatuses(
           cl.setExitstatus(ContainerExitStatus.UNKNOWN_CONTAINER_EXIT);
         }
 
-        activeContainers.put(cl.getContainerid(), cl);
+        addActiveContainer(cl);
         updatable = true;
       }
 
       if (cs.getState().equals(ContainerState.COMPLETE.toString())) {
         cl.setStop(tickCounter.getValue());
         cl.setExitstatus(cs.getExitstatus());
-        activeContainers.remove(cl.getContainerid());
+        removeActiveContainer(cl);
         updatable = true;
       }
 
@@ -314,7 +336,15 @@ public Object performTask() throws StorageException {
 
       QuotaService quotaService = rMContext.getQuotaService();
       if (quotaService != null) {
-        quotaService.insertEvents(updateContainers.values());
+        //the active logs keep changing on the next ticks, the quota service
+        //charges a copy of the changes of this tick
+        List<ContainerLog> changes = new ArrayList<>(updateContainers.size());
+        for (ContainerLog log : updateContainers.values()) {
+          changes.add(new ContainerLog(log.getContainerid(), log.getStart(),
+                  log.getStop(), log.getExitstatus(), log.getMultiplicator(),
+                  log.getNbVcores(), log.getMemoryUsed(), log.getGpuUsed()));
+        }
+        quotaService.insertEvents(changes);
       }
       updateContainers.clear();
 
@@ -423,28 +453,27 @@ public Object performTask() throws StorageException {
             handle();
   }
 
-//TODO optimisation
   /**
-   * Loop active list and add all found & not completed container statuses to
-   * update list. This ensures that whole running time is not lost.
+   * Add the active containers due for a checkpoint on this tick to update
+   * list. This ensures that whole running time is not lost. Only the
+   * checkpoint slot of the tick is visited, so the cost of a tick follows the
+   * number of checkpoints it writes and not the number of active containers.
    */
   private synchronized void createCheckpoint() {
     long tick = tickCounter.getValue();
-    for (ContainerLog log : activeContainers.values()) {
-      if ((tick - log.getStart()) % checkpointInterval == 0) {
-        log.setStop(tickCounter.getValue());
-        if (((tick - log.getStart()) / checkpointInterval) % multiplicatorPeirod == 0) {
-          float currentMultiplicator;
-          if (log.getGpuUsed() != 0) {
-            currentMultiplicator = currentMultiplicators.get(PriceMultiplicator.MultiplicatorType.GPU);
-          } else {
-            currentMultiplicator = currentMultiplicators.get(PriceMultiplicator.MultiplicatorType.GENERAL);
-          }
-          log.setPrice(currentMultiplicator);
+    for (ContainerLog log : getCheckpointSlot(tick).values()) {
+      log.setStop(tickCounter.getValue());
+      if (((tick - log.getStart()) / checkpointInterval) % multiplicatorPeirod == 0) {
+        float currentMultiplicator;
+        if (log.getGpuUsed() != 0) {
+          currentMultiplicator = currentMultiplicators.get(PriceMultiplicator.MultiplicatorType.GPU);
+        } else {
+          currentMultiplicator = currentMultiplicators.get(PriceMultiplicator.MultiplicatorType.GENERAL);
         }
-
-        updateContainers.put(log.getContainerid(), log);
+        log.setPrice(currentMultiplicator);
       }
+
+      updateContainers.put(log.getContainerid(), log);
     }
   }
 
@@ -183,11 +183,12 @@ private void computeAndApplyChargeInt(
     ProjectQuotaDataAccess pqDA
             = (ProjectQuotaDataAccess) RMStorageFactory.getDataAccess(
                     ProjectQuotaDataAccess.class);
-    Map<String, ProjectQuota> projectsQuotaMap = pqDA.getAll();
     final long curentDay = TimeUnit.DAYS.convert(System.currentTimeMillis(),
             TimeUnit.MILLISECONDS);
-    Map<String, ProjectQuota> chargedProjects = new HashMap<>();
-    Map<ProjectDailyId, ProjectDailyCost> chargedProjectsDailyCost
+    // Charges of the batch, summed per project and per project, user and
+    // application before being applied once to each row
+    Map<String, Charge> projectsCharge = new HashMap<>();
+    Map<ProjectDailyId, Map<String, Charge>> projectsDailyCharge
             = new HashMap<>();
 
     List<ContainerLog> toBeRemovedContainersLogs
@@ -269,11 +270,8 @@ private void computeAndApplyChargeInt(
 
           float charge = computeCharge(nbRunningTicks, currentMultiplicator, containerLog.getNbVcores(), containerLog.
               getMemoryUsed(), containerLog.getGpuUsed());
-          chargeProjectQuota(chargedProjects, projectsQuotaMap,
-                  projectName, user, containerLog.getContainerid(), charge);
-          //** ProjectDailyCost charging**
-          chargeProjectDailyCost(chargedProjectsDailyCost, projectName,
-                  user, curentDay, charge, 
+          accumulateCharge(projectsCharge, projectsDailyCharge, projectName,
+                  user, curentDay, containerLog.getContainerid(), charge,
                   containerId.getApplicationAttemptId().getApplicationId());
 
         } else {
@@ -291,12 +289,9 @@ private void computeAndApplyChargeInt(
                   + currentMultiplicator);
           float charge = computeCharge(nbRunningTicks, currentMultiplicator, containerLog.getNbVcores(), containerLog.
               getMemoryUsed(), containerLog.getGpuUsed());
-          chargeProjectQuota(chargedProjects, projectsQuotaMap,
-                  projectName, user, containerLog.getContainerid(), charge);
-
-          //** ProjectDailyCost charging**
-          chargeProjectDailyCost(chargedProjectsDailyCost, projectName,
-                  user, curentDay, charge, containerId.getApplicationAttemptId().getApplicationId());
+          accumulateCharge(projectsCharge, projectsDailyCharge, projectName,
+                  user, curentDay, containerLog.getContainerid(), charge,
+                  containerId.getApplicationAttemptId().getApplicationId());
         }
       } else {
         if (checkpoint == containerLog.getStart() && 
@@ -329,6 +324,30 @@ private void computeAndApplyChargeInt(
     ccpDA.addAll(toBePercistedContainerCheckPoint);
     ccpDA.removeAll(toBeRemovedContainerCheckPoint);
 
+    if (projectsCharge.isEmpty()) {
+      return;
+    }
+
+    //** ProjectQuota charging**
+    Map<String, ProjectQuota> projectsQuotaMap = pqDA.getAll();
+    Map<String, ProjectQuota> chargedProjects = new HashMap<>();
+    for (Map.Entry<String, Charge> charge : projectsCharge.entrySet()) {
+      chargeProjectQuota(chargedProjects, projectsQuotaMap, charge.getKey(),
+              charge.getValue().amount);
+    }
+
+    //** ProjectDailyCost charging**
+    Map<ProjectDailyId, ProjectDailyCost> chargedProjectsDailyCost
+            = new HashMap<>();
+    for (Map.Entry<ProjectDailyId, Map<String, Charge>> dailyCharge
+            : projectsDailyCharge.entrySet()) {
+      for (Map.Entry<String, Charge> appCharge : dailyCharge.getValue().
+              entrySet()) {
+        chargeProjectDailyCost(chargedProjectsDailyCost, dailyCharge.getKey(),
+                appCharge.getValue());
+      }
+    }
+
     if (LOG.isDebugEnabled()) {
       // Show all charged project
       for (ProjectQuota _cpq : chargedProjects.values()) {
@@ -348,13 +367,65 @@ private void computeAndApplyChargeInt(
   Map<ProjectDailyId, ProjectDailyCost> projectsDailyCostCache;
   long cashDay = -1;
 
+  /**
+   * Charge accumulated for a project, or for a project, user and application
+   * on a day, over a batch of containers logs.
+   */
+  private static class Charge {
+
+    private final String projectid;
+    private final String user;
+    private final long day;
+    private final String appId;
+    private float amount;
+
+    Charge(String projectid, String user, long day, String appId) {
+      this.projectid = projectid;
+      this.user = user;
+      this.day = day;
+      this.appId = appId;
+    }
+  }
+
+  private void accumulateCharge(Map<String, Charge> projectsCharge,
+          Map<ProjectDailyId, Map<String, Charge>> projectsDailyCharge,
+          String projectid, String user, long day, String containerId,
+          float charge, ApplicationId appId) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Quota: project " + projectid + " user " + user
+              + " has been charged " + charge + " for container: "
+              + containerId + " on day: " + day);
+    }
+
+    Charge projectCharge = projectsCharge.get(projectid);
+    if (projectCharge == null) {
+      projectCharge = new Charge(projectid, null, day, null);
+      projectsCharge.put(projectid, projectCharge);
+    }
+    projectCharge.amount += charge;
+
+    ProjectDailyId key = new ProjectDailyId(projectid, user, day);
+    Map<String, Charge> appsCharge = projectsDailyCharge.get(key);
+    if (appsCharge == null) {
+      appsCharge = new HashMap<>();
+      projectsDailyCharge.put(key, appsCharge);
+    }
+    Charge appCharge = appsCharge.get(appId.toString());
+    if (appCharge == null) {
+      appCharge = new Charge(projectid, user, day, appId.toString());
+      appsCharge.put(appId.toString(), appCharge);
+    }
+    appCharge.amount += charge;
+  }
+
   private void chargeProjectQuota(
           Map<String, ProjectQuota> chargedProjectsQuota,
           Map<String, ProjectQuota> projectsQuotaMap,
-          String projectid, String user, String containerId, float charge) {
+          String projectid, float charge) {
 
-    LOG.info("Quota: project " + projectid + " user " + user
-            + " has been charged " + charge + " for container: " + containerId);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Quota: project " + projectid + " has been charged " + charge);
+    }
 
     ProjectQuota projectQuota
             = (ProjectQuota) projectsQuotaMap.get(projectid);
@@ -369,24 +440,24 @@ private void chargeProjectQuota(
 
   private void chargeProjectDailyCost(
           Map<ProjectDailyId, ProjectDailyCost> chargedProjectsDailyCost,
-          String projectid, String user, long day, float charge, ApplicationId appId) {
+          ProjectDailyId key, Charge charge) {
 
-    LOG.debug("Quota: project " + projectid + " user " + user + " has used "
-            + charge + " credits, on day: " + day);
-    if (cashDay != day) {
+    LOG.debug("Quota: project " + charge.projectid + " user " + charge.user
+            + " has used " + charge.amount + " credits, on day: " + charge.day);
+    if (cashDay != charge.day) {
       projectsDailyCostCache = new HashMap<>();
-      cashDay = day;
+      cashDay = charge.day;
     }
 
-    ProjectDailyId key = new ProjectDailyId(projectid, user, day);
     ProjectDailyCost projectDailyCost = projectsDailyCostCache.get(key);
 
     if (projectDailyCost == null) {
-      projectDailyCost = new ProjectDailyCost(projectid, user, day, 0, appId.toString());
+      projectDailyCost = new ProjectDailyCost(charge.projectid, charge.user,
+              charge.day, 0, charge.appId);
       projectsDailyCostCache.put(key, projectDailyCost);
     }
 
-    projectDailyCost.incrementCharge(charge, appId.toString());
+    projectDailyCost.incrementCharge(charge.amount, charge.appId);
 
     chargedProjectsDailyCost.put(key, projectDailyCost);
 
@@ -19,7 +19,6 @@
 
 import io.hops.metadata.yarn.entity.PendingEvent;
 import io.hops.metadata.yarn.entity.RMNodeApplication;
-import io.hops.util.DBUtility;
 import io.hops.util.ToCommitHB;
 import java.io.IOException;
 import java.util.*;
@@ -257,34 +256,15 @@ public void updateNodeHeartbeatResponseForCleanup(
       response.addContainersToBeRemovedFromNM(
               new ArrayList<ContainerId>(this.containersToBeRemovedFromNM));
       response.addAllContainersToSignal(this.containersToSignal);
-      // We need to make a deep copy of containersToClean and finishedApplications
-      // since DBUtility is async and we get ConcurrentModificationException
-      Set<ContainerId> copyContainersToClean = new HashSet<>(this.containersToClean.size());
-      for (ContainerId cid : this.containersToClean) {
-        copyContainersToClean.add(ContainerId.newContainerId(cid.getApplicationAttemptId(),
-                cid.getContainerId()));
-      }
-      Set<SignalContainerRequest> copyContainersToSignal = new HashSet<>(this.containersToSignal.size());
-      for (SignalContainerRequest signalContainerRequest : this.containersToSignal) {
-        copyContainersToSignal.add(SignalContainerRequest.newInstance(signalContainerRequest.getContainerId(),
-            signalContainerRequest.getCommand()));
-      }
-      DBUtility.removeContainersToClean(copyContainersToClean, this.nodeId);
-      DBUtility.removeContainersToSignal(copyContainersToSignal, this.nodeId);
-      
-      List<ApplicationId> copyFinishedApplications = new ArrayList<>(this.finishedApplications.size());
-      for (ApplicationId appId : this.finishedApplications) {
-        copyFinishedApplications.add(ApplicationId.newInstance(appId.getClusterTimestamp(),
-                appId.getId()));
-      }
-      DBUtility.removeRMNodeApplications(copyFinishedApplications, this.nodeId,
+      // The removals are committed with the status update of this heartbeat
+      toCommit.removeContainersToClean(this.containersToClean);
+      toCommit.removeContainersToSignal(this.containersToSignal);
+      toCommit.removeRMNodeApplications(this.finishedApplications,
           RMNodeApplication.RMNodeApplicationStatus.FINISHED);
       this.containersToClean.clear();
       this.containersToSignal.clear();
       this.finishedApplications.clear();
       this.containersToBeRemovedFromNM.clear();
-    } catch (IOException ex) {
-      LOG.error(ex, ex);
     } finally {
       this.writeLock.unlock();
     }
@@ -297,11 +277,7 @@ public void updateNodeHeartbeatResponseForContainersDecreasing(
     
     try {
       response.addAllContainersToDecrease(toBeDecreasedContainers.values());
-      try{
-        DBUtility.removeContainersToDecrease(toBeDecreasedContainers.values());
-      }catch(IOException ex){
-        LOG.error(ex, ex);
-      }
+      toCommit.removeContainersToDecrease(toBeDecreasedContainers.values());
       toBeDecreasedContainers.clear();
     } finally {
       this.writeLock.unlock();
@@ -320,21 +296,13 @@ protected void handleRunningAppOnNode(RMNodeImpl rmNode,
               + ", just added it to finishedApplications list for cleanup");
       rmNode.finishedApplications.add(appId);
       rmNode.runningApplications.remove(appId);
-      try {
-        DBUtility.addRMNodeApplication(appId, rmNode.nodeId, RMNodeApplication.RMNodeApplicationStatus.FINISHED);
-        DBUtility.removeRMNodeApplication(appId, rmNode.nodeId, RMNodeApplication.RMNodeApplicationStatus.RUNNING);
-      } catch (IOException ex) {
-        LOG.error(ex, ex);
-      }
+      finishRMNodeApplication(appId);
       return;
     }
 
     rmNode.runningApplications.add(appId);
-    try {
-      DBUtility.addRMNodeApplication(appId, rmNode.nodeId, RMNodeApplication.RMNodeApplicationStatus.RUNNING);
-    } catch (IOException ex) {
-      LOG.error(ex, ex);
-    }
+    toCommit.addRMNodeApplication(appId,
+        RMNodeApplication.RMNodeApplicationStatus.RUNNING);
     context.getDispatcher().getEventHandler()
             .handle(new RMAppRunningOnNodeEvent(appId, nodeId));
   }
@@ -345,12 +313,14 @@ protected void cleanUpAppTransitionInternal(RMNodeImpl rmNode,
     ApplicationId appId = ((RMNodeCleanAppEvent) event).getAppId();
     rmNode.finishedApplications.add(appId);
     rmNode.runningApplications.remove(appId);
-    try {
-      DBUtility.addRMNodeApplication(appId, rmNode.nodeId, RMNodeApplication.RMNodeApplicationStatus.FINISHED);
-      DBUtility.removeRMNodeApplication(appId, rmNode.nodeId, RMNodeApplication.RMNodeApplicationStatus.RUNNING);
-    } catch (IOException ex) {
-      LOG.error(ex, ex);
-    }
+    finishRMNodeApplication(appId);
+  }
+
+  private void finishRMNodeApplication(ApplicationId appId) {
+    toCommit.removeRMNodeApplications(Collections.singletonList(appId),
+        RMNodeApplication.RMNodeApplicationStatus.RUNNING);
+    toCommit.addRMNodeApplication(appId,
+        RMNodeApplication.RMNodeApplicationStatus.FINISHED);
   }
 
   @Override
@@ -365,28 +335,27 @@ protected void cleanUpContainerTransitionInternal(RMNodeImpl rmNode,
     context.getContainersLogsService().insertEvent(containerToLog);
     rmNode.containersToClean.add(((RMNodeCleanContainerEvent) event).
             getContainerId());
-    try {
-      DBUtility.addContainerToClean(((RMNodeCleanContainerEvent) event).
-              getContainerId(), rmNode.getNodeID());
-    } catch (IOException ex) {
-      LOG.error(ex, ex);
-    }
+    toCommit.addContainerToClean(((RMNodeCleanContainerEvent) event).
+            getContainerId());
   }
 
   @Override
   protected List<UpdatedContainerInfo> pullContainerUpdatesInternal() {
     List<UpdatedContainerInfo> latestContainerInfoList
             = new ArrayList<UpdatedContainerInfo>();
+    writeLock.lock();
     try {
       UpdatedContainerInfo containerInfo;
       while ((containerInfo = nodeUpdateQueue.poll()) != null) {
         latestContainerInfoList.add(containerInfo);
       }
-      DBUtility.removeUCI(latestContainerInfoList, this.nodeId.toString());
+      toCommit.removeUCI(latestContainerInfoList);
       this.nextHeartBeat = true;
-      DBUtility.addNextHB(this.nextHeartBeat, this.nodeId.toString());
-    } catch (IOException ex) {
-      LOG.error(ex, ex);
+      toCommit.addNextHeartBeat(this.nextHeartBeat);
+      // Not part of a heartbeat of the node, commit right away
+      commit();
+    } finally {
+      writeLock.unlock();
     }
     return latestContainerInfoList;
   }
@@ -635,11 +604,7 @@ protected void decreaseContainersInt(RMNodeImpl rmNode, RMNodeDecreaseContainerE
     for (Container c : de.getToBeDecreasedContainers()) {
       rmNode.toBeDecreasedContainers.put(c.getId(), c);
     }
-    try{
-      DBUtility.addContainersToDecrease(de.getToBeDecreasedContainers());
-    }catch(IOException ex){
-      LOG.error(ex, ex);
-    }
+    toCommit.addContainersToDecrease(de.getToBeDecreasedContainers());
   }
   
   @Override
@@ -743,11 +708,7 @@ protected NodeState statusUpdateWhenUnHealthyTransitionInternal(
 
   @Override
   protected void signalContainerInt(RMNodeImpl rmNode, RMNodeEvent event) {
-    try{
-      DBUtility.addContainerToSignal(((RMNodeSignalContainerEvent) event).getSignalRequest(), this.nodeId);
-    }catch(IOException ex){
-      LOG.error(ex, ex);
-    }
+    toCommit.addContainerToSignal(((RMNodeSignalContainerEvent) event).getSignalRequest());
     rmNode.containersToSignal.add(((RMNodeSignalContainerEvent) event).getSignalRequest());
   }
       
@@ -770,14 +731,22 @@ public void handle(RMNodeEvent event) {
                 nodeManagerVersion, getState(), getHealthReport(),
                 getLastHealthReportTime());
       }
-      try {
-        toCommit.commit();
-        toCommit = new ToCommitHB(this.nodeId.toString());
-      } catch (IOException ex) {
-        LOG.error(ex, ex);
-      }
+      commit();
     } finally {
       writeLock.unlock();
     }
   }
+
+  /**
+   * Commits all the database mutations collected since the last commit in
+   * one transaction. Called holding the write lock.
+   */
+  private void commit() {
+    try {
+      toCommit.commit();
+      toCommit = new ToCommitHB(this.nodeId.toString());
+    } catch (IOException ex) {
+      LOG.error(ex, ex);
+    }
+  }
 }
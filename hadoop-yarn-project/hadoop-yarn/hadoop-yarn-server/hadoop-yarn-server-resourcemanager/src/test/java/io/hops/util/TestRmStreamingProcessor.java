@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.util;
+
+import io.hops.metadata.yarn.entity.PendingEvent;
+import io.hops.metadata.yarn.entity.PendingEventID;
+import io.hops.metadata.yarn.entity.RMNodeComps;
+import io.hops.metadata.yarn.entity.Resource;
+import io.hops.streaming.DBEvent;
+import io.hops.streaming.PendingEventEvent;
+import io.hops.streaming.RMNodeEvent;
+import io.hops.streaming.ResourceEvent;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.event.Dispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.server.resourcemanager.ClusterMetrics;
+import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
+import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeRemovedSchedulerEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeUpdateSchedulerEvent;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRmStreamingProcessor {
+
+  private static final String NODE1 = "host1:1234";
+  private static final String NODE2 = "host2:1234";
+
+  private Configuration conf;
+  private RMContext rmContext;
+  private final List<Event> dispatched = new ArrayList<>();
+
+  /**
+   * Replays on mocked RMNodes and records the pending events it removes
+   * instead of going to the database.
+   */
+  private class TestProcessor extends RmStreamingProcessor {
+    private final List<PendingEvent> removed = new ArrayList<>();
+    private final Map<PendingEventID, RMNodeComps> inDB = new HashMap<>();
+    private final List<PendingEventID> fetched = new ArrayList<>();
+
+    TestProcessor() {
+      super(rmContext);
+    }
+
+    @Override
+    protected Map<PendingEventID, RMNodeComps> fetchRMNodeComps(
+            List<PendingEventID> ids) throws IOException {
+      fetched.addAll(ids);
+      Map<PendingEventID, RMNodeComps> comps = new HashMap<>();
+      for (PendingEventID id : ids) {
+        if (inDB.containsKey(id)) {
+          comps.put(id, inDB.get(id));
+        }
+      }
+      return comps;
+    }
+
+    @Override
+    protected RMNode toSchedulerRMNode(RMNodeComps comps) {
+      NodeId nodeId = ConverterUtils.toNodeId(comps.getRMNodeId());
+      RMNode rmNode = rmContext.getRMNodes().get(nodeId);
+      if (rmNode == null) {
+        rmNode = Mockito.mock(RMNode.class);
+        Mockito.when(rmNode.getNodeID()).thenReturn(nodeId);
+        Mockito.when(rmNode.getHostName()).thenReturn(nodeId.getHost());
+        Mockito.when(rmNode.getState()).thenReturn(NodeState.RUNNING);
+      }
+      return rmNode;
+    }
+
+    @Override
+    protected void removePendingEvents(List<PendingEvent> pendingEvents) {
+      removed.addAll(pendingEvents);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    conf = new YarnConfiguration();
+    dispatched.clear();
+    rmContext = Mockito.mock(RMContext.class);
+    Mockito.when(rmContext.getYarnConfiguration()).thenAnswer(
+            new Answer<Configuration>() {
+              @Override
+              public Configuration answer(InvocationOnMock invocation) {
+                return conf;
+              }
+            });
+    Mockito.when(rmContext.isDistributed()).thenReturn(true);
+    Mockito.when(rmContext.getRMNodes()).thenReturn(
+            new ConcurrentHashMap<NodeId, RMNode>());
+    Mockito.when(rmContext.getInactiveRMNodes()).thenReturn(
+            new ConcurrentHashMap<NodeId, RMNode>());
+    Dispatcher dispatcher = Mockito.mock(Dispatcher.class);
+    Mockito.when(dispatcher.getEventHandler()).thenReturn(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        dispatched.add(event);
+      }
+    });
+    Mockito.when(rmContext.getDispatcher()).thenReturn(dispatcher);
+  }
+
+  private static List<DBEvent> heartbeat(String nodeId, int eventId,
+          PendingEvent.Type type) {
+    List<DBEvent> events = new ArrayList<>();
+    events.add(new PendingEventEvent(eventId, nodeId, type.name(),
+            PendingEvent.Status.SCHEDULER_FINISHED_PROCESSING.name(), 3));
+    events.addAll(components(nodeId, eventId));
+    return events;
+  }
+
+  private static List<DBEvent> components(String nodeId, int eventId) {
+    return Arrays.<DBEvent>asList(
+            new RMNodeEvent(nodeId, nodeId.split(":")[0], 1234, 8042,
+                    "healthy", 0, NodeState.RUNNING.name(), "2.8", eventId),
+            new ResourceEvent(nodeId, 1024, 1, 0, eventId));
+  }
+
+  private static RMNodeComps completeComps(String nodeId, int eventId) {
+    RMNodeComps comps = new RMNodeComps();
+    comps.setPendingEvent(new PendingEvent(nodeId,
+            PendingEvent.Type.NODE_UPDATED,
+            PendingEvent.Status.SCHEDULER_FINISHED_PROCESSING, eventId, 3));
+    comps.setRMNode(new io.hops.metadata.yarn.entity.RMNode(nodeId,
+            nodeId.split(":")[0], 1234, 8042, "healthy", 0,
+            NodeState.RUNNING.name(), "2.8", eventId));
+    comps.setResource(new Resource(nodeId, 1024, 1, 0, eventId));
+    return comps;
+  }
+
+  private int count(Class<? extends Event> type) {
+    int count = 0;
+    for (Event event : dispatched) {
+      if (type.isInstance(event)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testNodeUpdatesCollapsed() {
+    TestProcessor processor = new TestProcessor();
+    List<DBEvent> batch = new ArrayList<>();
+    batch.addAll(heartbeat(NODE1, 1, PendingEvent.Type.NODE_UPDATED));
+    batch.addAll(heartbeat(NODE1, 2, PendingEvent.Type.NODE_UPDATED));
+    batch.addAll(heartbeat(NODE2, 3, PendingEvent.Type.NODE_UPDATED));
+    batch.addAll(heartbeat(NODE1, 4, PendingEvent.Type.NODE_UPDATED));
+    processor.replay(batch);
+
+    // one scheduler update per node, every pending event is removed
+    assertEquals(2, count(NodeUpdateSchedulerEvent.class));
+    assertEquals(4, processor.removed.size());
+  }
+
+  @Test
+  public void testNodeUpdateDispatchedBeforeRemoval() {
+    TestProcessor processor = new TestProcessor();
+    List<DBEvent> batch = new ArrayList<>();
+    batch.addAll(heartbeat(NODE1, 1, PendingEvent.Type.NODE_UPDATED));
+    batch.addAll(heartbeat(NODE1, 2, PendingEvent.Type.NODE_REMOVED));
+    processor.replay(batch);
+
+    assertEquals(2, dispatched.size());
+    assertTrue(dispatched.get(0) instanceof NodeUpdateSchedulerEvent);
+    assertTrue(dispatched.get(1) instanceof NodeRemovedSchedulerEvent);
+  }
+
+  @Test
+  public void testPartialEventsCompletedAcrossBatches() {
+    TestProcessor processor = new TestProcessor();
+    List<DBEvent> events = heartbeat(NODE1, 1, PendingEvent.Type.NODE_UPDATED);
+    processor.replay(events.subList(0, 1));
+    assertEquals(0, dispatched.size());
+    assertEquals(1, ClusterMetrics.getMetrics()
+            .getStreamingPartialPendingEvents());
+
+    processor.replay(events.subList(1, events.size()));
+    assertEquals(1, count(NodeUpdateSchedulerEvent.class));
+    assertEquals(0, ClusterMetrics.getMetrics()
+            .getStreamingPartialPendingEvents());
+    assertTrue(processor.fetched.isEmpty());
+  }
+
+  @Test
+  public void testPartialEventsRecoveredFromDB() {
+    conf.setInt(YarnConfiguration.HOPS_EVENT_STREAMING_PARTIAL_MAX, 1);
+    TestProcessor processor = new TestProcessor();
+    ClusterMetrics metrics = ClusterMetrics.getMetrics();
+    long recovered = metrics.getStreamingRecoveredPendingEvents();
+    long dropped = metrics.getStreamingDroppedPendingEvents();
+
+    // the first is complete in the database, the second is not
+    processor.inDB.put(new PendingEventID(1, NODE1), completeComps(NODE1, 1));
+    RMNodeComps incomplete = new RMNodeComps();
+    incomplete.setPendingEvent(new PendingEvent(NODE2,
+            PendingEvent.Type.NODE_UPDATED,
+            PendingEvent.Status.SCHEDULER_FINISHED_PROCESSING, 2, 3));
+    processor.inDB.put(new PendingEventID(2, NODE2), incomplete);
+
+    List<DBEvent> batch = new ArrayList<>();
+    batch.addAll(components(NODE1, 1));
+    batch.addAll(components(NODE2, 2));
+    batch.addAll(components(NODE2, 5));
+    processor.replay(batch);
+
+    // the oldest two are taken out and read from the database
+    assertEquals(Arrays.asList(new PendingEventID(1, NODE1),
+            new PendingEventID(2, NODE2)), processor.fetched);
+    assertEquals(1, count(NodeUpdateSchedulerEvent.class));
+    assertEquals(2, processor.removed.size());
+    assertEquals(1, metrics.getStreamingPartialPendingEvents());
+    assertEquals(recovered + 1, metrics.getStreamingRecoveredPendingEvents());
+    assertEquals(dropped + 1, metrics.getStreamingDroppedPendingEvents());
+  }
+
+  @Test
+  public void testTimedOutPartialEventsRecoveredFromDB() {
+    conf.setLong(YarnConfiguration.HOPS_EVENT_STREAMING_PARTIAL_TIMEOUT_MS,
+            0);
+    TestProcessor processor = new TestProcessor();
+    long dropped = ClusterMetrics.getMetrics()
+            .getStreamingDroppedPendingEvents();
+
+    // not in the database anymore, nothing is left to remove
+    processor.replay(components(NODE1, 1));
+    assertEquals(Arrays.asList(new PendingEventID(1, NODE1)),
+            processor.fetched);
+    assertEquals(0, dispatched.size());
+    assertTrue(processor.removed.isEmpty());
+    assertEquals(0, ClusterMetrics.getMetrics()
+            .getStreamingPartialPendingEvents());
+    assertEquals(dropped + 1, ClusterMetrics.getMetrics()
+            .getStreamingDroppedPendingEvents());
+  }
+}
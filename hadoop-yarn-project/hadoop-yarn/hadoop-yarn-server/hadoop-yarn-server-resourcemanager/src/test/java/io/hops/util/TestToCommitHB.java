@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.hops.util;
+
+import io.hops.metadata.yarn.entity.PendingEvent;
+import io.hops.metadata.yarn.entity.RMNodeApplication;
+import java.util.Collections;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestToCommitHB {
+
+  private final ApplicationId appId = ApplicationId.newInstance(1L, 1);
+  private final ContainerId containerId = ContainerId.newContainerId(
+          ApplicationAttemptId.newInstance(appId, 1), 1);
+
+  @Test
+  public void testMutationsWithoutPendingEvent() {
+    ToCommitHB toCommit = new ToCommitHB("host:1234");
+    assertTrue(toCommit.isEmpty());
+    toCommit.removeContainersToClean(Collections.singleton(containerId));
+    assertFalse(toCommit.isEmpty());
+    assertFalse(toCommit.isNodeAdded());
+
+    toCommit = new ToCommitHB("host:1234");
+    toCommit.addPendingEvent(PendingEvent.Type.NODE_ADDED,
+            PendingEvent.Status.NEW);
+    assertFalse(toCommit.isEmpty());
+    assertTrue(toCommit.isNodeAdded());
+  }
+
+  @Test
+  public void testRemovalCancelsEarlierAddition() {
+    ToCommitHB toCommit = new ToCommitHB("host:1234");
+    toCommit.addContainerToClean(containerId);
+    toCommit.removeContainersToClean(Collections.singleton(containerId));
+    assertTrue(toCommit.containersToCleanToAdd.isEmpty());
+    assertEquals(1, toCommit.containersToCleanToRemove.size());
+
+    //an addition after a removal is kept, the removals are applied first
+    toCommit.addContainerToClean(containerId);
+    assertEquals(1, toCommit.containersToCleanToAdd.size());
+    assertEquals(1, toCommit.containersToCleanToRemove.size());
+
+    toCommit.addRMNodeApplication(appId,
+            RMNodeApplication.RMNodeApplicationStatus.RUNNING);
+    toCommit.removeRMNodeApplications(Collections.singletonList(appId),
+            RMNodeApplication.RMNodeApplicationStatus.RUNNING);
+    toCommit.addRMNodeApplication(appId,
+            RMNodeApplication.RMNodeApplicationStatus.FINISHED);
+    assertEquals(1, toCommit.rmNodeApplicationsToAdd.size());
+    assertTrue(toCommit.rmNodeApplicationsToAdd.containsKey(appId + "_"
+            + RMNodeApplication.RMNodeApplicationStatus.FINISHED));
+    assertEquals(1, toCommit.rmNodeApplicationsToRemove.size());
+  }
+}
@@ -17,8 +17,11 @@
 
 import io.hops.exception.StorageException;
 import io.hops.exception.StorageInitializtionException;
+import io.hops.metadata.common.entity.LongVariable;
+import io.hops.metadata.common.entity.Variable;
 import io.hops.metadata.yarn.dal.quota.ContainersLogsDataAccess;
 import io.hops.metadata.yarn.dal.util.YARNOperationType;
+import io.hops.metadata.yarn.entity.ContainerStatus;
 import io.hops.metadata.yarn.entity.quota.ContainerLog;
 import io.hops.transaction.handler.LightWeightRequestHandler;
 import io.hops.util.DBUtility;
@@ -31,6 +34,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,9 +51,12 @@
 import org.apache.hadoop.yarn.server.resourcemanager.MockAM;
 import org.apache.hadoop.yarn.server.resourcemanager.MockNM;
 import org.apache.hadoop.yarn.server.resourcemanager.MockRM;
+import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.RMAppAttempt;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.ResourceScheduler;
 import org.junit.Assert;
+import org.mockito.Mockito;
 
 public class TestContainersLogsService {
 
@@ -148,6 +155,69 @@ public void testCheckpoints() throws Exception {
   }
 
 
+  /**
+   * Test that a tick only checkpoints the containers of its slot and that a
+   * finished container leaves its slot
+   *
+   * @throws Exception
+   */
+  @Test(timeout = 60000)
+  public void testCheckpointSlots() throws Exception {
+    conf.setBoolean(
+            YarnConfiguration.QUOTA_CONTAINERS_LOGS_CHECKPOINTS_ENABLED, true);
+    conf.setInt(YarnConfiguration.QUOTA_MIN_TICKS_CHARGE, 4);
+    conf.setInt(YarnConfiguration.QUOTA_CONTAINERS_LOGS_CHECKPOINTS_MINTICKS,
+            1);
+    RMContext rmContext = Mockito.mock(RMContext.class);
+    Mockito.when(rmContext.getScheduler()).thenReturn(
+            Mockito.mock(ResourceScheduler.class));
+    ContainersLogsService service = new ContainersLogsService(rmContext);
+    service.init(conf);
+
+    String first = "container_1450009406746_0001_01_000001";
+    String second = "container_1450009406746_0001_01_000002";
+    service.insertEvent(Arrays.asList(containerStatus(first, "RUNNING",
+            ContainerExitStatus.CONTAINER_RUNNING_STATE)));
+    processTick(service, 0);
+    service.insertEvent(Arrays.asList(containerStatus(second, "RUNNING",
+            ContainerExitStatus.CONTAINER_RUNNING_STATE)));
+    processTick(service, 1);
+    Assert.assertTrue(service.checkpointSlots.get(0).containsKey(first));
+    Assert.assertTrue(service.checkpointSlots.get(1).containsKey(second));
+
+    for (long tick = 2; tick < 6; tick++) {
+      processTick(service, tick);
+    }
+    // each container is checkpointed on the tick of its own slot
+    Map<String, ContainerLog> cl = getContainersLogs();
+    Assert.assertEquals(4, cl.get(first).getStop());
+    Assert.assertEquals(5, cl.get(second).getStop());
+
+    service.insertEvent(Arrays.asList(containerStatus(first, "COMPLETE",
+            ContainerExitStatus.SUCCESS)));
+    processTick(service, 6);
+    Assert.assertTrue(service.checkpointSlots.get(0).isEmpty());
+    Assert.assertEquals(1, service.activeContainers.size());
+
+    processTick(service, 8);
+    cl = getContainersLogs();
+    Assert.assertEquals(6, cl.get(first).getStop());
+    Assert.assertEquals(ContainerExitStatus.SUCCESS, cl.get(first).
+            getExitstatus());
+  }
+
+  private ContainerStatus containerStatus(String containerId, String state,
+          int exitStatus) {
+    return new ContainerStatus(containerId, state, "", exitStatus, "h1:1234",
+            0, 0);
+  }
+
+  private void processTick(ContainersLogsService service, long tick) {
+    service.tickCounter = new LongVariable(Variable.Finder.QuotaTicksCounter,
+            tick);
+    service.processTick();
+  }
+
   /**
    * Read all containers logs table entries
    *
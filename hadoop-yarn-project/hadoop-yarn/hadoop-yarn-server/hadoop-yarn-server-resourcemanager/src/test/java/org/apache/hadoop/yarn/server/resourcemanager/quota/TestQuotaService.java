@@ -327,4 +327,74 @@ public Object performTask() throws IOException {
     CheckProjectDailyCost(totalCost);
   }
 
+  /**
+   * The charges of the containers of a batch are summed per project and per
+   * application, and a running container is charged from its checkpoint in
+   * the next batch.
+   */
+  @Test(timeout = 60000)
+  public void testBatchCharge() throws Exception {
+    final List<ApplicationState> hopApplicationStates = new ArrayList<>();
+    hopApplicationStates.add(new ApplicationState(
+            "application_1450009406746_0001", new byte[0], "Project07__rizvi",
+            "DistributedShell", "FINISHING"));
+    hopApplicationStates.add(new ApplicationState(
+            "application_1450009406746_0002", new byte[0], "Project07__rizvi",
+            "DistributedShell", "RUNNING"));
+    final List<ProjectQuota> hopProjectQuota = new ArrayList<>();
+    hopProjectQuota.add(new ProjectQuota("Project07", 50, 0));
+
+    LightWeightRequestHandler prepareHandler = new LightWeightRequestHandler(
+            YARNOperationType.TEST) {
+      @Override
+      public Object performTask() throws IOException {
+        connector.beginTransaction();
+        connector.writeLock();
+
+        ApplicationStateDataAccess<ApplicationState> _appState
+                = (ApplicationStateDataAccess) RMStorageFactory.getDataAccess(
+                        ApplicationStateDataAccess.class);
+        for (ApplicationState appState : hopApplicationStates) {
+          _appState.add(appState);
+        }
+
+        ProjectQuotaDataAccess<ProjectQuota> _pqDA
+                = (ProjectQuotaDataAccess) RMStorageFactory.
+                getDataAccess(ProjectQuotaDataAccess.class);
+        _pqDA.addAll(hopProjectQuota);
+
+        connector.commit();
+        return null;
+      }
+    };
+    prepareHandler.handle();
+
+    QuotaService qs = new QuotaService();
+    Configuration conf = new YarnConfiguration();
+    conf.setInt(YarnConfiguration.QUOTA_MIN_TICKS_CHARGE, 10);
+    qs.init(conf);
+    qs.recover();
+
+    List<ContainerLog> logs = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      logs.add(new ContainerLog("container_1450009406746_0001_01_00000" + i,
+              0, 10, ContainerExitStatus.SUCCESS, (float) 0.1, 1, 1024, 0));
+    }
+    logs.add(new ContainerLog("container_1450009406746_0002_01_000001",
+            0, 10, ContainerExitStatus.SUCCESS, (float) 0.1, 1, 1024, 0));
+    logs.add(new ContainerLog("container_1450009406746_0002_01_000002",
+            0, 10, ContainerExitStatus.CONTAINER_RUNNING_STATE, (float) 0.1, 1,
+            1024, 0));
+    qs.computeAndApplyCharge(logs, false);
+    CheckProject(45, 5);
+    CheckProjectDailyCost(5);
+
+    logs.clear();
+    logs.add(new ContainerLog("container_1450009406746_0002_01_000002",
+            0, 20, ContainerExitStatus.SUCCESS, (float) 0.1, 1, 1024, 0));
+    qs.computeAndApplyCharge(logs, false);
+    CheckProject(44, 6);
+    CheckProjectDailyCost(6);
+  }
+
 }